@@ -0,0 +1,87 @@
+package com.danamir.batterymonitor;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.appcompat.app.AlertDialog;
+import androidx.fragment.app.Fragment;
+
+/**
+ * Settings entry of the {@link ReplayLoadTest} presets, only in debug builds.
+ *
+ * The load test shares the bitmap pool, render caches and counters of the widgets, and runs for up to
+ * several minutes: it is a development tool, the release builds get an empty implementation.
+ */
+public final class LoadTestDialog {
+    /** Maximum replay time of a preset */
+    private static final long BUDGET_MS = 5 * 60 * 1000;
+
+    private LoadTestDialog() {
+    }
+
+    /**
+     * @return Whether the load test is included in this build
+     */
+    public static boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * Let the user pick a preset, run it on a background thread and show its report.
+     */
+    public static void show(Fragment fragment) {
+        new AlertDialog.Builder(fragment.requireContext())
+                .setTitle(R.string.load_test_dialog_title)
+                .setItems(ReplayLoadTest.PRESET_NAMES, (dialog, which) -> run(fragment, which))
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private static void run(Fragment fragment, int preset) {
+        Context context = fragment.requireContext().getApplicationContext();
+        AlertDialog progressDialog = new AlertDialog.Builder(fragment.requireContext())
+                .setTitle(R.string.load_test_dialog_title)
+                .setMessage(fragment.getString(R.string.load_test_running, ReplayLoadTest.PRESET_NAMES[preset]))
+                .setCancelable(false)
+                .show();
+
+        // Replay on a background thread, it can take up to the time budget
+        new Thread(() -> {
+            String report;
+            try {
+                report = ReplayLoadTest.runPreset(context, preset, BUDGET_MS);
+            } catch (Exception e) {
+                e.printStackTrace();
+                report = "Load test failed: " + e;
+            }
+            Log.i("BatteryLoadTest", report);
+
+            String result = report;
+            android.app.Activity activity = fragment.getActivity();
+            if (activity == null) {
+                return;
+            }
+            activity.runOnUiThread(() -> {
+                progressDialog.dismiss();
+                if (fragment.getContext() == null) {
+                    return;
+                }
+
+                android.widget.TextView textView = new android.widget.TextView(fragment.getContext());
+                textView.setPadding(40, 40, 40, 40);
+                textView.setTextIsSelectable(true);
+                textView.setTextSize(12);
+                textView.setTypeface(android.graphics.Typeface.MONOSPACE);
+                textView.setText(result);
+
+                android.widget.ScrollView scrollView = new android.widget.ScrollView(fragment.getContext());
+                scrollView.addView(textView);
+
+                new AlertDialog.Builder(fragment.getContext())
+                        .setTitle(R.string.load_test_dialog_title)
+                        .setView(scrollView)
+                        .setPositiveButton("OK", null)
+                        .show();
+            });
+        }).start();
+    }
+}
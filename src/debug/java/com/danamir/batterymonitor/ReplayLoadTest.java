@@ -0,0 +1,666 @@
+package com.danamir.batterymonitor;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Picture;
+import android.os.Debug;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.widget.RemoteViews;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Replays a synthetic long history through the production code paths and reports costs.
+ *
+ * Samples are replayed as fast as possible into non-persistent data and status managers driven by
+ * the replay clock, so the user's stored history is never touched. Every simulated evaluation
+ * interval, the same steps as a widget update are run: snapshot (estimates and display series) and
+ * graph rendering, fully and by scrolling the previous frame.
+ * Each stage reports its throughput, latency percentiles and heap high-water mark.
+ */
+public class ReplayLoadTest {
+
+    /** Simulated time between two widget evaluations, as done by the monitoring service. */
+    private static final long EVALUATION_INTERVAL_MS = 60 * 1000;
+
+    private static final String[] STAGE_NAMES = {"ingest", "status", "snapshot", "render", "scroll render"};
+    private static final int STAGE_INGEST = 0;
+    private static final int STAGE_STATUS = 1;
+    private static final int STAGE_SNAPSHOT = 2;
+    private static final int STAGE_RENDER = 3;
+    private static final int STAGE_SCROLL_RENDER = 4;
+
+    /**
+     * Predefined scenarios, from a typical week to a long high-resolution history.
+     */
+    public static final String[] PRESET_NAMES = {
+        "7 days, 1 sample/min",
+        "30 days, 1 sample/min",
+        "90 days, 1 sample/min",
+        "1 day, 1 sample/s",
+        "7 days, 1 sample/s",
+        "Widget bitmaps, 24h always-on",
+        "Downsampling, 90 days, 1 sample/min",
+        "Downsampling methods, 7 days, 1 sample/min",
+        "Graph color tables"
+    };
+    private static final int[] PRESET_DAYS = {7, 30, 90, 1, 7};
+    private static final long[] PRESET_INTERVALS = {60000, 60000, 60000, 1000, 1000};
+    private static final int PRESET_BITMAPS = 5;
+    private static final int PRESET_DOWNSAMPLING = 6;
+    private static final int[] DOWNSAMPLING_HOURS = {24, 7 * 24, 30 * 24, 90 * 24};
+    private static final int DOWNSAMPLING_REPEATS = 20;
+    private static final int PRESET_DOWNSAMPLING_METHODS = 7;
+    private static final String[] DOWNSAMPLING_METHODS =
+        {LttbDownsampler.MIN_MAX, LttbDownsampler.LTTB, LttbDownsampler.MIN_MAX_LTTB};
+    private static final int PRESET_COLOR_TABLES = 8;
+    private static final int COLOR_TABLE_SAMPLES = 100000;
+
+    /**
+     * Latency samples of one stage, with the heap high-water mark observed after it ran.
+     */
+    private static class StageStats {
+        private long[] latencies = new long[1024];
+        private int count;
+        private long totalNanos;
+        private long maxJavaHeap;
+        private long maxNativeHeap;
+
+        void record(long nanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+            totalNanos += nanos;
+
+            Runtime runtime = Runtime.getRuntime();
+            maxJavaHeap = Math.max(maxJavaHeap, runtime.totalMemory() - runtime.freeMemory());
+            maxNativeHeap = Math.max(maxNativeHeap, Debug.getNativeHeapAllocatedSize());
+        }
+
+        /**
+         * @param sorted Sorted latencies
+         * @param percentile Percentile between 0 and 100
+         * @return Latency at the given percentile, in nanoseconds
+         */
+        private static long percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+
+        String format(String name) {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            double throughput = totalNanos > 0 ? count / (totalNanos / 1e9) : 0;
+            return String.format(Locale.US,
+                "%s: %d ops, %.0f ops/s\n  p50 %s, p90 %s, p99 %s, max %s\n  heap %.1f MB, native %.1f MB\n",
+                name, count, throughput,
+                formatNanos(percentile(sorted, 50)), formatNanos(percentile(sorted, 90)),
+                formatNanos(percentile(sorted, 99)), formatNanos(percentile(sorted, 100)),
+                maxJavaHeap / 1048576.0, maxNativeHeap / 1048576.0);
+        }
+
+        private static String formatNanos(long nanos) {
+            if (nanos >= 1000000) {
+                return String.format(Locale.US, "%.1fms", nanos / 1e6);
+            }
+            return String.format(Locale.US, "%.0fµs", nanos / 1e3);
+        }
+    }
+
+    /**
+     * Run a predefined scenario.
+     * @param context The application context
+     * @param preset Index in {@link #PRESET_NAMES}
+     * @param budgetMs Maximum wall time, the replay stops early when exceeded
+     * @return Human readable report
+     */
+    public static String runPreset(Context context, int preset, long budgetMs) {
+        if (preset == PRESET_BITMAPS) {
+            return runBitmapBenchmark(context, 24);
+        }
+        if (preset == PRESET_DOWNSAMPLING) {
+            return runDownsamplingBenchmark(context, 90);
+        }
+        if (preset == PRESET_DOWNSAMPLING_METHODS) {
+            return runDownsamplingMethodsBenchmark(context, 7);
+        }
+        if (preset == PRESET_COLOR_TABLES) {
+            return runColorTablesBenchmark(context);
+        }
+        SyntheticTraceGenerator.Config config =
+            new SyntheticTraceGenerator.Config(PRESET_DAYS[preset], PRESET_INTERVALS[preset]);
+        config.highTargetPercent = RenderConfig.get(context).highTargetPercent;
+        return run(context, PRESET_NAMES[preset], config, budgetMs);
+    }
+
+    /**
+     * Generate a trace and replay it through ingestion, estimation and rendering.
+     * @param context The application context
+     * @param name Scenario name shown in the report
+     * @param config Trace generation parameters
+     * @param budgetMs Maximum wall time, the replay stops early when exceeded
+     * @return Human readable report
+     */
+    public static String run(Context context, String name, SyntheticTraceGenerator.Config config, long budgetMs) {
+        long generationStart = SystemClock.elapsedRealtime();
+        SyntheticTraceGenerator.Trace trace = SyntheticTraceGenerator.generate(config);
+        long generationMs = SystemClock.elapsedRealtime() - generationStart;
+
+        ReplayBatterySource source = new ReplayBatterySource(trace.getSamples(), 0);
+        Clock clock = source.getClock();
+        BatteryDataManager dataManager = new BatteryDataManager(context, clock, false);
+        PreciseBatteryDataManager preciseManager = new PreciseBatteryDataManager(context, clock, false);
+        StatusManager statusManager = new StatusManager(context, clock, false);
+        BatterySnapshotHub hub = new BatterySnapshotHub(context, dataManager, preciseManager, statusManager);
+
+        float density = context.getResources().getDisplayMetrics().density;
+        int width = (int) (250 * density);
+        int height = (int) (110 * density);
+        IncrementalGraphRenderer scrollRenderer = new IncrementalGraphRenderer(width, height);
+
+        StageStats[] stats = new StageStats[STAGE_NAMES.length];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new StageStats();
+        }
+
+        List<StatusData> statusIntervals = trace.getStatusData();
+        long wallStart = SystemClock.elapsedRealtime();
+        long deadline = wallStart + budgetMs;
+        int replayed = 0;
+        int statusIndex = 0;
+        boolean statusStarted = false;
+        long nextEvaluation = 0;
+        int snapshotReads = 0;
+        int unsharedSnapshots = 0;
+        int displayHours = 0;
+
+        while (source.hasNext()) {
+            BatterySample sample = source.next();
+            long timestamp = sample.getTimestamp();
+
+            long start = System.nanoTime();
+            BatteryReceiver.recordSample(context, source, sample, dataManager, preciseManager);
+            stats[STAGE_INGEST].record(System.nanoTime() - start);
+
+            // Replay screen on/off transitions reached by this sample
+            while (statusIndex < statusIntervals.size()) {
+                StatusData interval = statusIntervals.get(statusIndex);
+                if (!statusStarted && interval.getStartTimestamp() <= timestamp) {
+                    start = System.nanoTime();
+                    statusManager.startStatus("user_present", timestamp);
+                    stats[STAGE_STATUS].record(System.nanoTime() - start);
+                    statusStarted = true;
+                } else if (statusStarted && interval.getEndTimestamp() <= timestamp) {
+                    start = System.nanoTime();
+                    StatusData ended = statusManager.endStatus("user_present", timestamp);
+                    if (ended != null) {
+                        dataManager.addScreenOnInterval(ended.getStartTimestamp(), ended.getEndTimestamp());
+                    }
+                    stats[STAGE_STATUS].record(System.nanoTime() - start);
+                    statusStarted = false;
+                    statusIndex++;
+                } else {
+                    break;
+                }
+            }
+
+            if (timestamp >= nextEvaluation) {
+                nextEvaluation = timestamp + EVALUATION_INTERVAL_MS;
+
+                // Ingestion publishes the snapshot, then the widget and the notification read it
+                start = System.nanoTime();
+                hub.publish();
+                BatterySnapshot snapshot = hub.getSnapshot();
+                stats[STAGE_SNAPSHOT].record(System.nanoTime() - start);
+                if (hub.getSnapshot() != snapshot) {
+                    unsharedSnapshots++;
+                }
+                snapshotReads += 2;
+                displayHours = snapshot.getDisplayHours();
+
+                start = System.nanoTime();
+                Bitmap bitmap = BatteryWidgetProvider.renderGraphBitmap(context, snapshot.getHybridData(),
+                    snapshot.getStatusData(), snapshot.getValues(), displayHours, width, height, timestamp);
+                stats[STAGE_RENDER].record(System.nanoTime() - start);
+                BitmapPool.getInstance().release(bitmap);
+
+                start = System.nanoTime();
+                bitmap = scrollRenderer.render(context, snapshot.getHybridData(), snapshot.getPyramid(),
+                    snapshot.getStatusData(), snapshot.getValues(), displayHours, timestamp);
+                stats[STAGE_SCROLL_RENDER].record(System.nanoTime() - start);
+            }
+
+            replayed++;
+            if (SystemClock.elapsedRealtime() > deadline) {
+                break;
+            }
+        }
+        long wallMs = SystemClock.elapsedRealtime() - wallStart;
+
+        StringBuilder report = new StringBuilder();
+        report.append(name).append('\n');
+        report.append(String.format(Locale.US, "Generated %d samples in %d ms\n", source.size(), generationMs));
+        report.append(String.format(Locale.US, "Replayed %d/%d samples (%.0f%%) in %.1f s, %.0f samples/s\n",
+            replayed, source.size(), 100.0 * replayed / Math.max(1, source.size()),
+            wallMs / 1000.0, replayed / Math.max(0.001, wallMs / 1000.0)));
+        if (replayed < source.size()) {
+            report.append("Time budget exceeded, partial coverage\n");
+        }
+        report.append(String.format(Locale.US, "Display %dh, %dx%d px\n", displayHours, width, height));
+        report.append(String.format(Locale.US, "Estimates computed %d times for %d snapshot reads, %d not shared\n\n",
+            hub.getEstimateCount(), snapshotReads, unsharedSnapshots));
+        for (int i = 0; i < stats.length; i++) {
+            report.append(stats[i].format(STAGE_NAMES[i]));
+        }
+        report.append(String.format(Locale.US, "Scroll render: %d incremental, %d full frames, %d layers reused\n",
+            scrollRenderer.getIncrementalRenderCount(), scrollRenderer.getFullRenderCount(),
+            scrollRenderer.getLayerReuseCount()));
+        scrollRenderer.release();
+
+        // Live widget updates since the application started, for comparison
+        WidgetRenderCache renderCache = WidgetRenderCache.getInstance();
+        report.append(String.format(Locale.US, "\nWidget render cache: %d hits, %d misses, %d scrolled\n",
+            renderCache.getHitCount(), renderCache.getMissCount(), renderCache.getIncrementalRenderCount()));
+        return report.toString();
+    }
+
+    /**
+     * Render the widget graph once per minute over the given simulated hours, as on an always-on
+     * device, with the previous path (Picture replayed into a new bitmap), the direct path into a pooled
+     * bitmap and the cached layers, and compare their bitmap allocations and garbage collections.
+     * @param context The application context
+     * @param hours Simulated duration in hours
+     * @return Human readable report
+     */
+    public static String runBitmapBenchmark(Context context, int hours) {
+        RenderConfig renderConfig = RenderConfig.get(context);
+        int displayHours = renderConfig.displayHours;
+        float density = context.getResources().getDisplayMetrics().density;
+        int width = (int) (250 * density);
+        int height = (int) (110 * density);
+
+        // History of the display range before the simulated hours, one point per minute
+        SyntheticTraceGenerator.Config config =
+            new SyntheticTraceGenerator.Config((displayHours + hours + 23) / 24, 60000);
+        List<BatterySample> samples = SyntheticTraceGenerator.generate(config).getSamples();
+        List<HybridBatteryData> dataPoints = new ArrayList<>();
+        for (BatterySample sample : samples) {
+            float level = sample.hasPreciseLevel() ? sample.getPreciseLevel() : sample.getLevel();
+            dataPoints.add(new HybridBatteryData(sample.getTimestamp(), sample.getLevel(), level,
+                sample.isCharging(), sample.hasPreciseLevel()));
+        }
+        if (dataPoints.isEmpty()) {
+            return PRESET_NAMES[PRESET_BITMAPS] + "\nNo data generated\n";
+        }
+        long end = dataPoints.get(dataPoints.size() - 1).getTimestamp();
+        long begin = end - hours * 3600000L;
+        BatteryValues values = BatterySnapshotHub.getInstance(context).getSnapshot().getValues();
+        List<StatusData> statusData = new ArrayList<>();
+
+        StringBuilder report = new StringBuilder();
+        report.append(PRESET_NAMES[PRESET_BITMAPS]).append('\n');
+        report.append(String.format(Locale.US, "%d renders per path, %dx%d px, display %dh\n\n",
+            (end - begin) / EVALUATION_INTERVAL_MS, width, height, displayHours));
+
+        OverlayTextLayout textLayout = OverlayTextLayout.getInstance();
+        long textLayoutCount = textLayout.getLayoutCount();
+        long textReuseCount = textLayout.getReuseCount();
+        String[] paths = {"picture", "direct", "layers"};
+        IncrementalGraphRenderer renderer = new IncrementalGraphRenderer(width, height);
+        for (int path = 0; path < paths.length; path++) {
+            BitmapPool pool = BitmapPool.getInstance();
+            long poolAllocations = pool.getAllocationCount();
+            long poolBytes = pool.getAllocatedBytes();
+            long gcCount = getRuntimeStat("art.gc.gc-count");
+            long javaBytes = getRuntimeStat("art.gc.bytes-allocated");
+            long segmentCount = SegmentBatch.getSegmentCount();
+            long drawCallCount = SegmentBatch.getDrawCallCount();
+            long bitmapAllocations = 0;
+            long bitmapBytes = 0;
+
+            long start = System.nanoTime();
+            int first = 0;
+            int last = 0;
+            for (long now = begin; now <= end; now += EVALUATION_INTERVAL_MS) {
+                // Visible points, with the point before the range for the interpolated start
+                while (last < dataPoints.size() && dataPoints.get(last).getTimestamp() <= now) {
+                    last++;
+                }
+                while (first + 1 < last && dataPoints.get(first + 1).getTimestamp() < now - displayHours * 3600000L) {
+                    first++;
+                }
+                List<HybridBatteryData> visible = dataPoints.subList(first, last);
+
+                if (path == 0) {
+                    Bitmap bitmap = renderPictureBitmap(context, visible, statusData, values, displayHours, width, height, now);
+                    bitmapAllocations++;
+                    bitmapBytes += bitmap.getAllocationByteCount();
+                } else if (path == 1) {
+                    Bitmap bitmap = BatteryWidgetProvider.renderGraphBitmap(context, visible, statusData, values,
+                        displayHours, width, height, now);
+                    pool.release(bitmap);
+                } else {
+                    renderer.render(context, visible, null, statusData, values, displayHours, now);
+                }
+            }
+            long elapsedNanos = System.nanoTime() - start;
+            if (path > 0) {
+                bitmapAllocations = pool.getAllocationCount() - poolAllocations;
+                bitmapBytes = pool.getAllocatedBytes() - poolBytes;
+            }
+
+            long gcs = getRuntimeStat("art.gc.gc-count") - gcCount;
+            long javaAllocated = getRuntimeStat("art.gc.bytes-allocated") - javaBytes;
+            report.append(String.format(Locale.US,
+                "%s: %.0f ms\n  per hour: %.1f bitmaps (%.1f MB), %.1f MB Java heap, %.1f GCs\n"
+                    + "  %d graph segments in %d draw calls\n",
+                paths[path], elapsedNanos / 1e6, bitmapAllocations / (double) hours,
+                bitmapBytes / 1048576.0 / hours, javaAllocated / 1048576.0 / hours, gcs / (double) hours,
+                SegmentBatch.getSegmentCount() - segmentCount, SegmentBatch.getDrawCallCount() - drawCallCount));
+        }
+
+        report.append(String.format(Locale.US, "\nOverlay text: %d layouts, %d cached draws\n",
+            textLayout.getLayoutCount() - textLayoutCount, textLayout.getReuseCount() - textReuseCount));
+
+        // Widget update transaction with the last frame, inline or as a content URI
+        Bitmap frame = renderer.render(context, dataPoints, null, statusData, values, displayHours, end);
+        RemoteViews inlineViews = new RemoteViews(context.getPackageName(), R.layout.battery_widget);
+        inlineViews.setImageViewBitmap(R.id.battery_graph, frame);
+        RemoteViews uriViews = new RemoteViews(context.getPackageName(), R.layout.battery_widget);
+        uriViews.setImageViewUri(R.id.battery_graph,
+            GraphImageProvider.getUri("graph_" + width + "x" + height + "_" + end + ".png"));
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        frame.compress(Bitmap.CompressFormat.PNG, 100, png);
+        // The pixels are written in the parcel, or in a shared memory blob when file descriptors are allowed
+        int inlineSize = getParcelSize(inlineViews);
+        if (inlineSize < frame.getByteCount()) {
+            inlineSize += frame.getByteCount();
+        }
+        report.append(String.format(Locale.US,
+            "\nUpdate transaction: inline bitmap %.1f KB, content URI %.1f KB (file %.1f KB)\n",
+            inlineSize / 1024.0, getParcelSize(uriViews) / 1024.0, png.size() / 1024.0));
+        renderer.release();
+        return report.toString();
+    }
+
+    /**
+     * Downsample display ranges from a week to the whole history to the widget graph width, from every
+     * point of the list and from the level-of-detail pyramid, and compare their durations.
+     * @param context The application context
+     * @param days Length of the history in days
+     * @return Human readable report
+     */
+    public static String runDownsamplingBenchmark(Context context, int days) {
+        float density = context.getResources().getDisplayMetrics().density;
+        int pixelWidth = (int) ((250 - 2 * RenderConfig.get(context).paddingHorizontalDp) * density);
+
+        SyntheticTraceGenerator.Config config = new SyntheticTraceGenerator.Config(days, 60000);
+        List<BatterySample> samples = SyntheticTraceGenerator.generate(config).getSamples();
+        List<HybridBatteryData> dataPoints = new ArrayList<>();
+        for (BatterySample sample : samples) {
+            float level = sample.hasPreciseLevel() ? sample.getPreciseLevel() : sample.getLevel();
+            dataPoints.add(new HybridBatteryData(sample.getTimestamp(), sample.getLevel(), level,
+                sample.isCharging(), sample.hasPreciseLevel()));
+        }
+        if (dataPoints.isEmpty()) {
+            return PRESET_NAMES[PRESET_DOWNSAMPLING] + "\nNo data generated\n";
+        }
+
+        long start = System.nanoTime();
+        LodPyramid pyramid = new LodPyramid();
+        for (HybridBatteryData data : dataPoints) {
+            pyramid.add(data);
+        }
+        long buildNanos = System.nanoTime() - start;
+
+        StringBuilder report = new StringBuilder();
+        report.append(PRESET_NAMES[PRESET_DOWNSAMPLING]).append('\n');
+        report.append(String.format(Locale.US, "%d points, %d px, pyramid built in %.1f ms\n\n",
+            dataPoints.size(), pixelWidth, buildNanos / 1e6));
+
+        long end = dataPoints.get(dataPoints.size() - 1).getTimestamp();
+        for (int hours : DOWNSAMPLING_HOURS) {
+            long timeRange = hours * 3600000L;
+            long startTime = end - timeRange;
+            int listSize = 0;
+            int pyramidSize = 0;
+
+            start = System.nanoTime();
+            for (int i = 0; i < DOWNSAMPLING_REPEATS; i++) {
+                listSize = BatteryGraphGenerator.downsampleToPixelWidth(dataPoints, null, pixelWidth,
+                    startTime, timeRange, null).size();
+            }
+            long listNanos = (System.nanoTime() - start) / DOWNSAMPLING_REPEATS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < DOWNSAMPLING_REPEATS; i++) {
+                pyramidSize = BatteryGraphGenerator.downsampleToPixelWidth(dataPoints, pyramid, pixelWidth,
+                    startTime, timeRange, null).size();
+            }
+            long pyramidNanos = (System.nanoTime() - start) / DOWNSAMPLING_REPEATS;
+
+            report.append(String.format(Locale.US,
+                "%dh: list %.2f ms, pyramid %.2f ms (x%.0f)\n  %d points, %d points from the pyramid\n",
+                hours, listNanos / 1e6, pyramidNanos / 1e6, listNanos / (double) Math.max(1, pyramidNanos),
+                listSize, pyramidSize));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Downsample the display range with each method at each smoothing level, as the graph does, and
+     * compare their durations, point counts, and distance to the full series: the level difference
+     * between each point and the downsampled line at its time.
+     * @param context The application context
+     * @param days Length of the history in days
+     * @return Human readable report
+     */
+    public static String runDownsamplingMethodsBenchmark(Context context, int days) {
+        RenderConfig renderConfig = RenderConfig.get(context);
+        float density = context.getResources().getDisplayMetrics().density;
+        int graphWidth = (int) ((250 - 2 * renderConfig.paddingHorizontalDp) * density);
+
+        SyntheticTraceGenerator.Config config = new SyntheticTraceGenerator.Config(days, 60000);
+        List<BatterySample> samples = SyntheticTraceGenerator.generate(config).getSamples();
+        List<HybridBatteryData> dataPoints = new ArrayList<>();
+        for (BatterySample sample : samples) {
+            float level = sample.hasPreciseLevel() ? sample.getPreciseLevel() : sample.getLevel();
+            dataPoints.add(new HybridBatteryData(sample.getTimestamp(), sample.getLevel(), level,
+                sample.isCharging(), sample.hasPreciseLevel()));
+        }
+        if (dataPoints.isEmpty()) {
+            return PRESET_NAMES[PRESET_DOWNSAMPLING_METHODS] + "\nNo data generated\n";
+        }
+        long end = dataPoints.get(dataPoints.size() - 1).getTimestamp();
+        long timeRange = renderConfig.displayHours * 3600000L;
+        long startTime = end - timeRange;
+        List<HybridBatteryData> visible = new ArrayList<>();
+        for (HybridBatteryData data : dataPoints) {
+            if (data.getTimestamp() >= startTime) {
+                visible.add(data);
+            }
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append(PRESET_NAMES[PRESET_DOWNSAMPLING_METHODS]).append('\n');
+        report.append(String.format(Locale.US, "%d points in %dh, %d px\n",
+            visible.size(), renderConfig.displayHours, graphWidth));
+
+        for (int smoothing = 0; smoothing <= 4; smoothing++) {
+            int effectiveWidth = smoothing > 0 ? Math.max(1, graphWidth / (int) Math.pow(2, smoothing + 2)) : graphWidth;
+            report.append(String.format(Locale.US, "\nSmoothing %d, %d columns\n", smoothing, effectiveWidth));
+            for (String method : DOWNSAMPLING_METHODS) {
+                List<HybridBatteryData> result = null;
+                long start = System.nanoTime();
+                for (int i = 0; i < DOWNSAMPLING_REPEATS; i++) {
+                    if (LttbDownsampler.LTTB.equals(method)) {
+                        result = BatteryGraphGenerator.downsampleLttb(visible, Math.max(3, effectiveWidth), startTime, null);
+                    } else if (LttbDownsampler.MIN_MAX_LTTB.equals(method)) {
+                        result = BatteryGraphGenerator.downsampleLttb(
+                            BatteryGraphGenerator.downsampleToPixelWidth(visible, null,
+                                Math.max(1, effectiveWidth * LttbDownsampler.MIN_MAX_RATIO / 2), startTime, timeRange, null),
+                            Math.max(3, effectiveWidth), startTime, null);
+                    } else {
+                        result = BatteryGraphGenerator.downsampleToPixelWidth(visible, null, effectiveWidth,
+                            startTime, timeRange, null);
+                    }
+                }
+                long nanos = (System.nanoTime() - start) / DOWNSAMPLING_REPEATS;
+
+                // Level difference of each point to the downsampled line
+                double errorSum = 0;
+                float maxError = 0;
+                int segment = 0;
+                for (HybridBatteryData data : visible) {
+                    while (segment + 2 < result.size() && result.get(segment + 1).getTimestamp() < data.getTimestamp()) {
+                        segment++;
+                    }
+                    HybridBatteryData from = result.get(segment);
+                    HybridBatteryData to = result.get(Math.min(segment + 1, result.size() - 1));
+                    float lineLevel = from.getBatteryLevel();
+                    long duration = to.getTimestamp() - from.getTimestamp();
+                    if (duration > 0) {
+                        float ratio = Math.max(0, Math.min(1, (data.getTimestamp() - from.getTimestamp()) / (float) duration));
+                        lineLevel += (to.getBatteryLevel() - from.getBatteryLevel()) * ratio;
+                    }
+                    float error = Math.abs(data.getBatteryLevel() - lineLevel);
+                    errorSum += error;
+                    maxError = Math.max(maxError, error);
+                }
+
+                report.append(String.format(Locale.US, "%s: %.2f ms, %d points, error mean %.2f%% max %.2f%%\n",
+                    method, nanos / 1e6, result.size(), errorSum / visible.size(), maxError));
+            }
+        }
+        return report.toString();
+    }
+
+    /**
+     * Compare the graph colors of the lookup tables of the current settings with the color functions,
+     * over a fine sweep of the battery levels and usage rates: largest channel difference and durations.
+     * @param context The application context
+     * @return Human readable report
+     */
+    public static String runColorTablesBenchmark(Context context) {
+        RenderConfig config = RenderConfig.get(context);
+        GraphColorTables tables = config.colorTables;
+        StringBuilder report = new StringBuilder();
+        report.append(PRESET_NAMES[PRESET_COLOR_TABLES]).append('\n');
+        report.append(String.format(Locale.US, "%d samples per gradient, blend curve %.1f\n\n",
+            COLOR_TABLE_SAMPLES, config.blendCurve));
+
+        // Level to line color
+        int[] expected = new int[COLOR_TABLE_SAMPLES + 1];
+        int[] actual = new int[COLOR_TABLE_SAMPLES + 1];
+        long start = System.nanoTime();
+        for (int i = 0; i <= COLOR_TABLE_SAMPLES; i++) {
+            float level = 100.0f * i / COLOR_TABLE_SAMPLES;
+            expected[i] = BatteryGraphGenerator.getBlendedLineColor(level, false, config.lineColor, config.lowColor,
+                config.criticalColor, config.chargingColor, config.batteryLowLevel, config.batteryCriticalLevel,
+                config.blendValue);
+        }
+        long functionNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i <= COLOR_TABLE_SAMPLES; i++) {
+            actual[i] = tables.getLineColor(100.0f * i / COLOR_TABLE_SAMPLES, false);
+        }
+        long tableNanos = System.nanoTime() - start;
+        appendColorComparison(report, "level -> line", expected, actual, functionNanos, tableNanos);
+
+        // Usage to fill and line blends, up to twice the high usage threshold
+        String[] names = {"usage -> fill", "usage -> line"};
+        for (int blend = 0; blend < names.length; blend++) {
+            boolean useAlpha = blend == 1;
+            int color = useAlpha ? config.lineColor : config.fillColor;
+            start = System.nanoTime();
+            for (int i = 0; i <= COLOR_TABLE_SAMPLES; i++) {
+                float usage = 2 * config.highUsageThreshold * i / COLOR_TABLE_SAMPLES;
+                expected[i] = BatteryGraphGenerator.getUsageBlendedColor(color, config.highUsageColor, usage,
+                    config.lowUsageThreshold, config.highUsageThreshold, config.highUsageBlend, useAlpha,
+                    config.blendCurve);
+            }
+            functionNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i <= COLOR_TABLE_SAMPLES; i++) {
+                float usage = 2 * config.highUsageThreshold * i / COLOR_TABLE_SAMPLES;
+                actual[i] = tables.getUsageBlendedColor(color, usage, useAlpha);
+            }
+            tableNanos = System.nanoTime() - start;
+            appendColorComparison(report, names[blend], expected, actual, functionNanos, tableNanos);
+        }
+        return report.toString();
+    }
+
+    private static void appendColorComparison(StringBuilder report, String name, int[] expected, int[] actual,
+                                              long functionNanos, long tableNanos) {
+        int maxDifference = 0;
+        int differentColors = 0;
+        for (int i = 0; i < expected.length; i++) {
+            int difference = 0;
+            for (int shift = 0; shift < 32; shift += 8) {
+                difference = Math.max(difference,
+                    Math.abs(((expected[i] >>> shift) & 0xFF) - ((actual[i] >>> shift) & 0xFF)));
+            }
+            if (difference > 0) {
+                differentColors++;
+            }
+            maxDifference = Math.max(maxDifference, difference);
+        }
+        report.append(String.format(Locale.US,
+            "%s: function %.1f ms, table %.1f ms (x%.1f)\n  max channel difference %d%s, %d colors differ\n",
+            name, functionNanos / 1e6, tableNanos / 1e6, functionNanos / (double) Math.max(1, tableNanos),
+            maxDifference, maxDifference <= 1 ? "" : " (FAILED)", differentColors));
+    }
+
+    /**
+     * @return Size of the widget views once written to a parcel, as sent to the launcher
+     */
+    private static int getParcelSize(RemoteViews views) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            views.writeToParcel(parcel, 0);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Previous widget rendering: record the graph into a Picture, then replay it into a new bitmap.
+     */
+    private static Bitmap renderPictureBitmap(Context context, List<HybridBatteryData> dataPoints,
+                                              List<StatusData> statusData, BatteryValues values,
+                                              int displayHours, int width, int height, long now) {
+        Picture picture = BatteryGraphGenerator.generateGraphAsPicture(context, dataPoints, statusData, values,
+            displayHours, width, height, now);
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        picture.draw(canvas);
+        return bitmap;
+    }
+
+    /**
+     * @return Value of an ART runtime statistic, 0 if not available
+     */
+    private static long getRuntimeStat(String name) {
+        String value = Debug.getRuntimeStat(name);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
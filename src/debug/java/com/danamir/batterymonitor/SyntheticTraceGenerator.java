@@ -0,0 +1,196 @@
+package com.danamir.batterymonitor;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic battery histories with realistic daily cycles.
+ *
+ * Each simulated day has a sleep period with a low idle drain and an overnight charge up to
+ * the high target, then an awake period alternating screen-on sessions (high drain) and idle
+ * periods (low drain). A top-up charge is simulated when the level gets critically low.
+ * Screen-on sessions are emitted as "user_present" status intervals, like the live receiver does.
+ *
+ * Generation is deterministic for a given seed, so load test runs can be compared.
+ */
+public class SyntheticTraceGenerator {
+
+    private static final long HOUR_MS = 60L * 60 * 1000;
+    private static final long DAY_MS = 24 * HOUR_MS;
+
+    /**
+     * Generation parameters. Rates are expressed in percent per hour.
+     */
+    public static class Config {
+        public long startTimestamp;
+        public int days = 7;
+        public long sampleIntervalMs = 60 * 1000;
+        public int highTargetPercent = 80;
+        public int wakeHour = 7;
+        public int sleepHour = 23;
+        public float screenOnDrainPerHour = 12f;
+        public float idleDrainPerHour = 1.5f;
+        public float sleepDrainPerHour = 0.5f;
+        public float chargeRatePerHour = 45f;
+        public float taperedChargeRatePerHour = 12f;
+        public int topUpBelowPercent = 10;
+        public int topUpTargetPercent = 60;
+        public long seed = 42;
+
+        public Config() {
+            // Start at local midnight so daily cycles line up with the clock
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(System.currentTimeMillis());
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            startTimestamp = calendar.getTimeInMillis();
+        }
+
+        public Config(int days, long sampleIntervalMs) {
+            this();
+            this.days = days;
+            this.sampleIntervalMs = sampleIntervalMs;
+        }
+    }
+
+    /**
+     * A generated trace: battery samples and the matching "user_present" intervals.
+     */
+    public static class Trace {
+        private final List<BatterySample> samples;
+        private final List<StatusData> statusData;
+
+        Trace(List<BatterySample> samples, List<StatusData> statusData) {
+            this.samples = samples;
+            this.statusData = statusData;
+        }
+
+        public List<BatterySample> getSamples() {
+            return samples;
+        }
+
+        public List<StatusData> getStatusData() {
+            return statusData;
+        }
+    }
+
+    /**
+     * Sample list backed by primitive arrays, so multi-million sample traces stay compact.
+     * Samples are materialized on access.
+     */
+    private static class PackedSampleList extends AbstractList<BatterySample> {
+        private final long startTimestamp;
+        private final long intervalMs;
+        private final float[] levels;
+        private final boolean[] charging;
+
+        PackedSampleList(long startTimestamp, long intervalMs, float[] levels, boolean[] charging) {
+            this.startTimestamp = startTimestamp;
+            this.intervalMs = intervalMs;
+            this.levels = levels;
+            this.charging = charging;
+        }
+
+        @Override
+        public BatterySample get(int index) {
+            float level = levels[index];
+            return new BatterySample(startTimestamp + index * intervalMs, (int) level, level, charging[index]);
+        }
+
+        @Override
+        public int size() {
+            return levels.length;
+        }
+    }
+
+    /**
+     * Generate a trace.
+     * @param config Generation parameters
+     * @return The generated trace
+     */
+    public static Trace generate(Config config) {
+        long intervalMs = Math.max(1000, config.sampleIntervalMs);
+        long durationMs = config.days * DAY_MS;
+        int sampleCount = (int) Math.min(Integer.MAX_VALUE - 8, durationMs / intervalMs + 1);
+
+        float[] levels = new float[sampleCount];
+        boolean[] charging = new boolean[sampleCount];
+        List<StatusData> statusData = new ArrayList<>();
+        Random random = new Random(config.seed);
+
+        float level = config.highTargetPercent;
+        boolean isCharging = false;
+        boolean topUp = false;
+        boolean screenOn = false;
+        long screenOnStart = 0;
+        long nextToggle = config.startTimestamp + (long) (config.wakeHour * HOUR_MS);
+        double hoursPerSample = intervalMs / (double) HOUR_MS;
+
+        for (int i = 0; i < sampleCount; i++) {
+            long timestamp = config.startTimestamp + i * intervalMs;
+            int hourOfDay = (int) (((timestamp - config.startTimestamp) % DAY_MS) / HOUR_MS);
+            boolean asleep = hourOfDay >= config.sleepHour || hourOfDay < config.wakeHour;
+
+            // Screen sessions only happen while awake
+            if (asleep && screenOn) {
+                statusData.add(new StatusData("user_present", screenOnStart, timestamp));
+                screenOn = false;
+            } else if (!asleep && timestamp >= nextToggle) {
+                if (screenOn) {
+                    statusData.add(new StatusData("user_present", screenOnStart, timestamp));
+                    screenOn = false;
+                    // Idle for 10 to 90 minutes
+                    nextToggle = timestamp + (long) ((10 + random.nextInt(80)) * 60 * 1000L);
+                } else {
+                    screenOn = true;
+                    screenOnStart = timestamp;
+                    // Use the phone for 2 to 30 minutes
+                    nextToggle = timestamp + (long) ((2 + random.nextInt(28)) * 60 * 1000L);
+                }
+            }
+
+            // Plug in at bedtime, unplug on wake up, top up when critically low
+            if (asleep && !isCharging && hourOfDay == config.sleepHour) {
+                isCharging = true;
+                topUp = false;
+            } else if (!asleep && isCharging && !topUp) {
+                isCharging = false;
+            } else if (!isCharging && level < config.topUpBelowPercent) {
+                isCharging = true;
+                topUp = true;
+            } else if (topUp && level >= config.topUpTargetPercent) {
+                isCharging = false;
+                topUp = false;
+            }
+
+            if (isCharging) {
+                int chargeTarget = topUp ? config.topUpTargetPercent : config.highTargetPercent;
+                if (level < chargeTarget) {
+                    float rate = level < 80 ? config.chargeRatePerHour : config.taperedChargeRatePerHour;
+                    level = Math.min(chargeTarget, level + (float) (rate * hoursPerSample));
+                }
+            } else {
+                float rate = asleep ? config.sleepDrainPerHour
+                    : screenOn ? config.screenOnDrainPerHour : config.idleDrainPerHour;
+                // +/- 25% noise on the drain rate
+                rate *= 0.75f + random.nextFloat() * 0.5f;
+                level = Math.max(0, level - (float) (rate * hoursPerSample));
+            }
+
+            levels[i] = level;
+            charging[i] = isCharging;
+        }
+
+        if (screenOn) {
+            statusData.add(new StatusData("user_present", screenOnStart,
+                config.startTimestamp + (sampleCount - 1) * intervalMs));
+        }
+
+        return new Trace(new PackedSampleList(config.startTimestamp, intervalMs, levels, charging), statusData);
+    }
+}
@@ -0,0 +1,39 @@
+package com.danamir.batterymonitor;
+
+import android.content.Context;
+
+/**
+ * Estimator returning the all-time mean charge or discharge rate, depending on the current charging state.
+ * The statistics themselves are maintained by {@link BatteryDataManager} in {@link DataProvider}.
+ */
+public class AllTimeStatsEstimator implements RateEstimator {
+    public static final String ID = "all_time_stats";
+
+    private final Context context;
+    private boolean isCharging;
+
+    public AllTimeStatsEstimator(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public String getLabel() {
+        return "All-time";
+    }
+
+    @Override
+    public void onSample(long timestamp, float level, boolean isCharging) {
+        this.isCharging = isCharging;
+    }
+
+    @Override
+    public Double getRate(long cutoffTime, int minDuration) {
+        double meanRate = isCharging ? DataProvider.getMeanChargeRate(context) : DataProvider.getMeanDischargeRate(context);
+        return meanRate > 0 ? meanRate : null;
+    }
+}
@@ -0,0 +1,13 @@
+package com.danamir.batterymonitor;
+
+/**
+ * Receives the points stored by {@link BatteryDataManager} and {@link PreciseBatteryDataManager} as they are
+ * added, on the thread adding them while the manager is locked.
+ */
+public interface BatteryDataListener {
+    /**
+     * @param point The stored point, precise or not. An integer point with the same level and charging state
+     *              as the previous integer point replaces it in the stored data.
+     */
+    void onDataPointAdded(HybridBatteryData point);
+}
@@ -2,9 +2,7 @@ package com.danamir.batterymonitor;
 
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.database.Cursor;
-import androidx.preference.PreferenceManager;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -12,28 +10,88 @@ import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class BatteryDataManager {
     private static final String PREF_BATTERY_DATA = "battery_data";
     private static final int MAX_DATA_POINTS = 10000;
     private static BatteryDataManager instance;
-    private final SharedPreferences prefs;
     private final Context context;
+    private final Clock clock;
+    private final boolean persistent;
+    private volatile long version;
     private List<BatteryData> dataPoints;
+    private final DrainProfile drainProfile;
+    private final ChargeCurve chargeCurve;
+    private LevelCrossingIndex levelIndex;
+    private final RateEstimatorEngine estimators = new RateEstimatorEngine();
+    private final List<BatteryDataListener> listeners = new CopyOnWriteArrayList<>();
 
-    private BatteryDataManager(Context context) {
+    /**
+     * Create a data manager.
+     * Non-persistent instances start empty and never write to the content provider, all-time statistics
+     * or event log, so that replayed traces do not alter the user's data.
+     *
+     * @param context The application context
+     * @param clock Clock used for timestamps and time range queries
+     * @param persistent Whether data is loaded from and saved to the content provider
+     */
+    BatteryDataManager(Context context, Clock clock, boolean persistent) {
         this.context = context.getApplicationContext();
-        prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        dataPoints = loadData();
+        this.clock = clock;
+        this.persistent = persistent;
+        dataPoints = persistent ? loadData() : new ArrayList<>();
+        drainProfile = persistent ? DrainProfile.getInstance(context) : new DrainProfile(null);
+        chargeCurve = persistent ? ChargeCurve.getInstance(context) : new ChargeCurve(null);
+
+        // Integer data is deduplicated on consecutive identical points, like getDataPoints()
+        estimators.register(UsageRateEstimator.ID, config -> new UsageRateEstimator(config.getMaxDuration(), true));
+        estimators.register(BatteryHistoryIndex.ID, config -> new BatteryHistoryIndex(config.getTargetCharge()));
+        estimators.register(AllTimeStatsEstimator.ID, config -> new AllTimeStatsEstimator(this.context));
+        estimators.register(LeastSquaresRateEstimator.ID, config -> new LeastSquaresRateEstimator(config.getMaxDuration(), true));
     }
 
     public static synchronized BatteryDataManager getInstance(Context context) {
         if (instance == null) {
-            instance = new BatteryDataManager(context.getApplicationContext());
+            instance = new BatteryDataManager(context.getApplicationContext(), Clock.SYSTEM, true);
         }
         return instance;
     }
 
+    public Clock getClock() {
+        return clock;
+    }
+
+    public void addListener(BatteryDataListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(BatteryDataListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return Hour-of-week discharge profile updated from this manager's samples
+     */
+    public DrainProfile getDrainProfile() {
+        return drainProfile;
+    }
+
+    /**
+     * @return Charge curve learned from this manager's charging sessions
+     */
+    public ChargeCurve getChargeCurve() {
+        return chargeCurve;
+    }
+
+    /**
+     * Get the version of the stored data, incremented on every change.
+     * Used by consumers to detect when cached values computed from the data are stale.
+     */
+    public long getVersion() {
+        return version;
+    }
+
     /**
      * Determines if a battery level change should be excluded from statistics calculation.
      * Excludes data points at or near specific charge levels that may be affected by
@@ -45,7 +103,7 @@ public class BatteryDataManager {
      * @param targetCharge The target charge percentage setting
      * @return True if this data should be excluded from statistics
      */
-    private boolean shouldExcludeFromStats(int startLevel, int endLevel, boolean isCharging, int targetCharge) {
+    static boolean shouldExcludeFromStats(int startLevel, int endLevel, boolean isCharging, int targetCharge) {
         if (isCharging) {
             // Exclude if either level is at target charge, >= 95%, or at 100%
             return startLevel == targetCharge || endLevel == targetCharge
@@ -59,9 +117,13 @@ public class BatteryDataManager {
     }
 
     public synchronized void addDataPoint(int level, boolean isCharging) {
-        long timestamp = System.currentTimeMillis();
+        addDataPoint(clock.currentTimeMillis(), level, isCharging);
+    }
+
+    public synchronized void addDataPoint(long timestamp, int level, boolean isCharging) {
         boolean shouldAddPoint = true;
-        EventLogManager eventLogManager = EventLogManager.getInstance(context);
+        drainProfile.addSample(timestamp, level, isCharging);
+        chargeCurve.addSample(timestamp, level, isCharging);
 
         // Check if we should add this point (allow if 1 minute has passed OR if data changed)
         if (!dataPoints.isEmpty()) {
@@ -76,21 +138,21 @@ public class BatteryDataManager {
 
             // Log battery level changes
             if (lastPoint.getLevel() != level) {
-                eventLogManager.logEvent("Battery level changed: " + lastPoint.getLevel() + "% → " + level + "%");
+                logEvent("Battery level changed: " + lastPoint.getLevel() + "% → " + level + "%");
             }
 
             // Log charging status changes
             if (lastPoint.isCharging() != isCharging) {
-                eventLogManager.logEvent("Battery status: " + (isCharging ? "Charging" : "Discharging"));
+                logEvent("Battery status: " + (isCharging ? "Charging" : "Discharging"));
             }
 
             // Log 1 minute auto update
             if (timeSinceLastPoint > 60000 && !dataChanged) {
-                eventLogManager.logEvent("Battery level unchanged: " + lastPoint.getLevel() + "%");
+                logEvent("Battery level unchanged: " + lastPoint.getLevel() + "%");
             }
         } else {
             // First data point
-            eventLogManager.logEvent("Battery level: " + level + "% (" + (isCharging ? "Charging" : "Discharging") + ")");
+            logEvent("Battery level: " + level + "% (" + (isCharging ? "Charging" : "Discharging") + ")");
         }
 
         if (shouldAddPoint) {
@@ -111,17 +173,17 @@ public class BatteryDataManager {
 
                     if (oldTimeDelta > 0 && oldLevelDelta != 0) {
                         // Get target charge percent from preferences
-                        int highTargetPercent = prefs.getInt("high_target_percent", 80);
+                        int highTargetPercent = RenderConfig.get(context).highTargetPercent;
 
                         // Remove the old (faster) rate calculation
                         double oldRate = Math.abs((double) oldLevelDelta / oldTimeDelta * 3600000);
 
                         if (secondLastPoint.isCharging() && oldLevelDelta > 0
                                 && !shouldExcludeFromStats(secondLastPoint.getLevel(), lastPoint.getLevel(), true, highTargetPercent)) {
-                            DataProvider.removeChargeStats(context, oldRate, oldTimeDelta);
+                            removeChargeStats(oldRate, oldTimeDelta);
                         } else if (!secondLastPoint.isCharging() && oldLevelDelta < 0
                                 && !shouldExcludeFromStats(lastPoint.getLevel(), secondLastPoint.getLevel(), false, highTargetPercent)) {
-                            DataProvider.removeDischargeStats(context, oldRate, oldTimeDelta);
+                            removeDischargeStats(oldRate, oldTimeDelta);
                         }
 
                         // Add the new (slower) rate calculation with extended time
@@ -130,10 +192,10 @@ public class BatteryDataManager {
 
                         if (secondLastPoint.isCharging() && oldLevelDelta > 0
                                 && !shouldExcludeFromStats(secondLastPoint.getLevel(), level, true, highTargetPercent)) {
-                            DataProvider.updateChargeStats(context, newRate, newTimeDelta);
+                            updateChargeStats(newRate, newTimeDelta);
                         } else if (!secondLastPoint.isCharging() && oldLevelDelta < 0
                                 && !shouldExcludeFromStats(level, secondLastPoint.getLevel(), false, highTargetPercent)) {
-                            DataProvider.updateDischargeStats(context, newRate, newTimeDelta);
+                            updateDischargeStats(newRate, newTimeDelta);
                         }
                     }
 
@@ -141,7 +203,7 @@ public class BatteryDataManager {
                     dataPoints.remove(dataPoints.size() - 1);
                 } else if (timeDelta > 0 && levelDelta != 0) {
                     // Get target charge percent from preferences
-                    int highTargetPercent = prefs.getInt("high_target_percent", 80);
+                    int highTargetPercent = RenderConfig.get(context).highTargetPercent;
 
                     // Level changed - calculate and record statistics
                     // Calculate rate in %/hour
@@ -151,11 +213,11 @@ public class BatteryDataManager {
                     if (lastPoint.isCharging() && levelDelta > 0
                             && !shouldExcludeFromStats(lastPoint.getLevel(), level, true, highTargetPercent)) {
                         // Was charging and level increased
-                        DataProvider.updateChargeStats(context, rate, timeDelta);
+                        updateChargeStats(rate, timeDelta);
                     } else if (!lastPoint.isCharging() && levelDelta < 0
                             && !shouldExcludeFromStats(level, lastPoint.getLevel(), false, highTargetPercent)) {
                         // Was discharging and level decreased
-                        DataProvider.updateDischargeStats(context, rate, timeDelta);
+                        updateDischargeStats(rate, timeDelta);
                     }
                 }
             } else if (dataPoints.size() == 1) {
@@ -167,7 +229,7 @@ public class BatteryDataManager {
                 // Only update stats if there's a meaningful time and level change
                 if (timeDelta > 0 && levelDelta != 0) {
                     // Get target charge percent from preferences
-                    int highTargetPercent = prefs.getInt("high_target_percent", 80);
+                    int highTargetPercent = RenderConfig.get(context).highTargetPercent;
 
                     // Calculate rate in %/hour
                     double rate = Math.abs((double) levelDelta / timeDelta * 3600000);
@@ -176,32 +238,79 @@ public class BatteryDataManager {
                     if (lastPoint.isCharging() && levelDelta > 0
                             && !shouldExcludeFromStats(lastPoint.getLevel(), level, true, highTargetPercent)) {
                         // Was charging and level increased
-                        DataProvider.updateChargeStats(context, rate, timeDelta);
+                        updateChargeStats(rate, timeDelta);
                     } else if (!lastPoint.isCharging() && levelDelta < 0
                             && !shouldExcludeFromStats(level, lastPoint.getLevel(), false, highTargetPercent)) {
                         // Was discharging and level decreased
-                        DataProvider.updateDischargeStats(context, rate, timeDelta);
+                        updateDischargeStats(rate, timeDelta);
                     }
                 }
             }
 
             dataPoints.add(new BatteryData(timestamp, level, isCharging));
+            if (estimators.isBuilt()) {
+                estimators.onSample(timestamp, level, isCharging);
+            }
+            if (levelIndex != null) {
+                levelIndex.onSample(timestamp, level, isCharging);
+            }
+            if (!listeners.isEmpty()) {
+                HybridBatteryData point = new HybridBatteryData(timestamp, level, level, isCharging, false);
+                for (BatteryDataListener listener : listeners) {
+                    listener.onDataPointAdded(point);
+                }
+            }
 
             // Keep only recent data
             if (dataPoints.size() > MAX_DATA_POINTS) {
                 dataPoints = dataPoints.subList(dataPoints.size() - MAX_DATA_POINTS, dataPoints.size());
+                if (estimators.isBuilt()) {
+                    estimators.onHistoryTruncated(dataPoints.get(0).getTimestamp());
+                }
+                // Rebuilt from the kept points when next used, the histogram cannot drop the old ones
+                levelIndex = null;
             }
 
             saveData();
         }
     }
 
+    private void logEvent(String message) {
+        if (persistent) {
+            EventLogManager.getInstance(context).logEvent(message);
+        }
+    }
+
+    private void updateChargeStats(double rate, long time) {
+        if (persistent) {
+            DataProvider.updateChargeStats(context, rate, time);
+        }
+    }
+
+    private void removeChargeStats(double rate, long time) {
+        if (persistent) {
+            DataProvider.removeChargeStats(context, rate, time);
+        }
+    }
+
+    private void updateDischargeStats(double rate, long time) {
+        if (persistent) {
+            DataProvider.updateDischargeStats(context, rate, time);
+        }
+    }
+
+    private void removeDischargeStats(double rate, long time) {
+        if (persistent) {
+            DataProvider.removeDischargeStats(context, rate, time);
+        }
+    }
+
     public synchronized List<BatteryData> getDataPoints(int hours) {
         return getDataPoints(hours, false);
     }
 
     public synchronized List<BatteryData> getDataPoints(int hours, boolean getPreviousPoint) {
-        long cutoffTime = System.currentTimeMillis() - (hours * 60 * 60 * 1000L);
+        long cutoffTime = clock.currentTimeMillis() - (hours * 60 * 60 * 1000L);
         List<BatteryData> filteredData = new ArrayList<>();
 
         BatteryData lastPoint = null;
@@ -275,6 +384,10 @@ public class BatteryDataManager {
     }
 
     private void saveData() {
+        version++;
+        if (!persistent) {
+            return;
+        }
         JSONArray jsonArray = new JSONArray();
 
         try {
@@ -298,7 +411,7 @@ public class BatteryDataManager {
     }
 
     public synchronized void clearOldData(int hours) {
-        long cutoffTime = System.currentTimeMillis() - (hours * 60 * 60 * 1000L);
+        long cutoffTime = clock.currentTimeMillis() - (hours * 60 * 60 * 1000L);
         List<BatteryData> filteredData = new ArrayList<>();
 
         for (BatteryData data : dataPoints) {
@@ -308,9 +421,244 @@ public class BatteryDataManager {
         }
 
         dataPoints = filteredData;
+        estimators.invalidate();
+        levelIndex = null;
         saveData();
     }
 
+    /**
+     * Get the last stored data point.
+     * @return The last data point, or null if no data
+     */
+    public synchronized BatteryData getLastDataPoint() {
+        return dataPoints.isEmpty() ? null : dataPoints.get(dataPoints.size() - 1);
+    }
+
+    /**
+     * Register an additional rate estimator, fed with the stored history alongside the built-in ones.
+     * @param id Estimator identifier, also usable as "estimation_source" preference value
+     * @param factory Creates the estimator for the current estimation settings
+     */
+    public synchronized void registerEstimator(String id, RateEstimator.Factory factory) {
+        estimators.register(id, factory);
+    }
+
+    /**
+     * @return Identifiers of the registered rate estimators, in registration order
+     */
+    public synchronized List<String> getEstimatorIds() {
+        return estimators.getIds();
+    }
+
+    /**
+     * @return Display label of the given estimator, or null if not registered
+     */
+    public synchronized String getEstimatorLabel(String id) {
+        RateEstimator estimator = getEstimators(getEstimatorConfig()).get(id);
+        return estimator != null ? estimator.getLabel() : null;
+    }
+
+    /**
+     * Get the usage rate of the given estimator over the given number of hours of data,
+     * with the estimation settings from preferences.
+     *
+     * @param id Estimator identifier
+     * @param hours Number of hours of data the calculation is restricted to
+     * @param minDuration Minimum duration in minutes of the calculation period
+     * @return Battery usage rate in %/h (positive value), or null if not enough data or unknown estimator
+     */
+    public synchronized Double getRate(String id, int hours, int minDuration) {
+        return getRate(getEstimatorConfig(), id, hours, minDuration);
+    }
+
+    /**
+     * Get the confidence margin of the rate of the given estimator, with the estimation settings from preferences.
+     * @return Half-width of the 95% confidence band in %/h, or null if unknown
+     */
+    public synchronized Double getRateMargin(String id, int hours, int minDuration) {
+        RateEstimator estimator = getEstimators(getEstimatorConfig()).get(id);
+        if (estimator == null) {
+            return null;
+        }
+        long cutoffTime = clock.currentTimeMillis() - (hours * 60 * 60 * 1000L);
+        return estimator.getRateMargin(cutoffTime, minDuration);
+    }
+
+    /**
+     * Get the short-term usage rate over the given number of hours of data.
+     * Same result as {@link BatteryUtils#calculateBatteryUsageRateValue} on {@link #getDataPoints(int)},
+     * answered from the incremental estimator when possible.
+     *
+     * @param hours Number of hours of data the calculation is restricted to
+     * @param minDuration Minimum duration in minutes of the calculation period
+     * @param maxDuration Maximum duration in minutes of the calculation period
+     * @return Battery usage rate in %/h (positive value), or null if not enough data
+     */
+    public synchronized Double getUsageRate(int hours, int minDuration, int maxDuration) {
+        RateEstimatorEngine.Config config =
+            new RateEstimatorEngine.Config(maxDuration, RenderConfig.get(context).highTargetPercent);
+        return getRate(config, UsageRateEstimator.ID, hours, minDuration);
+    }
+
+    /**
+     * Get the discharge rate since the nearest charge >= target charge, or since the max charge level.
+     * Same result as {@link BatteryUtils#calculateBatteryUsageRateValueSinceMax} on {@link #getDataPoints(int)},
+     * answered from the history index.
+     *
+     * @param hours Number of hours of data the calculation is restricted to
+     * @param minDuration Minimum duration to do the calculation (in minutes)
+     * @param targetCharge Target charge percentage to look for (e.g., 80%)
+     * @return Battery usage rate in %/h, or null if insufficient data
+     */
+    public synchronized Double getUsageRateSinceMax(int hours, int minDuration, int targetCharge) {
+        RateEstimatorEngine.Config config =
+            new RateEstimatorEngine.Config(RenderConfig.get(context).usageCalculationTime, targetCharge);
+        return getRate(config, BatteryHistoryIndex.ID, hours, minDuration);
+    }
+
+    /**
+     * Get the discharge rate between two times, excluding charging periods.
+     * @param fromTime Start of the time range
+     * @param toTime End of the time range
+     * @return Discharge rate in %/h, or null if no discharge in the range
+     */
+    public synchronized Double getDischargeRate(long fromTime, long toTime) {
+        return getHistoryIndex().getDischargeRate(fromTime, toTime);
+    }
+
+    /**
+     * Get the last time the battery reached the given level, charging or discharging, for "time since X%".
+     * Levels skipped between two samples count as reached at an interpolated time.
+     * @return Timestamp, or -1 if the level was not reached in the stored history
+     */
+    public synchronized long getLastCrossingTime(int level) {
+        return getLevelIndex().getLastCrossingTime(level);
+    }
+
+    /**
+     * Get the number of levels at the mean rate taking as long as going from one level to another,
+     * following the time per level observed in each level band.
+     * @see LevelCrossingIndex#getEquivalentLevels(boolean, float, int)
+     */
+    public synchronized double getEquivalentLevels(boolean isCharging, float fromLevel, int toLevel) {
+        return getLevelIndex().getEquivalentLevels(isCharging, fromLevel, toLevel);
+    }
+
+    /**
+     * Add a completed screen-on period to the sessions it overlaps.
+     */
+    public synchronized void addScreenOnInterval(long startTime, long endTime) {
+        if (persistent && !estimators.isBuilt(getEstimatorConfig())) {
+            // The stored period is added when the session table is rebuilt
+            return;
+        }
+        getHistoryIndex().getSessions().addScreenOnInterval(startTime, endTime);
+    }
+
+    /**
+     * @param sessionsAgo 0 for the current session, 1 for the previous one...
+     * @return The charge or discharge session, or null if not in the stored history
+     */
+    public synchronized BatterySession getSession(int sessionsAgo) {
+        return getHistoryIndex().getSessions().getSession(sessionsAgo);
+    }
+
+    /**
+     * @return The most recent charge and discharge sessions, up to the given count, oldest first
+     */
+    public synchronized List<BatterySession> getSessions(int count) {
+        return getHistoryIndex().getSessions().getSessions(count);
+    }
+
+    /**
+     * @return The charge and discharge sessions ending at or after the given time, oldest first
+     */
+    public synchronized List<BatterySession> getSessionsSince(long timestamp) {
+        return getHistoryIndex().getSessions().getSessionsSince(timestamp);
+    }
+
+    /**
+     * @return The last charging session reaching at least the given level, or null
+     */
+    public synchronized BatterySession getLastChargeReaching(int level) {
+        return getHistoryIndex().getSessions().getLastChargeReaching(level);
+    }
+
+    /**
+     * @param count Maximum number of recent completed discharge sessions
+     * @return Mean discharge rate of the sessions in %/h, or null if none
+     * @see SessionIndex#getAverageDischargeRate(int)
+     */
+    public synchronized Double getAverageSessionDischargeRate(int count) {
+        return getHistoryIndex().getSessions().getAverageDischargeRate(count);
+    }
+
+    private LevelCrossingIndex getLevelIndex() {
+        if (levelIndex == null) {
+            levelIndex = new LevelCrossingIndex();
+            for (BatteryData data : dataPoints) {
+                levelIndex.onSample(data.getTimestamp(), data.getLevel(), data.isCharging());
+            }
+        }
+        return levelIndex;
+    }
+
+    private RateEstimatorEngine.Config getEstimatorConfig() {
+        RenderConfig config = RenderConfig.get(context);
+        return new RateEstimatorEngine.Config(config.usageCalculationTime, config.highTargetPercent);
+    }
+
+    private Double getRate(RateEstimatorEngine.Config config, String id, int hours, int minDuration) {
+        RateEstimator estimator = getEstimators(config).get(id);
+        if (estimator == null) {
+            return null;
+        }
+
+        long cutoffTime = clock.currentTimeMillis() - (hours * 60 * 60 * 1000L);
+        if (estimator.isExact(cutoffTime)) {
+            return estimator.getRate(cutoffTime, minDuration);
+        }
+        if (UsageRateEstimator.ID.equals(id)) {
+            return BatteryUtils.calculateBatteryUsageRateValue(getDataPoints(hours), minDuration, config.getMaxDuration());
+        }
+        return null;
+    }
+
+    private BatteryHistoryIndex getHistoryIndex() {
+        return (BatteryHistoryIndex) getEstimators(getEstimatorConfig()).get(BatteryHistoryIndex.ID);
+    }
+
+    /**
+     * Get the estimators built for the given settings, rebuilding all of them in a single pass over
+     * the stored history when the settings changed.
+     */
+    private RateEstimatorEngine getEstimators(RateEstimatorEngine.Config config) {
+        if (!estimators.isBuilt(config)) {
+            estimators.reset(config);
+            for (BatteryData data : dataPoints) {
+                estimators.onSample(data.getTimestamp(), data.getLevel(), data.isCharging());
+            }
+            addStoredScreenOnIntervals();
+        }
+        return estimators;
+    }
+
+    /**
+     * Add the stored screen-on periods to the session table rebuilt with the estimators.
+     */
+    private void addStoredScreenOnIntervals() {
+        if (!persistent || dataPoints.isEmpty()) {
+            return;
+        }
+        SessionIndex sessions = ((BatteryHistoryIndex) estimators.get(BatteryHistoryIndex.ID)).getSessions();
+        long historyHours = (clock.currentTimeMillis() - dataPoints.get(0).getTimestamp()) / 3600000L + 1;
+        for (StatusData status : StatusManager.getInstance(context).getStatusData("user_present", (int) historyHours)) {
+            if (!status.isOngoing()) {
+                sessions.addScreenOnInterval(status.getStartTimestamp(), status.getEndTimestamp());
+            }
+        }
+    }
+
     public synchronized List<String> getEventLog() {
         return EventLogManager.getInstance(context).getEventLog();
     }
@@ -325,8 +673,22 @@ public class BatteryDataManager {
      * For consecutive entries with the same battery level, only uses the last entry.
      */
     public synchronized void recalculateStatistics() {
-        // Reset statistics first
+        if (!persistent) {
+            return;
+        }
+
+        // Reset statistics first, long-term estimates depend on them
         DataProvider.resetStats(context);
+        version++;
+
+        // Rebuild the discharge profile and charge curve from the stored history
+        drainProfile.reset();
+        chargeCurve.reset();
+        for (BatteryData data : dataPoints) {
+            drainProfile.addSample(data.getTimestamp(), data.getLevel(), data.isCharging());
+            chargeCurve.addSample(data.getTimestamp(), data.getLevel(), data.isCharging());
+        }
+        drainProfile.flush();
 
         // Process all data points to rebuild statistics
         if (dataPoints.size() < 2) {
@@ -334,7 +696,7 @@ public class BatteryDataManager {
         }
 
         // Get target charge percent from preferences
-        int highTargetPercent = prefs.getInt("high_target_percent", 80);
+        int highTargetPercent = RenderConfig.get(context).highTargetPercent;
 
         // Track the reference point (when level last changed)
         BatteryData referencePoint = dataPoints.get(0);
@@ -357,11 +719,11 @@ public class BatteryDataManager {
                     if (referencePoint.isCharging() && levelDelta > 0
                             && !shouldExcludeFromStats(referencePoint.getLevel(), currPoint.getLevel(), true, highTargetPercent)) {
                         // Was charging and level increased
-                        DataProvider.updateChargeStats(context, rate, timeDelta);
+                        updateChargeStats(rate, timeDelta);
                     } else if (!referencePoint.isCharging() && levelDelta < 0
                             && !shouldExcludeFromStats(currPoint.getLevel(), referencePoint.getLevel(), false, highTargetPercent)) {
                         // Was discharging and level decreased
-                        DataProvider.updateDischargeStats(context, rate, timeDelta);
+                        updateDischargeStats(rate, timeDelta);
                     }
                 }
 
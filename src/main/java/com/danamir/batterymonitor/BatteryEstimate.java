@@ -0,0 +1,165 @@
+package com.danamir.batterymonitor;
+
+import java.util.Locale;
+
+/**
+ * Immutable battery usage estimate: a rate and the time needed to reach a target level.
+ *
+ * Holds raw values only. Display strings are built on first use and cached for the current
+ * locale, so rendering the same estimate repeatedly does not format anything again.
+ */
+public final class BatteryEstimate {
+
+    private final double rate;
+    private final double hoursToTarget;
+    private final int targetPercent;
+    private final long calculationTime;
+    private final boolean rounded;
+    private final String source;
+    private final String label;
+    private final double rateMargin;
+    private volatile Texts texts;
+
+    /**
+     * Display strings for one locale.
+     */
+    private static final class Texts {
+        final Locale locale;
+        final String rate;
+        final String rateMargin;
+        final String hours;
+        final String endTime;
+        final String hoursAndEndTime;
+        final String targetAndEndTime;
+
+        Texts(BatteryEstimate estimate, Locale locale) {
+            this.locale = locale;
+            rate = String.format(locale, "%.1f", estimate.rate);
+            rateMargin = Double.isNaN(estimate.rateMargin) ? "" : String.format(locale, "±%.1f", estimate.rateMargin);
+            hours = BatteryUtils.formatTimeEstimate(estimate.hoursToTarget, estimate.targetPercent, estimate.rounded);
+            endTime = BatteryUtils.formatDurationEndTime(estimate.calculationTime, estimate.hoursToTarget, estimate.rounded);
+            hoursAndEndTime = hours + " (" + endTime + ")";
+
+            String target = BatteryUtils.formatTargetPercent(estimate.targetPercent);
+            targetAndEndTime = (target.isEmpty() ? hours : target + " ") + endTime;
+        }
+    }
+
+    /**
+     * @param rate Usage rate in percent per hour, positive
+     * @param hoursToTarget Hours needed to reach the target at this rate
+     * @param targetPercent Target battery percentage
+     * @param calculationTime Time of the calculation, start of the estimated duration
+     * @param rounded Whether time estimates are rounded for display
+     * @param source Identifier of the {@link RateEstimator} the rate comes from
+     * @param label Display label of the estimator
+     */
+    public BatteryEstimate(double rate, double hoursToTarget, int targetPercent, long calculationTime,
+                           boolean rounded, String source, String label) {
+        this(rate, hoursToTarget, targetPercent, calculationTime, rounded, source, label, Double.NaN);
+    }
+
+    /**
+     * @param rateMargin Half-width of the 95% confidence band of the rate in percent per hour, NaN if unknown
+     */
+    public BatteryEstimate(double rate, double hoursToTarget, int targetPercent, long calculationTime,
+                           boolean rounded, String source, String label, double rateMargin) {
+        this.rate = rate;
+        this.hoursToTarget = hoursToTarget;
+        this.targetPercent = targetPercent;
+        this.calculationTime = calculationTime;
+        this.rounded = rounded;
+        this.source = source;
+        this.label = label;
+        this.rateMargin = rateMargin;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public double getHoursToTarget() {
+        return hoursToTarget;
+    }
+
+    public int getTargetPercent() {
+        return targetPercent;
+    }
+
+    /**
+     * @return Estimated time at which the target is reached, in milliseconds
+     */
+    public long getEndTime() {
+        return calculationTime + Math.round(hoursToTarget * 3600000);
+    }
+
+    /**
+     * @return Identifier of the {@link RateEstimator} the rate comes from
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * @return Half-width of the 95% confidence band of the rate, NaN if unknown
+     */
+    public double getRateMargin() {
+        return rateMargin;
+    }
+
+    private Texts getTexts() {
+        Locale locale = Locale.getDefault();
+        Texts current = texts;
+        if (current == null || !current.locale.equals(locale)) {
+            current = new Texts(this, locale);
+            texts = current;
+        }
+        return current;
+    }
+
+    /**
+     * @return Rate with one decimal, like "3.5"
+     */
+    public String getRateText() {
+        return getTexts().rate;
+    }
+
+    /**
+     * @return Confidence margin with one decimal, like "±0.4", or empty if unknown
+     */
+    public String getRateMarginText() {
+        return getTexts().rateMargin;
+    }
+
+    /**
+     * @return Time to target, like "2h15m to 20%"
+     */
+    public String getHoursText() {
+        return getTexts().hours;
+    }
+
+    /**
+     * @return Time of day the target is reached, like "14:30" or "Mon at 14:30"
+     */
+    public String getEndTimeText() {
+        return getTexts().endTime;
+    }
+
+    /**
+     * @return Time to target and end time, like "2h15m to 20% (14:30)"
+     */
+    public String getHoursAndEndTimeText() {
+        return getTexts().hoursAndEndTime;
+    }
+
+    /**
+     * @return Target and end time, like "20% 14:30"
+     */
+    public String getTargetAndEndTimeText() {
+        return getTexts().targetAndEndTime;
+    }
+}
@@ -2,56 +2,38 @@ package com.danamir.batterymonitor;
 
 import android.content.Context;
 import android.content.res.Configuration;
+import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.Picture;
-import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
-import android.widget.TextView;
 import androidx.core.content.ContextCompat;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 public class BatteryGraphGenerator {
+    /** Background layer: day background, night periods and time-aligned vertical grid */
+    static final int LAYER_BACKGROUND = 1;
+    /** Axis layer: horizontal grid, Y-axis labels and static vertical grid, fixed on screen */
+    static final int LAYER_AXIS = 2;
+    /** Data layer: battery level fill and line, and status bar */
+    static final int LAYER_DATA = 4;
+    static final int LAYERS_ALL = LAYER_BACKGROUND | LAYER_AXIS | LAYER_DATA;
 
     /**
-     * Configure a TextView with orientation-aware sizing and styling.
-     * @return The adjusted text size after orientation calculation
+     * Get the overlay text size for the current orientation, larger in landscape.
+     * @return The adjusted text size
      */
-    private static float configureTextView(TextView textView, Context context, float baseTextSize,
-                                          int textColor, float density, android.content.SharedPreferences prefs) {
+    private static float getAdjustedTextSize(Context context, float baseTextSize, int orientation) {
         android.util.DisplayMetrics displayMetrics = context.getResources().getDisplayMetrics();
-        int orientation = context.getResources().getConfiguration().orientation;
 
         float adjustedTextSize = baseTextSize;
-        if (orientation == android.content.res.Configuration.ORIENTATION_LANDSCAPE) {
+        if (orientation == Configuration.ORIENTATION_LANDSCAPE) {
             adjustedTextSize = baseTextSize * (float) displayMetrics.widthPixels / displayMetrics.heightPixels;
         }
-
-        textView.setTextSize(android.util.TypedValue.COMPLEX_UNIT_PX, adjustedTextSize);
-        textView.setTextColor(textColor);
-        textView.setTypeface(Typeface.create("sans-serif", Typeface.NORMAL));
-
-        // Make text wider
-        float batteryWidthScale = prefs.getFloat("batteryWidthScale", 1.5f);
-        if (orientation == Configuration.ORIENTATION_PORTRAIT) {
-            textView.setTextScaleX(batteryWidthScale);
-        } else {
-            textView.setTextScaleX(1.0f/batteryWidthScale);
-        }
-
-        // Add shadow: radius, dx, dy, color
-        textView.setShadowLayer(2 * density, 1 * density, 1 * density, Color.BLACK);
-
-        // Measure and layout the TextView
-        int spec = android.view.View.MeasureSpec.makeMeasureSpec(0, android.view.View.MeasureSpec.UNSPECIFIED);
-        textView.measure(spec, spec);
-        textView.layout(0, 0, textView.getMeasuredWidth(), textView.getMeasuredHeight());
-
         return adjustedTextSize;
     }
 
@@ -139,10 +121,7 @@ public class BatteryGraphGenerator {
             ratio = ratio * Color.alpha(color2) / 255.0f;
         }
 
-        // Apply logarithmic transformation to the ratio
-        // Using log scale: log(1 + ratio * (base-1)) / log(base) to map [0, 1] -> [0, 1] with log curve
-        // Logarithmic curve: slower at the beginning and faster at the end
-        float logRatio = (float) (Math.log(1.0 + ratio * (logBase - 1.0)) / Math.log(logBase));
+        float logRatio = getBlendRatio(ratio, logBase);
         float inverseRatio = 1.0f - logRatio;
 
         int r = (int) (Color.red(color1) * inverseRatio + Color.red(color2) * logRatio);
@@ -154,80 +133,46 @@ public class BatteryGraphGenerator {
     }
 
     /**
-     * Parse time string in HH:mm format to minutes since midnight.
-     * @param timeStr Time string (e.g., "20:00" or "08:00")
-     * @return Minutes since midnight, or -1 if invalid
+     * Apply the blending curve to a blend ratio.
+     * @param ratio The blend ratio (0.0 = first color, 1.0 = second color)
+     * @param logBase The logarithm base of the curve, 1.0 or less for linear blending
+     * @return The curved ratio
      */
-    private static int parseTimeToMinutes(String timeStr) {
-        try {
-            String[] parts = timeStr.split(":");
-            if (parts.length == 2) {
-                int hours = Integer.parseInt(parts[0]);
-                int minutes = Integer.parseInt(parts[1]);
-                return hours * 60 + minutes;
-            }
-        } catch (Exception e) {
-            // Invalid format
+    static float getBlendRatio(float ratio, double logBase) {
+        if (logBase <= 1.0) {
+            return ratio;
         }
-        return -1;
+        // Apply logarithmic transformation to the ratio
+        // Using log scale: log(1 + ratio * (base-1)) / log(base) to map [0, 1] -> [0, 1] with log curve
+        // Logarithmic curve: slower at the beginning and faster at the end
+        return (float) (Math.log(1.0 + ratio * (logBase - 1.0)) / Math.log(logBase));
     }
 
     /**
-     * Parse human-readable time interval to milliseconds.
-     * Supports formats like: "10 seconds", "10s", "20m", "30mn", "60 minutes", "1h", "6 hours"
-     * @param intervalStr Time interval string
-     * @return Milliseconds, or -1 if invalid
+     * Blend a color with the high usage color according to the battery usage rate.
+     * @param color The color at low usage
+     * @param highUsageColor The high usage color
+     * @param batteryUsage The battery usage rate in %/h
+     * @param lowUsageThreshold Usage rate at or below which the color is not blended
+     * @param highUsageThreshold Usage rate from which the full high usage color is used
+     * @param highUsageBlend Usage rate range of the blending
+     * @param useAlpha Use the high usage color alpha to modulate the ratio.
+     * @param blendCurve The logarithm base of the blending curve
+     * @return The blended color
      */
-    private static long parseIntervalToMillis(String intervalStr) {
-        if (intervalStr == null || intervalStr.trim().isEmpty()) {
-            return -1;
-        }
-
-        String str = intervalStr.trim().toLowerCase();
-
-        try {
-            // Extract number and unit
-            String numberPart = "";
-            String unitPart = "";
-
-            for (int i = 0; i < str.length(); i++) {
-                char c = str.charAt(i);
-                if (Character.isDigit(c) || c == '.') {
-                    numberPart += c;
-                } else if (Character.isLetter(c)) {
-                    unitPart = str.substring(i).trim();
-                    break;
-                } else if (c == ' ' && !numberPart.isEmpty()) {
-                    unitPart = str.substring(i).trim();
-                    break;
-                }
-            }
-
-            if (numberPart.isEmpty()) {
-                return -1;
-            }
-
-            double value = Double.parseDouble(numberPart);
-
-            // Parse unit
-            long multiplier;
-            if (unitPart.isEmpty() || unitPart.equals("h") || unitPart.equals("hrs") ||
-                unitPart.equals("hour") || unitPart.equals("hours")) {
-                multiplier = 60 * 60 * 1000L; // hours
-            } else if (unitPart.equals("m") || unitPart.equals("mn") || unitPart.equals("min") ||
-                       unitPart.equals("minute") || unitPart.equals("minutes")) {
-                multiplier = 60 * 1000L; // minutes
-            } else if (unitPart.equals("s") || unitPart.equals("sec") || unitPart.equals("second") ||
-                       unitPart.equals("seconds")) {
-                multiplier = 1000L; // seconds
-            } else {
-                return -1; // Unknown unit
-            }
-
-            return (long) (value * multiplier);
-        } catch (Exception e) {
-            return -1;
+    static int getUsageBlendedColor(int color, int highUsageColor, float batteryUsage,
+                                    float lowUsageThreshold, float highUsageThreshold, float highUsageBlend,
+                                    boolean useAlpha, double blendCurve) {
+        if (batteryUsage >= highUsageThreshold) {
+            // Full high usage color when above threshold
+            return blendColors(color, highUsageColor, 1.0f, useAlpha, blendCurve);
+        } else if (batteryUsage > lowUsageThreshold) {
+            // Blend between lowUsageThreshold and highUsageThreshold
+            float usageRatio = (batteryUsage - lowUsageThreshold) / highUsageBlend;
+            return blendColors(color, highUsageColor, usageRatio, useAlpha, blendCurve);
         }
+        // Below lowUsageThreshold: ratio is 0.0 (no blending, keep original color)
+        return color;
     }
 
     /**
@@ -263,9 +208,9 @@ public class BatteryGraphGenerator {
      * @param blendValue The blend range
      * @return The color to use for this battery level
      */
-    private static int getBlendedLineColor(float level, boolean isCharging,
-                                          int normalColor, int lowColor, int criticalColor, int chargingColor,
-                                          int lowLevel, int criticalLevel, int blendValue) {
+    static int getBlendedLineColor(float level, boolean isCharging,
+                                   int normalColor, int lowColor, int criticalColor, int chargingColor,
+                                   int lowLevel, int criticalLevel, int blendValue) {
         if (isCharging) {
             return chargingColor;
         }
@@ -309,15 +254,39 @@ public class BatteryGraphGenerator {
      * Generate graph with hybrid battery data
      */
     public static Picture generateGraphAsPicture(Context context, List<HybridBatteryData> hybridData, List<StatusData> statusData, int displayHours, int width, int height) {
+        return generateGraphAsPicture(context, hybridData, statusData,
+                BatterySnapshotHub.getInstance(context).getSnapshot().getValues(),
+                displayHours, width, height, System.currentTimeMillis());
+    }
+
+    /**
+     * Generate graph with hybrid battery data, using precomputed battery values and an explicit current time.
+     * @param values Battery values from {@link BatteryUtils#calculateValues(Context, boolean)}, including long-term values
+     * @param now Current time in milliseconds, right edge of the graph
+     */
+    public static Picture generateGraphAsPicture(Context context, List<HybridBatteryData> hybridData, List<StatusData> statusData,
+                                                 BatteryValues values, int displayHours, int width, int height, long now) {
         Picture picture = new Picture();
         Canvas canvas = picture.beginRecording(width, height);
 
-        drawGraph(context, canvas, hybridData, statusData, displayHours, width, height);
+        drawGraph(context, canvas, hybridData, statusData, values, displayHours, width, height, now);
 
         picture.endRecording();
         return picture;
     }
 
+    /**
+     * Generate graph with hybrid battery data directly into a bitmap, without recording a Picture.
+     * @param bitmap Mutable bitmap of the graph size, drawn over
+     * @param values Battery values from {@link BatteryUtils#calculateValues(Context, boolean)}, including long-term values
+     * @param now Current time in milliseconds, right edge of the graph
+     */
+    public static void generateGraphToBitmap(Context context, Bitmap bitmap, List<HybridBatteryData> hybridData,
+                                             List<StatusData> statusData, BatteryValues values, int displayHours, long now) {
+        Canvas canvas = new Canvas(bitmap);
+        drawGraph(context, canvas, hybridData, statusData, values, displayHours, bitmap.getWidth(), bitmap.getHeight(), now);
+    }
+
     /**
      * Convert List<BatteryData> to hybrid format for backward compatibility
      */
@@ -335,29 +304,43 @@ public class BatteryGraphGenerator {
         return result;
     }
 
-    private static void drawGraph(Context context, Canvas canvas, List<HybridBatteryData> dataPoints, List<StatusData> statusData, int displayHours, int width, int height) {
-        android.content.SharedPreferences prefs = androidx.preference.PreferenceManager.getDefaultSharedPreferences(context);
+    private static void drawGraph(Context context, Canvas canvas, List<HybridBatteryData> dataPoints, List<StatusData> statusData,
+                                  BatteryValues values, int displayHours, int width, int height, long now) {
+        drawPlot(context, canvas, dataPoints, null, statusData, displayHours, width, height, now, LAYERS_ALL);
+        if (dataPoints != null && !dataPoints.isEmpty()) {
+            drawOverlay(context, canvas, values, width, height);
+        }
+    }
 
-		// Get padding and colors from preferences
-        boolean usageRateFill = prefs.getBoolean("usage_rate_fill", true);
-        boolean usageRateLine = prefs.getBoolean("usage_rate_line", false);
-        boolean fillWithLineColor = prefs.getBoolean("fill_with_line_color", false);
-        int paddingHorizontalDp = prefs.getInt("horizontal_padding", 0);
-        int paddingVerticalDp = prefs.getInt("vertical_padding", 0);
-        int backgroundColor = prefs.getInt("main_color", 0x1A000000); // Default: transparent black
+    /**
+     * Draw the elements of the graph positioned in time: background with night periods, grid, battery
+     * level fill and line, and status bar. Everything but the grid of a static grid and the Y-axis labels
+     * moves with the time range.
+     * @param pyramid Level-of-detail summary of the data points for long ranges, or null
+     * @param layers Layers to draw, a combination of the LAYER_ flags. Layers drawn separately on
+     *               transparent bitmaps and composited in flag order give the same graph.
+     */
+    static void drawPlot(Context context, Canvas canvas, List<HybridBatteryData> dataPoints, LodPyramid pyramid,
+                         List<StatusData> statusData, int displayHours, int width, int height, long now, int layers) {
+        RenderConfig config = RenderConfig.get(context);
+
+		// Get padding and colors from the settings
+        boolean usageRateFill = config.usageRateFill;
+        boolean usageRateLine = config.usageRateLine;
+        boolean fillWithLineColor = config.fillWithLineColor;
+        int paddingHorizontalDp = config.paddingHorizontalDp;
+        int paddingVerticalDp = config.paddingVerticalDp;
+        int backgroundColor = config.backgroundColor;
 
         // Convert dp to pixels for padding and text sizing
         float density = context.getResources().getDisplayMetrics().density;
         int paddingHorizontal = (int) (paddingHorizontalDp * density);
         int paddingVertical = (int) (paddingVerticalDp * density);
         float labelTextSize = 12 * density;
-        int batteryTextSizeDp = prefs.getInt("batteryTextSize", 16);
-        float batteryTextSize = batteryTextSizeDp * density;
 
         // Get custom colors
-        int textColor = prefs.getInt("text_color", 0xFFFFFFFF);
-        int textColorLongTerm = prefs.getInt("text_color_long_term", 0xFFD7FFD7);
-        int gridColor = prefs.getInt("grid_color", 0x33CCCCCC);
+        int textColor = config.textColor;
+        int gridColor = config.gridColor;
 
         // Initialize paints
         Paint backgroundPaint = new Paint();
@@ -375,399 +358,276 @@ public class BatteryGraphGenerator {
         textPaint.setTextSize(labelTextSize);
         textPaint.setAntiAlias(true);
 
-        float graphLineWidth = prefs.getFloat("graphLineWidth", 2.5f);
+        float graphLineWidth = config.graphLineWidth;
 
         Paint linePaint = new Paint();
-        linePaint.setColor(prefs.getInt("graph_line_color", 0xFF00D505)); // Green
+        linePaint.setColor(config.lineColor);
         linePaint.setStrokeWidth(graphLineWidth * density);
         linePaint.setStyle(Paint.Style.STROKE);
         linePaint.setAntiAlias(true);
 
         // Get night time settings
-        String nightStartStr = prefs.getString("night_start", "00:00");
-        String nightEndStr = prefs.getString("night_end", "06:00");
-        int nightStartMinutes = parseTimeToMinutes(nightStartStr);
-        int nightEndMinutes = parseTimeToMinutes(nightEndStr);
-        if (nightStartMinutes == -1) nightStartMinutes = 0 * 60; // Default 00:00
-        if (nightEndMinutes == -1) nightEndMinutes = 6 * 60; // Default 06:00
+        int nightStartMinutes = config.nightStartMinutes;
+        int nightEndMinutes = config.nightEndMinutes;
 
-        int fillColor = prefs.getInt("graph_fill_color", 0x66000000); // transparent black
-        int nightFillColor = prefs.getInt("graph_night_fill_color", 0x1AB6B6FF); // 20% transparent dark blue
+        int fillColor = config.fillColor;
+        int nightFillColor = config.nightFillColor;
 
         Paint fillPaint = new Paint();
         fillPaint.setStyle(Paint.Style.FILL);
         fillPaint.setAntiAlias(true);
 
-        // Get battery level thresholds and blend value
-        int batteryLowLevel = prefs.getInt("battery_low_level", 35);
-        int batteryCriticalLevel = prefs.getInt("battery_critical_level", 20);
-        int blendValue = prefs.getInt("battery_blend_value", 20);
-
-        // Get high usage settings
-        float highUsageThreshold = prefs.getFloat("high_usage_level", 10.0f);
-        float lowUsageThreshold = prefs.getFloat("low_usage_threshold", 1.0f);
-        float highUsageBlend = 1.0f;
-        if (prefs.getBoolean("high_usage_blend", true)) {
-            highUsageBlend = highUsageThreshold;
-        }
-        int highUsageColor = prefs.getInt("high_usage_color", 0xBFFF00FF);
-        int highUsageRangeMinutes = prefs.getInt("high_usage_range", 30);
-        double blendCurve = prefs.getFloat("blend_curve", 2.0f);
-		String highUsageAverage = prefs.getString("high_usage_average", "hybrid");
+        // Get high usage settings, the level and usage colors come from the color tables
+        int highUsageRangeMinutes = config.highUsageRangeMinutes;
+		String highUsageAverage = config.highUsageAverage;
 
         // Get display settings
-		int smoothingLevel = prefs.getInt("smoothing_level", 2);
-        boolean zoomedDisplay = prefs.getBoolean("zoomed_display", false);
-        boolean unzoomedDisplay = prefs.getBoolean("unzoomed_display", false);
-        int zoomMult = prefs.getInt("display_zoom_mult", 10);
-
-        // Get custom Y-axis range
-        int minY = prefs.getInt("min_y_axis", 0);
-        int maxY = prefs.getInt("max_y_axis", 100);
-
-        // Ensure minY is less than maxY
-        if (minY >= maxY) {
-            minY = 0;
-            maxY = 100;
-        }
-
-        // Crop graph to target if enabled and no data above target
-        if (prefs.getBoolean("crop_to_target", false)) {
-            int highTargetPercentMargin = 2;
-            int highTargetPercent = prefs.getInt("high_target_percent", 80) + highTargetPercentMargin;
-            boolean hasDataAboveTarget = false;
-
-            if (dataPoints != null && !dataPoints.isEmpty()) {
-                long checkNow = System.currentTimeMillis();
-                long checkTimeRange = displayHours * 60 * 60 * 1000L;
-                long checkStartTime = checkNow - checkTimeRange;
-
-                for (HybridBatteryData data : dataPoints) {
-                    if (data.getTimestamp() >= checkStartTime) {
-                        if (data.getBatteryLevel() > highTargetPercent) {
-                            hasDataAboveTarget = true;
-                            break;
-                        }
-                    }
-                }
-            }
-
-            if (!hasDataAboveTarget && maxY > highTargetPercent) {
-                maxY = highTargetPercent;
-                // Re-validate minY
-                if (minY >= maxY) {
-                    minY = 0;
-                }
-            }
-        }
-
-        // Apply vertical zoom if zoomed display is enabled
-        if (zoomedDisplay && zoomMult > 1 && dataPoints != null && !dataPoints.isEmpty()) {
-            // Calculate the new Y range (divided by zoom multiplicator)
-            int originalRange = maxY - minY;
-            int newRange = Math.max(1, originalRange / zoomMult);
-
-            // Find min and max battery levels in the visible data points
-            float minBatteryLevel = 100;
-            float maxBatteryLevel = 0;
-            for (HybridBatteryData data : dataPoints) {
-                if (data.getBatteryLevel() < minBatteryLevel) minBatteryLevel = data.getBatteryLevel();
-                if (data.getBatteryLevel() > maxBatteryLevel) maxBatteryLevel = data.getBatteryLevel();
-            }
-
-            // Determine if battery is rising (charging) or falling (discharging)
-            // Compare first and last data points
-            boolean isRising = false;
-            if (dataPoints.size() >= 2) {
-                float firstLevel = dataPoints.get(0).getBatteryLevel();
-                float lastLevel = dataPoints.get(dataPoints.size() - 1).getBatteryLevel();
-                isRising = lastLevel > firstLevel;
-            }
-
-            if (isRising) {
-                // Battery is charging - align maximum near the top
-                // Add a small margin (10% of new range) above the max value
-                int margin = Math.max(1, newRange / 10);
-                maxY = Math.min(100, (int) Math.ceil(maxBatteryLevel + margin));
-                minY = maxY - newRange;
-            } else {
-                // Battery is discharging - align minimum near the bottom
-                // Add a small margin (10% of new range) below the min value
-                int margin = Math.max(1, newRange / 10);
-                minY = Math.max(0, (int) Math.floor(minBatteryLevel - margin));
-                maxY = minY + newRange;
-            }
-
-            // Ensure the range stays within valid bounds (0-100)
-            if (minY < 0) {
-                maxY = maxY + (0 - minY);
-                minY = 0;
-            }
-            if (maxY > 100) {
-                minY = minY - (maxY - 100);
-                maxY = 100;
-            }
+		int smoothingLevel = config.smoothingLevel;
+		String downsampling = config.downsampling;
 
-            // Final clamp to ensure valid bounds
-            minY = Math.max(0, minY);
-            maxY = Math.min(100, maxY);
-
-            // Ensure minY is still less than maxY after adjustments
-            if (minY >= maxY) {
-                if (isRising) {
-                    minY = Math.max(0, maxY - 1);
-                } else {
-                    maxY = Math.min(100, minY + 1);
-                }
-            }
-        }
+        // Get Y-axis range, adjusted to the data
+        int[] yAxisRange = getYRange(config, dataPoints, pyramid, displayHours, now);
+        int minY = yAxisRange[0];
+        int maxY = yAxisRange[1];
 
         final int yRange = maxY - minY;
 
         // Get base colors for blending
-        int normalColor = prefs.getInt("graph_line_color", 0xFF00D505);
-        int lowColor = prefs.getInt("battery_low_color", 0xFFFFFF23);
-        int criticalColor = prefs.getInt("battery_critical_color", 0xFFFF3B1B);
-        int chargingColor = prefs.getInt("charging_line_color", 0xFF09A6D9);
+        int chargingColor = config.chargingColor;
 
         // Draw background with night time sections
-        long now = System.currentTimeMillis();
         long timeRange = displayHours * 60 * 60 * 1000L;
         long startTime = now - timeRange;
 
-        // Draw day background first
-        canvas.drawRect(0, 0, width, height, backgroundPaint);
-
-        // Draw night time background sections aligned to absolute time
-        Paint nightBackgroundPaint = new Paint();
-        nightBackgroundPaint.setColor(nightFillColor);
-        nightBackgroundPaint.setStyle(Paint.Style.FILL);
-
-        if (nightStartMinutes == nightEndMinutes) {
-            // Equal start and end times: alternating 24-hour periods starting at the defined time
-            java.util.Calendar cal = java.util.Calendar.getInstance();
-            cal.setTimeInMillis(startTime);
-            cal.set(java.util.Calendar.HOUR_OF_DAY, nightStartMinutes / 60);
-            cal.set(java.util.Calendar.MINUTE, nightStartMinutes % 60);
-            cal.set(java.util.Calendar.SECOND, 0);
-            cal.set(java.util.Calendar.MILLISECOND, 0);
-
-            // Go back to find the first period boundary before startTime
-            while (cal.getTimeInMillis() > startTime) {
-                cal.add(java.util.Calendar.DAY_OF_MONTH, -1);
-            }
+        if ((layers & LAYER_BACKGROUND) != 0) {
+            // Draw day background first
+            canvas.drawRect(0, 0, width, height, backgroundPaint);
+
+            // Draw night time background sections aligned to absolute time
+            Paint nightBackgroundPaint = new Paint();
+            nightBackgroundPaint.setColor(nightFillColor);
+            nightBackgroundPaint.setStyle(Paint.Style.FILL);
+
+            if (nightStartMinutes == nightEndMinutes) {
+                // Equal start and end times: alternating 24-hour periods starting at the defined time
+                java.util.Calendar cal = java.util.Calendar.getInstance();
+                cal.setTimeInMillis(startTime);
+                cal.set(java.util.Calendar.HOUR_OF_DAY, nightStartMinutes / 60);
+                cal.set(java.util.Calendar.MINUTE, nightStartMinutes % 60);
+                cal.set(java.util.Calendar.SECOND, 0);
+                cal.set(java.util.Calendar.MILLISECOND, 0);
 
-            // Determine if we should start with night (odd periods) or day (even periods)
-            int periodIndex = 0;
-            while (cal.getTimeInMillis() <= now) {
-                long periodStart = cal.getTimeInMillis();
-                cal.add(java.util.Calendar.DAY_OF_MONTH, 1);
-                long periodEnd = cal.getTimeInMillis();
-
-                // Draw night background for odd periods (1st, 3rd, 5th, etc.)
-                if (periodIndex % 2 == 1) {
-                    long visibleStart = Math.max(periodStart, startTime);
-                    long visibleEnd = Math.min(periodEnd, now);
-
-                    if (visibleStart < visibleEnd) {
-                        float x1 = paddingHorizontal + (width - 2 * paddingHorizontal) * (visibleStart - startTime) / (float) timeRange;
-                        float x2 = paddingHorizontal + (width - 2 * paddingHorizontal) * (visibleEnd - startTime) / (float) timeRange;
-                        canvas.drawRect(x1, 0, x2, height, nightBackgroundPaint);
-                    }
+                // Go back to find the first period boundary before startTime
+                while (cal.getTimeInMillis() > startTime) {
+                    cal.add(java.util.Calendar.DAY_OF_MONTH, -1);
                 }
 
-                periodIndex++;
-            }
-        } else {
-            // Normal mode: night period between start and end times
-            java.util.Calendar cal = java.util.Calendar.getInstance();
-            cal.setTimeInMillis(startTime);
-            cal.set(java.util.Calendar.HOUR_OF_DAY, 0);
-            cal.set(java.util.Calendar.MINUTE, 0);
-            cal.set(java.util.Calendar.SECOND, 0);
-            cal.set(java.util.Calendar.MILLISECOND, 0);
-
-            // Go back one day to catch any night period that might overlap
-            cal.add(java.util.Calendar.DAY_OF_MONTH, -1);
-
-            while (cal.getTimeInMillis() <= now) {
-                // Calculate night start and end for this day
-                java.util.Calendar nightStart = (java.util.Calendar) cal.clone();
-                nightStart.set(java.util.Calendar.HOUR_OF_DAY, nightStartMinutes / 60);
-                nightStart.set(java.util.Calendar.MINUTE, nightStartMinutes % 60);
-
-                java.util.Calendar nightEnd = (java.util.Calendar) cal.clone();
-                if (nightStartMinutes > nightEndMinutes) {
-                    // Night spans midnight - end is next day
-                    nightEnd.add(java.util.Calendar.DAY_OF_MONTH, 1);
+                // Determine if we should start with night (odd periods) or day (even periods)
+                int periodIndex = 0;
+                while (cal.getTimeInMillis() <= now) {
+                    long periodStart = cal.getTimeInMillis();
+                    cal.add(java.util.Calendar.DAY_OF_MONTH, 1);
+                    long periodEnd = cal.getTimeInMillis();
+
+                    // Draw night background for odd periods (1st, 3rd, 5th, etc.)
+                    if (periodIndex % 2 == 1) {
+                        long visibleStart = Math.max(periodStart, startTime);
+                        long visibleEnd = Math.min(periodEnd, now);
+
+                        if (visibleStart < visibleEnd) {
+                            float x1 = paddingHorizontal + (width - 2 * paddingHorizontal) * (visibleStart - startTime) / (float) timeRange;
+                            float x2 = paddingHorizontal + (width - 2 * paddingHorizontal) * (visibleEnd - startTime) / (float) timeRange;
+                            canvas.drawRect(x1, 0, x2, height, nightBackgroundPaint);
+                        }
+                    }
+
+                    periodIndex++;
                 }
-                nightEnd.set(java.util.Calendar.HOUR_OF_DAY, nightEndMinutes / 60);
-                nightEnd.set(java.util.Calendar.MINUTE, nightEndMinutes % 60);
+            } else {
+                // Normal mode: night period between start and end times
+                java.util.Calendar cal = java.util.Calendar.getInstance();
+                cal.setTimeInMillis(startTime);
+                cal.set(java.util.Calendar.HOUR_OF_DAY, 0);
+                cal.set(java.util.Calendar.MINUTE, 0);
+                cal.set(java.util.Calendar.SECOND, 0);
+                cal.set(java.util.Calendar.MILLISECOND, 0);
 
-                long nightStartTime = nightStart.getTimeInMillis();
-                long nightEndTime = nightEnd.getTimeInMillis();
+                // Go back one day to catch any night period that might overlap
+                cal.add(java.util.Calendar.DAY_OF_MONTH, -1);
 
-                // Clip to visible time range
-                long visibleNightStart = Math.max(nightStartTime, startTime);
-                long visibleNightEnd = Math.min(nightEndTime, now);
+                while (cal.getTimeInMillis() <= now) {
+                    // Calculate night start and end for this day
+                    java.util.Calendar nightStart = (java.util.Calendar) cal.clone();
+                    nightStart.set(java.util.Calendar.HOUR_OF_DAY, nightStartMinutes / 60);
+                    nightStart.set(java.util.Calendar.MINUTE, nightStartMinutes % 60);
+
+                    java.util.Calendar nightEnd = (java.util.Calendar) cal.clone();
+                    if (nightStartMinutes > nightEndMinutes) {
+                        // Night spans midnight - end is next day
+                        nightEnd.add(java.util.Calendar.DAY_OF_MONTH, 1);
+                    }
+                    nightEnd.set(java.util.Calendar.HOUR_OF_DAY, nightEndMinutes / 60);
+                    nightEnd.set(java.util.Calendar.MINUTE, nightEndMinutes % 60);
 
-                // Draw night section if it's visible
-                if (visibleNightStart < visibleNightEnd) {
-                    float x1 = paddingHorizontal + (width - 2 * paddingHorizontal) * (visibleNightStart - startTime) / (float) timeRange;
-                    float x2 = paddingHorizontal + (width - 2 * paddingHorizontal) * (visibleNightEnd - startTime) / (float) timeRange;
-                    canvas.drawRect(x1, 0, x2, height, nightBackgroundPaint);
-                }
+                    long nightStartTime = nightStart.getTimeInMillis();
+                    long nightEndTime = nightEnd.getTimeInMillis();
+
+                    // Clip to visible time range
+                    long visibleNightStart = Math.max(nightStartTime, startTime);
+                    long visibleNightEnd = Math.min(nightEndTime, now);
+
+                    // Draw night section if it's visible
+                    if (visibleNightStart < visibleNightEnd) {
+                        float x1 = paddingHorizontal + (width - 2 * paddingHorizontal) * (visibleNightStart - startTime) / (float) timeRange;
+                        float x2 = paddingHorizontal + (width - 2 * paddingHorizontal) * (visibleNightEnd - startTime) / (float) timeRange;
+                        canvas.drawRect(x1, 0, x2, height, nightBackgroundPaint);
+                    }
 
-                // Move to next day
-                cal.add(java.util.Calendar.DAY_OF_MONTH, 1);
+                    // Move to next day
+                    cal.add(java.util.Calendar.DAY_OF_MONTH, 1);
+                }
             }
         }
 
         if (dataPoints == null || dataPoints.isEmpty()) {
-            canvas.drawText("No battery data available", width / 2f - 150, height / 2f, textPaint);
+            if ((layers & LAYER_DATA) != 0) {
+                canvas.drawText("No battery data available", width / 2f - 150, height / 2f, textPaint);
+            }
             return;
         }
 
         // Draw grid - horizontal lines for battery percentages
-        boolean showYAxisLabels = prefs.getBoolean("show_y_axis_labels", false);
-        int horizontalInterval = prefs.getInt("gridHorizontalIntervalPref", 25);
-
-        // Ensure valid interval (avoid division by zero)
-        if (horizontalInterval <= 0) {
-            horizontalInterval = 25;
-        }
-
-        // Draw horizontal grid lines at specified percentage intervals
-        for (int percentage = 0; percentage <= 100; percentage += horizontalInterval) {
-            if (percentage >= minY && percentage <= maxY) {
-                float y = paddingVertical + (height - 2 * paddingVertical) * (maxY - percentage) / (float) yRange;
-                canvas.drawLine(paddingHorizontal, y, width - paddingHorizontal, y, gridPaint);
-
-                // Draw percentage labels (right-aligned) if enabled
-                if (showYAxisLabels) {
-                    String label = String.valueOf(percentage);
-                    float labelWidth = textPaint.measureText(label);
-                    canvas.drawText(label, paddingHorizontal + labelWidth + 5, y + 5, textPaint);
+        boolean showYAxisLabels = config.showYAxisLabels;
+        int horizontalInterval = config.gridHorizontalInterval;
+
+        if ((layers & LAYER_AXIS) != 0) {
+            // Draw horizontal grid lines at specified percentage intervals
+            for (int percentage = 0; percentage <= 100; percentage += horizontalInterval) {
+                if (percentage >= minY && percentage <= maxY) {
+                    float y = paddingVertical + (height - 2 * paddingVertical) * (maxY - percentage) / (float) yRange;
+                    canvas.drawLine(paddingHorizontal, y, width - paddingHorizontal, y, gridPaint);
+
+                    // Draw percentage labels (right-aligned) if enabled
+                    if (showYAxisLabels) {
+                        String label = String.valueOf(percentage);
+                        float labelWidth = textPaint.measureText(label);
+                        canvas.drawText(label, paddingHorizontal + labelWidth + 5, y + 5, textPaint);
+                    }
                 }
             }
         }
 
         // Draw grid vertical lines for time intervals
-        boolean staticGrid = prefs.getBoolean("staticGridPref", true);
+        boolean staticGrid = config.staticGrid;
 
-        // Parse grid interval from human-readable format
-        String intervalStr = prefs.getString("gridVerticalIntervalPref", "12 hours");
-        long intervalMillis = parseIntervalToMillis(intervalStr);
-        if (intervalMillis <= 0) {
-            intervalMillis = 6 * 60 * 60 * 1000L; // Default to 6 hours
-        }
+        // Grid interval, parsed from its human-readable format
+        long intervalMillis = config.gridVerticalIntervalMillis;
 
         // Get subdivision count
-        int intervalSubdivisionCount = Math.max(1, prefs.getInt("gridVerticalIntervalSubdivisionPref", 2));
-
-        // Create paint for subdivision grid lines (thinner and dashed)
-        Paint subGridPaint = null;
-        if (intervalSubdivisionCount > 1) {
-            subGridPaint = new Paint();
-            subGridPaint.setColor(gridColor);
-            subGridPaint.setStrokeWidth(0.8f * density);
-            subGridPaint.setStyle(Paint.Style.STROKE);
-            subGridPaint.setAntiAlias(true);
-            subGridPaint.setPathEffect(new android.graphics.DashPathEffect(new float[]{3 * density, 3 * density}, 0));
-        }
-
-        now = System.currentTimeMillis();
-        timeRange = displayHours * 60 * 60 * 1000L;
-        startTime = now - timeRange;
-
-        if (staticGrid) {
-            // Static grid: evenly spaced lines
-            int intervals = Math.max(1, (int) (timeRange / intervalMillis));
-            intervals = Math.min(intervals, 100); // Cap at 100 intervals
-            for (int i = 0; i <= intervals; i++) {
-                float x = paddingHorizontal + (width - 2 * paddingHorizontal) * i / (float) intervals;
-                canvas.drawLine(x, paddingVertical, x, height - paddingVertical, gridPaint);
-
-                // Draw interval subdivision lines
-                if (subGridPaint != null && i < intervals) {
-                    for (int j = 1; j < intervalSubdivisionCount; j++) {
-                        float subX = paddingHorizontal + (width - 2 * paddingHorizontal) * (i + j / (float)intervalSubdivisionCount) / (float) intervals;
-                        canvas.drawLine(subX, paddingVertical, subX, height - paddingVertical, subGridPaint);
-                    }
-                }
+        int intervalSubdivisionCount = config.gridVerticalSubdivisions;
+
+        // A static grid is fixed on screen with the axis, a time-aligned grid moves with the background
+        if ((layers & (staticGrid ? LAYER_AXIS : LAYER_BACKGROUND)) != 0) {
+            // Create paint for subdivision grid lines (thinner and dashed)
+            Paint subGridPaint = null;
+            if (intervalSubdivisionCount > 1) {
+                subGridPaint = new Paint();
+                subGridPaint.setColor(gridColor);
+                subGridPaint.setStrokeWidth(0.8f * density);
+                subGridPaint.setStyle(Paint.Style.STROKE);
+                subGridPaint.setAntiAlias(true);
+                subGridPaint.setPathEffect(new android.graphics.DashPathEffect(new float[]{3 * density, 3 * density}, 0));
             }
-        } else {
-            // Time-aligned grid: lines at regular time marks
-            java.util.Calendar cal = java.util.Calendar.getInstance();
-            cal.setTimeInMillis(startTime);
-
-            // Convert interval to hours for alignment (if >= 1 hour)
-            if (intervalMillis >= 60 * 60 * 1000L) {
-                int intervalHours = (int) (intervalMillis / (60 * 60 * 1000L));
-
-                // Round down to the previous interval mark
-                int currentHour = cal.get(java.util.Calendar.HOUR_OF_DAY);
-                int alignedHour = (currentHour / intervalHours) * intervalHours;
-                cal.set(java.util.Calendar.HOUR_OF_DAY, alignedHour);
-                cal.set(java.util.Calendar.MINUTE, 0);
-                cal.set(java.util.Calendar.SECOND, 0);
-                cal.set(java.util.Calendar.MILLISECOND, 0);
 
-                // Draw grid lines at specified intervals
-                while (cal.getTimeInMillis() <= now) {
-                    long gridTime = cal.getTimeInMillis();
+            if (staticGrid) {
+                // Static grid: evenly spaced lines
+                int intervals = Math.max(1, (int) (timeRange / intervalMillis));
+                intervals = Math.min(intervals, 100); // Cap at 100 intervals
+                for (int i = 0; i <= intervals; i++) {
+                    float x = paddingHorizontal + (width - 2 * paddingHorizontal) * i / (float) intervals;
+                    canvas.drawLine(x, paddingVertical, x, height - paddingVertical, gridPaint);
 
-                    // Draw interval subdivision lines (even for intervals before startTime)
-                    if (subGridPaint != null) {
-                        long subIntervalMillis = intervalMillis / intervalSubdivisionCount;
+                    // Draw interval subdivision lines
+                    if (subGridPaint != null && i < intervals) {
                         for (int j = 1; j < intervalSubdivisionCount; j++) {
-                            long subGridTime = gridTime + j * subIntervalMillis;
-                            if (subGridTime >= startTime && subGridTime <= now) {
-                                float subX = paddingHorizontal + (width - 2 * paddingHorizontal) * (subGridTime - startTime) / (float) timeRange;
-                                canvas.drawLine(subX, paddingVertical, subX, height - paddingVertical, subGridPaint);
-                            }
+                            float subX = paddingHorizontal + (width - 2 * paddingHorizontal) * (i + j / (float)intervalSubdivisionCount) / (float) intervals;
+                            canvas.drawLine(subX, paddingVertical, subX, height - paddingVertical, subGridPaint);
                         }
                     }
-
-                    if (gridTime >= startTime) {
-                        float x = paddingHorizontal + (width - 2 * paddingHorizontal) * (gridTime - startTime) / (float) timeRange;
-                        canvas.drawLine(x, paddingVertical, x, height - paddingVertical, gridPaint);
-                    }
-                    cal.add(java.util.Calendar.HOUR_OF_DAY, intervalHours);
                 }
             } else {
-                // For intervals < 1 hour, use millisecond-based alignment
-                // Round down to the previous interval mark
-                long alignedTime = (startTime / intervalMillis) * intervalMillis;
-
-                // Draw grid lines at specified intervals
-                for (long gridTime = alignedTime; gridTime <= now; gridTime += intervalMillis) {
-                    // Draw interval subdivision lines (even for intervals before startTime)
-                    if (subGridPaint != null) {
-                        long subIntervalMillis = intervalMillis / intervalSubdivisionCount;
-                        for (int j = 1; j < intervalSubdivisionCount; j++) {
-                            long subGridTime = gridTime + j * subIntervalMillis;
-                            if (subGridTime >= startTime && subGridTime <= now) {
-                                float subX = paddingHorizontal + (width - 2 * paddingHorizontal) * (subGridTime - startTime) / (float) timeRange;
-                                canvas.drawLine(subX, paddingVertical, subX, height - paddingVertical, subGridPaint);
+                // Time-aligned grid: lines at regular time marks
+                java.util.Calendar cal = java.util.Calendar.getInstance();
+                cal.setTimeInMillis(startTime);
+
+                // Convert interval to hours for alignment (if >= 1 hour)
+                if (intervalMillis >= 60 * 60 * 1000L) {
+                    int intervalHours = (int) (intervalMillis / (60 * 60 * 1000L));
+
+                    // Round down to the previous interval mark
+                    int currentHour = cal.get(java.util.Calendar.HOUR_OF_DAY);
+                    int alignedHour = (currentHour / intervalHours) * intervalHours;
+                    cal.set(java.util.Calendar.HOUR_OF_DAY, alignedHour);
+                    cal.set(java.util.Calendar.MINUTE, 0);
+                    cal.set(java.util.Calendar.SECOND, 0);
+                    cal.set(java.util.Calendar.MILLISECOND, 0);
+
+                    // Draw grid lines at specified intervals
+                    while (cal.getTimeInMillis() <= now) {
+                        long gridTime = cal.getTimeInMillis();
+
+                        // Draw interval subdivision lines (even for intervals before startTime)
+                        if (subGridPaint != null) {
+                            long subIntervalMillis = intervalMillis / intervalSubdivisionCount;
+                            for (int j = 1; j < intervalSubdivisionCount; j++) {
+                                long subGridTime = gridTime + j * subIntervalMillis;
+                                if (subGridTime >= startTime && subGridTime <= now) {
+                                    float subX = paddingHorizontal + (width - 2 * paddingHorizontal) * (subGridTime - startTime) / (float) timeRange;
+                                    canvas.drawLine(subX, paddingVertical, subX, height - paddingVertical, subGridPaint);
+                                }
                             }
                         }
+
+                        if (gridTime >= startTime) {
+                            float x = paddingHorizontal + (width - 2 * paddingHorizontal) * (gridTime - startTime) / (float) timeRange;
+                            canvas.drawLine(x, paddingVertical, x, height - paddingVertical, gridPaint);
+                        }
+                        cal.add(java.util.Calendar.HOUR_OF_DAY, intervalHours);
                     }
+                } else {
+                    // For intervals < 1 hour, use millisecond-based alignment
+                    // Round down to the previous interval mark
+                    long alignedTime = (startTime / intervalMillis) * intervalMillis;
+
+                    // Draw grid lines at specified intervals
+                    for (long gridTime = alignedTime; gridTime <= now; gridTime += intervalMillis) {
+                        // Draw interval subdivision lines (even for intervals before startTime)
+                        if (subGridPaint != null) {
+                            long subIntervalMillis = intervalMillis / intervalSubdivisionCount;
+                            for (int j = 1; j < intervalSubdivisionCount; j++) {
+                                long subGridTime = gridTime + j * subIntervalMillis;
+                                if (subGridTime >= startTime && subGridTime <= now) {
+                                    float subX = paddingHorizontal + (width - 2 * paddingHorizontal) * (subGridTime - startTime) / (float) timeRange;
+                                    canvas.drawLine(subX, paddingVertical, subX, height - paddingVertical, subGridPaint);
+                                }
+                            }
+                        }
 
-                    if (gridTime >= startTime) {
-                        float x = paddingHorizontal + (width - 2 * paddingHorizontal) * (gridTime - startTime) / (float) timeRange;
-                        canvas.drawLine(x, paddingVertical, x, height - paddingVertical, gridPaint);
+                        if (gridTime >= startTime) {
+                            float x = paddingHorizontal + (width - 2 * paddingHorizontal) * (gridTime - startTime) / (float) timeRange;
+                            canvas.drawLine(x, paddingVertical, x, height - paddingVertical, gridPaint);
+                        }
                     }
                 }
             }
         }
 
+        if ((layers & LAYER_DATA) == 0) {
+            return;
+        }
+
 		// Draw battery level graph
 		if (dataPoints.size() >= 2) {
-			now = System.currentTimeMillis();
-			timeRange = displayHours * 60 * 60 * 1000L;
-			startTime = now - timeRange;
-
 			// Check if the first point is before startTime (for interpolation)
 			// If getDataPoints was called with getPreviousPoint=true, the first point might be before startTime
 			HybridBatteryData beforeStartData = null;
@@ -804,7 +664,18 @@ public class BatteryGraphGenerator {
 
 			if (dataPoints.size() > effectiveGraphWidth && effectiveGraphWidth > 0) {
 				// Only downsample if we have more points than effective pixels
-				renderPoints = downsampleToPixelWidth(dataPoints, effectiveGraphWidth, startTime, timeRange, beforeStartData);
+				if (LttbDownsampler.LTTB.equals(downsampling)) {
+					// One point per effective pixel
+					renderPoints = downsampleLttb(dataPoints, Math.max(3, effectiveGraphWidth), startTime, beforeStartData);
+				} else if (LttbDownsampler.MIN_MAX_LTTB.equals(downsampling)) {
+					// Min-max preselection over a few points per output point, then LTTB
+					int preselectWidth = Math.max(1, effectiveGraphWidth * LttbDownsampler.MIN_MAX_RATIO / 2);
+					renderPoints = downsampleLttb(
+						downsampleToPixelWidth(dataPoints, pyramid, preselectWidth, startTime, timeRange, beforeStartData),
+						Math.max(3, effectiveGraphWidth), startTime, beforeStartData);
+				} else {
+					renderPoints = downsampleToPixelWidth(dataPoints, pyramid, effectiveGraphWidth, startTime, timeRange, beforeStartData);
+				}
 
 				// After downsampling, update beforeStartData if it's included
 				if (!renderPoints.isEmpty() && beforeStartData != null &&
@@ -874,6 +745,9 @@ public class BatteryGraphGenerator {
 				canvas.drawPath(fillPath, fillPaint);
 			}
 
+			// Line and fill colors, from the lookup tables of the settings
+			GraphColorTables colorTables = config.colorTables;
+
 			// Create a paint for drawing line segments with blended colors
 			Paint segmentPaint = new Paint();
 			segmentPaint.setStrokeWidth(graphLineWidth * density);
@@ -911,6 +785,14 @@ public class BatteryGraphGenerator {
 				}
 			}
 
+			// Usage rates over the high usage range, the window slides along the rendered segments
+			HighUsageWindow usageWindow = null;
+			if (highUsageRangeMinutes > 0) {
+				usageWindow = new HighUsageWindow(dataPoints, highUsageRangeMinutes);
+			}
+
+			SegmentBatch segments = new SegmentBatch(canvas, segmentPaint, usageRateFillPaint,
+					height - paddingVertical, renderPoints.size());
 			for (int i = 0; i < renderPoints.size(); i++) {
 				HybridBatteryData data = renderPoints.get(i);
 
@@ -924,11 +806,6 @@ public class BatteryGraphGenerator {
 
 				// Draw line segment from previous point to current point with blended color
 				if (prevX != null && prevY != null && prevData != null) {
-					// Calculate mean battery usage per hour over the specified time range
-					float batteryUsage = 0.0f;
-					long rangeMillis = highUsageRangeMinutes * 60 * 1000L;
-					long rangeStartTime = data.getTimestamp() - rangeMillis;
-
 					// Calculate current usage rate (between previous and current point)
 					float currentUsageRate = 0.0f;
 					long timeDelta = data.getTimestamp() - prevData.getTimestamp();
@@ -937,60 +814,21 @@ public class BatteryGraphGenerator {
 						currentUsageRate = levelDelta / (timeDelta / 3600000.0f);
 					}
 
-					// Collect all usage rates within the time range
-					// NOTE: Use original dataPoints for usage calculation, not renderPoints
-					// This ensures accurate usage rate calculation from all available data
-					List<Float> usageRates = new ArrayList<>();
-
-					// Always add the current usage rate
-					usageRates.add(currentUsageRate);
-
-					// If highUsageRangeMinutes > 0, also collect historical rates
-					if (highUsageRangeMinutes > 0) {
-						// Search in original dataPoints for more accurate usage calculation
-						for (int j = dataPoints.size() - 1; j >= 0; j--) {
-							HybridBatteryData currentPoint = dataPoints.get(j);
-							if (currentPoint.getTimestamp() > data.getTimestamp()) {
-								continue; // Skip future points
-							}
-							if (currentPoint.getTimestamp() < rangeStartTime) {
-								break; // Past the range
-							}
-
-							// Find previous point in original data
-							if (j > 0) {
-								HybridBatteryData previousPoint = dataPoints.get(j - 1);
-								long timeDeltaJ = currentPoint.getTimestamp() - previousPoint.getTimestamp();
-								if (timeDeltaJ > 0) {
-									float levelDelta = previousPoint.getBatteryLevel() - currentPoint.getBatteryLevel();
-									float rate = levelDelta / (timeDeltaJ / 3600000.0f);
-									usageRates.add(rate);
-								}
-							}
-						}
+					// Average with the usage rates within the time range, from the original dataPoints
+					// rather than renderPoints for accurate usage calculation from all available data
+					float averageUsage = currentUsageRate;
+					if (usageWindow != null) {
+						averageUsage = usageWindow.getAverageUsage(data.getTimestamp(), currentUsageRate, highUsageAverage);
 					}
 
-					// Calculate average of usage rates
-					if (!usageRates.isEmpty()) {
-						float averageUsage = getAverageUsage(highUsageAverage, usageRates);
-
-						// Use the higher of current rate or average rate
-						batteryUsage = Math.max(currentUsageRate, averageUsage);
-					}
+					// Use the higher of current rate or average rate
+					float batteryUsage = Math.max(currentUsageRate, averageUsage);
 
 					// Use the color for the current battery level
-					int blendedColor = getBlendedLineColor(
-							data.getBatteryLevel(),
-							data.isCharging(),
-							normalColor,
-							lowColor,
-							criticalColor,
-							chargingColor,
-							batteryLowLevel,
-							batteryCriticalLevel,
-							blendValue
-					);
+					int blendedColor = colorTables.getLineColor(data.getBatteryLevel(), data.isCharging());
 
+					boolean segmentFilled = false;
+					int segmentFillColor = fillColor;
 					if (fillWithLineColor) {
 						// Mode: Use blended line color as fill color (with alpha from fillColor)
 						int fillLineColor = blendedColor;
@@ -1000,115 +838,45 @@ public class BatteryGraphGenerator {
 							// Use charging line color when charging
 							fillLineColor = chargingColor;
 						} else if (usageRateFill) {
-							if (batteryUsage >= highUsageThreshold) {
-								// Full high usage color when above threshold
-								fillLineColor = blendColors(fillLineColor, highUsageColor, 1.0f, false, blendCurve);
-							} else if (batteryUsage > lowUsageThreshold) {
-								// Blend between lowUsageThreshold and highUsageThreshold
-								float usageRatio = (batteryUsage - lowUsageThreshold) / highUsageBlend;
-								fillLineColor = blendColors(fillLineColor, highUsageColor, usageRatio, false, blendCurve);
-							}
+							fillLineColor = colorTables.getUsageBlendedColor(fillLineColor, batteryUsage, false);
 						}
 
-						// Extract alpha from fillColor
-						int fillAlpha = Color.alpha(fillColor);
-
 						// Create fill color from blended line color with fillColor's alpha
-						int lineColorWithFillAlpha = Color.argb(
-								fillAlpha,
+						segmentFilled = true;
+						segmentFillColor = Color.argb(
+								Color.alpha(fillColor),
 								Color.red(fillLineColor),
 								Color.green(fillLineColor),
 								Color.blue(fillLineColor)
 						);
-
-						// Draw fill segment with line color (using fillColor alpha)
-						Path segmentFillPath = new Path();
-						segmentFillPath.moveTo(prevX, height - paddingVertical);
-						segmentFillPath.lineTo(prevX, prevY);
-						segmentFillPath.lineTo(x, y);
-						segmentFillPath.lineTo(x, height - paddingVertical);
-						segmentFillPath.close();
-
-						usageRateFillPaint.setColor(lineColorWithFillAlpha);
-						canvas.drawPath(segmentFillPath, usageRateFillPaint);
 					} else if (usageRateFill) {
-						// Mode: Usage rate as fill color
-
-						// Calculate usage rate color for fill
+						// Mode: Usage rate as fill color, the fill color for charging
+						segmentFilled = true;
 						if (!data.isCharging()) {
-							int usageRateFillColor = fillColor; // Default fill color
-
-							if (batteryUsage >= highUsageThreshold) {
-								// Full high usage color when above threshold
-								usageRateFillColor = blendColors(fillColor, highUsageColor, 1.0f, false, blendCurve);
-							} else if (batteryUsage > lowUsageThreshold) {
-								// Blend between lowUsageThreshold and highUsageThreshold
-								float usageRatio = (batteryUsage - lowUsageThreshold) / highUsageBlend;
-								usageRateFillColor = blendColors(fillColor, highUsageColor, usageRatio, false, blendCurve);
-							}
-
-							// Draw fill segment with usage rate color
-							Path segmentFillPath = new Path();
-							segmentFillPath.moveTo(prevX, height - paddingVertical);
-							segmentFillPath.lineTo(prevX, prevY);
-							segmentFillPath.lineTo(x, y);
-							segmentFillPath.lineTo(x, height - paddingVertical);
-							segmentFillPath.close();
-
-							usageRateFillPaint.setColor(usageRateFillColor);
-							canvas.drawPath(segmentFillPath, usageRateFillPaint);
-						} else {
-							// For charging, use the fill color
-							Path segmentFillPath = new Path();
-							segmentFillPath.moveTo(prevX, height - paddingVertical);
-							segmentFillPath.lineTo(prevX, prevY);
-							segmentFillPath.lineTo(x, y);
-							segmentFillPath.lineTo(x, height - paddingVertical);
-							segmentFillPath.close();
-
-							usageRateFillPaint.setColor(fillColor);
-							canvas.drawPath(segmentFillPath, usageRateFillPaint);
+							segmentFillColor = colorTables.getUsageBlendedColor(fillColor, batteryUsage, false);
 						}
 					}
 
-					if (usageRateLine) {
+					if (usageRateLine && !data.isCharging()) {
 						// Mode: Blend line color with usage rate colors
-						// Apply high usage blending to line color if not charging
-						if (!data.isCharging()) {
-							if (batteryUsage >= highUsageThreshold) {
-								// Full high usage color when above threshold
-								blendedColor = blendColors(blendedColor, highUsageColor, 1.0f, true, blendCurve);
-							} else if (batteryUsage > lowUsageThreshold) {
-								// Blend between lowUsageThreshold and highUsageThreshold
-								float usageRatio = (batteryUsage - lowUsageThreshold) / highUsageBlend;
-								blendedColor = blendColors(blendedColor, highUsageColor, usageRatio, true, blendCurve);
-							}
-							// Below lowUsageThreshold: ratio is 0.0 (no blending, keep original color)
-						}
-
-						segmentPaint.setColor(blendedColor);
-						canvas.drawLine(prevX, prevY, x, y, segmentPaint);
-					} else {
-						// Keep line color pure, but use usage rate for fill
-						segmentPaint.setColor(blendedColor);
-						canvas.drawLine(prevX, prevY, x, y, segmentPaint);
+						blendedColor = colorTables.getUsageBlendedColor(blendedColor, batteryUsage, true);
 					}
+
+					// Drawn with the next segments of the same colors
+					segments.add(prevX, prevY, x, y, blendedColor, segmentFilled, segmentFillColor);
 				}
 
 				prevX = x;
 				prevY = y;
 				prevData = data;
 			}
+			segments.finish();
 		}
 
         // Draw user_present status bar at the bottom
         if (statusData != null && !statusData.isEmpty()) {
-            now = System.currentTimeMillis();
-            timeRange = displayHours * 60 * 60 * 1000L;
-            startTime = now - timeRange;
-
             Paint userPresentPaint = new Paint();
-            userPresentPaint.setColor(prefs.getInt("user_present_color", 0xFF08A6D9)); // Light blue
+            userPresentPaint.setColor(config.userPresentColor);
             userPresentPaint.setStyle(Paint.Style.FILL);
             userPresentPaint.setAntiAlias(true);
 
@@ -1143,121 +911,178 @@ public class BatteryGraphGenerator {
                 canvas.drawRect(x1, barTop, x2, barBottom, userPresentPaint);
             }
         }
+    }
 
-        // Draw current battery level
-        if (!dataPoints.isEmpty()) {
-            boolean showBatteryPercentage = prefs.getBoolean("show_battery_percentage", true);
-            boolean showUseRate = prefs.getBoolean("show_use_rate", true);
-            boolean showEstimation = prefs.getBoolean("show_estimation", true);
-            boolean showTimeEstimation = prefs.getBoolean("show_time_estimation", false);
-            boolean useLongTerm = prefs.getBoolean("use_long_term", false);
-
-            java.util.Map<String, String> values = BatteryUtils.calculateValues(context, true);
-
-            boolean isCharging = "true".equals(values.get("charging"));
-            String usageRate = values.get("usage_rate");
-            String hoursTo = values.get("hours_to");
-            String timeTo = values.get("time_to");
-            String levelText = showBatteryPercentage ? values.get("current_percent") + (isCharging ? " ⚡" : "") : "";
-
-            String usageRateLongTerm = values.get("usage_rate_long_term");
-            String hoursToLongTerm = values.get("hours_to_long_term");
-            String timeToLongTerm = values.get("time_to_long_term");
-
-            if (showUseRate || showEstimation || showTimeEstimation) {
-                if (!usageRate.isEmpty() && !useLongTerm) {
-                    if(showBatteryPercentage) {
-                        levelText += BatteryUtils.TEXT_SEPARATOR;
-                    }
+    /**
+     * Get the Y-axis range of the graph: the configured range, cropped to the high target when no data
+     * is above it, and narrowed around the data in zoomed display.
+     * @param pyramid Level-of-detail summary of the data points, or null to read all of them
+     * @return Minimum and maximum battery level shown, the minimum less than the maximum
+     */
+    static int[] getYRange(RenderConfig config, List<HybridBatteryData> dataPoints, LodPyramid pyramid,
+                           int displayHours, long now) {
+        boolean zoomedDisplay = config.zoomedDisplay;
+        int zoomMult = config.zoomMult;
 
-                    if (showUseRate) {
-                        levelText += String.format(usageRate + "%%/h");
-                    }
+        // Custom Y-axis range, minY is less than maxY
+        int minY = config.minY;
+        int maxY = config.maxY;
 
-                    if (!hoursTo.isEmpty() && (showEstimation || showTimeEstimation)) {
-                        if (showUseRate) {
-                            levelText += BatteryUtils.TEXT_SEPARATOR;
-                        }
+        // Crop graph to target if enabled and no data above target
+        if (config.cropToTarget) {
+            int highTargetPercentMargin = 2;
+            int highTargetPercent = config.highTargetPercent + highTargetPercentMargin;
+            boolean hasDataAboveTarget = false;
 
-                        String timeEstimate = "";
-                        if (showEstimation && showTimeEstimation) {
-                            timeEstimate = hoursTo + " (" + timeTo + ")";
-                        } else if (showEstimation) {
-                            timeEstimate = hoursTo;
-                        } else if (showTimeEstimation) {
-                            timeEstimate = hoursTo.replaceFirst(".* to (.*)", "$1 ") + timeTo;
-                        }
+            if (dataPoints != null && !dataPoints.isEmpty()) {
+                long checkNow = now;
+                long checkTimeRange = displayHours * 60 * 60 * 1000L;
+                long checkStartTime = checkNow - checkTimeRange;
 
-                        if (!timeEstimate.isEmpty()) {
-                            levelText += timeEstimate;
-                        }
-                    }
-                } else if(!usageRateLongTerm.isEmpty()) {
-                    if(showBatteryPercentage) {
-                        levelText += BatteryUtils.TEXT_SEPARATOR;
-                    }
+                hasDataAboveTarget = getLevelRange(dataPoints, pyramid, checkStartTime)[1] > highTargetPercent;
+            }
+
+            if (!hasDataAboveTarget && maxY > highTargetPercent) {
+                maxY = highTargetPercent;
+                // Re-validate minY
+                if (minY >= maxY) {
+                    minY = 0;
+                }
+            }
+        }
 
-                    levelText += "<span style=\"color: "+BatteryUtils.colorToHex(textColorLongTerm, true)+"\">";
+        // Apply vertical zoom if zoomed display is enabled
+        if (zoomedDisplay && zoomMult > 1 && dataPoints != null && !dataPoints.isEmpty()) {
+            // Calculate the new Y range (divided by zoom multiplicator)
+            int originalRange = maxY - minY;
+            int newRange = Math.max(1, originalRange / zoomMult);
 
-                    if (showUseRate) {
-                        levelText += String.format(usageRateLongTerm + "%%/h");
-                    }
+            // Find min and max battery levels in the visible data points
+            float[] levelRange = getLevelRange(dataPoints, pyramid, dataPoints.get(0).getTimestamp());
+            float minBatteryLevel = Math.min(100, levelRange[0]);
+            float maxBatteryLevel = Math.max(0, levelRange[1]);
 
-                    if (!hoursToLongTerm.isEmpty() && (showEstimation || showTimeEstimation)) {
-                        if (showUseRate) {
-                            levelText += BatteryUtils.TEXT_SEPARATOR;
-                        }
+            // Determine if battery is rising (charging) or falling (discharging)
+            // Compare first and last data points
+            boolean isRising = false;
+            if (dataPoints.size() >= 2) {
+                float firstLevel = dataPoints.get(0).getBatteryLevel();
+                float lastLevel = dataPoints.get(dataPoints.size() - 1).getBatteryLevel();
+                isRising = lastLevel > firstLevel;
+            }
 
-                        String timeEstimate = "";
-                        if (showEstimation && showTimeEstimation) {
-                            timeEstimate = hoursToLongTerm + " (" + timeToLongTerm + ")";
-                        } else if (showEstimation) {
-                            timeEstimate = hoursToLongTerm;
-                        } else if (showTimeEstimation) {
-                            timeEstimate = hoursToLongTerm.replaceFirst(".* to (.*)", "$1 ") + timeToLongTerm;
-                        }
+            if (isRising) {
+                // Battery is charging - align maximum near the top
+                // Add a small margin (10% of new range) above the max value
+                int margin = Math.max(1, newRange / 10);
+                maxY = Math.min(100, (int) Math.ceil(maxBatteryLevel + margin));
+                minY = maxY - newRange;
+            } else {
+                // Battery is discharging - align minimum near the bottom
+                // Add a small margin (10% of new range) below the min value
+                int margin = Math.max(1, newRange / 10);
+                minY = Math.max(0, (int) Math.floor(minBatteryLevel - margin));
+                maxY = minY + newRange;
+            }
 
-                        if (!timeEstimate.isEmpty()) {
-                            levelText += timeEstimate;
-                        }
-                    }
+            // Ensure the range stays within valid bounds (0-100)
+            if (minY < 0) {
+                maxY = maxY + (0 - minY);
+                minY = 0;
+            }
+            if (maxY > 100) {
+                minY = minY - (maxY - 100);
+                maxY = 100;
+            }
 
-                    levelText += "</span>";
+            // Final clamp to ensure valid bounds
+            minY = Math.max(0, minY);
+            maxY = Math.min(100, maxY);
+
+            // Ensure minY is still less than maxY after adjustments
+            if (minY >= maxY) {
+                if (isRising) {
+                    minY = Math.max(0, maxY - 1);
+                } else {
+                    maxY = Math.min(100, minY + 1);
                 }
             }
+        }
 
-            // Create and configure TextView
-            TextView textView = new TextView(context);
-            textView.setText(BatteryUtils.parseHtmlFormatting(levelText));
-            float adjustedTextSize = configureTextView(textView, context, batteryTextSize, textColor, density, prefs);
+        return new int[]{minY, maxY};
+    }
 
-            // Save canvas state and translate to drawing position
-            canvas.save();
-            float xPos = paddingHorizontal + adjustedTextSize + (showYAxisLabels ? labelTextSize * 3 : 0);
-            float yPos = height - paddingVertical - adjustedTextSize * 1.5f;
-            canvas.translate(xPos, yPos);
+    /**
+     * Draw the elements of the graph that don't scroll with time: the current battery level and
+     * estimates text, and the display mode indicator.
+     */
+    static void drawOverlay(Context context, Canvas canvas, BatteryValues values, int width, int height) {
+        RenderConfig config = RenderConfig.get(context);
+        float density = context.getResources().getDisplayMetrics().density;
+        int paddingHorizontal = (int) (config.paddingHorizontalDp * density);
+        int paddingVertical = (int) (config.paddingVerticalDp * density);
+        float labelTextSize = 12 * density;
+        float batteryTextSize = config.batteryTextSizeDp * density;
+        int textColor = config.textColor;
+        boolean showYAxisLabels = config.showYAxisLabels;
+        boolean zoomedDisplay = config.zoomedDisplay;
+        boolean unzoomedDisplay = config.unzoomedDisplay;
 
-            // Draw the TextView
-            textView.draw(canvas);
+        // Draw current battery level
+        boolean showBatteryPercentage = config.showBatteryPercentage;
+        boolean showUseRate = config.showUseRate;
+        boolean showEstimation = config.showEstimation;
+        boolean showTimeEstimation = config.showTimeEstimation;
+        boolean useLongTerm = config.useLongTerm;
+
+        boolean isCharging = values.isCharging();
+        BatteryEstimate shortTerm = values.getShortTerm();
+        BatteryEstimate longTerm = values.getLongTerm();
+        StringBuilder levelText = new StringBuilder();
+        // Start of the long-term estimate, shown in its own color
+        int longTermStart = -1;
+        if (showBatteryPercentage) {
+            levelText.append(values.getCurrentPercentText()).append(isCharging ? " ⚡" : "");
+        }
 
-            // Restore canvas state
-            canvas.restore();
+        if (showUseRate || showEstimation || showTimeEstimation) {
+            if (shortTerm != null && !useLongTerm) {
+                if(showBatteryPercentage) {
+                    levelText.append(BatteryUtils.TEXT_SEPARATOR);
+                }
+                appendEstimateText(levelText, shortTerm, showUseRate, showEstimation, showTimeEstimation);
+            } else if(longTerm != null) {
+                if(showBatteryPercentage) {
+                    levelText.append(BatteryUtils.TEXT_SEPARATOR);
+                }
+
+                longTermStart = levelText.length();
+                appendEstimateText(levelText, longTerm, showUseRate, showEstimation, showTimeEstimation);
+            }
         }
 
+        // Draw the text with its cached layout
+        int orientation = context.getResources().getConfiguration().orientation;
+        float adjustedTextSize = getAdjustedTextSize(context, batteryTextSize, orientation);
+        float xPos = paddingHorizontal + adjustedTextSize + (showYAxisLabels ? labelTextSize * 3 : 0);
+        float yPos = height - paddingVertical - adjustedTextSize * 1.5f;
+        OverlayTextLayout.getInstance().draw(canvas, xPos, yPos, levelText.toString(), longTermStart,
+            adjustedTextSize, orientation, config, density);
+
         // Display mode indicator
         if (zoomedDisplay || unzoomedDisplay) {
             int iconResourceId = zoomedDisplay ? R.drawable.ic_magnifying_glass : R.drawable.ic_graph;
             Drawable modeIcon = ContextCompat.getDrawable(context, iconResourceId);
             if (modeIcon != null) {
-                float batteryWidthScale = prefs.getFloat("batteryWidthScale", 1.5f);
+                float batteryWidthScale = config.batteryWidthScale;
                 int iconHeight = (int) (batteryTextSize * 0.9f);
                 int iconWidth = (int) (iconHeight * batteryWidthScale);
                 float iconPadding = 8 * density; // Additional padding for rounded corners
-                float xPos = paddingHorizontal + iconPadding + (showYAxisLabels ? labelTextSize * 3 : 0);
-                float yPos = paddingVertical + iconPadding;
+                float iconX = paddingHorizontal + iconPadding + (showYAxisLabels ? labelTextSize * 3 : 0);
+                float iconY = paddingVertical + iconPadding;
 
                 canvas.save();
-                canvas.translate(xPos, yPos);
+                canvas.translate(iconX, iconY);
                 modeIcon.setBounds(0, 0, iconWidth, iconHeight);
                 modeIcon.setTint(textColor);
                 modeIcon.draw(canvas);
@@ -1266,66 +1091,91 @@ public class BatteryGraphGenerator {
         }
     }
 
+    /**
+     * Append the rate and time estimate of an estimate to the widget text, using its cached display strings.
+     */
+    private static void appendEstimateText(StringBuilder levelText, BatteryEstimate estimate,
+                                           boolean showUseRate, boolean showEstimation, boolean showTimeEstimation) {
+        if (showUseRate) {
+            levelText.append(estimate.getRateText()).append("%/h");
+        }
+
+        if (!estimate.getHoursText().isEmpty() && (showEstimation || showTimeEstimation)) {
+            if (showUseRate) {
+                levelText.append(BatteryUtils.TEXT_SEPARATOR);
+            }
+
+            if (showEstimation && showTimeEstimation) {
+                levelText.append(estimate.getHoursAndEndTimeText());
+            } else if (showEstimation) {
+                levelText.append(estimate.getHoursText());
+            } else {
+                levelText.append(estimate.getTargetAndEndTimeText());
+            }
+        }
+    }
+
 	/**
-	 * Calculates the average usage rate based on the specified averaging method.
+	 * Get the minimum and maximum battery level of the points from a given time to the end of the data.
+	 * Whole minutes are read from the level-of-detail pyramid when given, in O(log n), and only the
+	 * points of the partial minutes at both ends from the list.
 	 *
-	 * @param highUsageAverage The averaging method to use: "mean", "median", or "hybrid"
-	 * @param usageRates       List of battery usage rates to average
-	 * @return The calculated average usage rate.
+	 * @param dataPoints Data points, in chronological order
+	 * @param pyramid Summary of the data points, or null to read all of them
+	 * @param from Start time
+	 * @return The minimum and maximum level, {@link Float#MAX_VALUE} and -{@link Float#MAX_VALUE} if no point
 	 */
-	private static float getAverageUsage(String highUsageAverage, List<Float> usageRates) {
-		if (usageRates.size() == 1) {
-			return usageRates.get(0);
-		}
-
-		float meanUsage = 0;
-		float medianUsage = 0;
-		float averageUsage;
-
-		if (highUsageAverage.equals("mean") || highUsageAverage.equals("hybrid")) {
-			float sum = 0.0f;
-			for (float rate : usageRates) {
-				sum += rate;
+	static float[] getLevelRange(List<HybridBatteryData> dataPoints, LodPyramid pyramid, long from) {
+		int index = findFirstAtOrAfter(dataPoints, from);
+		float[] range = null;
+		int end = dataPoints.size();
+		if (pyramid != null && index < end) {
+			long bucketMs = LodPyramid.BASE_BUCKET_MS;
+			long rangeFrom = Math.floorDiv(dataPoints.get(index).getTimestamp() + bucketMs - 1, bucketMs) * bucketMs;
+			long rangeTo = Math.floorDiv(dataPoints.get(end - 1).getTimestamp() + 1, bucketMs) * bucketMs;
+			if (rangeFrom < rangeTo) {
+				range = pyramid.getLevelRange(rangeFrom, rangeTo);
 			}
-			meanUsage = sum / usageRates.size();
-		}
-
-		if (highUsageAverage.equals("median") || highUsageAverage.equals("hybrid")) {
-			List<Float> sortedRates = new ArrayList<>(usageRates);
-			Collections.sort(sortedRates);
-			int size = sortedRates.size();
-			if (size % 2 == 0) {
-				// Even number of elements: average the two middle values
-				medianUsage = (sortedRates.get(size / 2 - 1) + sortedRates.get(size / 2)) / 2.0f;
-			} else {
-				// Odd number of elements: take the middle value
-				medianUsage = sortedRates.get(size / 2);
+			if (range != null) {
+				// Partial minutes at both ends
+				int rangeStart = findFirstAtOrAfter(dataPoints, rangeFrom);
+				int rangeEnd = findFirstAtOrAfter(dataPoints, rangeTo);
+				addLevels(range, dataPoints, index, rangeStart);
+				addLevels(range, dataPoints, rangeEnd, end);
+				return range;
 			}
 		}
 
-		if (highUsageAverage.equals("hybrid")) {
-			averageUsage = meanUsage * 0.5f + medianUsage * 0.5f;
-		} else if (highUsageAverage.equals("mean")) {
-			averageUsage = meanUsage;
-		} else {
-			averageUsage = medianUsage;
+		range = new float[]{Float.MAX_VALUE, -Float.MAX_VALUE};
+		addLevels(range, dataPoints, index, end);
+		return range;
+	}
+
+	private static void addLevels(float[] range, List<HybridBatteryData> dataPoints, int start, int end) {
+		for (int i = start; i < end; i++) {
+			float level = dataPoints.get(i).getBatteryLevel();
+			if (level < range[0]) range[0] = level;
+			if (level > range[1]) range[1] = level;
 		}
-		return averageUsage;
 	}
 
 	/**
 	 * Downsample battery data points to match pixel width for smoother rendering.
 	 * Uses min-max downsampling to preserve peaks and valleys in the data.
+	 * When a level-of-detail pyramid of the data is given, the columns are summarized from its buckets
+	 * instead of every point, only the partial buckets at both ends of the range are read from the list.
 	 *
 	 * @param dataPoints Original data points
+	 * @param pyramid Summary of the data points, or null to read all of them
 	 * @param pixelWidth Width in pixels to downsample to
 	 * @param startTime Start of time range
 	 * @param timeRange Duration of time range in milliseconds
 	 * @param beforeStartData Optional data point before the visible range for interpolation
 	 * @return Downsampled list of data points
 	 */
-	private static List<HybridBatteryData> downsampleToPixelWidth(
+	static List<HybridBatteryData> downsampleToPixelWidth(
 			List<HybridBatteryData> dataPoints,
+			LodPyramid pyramid,
 			int pixelWidth,
 			long startTime,
 			long timeRange,
@@ -1342,90 +1192,175 @@ public class BatteryGraphGenerator {
 			result.add(beforeStartData);
 		}
 
-		// Group points by pixel column
-		int currentPixel = -1;
-		List<HybridBatteryData> pixelBucket = new ArrayList<>();
-
-		for (HybridBatteryData data : dataPoints) {
-			if (data.getTimestamp() < startTime) {
-				continue; // Skip points before visible range (already handled by beforeStartData)
+		// Use the buckets of the pyramid not longer than a pixel column, between the first and the last
+		// bucket boundaries of the range
+		List<HybridBatteryData> buckets = null;
+		long bucketsFrom = 0;
+		long bucketsTo = 0;
+		int level = pyramid != null ? LodPyramid.getLevel(timeRange / pixelWidth) : -1;
+		if (level >= 0) {
+			long bucketMs = LodPyramid.getBucketMillis(level);
+			long lastTimestamp = dataPoints.get(dataPoints.size() - 1).getTimestamp();
+			bucketsFrom = Math.floorDiv(startTime + bucketMs - 1, bucketMs) * bucketMs;
+			bucketsTo = Math.floorDiv(lastTimestamp + 1, bucketMs) * bucketMs;
+			if (bucketsFrom < bucketsTo) {
+				buckets = pyramid.getBuckets(level, bucketsFrom, bucketsTo);
 			}
+		}
 
-			// Calculate which pixel column this point belongs to
-			long timeSinceStart = data.getTimestamp() - startTime;
-			int pixel = (int) ((timeSinceStart * pixelWidth) / timeRange);
+		PixelColumn column = new PixelColumn(result);
+		int index = findFirstAtOrAfter(dataPoints, startTime);
+		if (buckets == null) {
+			for (; index < dataPoints.size(); index++) {
+				HybridBatteryData data = dataPoints.get(index);
+				column.add(getPixel(data, pixelWidth, startTime, timeRange), data, data, data);
+			}
+		} else {
+			// Partial bucket at the start of the range
+			int end = findFirstAtOrAfter(dataPoints, bucketsFrom);
+			for (; index < end; index++) {
+				HybridBatteryData data = dataPoints.get(index);
+				column.add(getPixel(data, pixelWidth, startTime, timeRange), data, data, data);
+			}
+			// Whole buckets, each counted in the column of its first point
+			for (int i = 0; i < buckets.size(); i += 3) {
+				HybridBatteryData first = buckets.get(i);
+				column.add(getPixel(first, pixelWidth, startTime, timeRange), first, buckets.get(i + 1), buckets.get(i + 2));
+			}
+			// Partial bucket at the end of the range
+			for (index = findFirstAtOrAfter(dataPoints, bucketsTo); index < dataPoints.size(); index++) {
+				HybridBatteryData data = dataPoints.get(index);
+				column.add(getPixel(data, pixelWidth, startTime, timeRange), data, data, data);
+			}
+		}
+		column.flush();
 
-			// Clamp to valid pixel range
-			if (pixel < 0) pixel = 0;
-			if (pixel >= pixelWidth) pixel = pixelWidth - 1;
+		return result;
+	}
 
-			if (pixel != currentPixel) {
-				// New pixel column - process the previous bucket
-				if (!pixelBucket.isEmpty()) {
-					result.addAll(selectRepresentativePoints(pixelBucket));
-					pixelBucket.clear();
-				}
-				currentPixel = pixel;
-			}
+	/**
+	 * Downsample battery data points to a point budget with Largest-Triangle-Three-Buckets.
+	 *
+	 * @param dataPoints Original data points
+	 * @param threshold Number of points to keep, at least 3
+	 * @param startTime Start of time range, earlier points are skipped except beforeStartData
+	 * @param beforeStartData Optional data point before the visible range for interpolation
+	 * @return Downsampled list of data points, starting with beforeStartData if given
+	 */
+	static List<HybridBatteryData> downsampleLttb(
+			List<HybridBatteryData> dataPoints,
+			int threshold,
+			long startTime,
+			HybridBatteryData beforeStartData) {
 
-			pixelBucket.add(data);
+		int first = findFirstAtOrAfter(dataPoints, startTime);
+		int offset = beforeStartData != null ? 1 : 0;
+		int count = dataPoints.size() - first + offset;
+		long[] times = new long[count];
+		float[] levels = new float[count];
+		if (beforeStartData != null) {
+			times[0] = beforeStartData.getTimestamp();
+			levels[0] = beforeStartData.getBatteryLevel();
 		}
-
-		// Process the last bucket
-		if (!pixelBucket.isEmpty()) {
-			result.addAll(selectRepresentativePoints(pixelBucket));
+		for (int i = offset; i < count; i++) {
+			HybridBatteryData data = dataPoints.get(first + i - offset);
+			times[i] = data.getTimestamp();
+			levels[i] = data.getBatteryLevel();
 		}
 
+		int[] selected = new int[Math.min(count, threshold)];
+		int kept = LttbDownsampler.select(times, levels, count, threshold, selected);
+		List<HybridBatteryData> result = new ArrayList<>(kept);
+		for (int i = 0; i < kept; i++) {
+			int index = selected[i];
+			result.add(index < offset ? beforeStartData : dataPoints.get(first + index - offset));
+		}
 		return result;
 	}
 
 	/**
-	 * Select representative points from a bucket of points in the same pixel column.
-	 * Uses min-max strategy: keeps points with minimum and maximum battery levels
-	 * to preserve visual peaks and valleys.
-	 *
-	 * @param bucket List of points in the same pixel column
-	 * @return List of representative points (1-3 points depending on variation)
+	 * @return Pixel column of a point, clamped to the graph
 	 */
-	private static List<HybridBatteryData> selectRepresentativePoints(List<HybridBatteryData> bucket) {
-		List<HybridBatteryData> selected = new ArrayList<>();
+	private static int getPixel(HybridBatteryData data, int pixelWidth, long startTime, long timeRange) {
+		long timeSinceStart = data.getTimestamp() - startTime;
+		int pixel = (int) ((timeSinceStart * pixelWidth) / timeRange);
+		if (pixel < 0) pixel = 0;
+		if (pixel >= pixelWidth) pixel = pixelWidth - 1;
+		return pixel;
+	}
 
-		if (bucket.isEmpty()) {
-			return selected;
+	/**
+	 * @return Index of the first point not older than the given time, or the list size if none
+	 */
+	private static int findFirstAtOrAfter(List<HybridBatteryData> dataPoints, long time) {
+		int low = 0;
+		int high = dataPoints.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (dataPoints.get(middle).getTimestamp() < time) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
 		}
+		return low;
+	}
 
-		if (bucket.size() == 1) {
-			selected.add(bucket.get(0));
-			return selected;
+	/**
+	 * Representative points of the pixel column being downsampled.
+	 * Uses min-max strategy: keeps points with minimum and maximum battery levels
+	 * to preserve visual peaks and valleys.
+	 */
+	private static final class PixelColumn {
+		private final List<HybridBatteryData> result;
+		private int pixel = -1;
+		private HybridBatteryData first;
+		private HybridBatteryData minPoint;
+		private HybridBatteryData maxPoint;
+
+		PixelColumn(List<HybridBatteryData> result) {
+			this.result = result;
 		}
 
-		// Find min and max battery levels
-		HybridBatteryData minPoint = bucket.get(0);
-		HybridBatteryData maxPoint = bucket.get(0);
-
-		for (HybridBatteryData point : bucket) {
-			if (point.getBatteryLevel() < minPoint.getBatteryLevel()) {
-				minPoint = point;
+		/**
+		 * Add points, a single one or the summary of a bucket, in chronological order.
+		 */
+		void add(int pixel, HybridBatteryData first, HybridBatteryData min, HybridBatteryData max) {
+			if (pixel != this.pixel) {
+				// New pixel column - process the previous one
+				flush();
+				this.pixel = pixel;
+				this.first = first;
+				this.minPoint = min;
+				this.maxPoint = max;
+				return;
 			}
-			if (point.getBatteryLevel() > maxPoint.getBatteryLevel()) {
-				maxPoint = point;
+			if (min.getBatteryLevel() < minPoint.getBatteryLevel()) {
+				minPoint = min;
+			}
+			if (max.getBatteryLevel() > maxPoint.getBatteryLevel()) {
+				maxPoint = max;
 			}
 		}
 
-		// If min and max are different, add both in chronological order
-		if (minPoint != maxPoint) {
-			if (minPoint.getTimestamp() < maxPoint.getTimestamp()) {
-				selected.add(minPoint);
-				selected.add(maxPoint);
+		void flush() {
+			if (first == null) {
+				return;
+			}
+			// If min and max are different, add both in chronological order
+			if (minPoint != maxPoint) {
+				if (minPoint.getTimestamp() < maxPoint.getTimestamp()) {
+					result.add(minPoint);
+					result.add(maxPoint);
+				} else {
+					result.add(maxPoint);
+					result.add(minPoint);
+				}
 			} else {
-				selected.add(maxPoint);
-				selected.add(minPoint);
+				// All points have same level - just use the first one
+				result.add(first);
 			}
-		} else {
-			// All points have same level - just use the first one
-			selected.add(bucket.get(0));
+			first = null;
 		}
-
-		return selected;
 	}
 }
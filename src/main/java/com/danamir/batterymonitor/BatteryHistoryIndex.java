@@ -0,0 +1,356 @@
+package com.danamir.batterymonitor;
+
+import java.util.Arrays;
+
+/**
+ * Prefix-sum index over the integer battery history, maintained on ingestion.
+ *
+ * Points are deduplicated like {@link BatteryDataManager#getDataPoints(int)}: a point with the same
+ * level and charging state as the previous one replaces it. For each step between two consecutive
+ * points, the index accumulates the discharge drop and time, and the charge gained and time spent
+ * in limited charging periods (below the target charge). It also keeps the last index at which each
+ * level was seen, and the table of charge and discharge sessions, so time range rates and the
+ * "since max" rate are answered with binary searches and a walk over the sessions instead of passes
+ * over the history.
+ *
+ * Not thread safe, the owning data manager synchronizes access.
+ */
+public class BatteryHistoryIndex implements RateEstimator {
+    public static final String ID = "max_charge";
+
+    private static final int MAX_LEVEL = 100;
+
+    private final int targetCharge;
+
+    // Point i is stored at position i - firstIndex + start
+    private long[] timestamps = new long[256];
+    private int[] levels = new int[256];
+    private boolean[] chargingStates = new boolean[256];
+    // Sums over the steps before each point: value at point i covers steps (j, j + 1) for j < i
+    private long[] dischargeDrop = new long[256];
+    private long[] dischargeTime = new long[256];
+    private long[] limitedChargeGain = new long[256];
+    private long[] limitedChargeTime = new long[256];
+    private int start;
+    private int count;
+    private int firstIndex;
+
+    // Last index at which each level was seen
+    private final int[] lastLevelIndex = new int[MAX_LEVEL + 1];
+    private final SessionIndex sessions;
+
+    /**
+     * @param targetCharge Target charge percentage, charging steps below it are limited charging periods
+     */
+    public BatteryHistoryIndex(int targetCharge) {
+        this.targetCharge = targetCharge;
+        Arrays.fill(lastLevelIndex, -1);
+        sessions = new SessionIndex(targetCharge);
+    }
+
+    public int getTargetCharge() {
+        return targetCharge;
+    }
+
+    /**
+     * @return The charge and discharge sessions of the history, excluded from statistics with the target charge
+     */
+    public SessionIndex getSessions() {
+        return sessions;
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public String getLabel() {
+        return "Since max";
+    }
+
+    private int position(int index) {
+        return start + index - firstIndex;
+    }
+
+    private int lastIndex() {
+        return firstIndex + count - 1;
+    }
+
+    /**
+     * Add an integer data point, precise levels are rounded.
+     */
+    @Override
+    public void onSample(long timestamp, float level, boolean isCharging) {
+        addDataPoint(timestamp, Math.round(level), isCharging);
+    }
+
+    /**
+     * Add a data point, in chronological order.
+     */
+    public void addDataPoint(long timestamp, int level, boolean isCharging) {
+        sessions.onSample(timestamp, level, isCharging);
+        if (count > 0) {
+            int last = position(lastIndex());
+            if (levels[last] == level && chargingStates[last] == isCharging) {
+                // Same data, only the time of the last point moves forward
+                timestamps[last] = timestamp;
+                if (count > 1) {
+                    updateStepSums(last - 1, last);
+                }
+                return;
+            }
+        }
+
+        if (start + count == timestamps.length) {
+            growStorage();
+        }
+        int position = start + count;
+        timestamps[position] = timestamp;
+        levels[position] = level;
+        chargingStates[position] = isCharging;
+        count++;
+
+        if (count > 1) {
+            updateStepSums(position - 1, position);
+        } else {
+            dischargeDrop[position] = 0;
+            dischargeTime[position] = 0;
+            limitedChargeGain[position] = 0;
+            limitedChargeTime[position] = 0;
+        }
+
+        lastLevelIndex[Math.max(0, Math.min(MAX_LEVEL, level))] = lastIndex();
+    }
+
+    /**
+     * Compute the sums at a point from the sums at the previous point and the step between them.
+     */
+    private void updateStepSums(int previous, int current) {
+        long timeDelta = timestamps[current] - timestamps[previous];
+        dischargeDrop[current] = dischargeDrop[previous];
+        dischargeTime[current] = dischargeTime[previous];
+        limitedChargeGain[current] = limitedChargeGain[previous];
+        limitedChargeTime[current] = limitedChargeTime[previous];
+
+        if (chargingStates[previous]) {
+            // Charging period that didn't reach target charge
+            int levelIncrease = levels[current] - levels[previous];
+            if (levels[current] < targetCharge && levelIncrease > 0) {
+                limitedChargeGain[current] += levelIncrease;
+                limitedChargeTime[current] += timeDelta;
+            }
+        } else {
+            dischargeDrop[current] += levels[previous] - levels[current];
+            dischargeTime[current] += timeDelta;
+        }
+    }
+
+    private void growStorage() {
+        if (start > timestamps.length / 2) {
+            compact(timestamps.length);
+        } else {
+            compact(timestamps.length * 2);
+        }
+    }
+
+    private void compact(int capacity) {
+        timestamps = moveTo(timestamps, new long[capacity]);
+        dischargeDrop = moveTo(dischargeDrop, new long[capacity]);
+        dischargeTime = moveTo(dischargeTime, new long[capacity]);
+        limitedChargeGain = moveTo(limitedChargeGain, new long[capacity]);
+        limitedChargeTime = moveTo(limitedChargeTime, new long[capacity]);
+        int[] newLevels = new int[capacity];
+        System.arraycopy(levels, start, newLevels, 0, count);
+        levels = newLevels;
+        boolean[] newStates = new boolean[capacity];
+        System.arraycopy(chargingStates, start, newStates, 0, count);
+        chargingStates = newStates;
+        start = 0;
+    }
+
+    private long[] moveTo(long[] source, long[] destination) {
+        System.arraycopy(source, start, destination, 0, count);
+        return destination;
+    }
+
+    @Override
+    public void onHistoryTruncated(long firstTimestamp) {
+        removeBefore(firstTimestamp);
+    }
+
+    /**
+     * Drop the points older than the given time, after the owner trimmed its history.
+     */
+    public void removeBefore(long timestamp) {
+        int removed = 0;
+        while (removed < count && timestamps[start + removed] < timestamp) {
+            removed++;
+        }
+        start += removed;
+        count -= removed;
+        firstIndex += removed;
+        sessions.removeBefore(timestamp);
+    }
+
+    /**
+     * @return Index of the first point at or after the given time, or the index after the last point
+     */
+    private int lowerBound(long timestamp) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[start + mid] < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return firstIndex + low;
+    }
+
+    /**
+     * @return Index of the last point at or before the given time, or the index before the first point
+     */
+    private int upperBound(long timestamp) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[start + mid] <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return firstIndex + low - 1;
+    }
+
+    /**
+     * Get the last time the given level was seen.
+     * @return Timestamp, or -1 if the level is not in the history
+     */
+    public long getLastTimeAtLevel(int level) {
+        if (level < 0 || level > MAX_LEVEL) {
+            return -1;
+        }
+        int index = lastLevelIndex[level];
+        return index >= firstIndex ? timestamps[position(index)] : -1;
+    }
+
+    /**
+     * Get the discharge rate between two times, excluding charging periods.
+     * Only steps with both points in the time range are counted.
+     *
+     * @param fromTime Start of the time range
+     * @param toTime End of the time range
+     * @return Discharge rate in %/h (positive value), or null if no discharge in the range
+     */
+    public Double getDischargeRate(long fromTime, long toTime) {
+        int first = lowerBound(fromTime);
+        int last = upperBound(toTime);
+        if (last <= first) {
+            return null;
+        }
+
+        long drop = dischargeDrop[position(last)] - dischargeDrop[position(first)];
+        long time = dischargeTime[position(last)] - dischargeTime[position(first)];
+        if (time <= 0 || drop <= 0) {
+            return null;
+        }
+        return drop / (time / 3600000.0);
+    }
+
+    @Override
+    public Double getRate(long cutoffTime, int minDuration) {
+        return getUsageRateSinceMax(cutoffTime, minDuration);
+    }
+
+    /**
+     * Same calculation as {@link BatteryUtils#calculateBatteryUsageRateValueSinceMax} on the points
+     * at or after the cutoff time.
+     *
+     * @param cutoffTime Oldest timestamp of the data the calculation is restricted to
+     * @param minDuration Minimum duration to do the calculation (in minutes)
+     * @return Battery usage rate in %/h, or null if insufficient data
+     */
+    public Double getUsageRateSinceMax(long cutoffTime, int minDuration) {
+        int first = lowerBound(cutoffTime);
+        int last = lastIndex();
+        if (last - first < 1) {
+            return null;
+        }
+
+        int lastPosition = position(last);
+        // If currently charging, return null
+        if (chargingStates[lastPosition]) {
+            return null;
+        }
+
+        // Use the nearest charge >= targetCharge, otherwise the last point at the max charge level
+        int startIndex = findLastTargetCharge(first);
+        if (startIndex < 0) {
+            for (int level = MAX_LEVEL; level > 0; level--) {
+                if (lastLevelIndex[level] >= first) {
+                    startIndex = lastLevelIndex[level];
+                    break;
+                }
+            }
+        }
+
+        if (startIndex < 0) {
+            return null;
+        }
+
+        int startPosition = position(startIndex);
+        long timeDiffMs = timestamps[lastPosition] - timestamps[startPosition];
+        int levelDiff = levels[startPosition] - levels[lastPosition];
+
+        // Check minimum duration requirement
+        if (timeDiffMs < minDuration * 60 * 1000) {
+            return null;
+        }
+
+        // Subtract limited charging periods from the steps starting at or after the start point
+        int stepsFrom = position(lowerBound(timestamps[startPosition]));
+        long chargeGained = limitedChargeGain[lastPosition] - limitedChargeGain[stepsFrom];
+        long chargeTimeDuration = limitedChargeTime[lastPosition] - limitedChargeTime[stepsFrom];
+
+        int adjustedLevelDiff = (int) (levelDiff + chargeGained);
+        long adjustedTimeDiffMs = timeDiffMs - chargeTimeDuration;
+
+        // Ensure we have valid data after adjustments
+        if (adjustedTimeDiffMs < minDuration * 60 * 1000 || adjustedLevelDiff <= 0) {
+            return null;
+        }
+
+        // Calculate rate per hour
+        double hours = adjustedTimeDiffMs / 3600000.0;
+        return adjustedLevelDiff / hours;
+    }
+
+    /**
+     * Find the last charging point at or above the target charge, in the last charging session that
+     * reached it. The points of the session after it, usually none, are walked back.
+     *
+     * @param first Index of the first point the calculation is restricted to
+     * @return Index of the point, or -1 if not found at or after the first index
+     */
+    private int findLastTargetCharge(int first) {
+        BatterySession charge = sessions.getLastChargeReaching(targetCharge);
+        if (charge == null) {
+            return -1;
+        }
+
+        int sessionFirst = Math.max(first, lowerBound(charge.getStartTime()));
+        for (int index = upperBound(charge.getEndTime()); index >= sessionFirst; index--) {
+            int position = position(index);
+            // The next session may start at the same time as the last point of this one
+            if (chargingStates[position] && levels[position] >= targetCharge) {
+                return index;
+            }
+        }
+        return -1;
+    }
+}
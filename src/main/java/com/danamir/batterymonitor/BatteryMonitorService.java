@@ -13,11 +13,13 @@ import android.os.IBinder;
 import android.os.Looper;
 
 public class BatteryMonitorService extends Service {
+    private final BatterySource batterySource = SystemBatterySource.getInstance();
     private BatteryReceiver batteryReceiver;
     private BatteryReceiver screenReceiver;
     private BatteryReceiver configReceiver;
     private Handler handler;
     private Runnable updateRunnable;
+    private final BatterySnapshotHub.Listener snapshotListener = snapshot -> updateNotification(snapshot);
     private static final long UPDATE_INTERVAL = 60000; // 1 minute
     private static final int NOTIFICATION_ID = 1;
     private static final String CHANNEL_ID = "battery_monitor_channel";
@@ -34,20 +36,23 @@ public class BatteryMonitorService extends Service {
         // Start as foreground service immediately
         startForeground(NOTIFICATION_ID, createNotification());
 
+        // Refresh the notification each time a new battery snapshot is published
+        BatterySnapshotHub.getInstance(this).addListener(snapshotListener);
+
         // Register battery receiver
-        batteryReceiver = new BatteryReceiver();
+        batteryReceiver = new BatteryReceiver(batterySource);
         IntentFilter filter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
         registerReceiver(batteryReceiver, filter);
 
         // Register screen receiver for USER_PRESENT and SCREEN_OFF (must be registered dynamically)
-        screenReceiver = new BatteryReceiver();
+        screenReceiver = new BatteryReceiver(batterySource);
         IntentFilter screenFilter = new IntentFilter();
         screenFilter.addAction(Intent.ACTION_USER_PRESENT);
         screenFilter.addAction(Intent.ACTION_SCREEN_OFF);
         registerReceiver(screenReceiver, screenFilter);
 
         // Register configuration change receiver (must be registered dynamically)
-        configReceiver = new BatteryReceiver();
+        configReceiver = new BatteryReceiver(batterySource);
         IntentFilter configFilter = new IntentFilter();
         configFilter.addAction(Intent.ACTION_CONFIGURATION_CHANGED);
         registerReceiver(configReceiver, configFilter);
@@ -58,9 +63,9 @@ public class BatteryMonitorService extends Service {
             @Override
             public void run() {
                 // Request battery status update
-                Intent batteryIntent = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
-                if (batteryIntent != null) {
-                    batteryReceiver.onReceive(BatteryMonitorService.this, batteryIntent);
+                BatterySample sample = batterySource.readCurrent(BatteryMonitorService.this);
+                if (sample != null) {
+                    batteryReceiver.onBatterySample(BatteryMonitorService.this, sample);
 
                     // Explicitly update widgets to ensure they stay synchronized
                     BatteryWidgetProvider.updateAllWidgets(BatteryMonitorService.this);
@@ -107,6 +112,10 @@ public class BatteryMonitorService extends Service {
     }
 
     private Notification createNotification() {
+        return createNotification(BatterySnapshotHub.getInstance(this).getSnapshot());
+    }
+
+    private Notification createNotification(BatterySnapshot snapshot) {
         Intent intent = new Intent(this, SettingsActivity.class);
         PendingIntent pendingIntent = PendingIntent.getActivity(
             this, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
@@ -125,48 +134,36 @@ public class BatteryMonitorService extends Service {
         String contentTitle;
         String contentText = "";
 
-        java.util.Map<String, String> values = BatteryUtils.calculateValues(this, true);
-        if(!values.get("current_level").isEmpty()) {
+        BatteryValues values = snapshot.getValues();
+        if (values.hasData()) {
 
-            String usageRate = values.get("usage_rate");
-            String hoursTo = values.get("hours_to");
-            String timeTo = values.get("time_to");
-            String currentPercent = values.get("current_percent");
-            String calculationDuration = values.get("calculation_duration");
-            boolean isCharging = "true".equals(values.get("charging"));
+            BatteryEstimate shortTerm = values.getShortTerm();
+            boolean isCharging = values.isCharging();
 
-            contentTitle = "Battery " + currentPercent + (isCharging ? " ⚡" : "")
-                        + (!usageRate.isEmpty() ? BatteryUtils.TEXT_SEPARATOR + usageRate + "%/h" : "");
+            contentTitle = "Battery " + values.getCurrentPercentText() + (isCharging ? " ⚡" : "")
+                        + (shortTerm != null ? BatteryUtils.TEXT_SEPARATOR + shortTerm.getRateText() + "%/h" : "");
 
             // Add time estimate if available
-            if (!usageRate.isEmpty() && !hoursTo.isEmpty()) {
-                String timeEstimate = hoursTo + " (" + timeTo + ")";
-                contentText = timeEstimate + " Last " + calculationDuration;
+            if (shortTerm != null && !shortTerm.getHoursText().isEmpty()) {
+                contentText = shortTerm.getHoursAndEndTimeText() + " Last " + values.getCalculationMinutes() + "m";
             }
 
             // Long-term estimation (max charge or all-time stats)
-            String usageRateLongTerm = values.get("usage_rate_long_term");
-            String hoursToLongTerm = values.get("hours_to_long_term");
-            String timeToLongTerm = values.get("time_to_long_term");
-            if (!usageRateLongTerm.isEmpty()) {
-                contentTitle += BatteryUtils.TEXT_SEPARATOR_ALT + usageRateLongTerm + "%/h";
+            BatteryEstimate longTerm = values.getLongTerm();
+            if (longTerm != null) {
+                contentTitle += BatteryUtils.TEXT_SEPARATOR_ALT + longTerm.getRateText() + "%/h";
 
-                String timeEstimate = hoursToLongTerm + " (" + timeToLongTerm + ")";
                 if (!contentText.isEmpty()) {
                     contentText += "\n";
                 }
-                
-                // Determine label: always "All-time" when charging, otherwise use preference
-                String label;
-                if (isCharging) {
-                    label = "All-time";
-                } else {
-                    android.content.SharedPreferences prefs = androidx.preference.PreferenceManager.getDefaultSharedPreferences(this);
-                    String estimationSource = prefs.getString("estimation_source", "all_time_stats");
-                    label = "all_time_stats".equals(estimationSource) ? "All-time" : "Since max";
+
+                // Label from the estimate source: always all-time stats when charging
+                String label = longTerm.getLabel();
+
+                contentText += longTerm.getHoursAndEndTimeText() + " " + label;
+                if (!longTerm.getRateMarginText().isEmpty()) {
+                    contentText += " " + longTerm.getRateMarginText() + "%/h";
                 }
-                
-                contentText += timeEstimate + " " + label;
             }
         } else {
             contentTitle = "Battery Monitor";
@@ -182,9 +179,13 @@ public class BatteryMonitorService extends Service {
     }
 
     public void updateNotification(int batteryLevel, boolean charging) {
+        updateNotification(BatterySnapshotHub.getInstance(this).getSnapshot());
+    }
+
+    private void updateNotification(BatterySnapshot snapshot) {
         NotificationManager manager = getSystemService(NotificationManager.class);
         if (manager != null) {
-            manager.notify(NOTIFICATION_ID, createNotification());
+            manager.notify(NOTIFICATION_ID, createNotification(snapshot));
         }
     }
 
@@ -192,6 +193,8 @@ public class BatteryMonitorService extends Service {
     public void onDestroy() {
         super.onDestroy();
 
+        BatterySnapshotHub.getInstance(this).removeListener(snapshotListener);
+
         if (batteryReceiver != null) {
             unregisterReceiver(batteryReceiver);
         }
@@ -5,47 +5,61 @@ import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.os.BatteryManager;
 import android.os.Build;
 
 public class BatteryReceiver extends BroadcastReceiver {
+    private final BatterySource source;
+
+    public BatteryReceiver() {
+        this(SystemBatterySource.getInstance());
+    }
+
+    public BatteryReceiver(BatterySource source) {
+        this.source = source;
+    }
 
     /**
-     * Query and update current battery status to ensure fresh data.
+     * Store a battery sample through the standard ingestion path.
+     * Integer data is always recorded, precise data only when enabled in preferences.
+     *
      * @param context The application context
-     * @return int array with [batteryPct, isCharging ? 1 : 0] or null if failed
+     * @param source The source the sample was read from, used to obtain the precise level
+     * @param sample The battery sample to store
+     * @param dataManager Integer data store
+     * @param preciseManager Precise data store
      */
-    private int[] updateCurrentBatteryStatus(Context context) {
-        android.content.IntentFilter batteryFilter = new android.content.IntentFilter(Intent.ACTION_BATTERY_CHANGED);
-        Intent batteryIntent = context.registerReceiver(null, batteryFilter);
-
-        if (batteryIntent != null) {
-            int level = batteryIntent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
-            int scale = batteryIntent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
-            int status = batteryIntent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
-
-            boolean isCharging = status == BatteryManager.BATTERY_STATUS_CHARGING ||
-                               status == BatteryManager.BATTERY_STATUS_FULL;
-
-            if (level >= 0 && scale > 0) {
-                int batteryPct = (int) ((level / (float) scale) * 100);
-
-                // Update battery data with current status
-                BatteryDataManager dataManager = BatteryDataManager.getInstance(context);
-                dataManager.addDataPoint(batteryPct, isCharging);
-
-                // Additionally update precise battery data if enabled
-                android.content.SharedPreferences prefs = androidx.preference.PreferenceManager.getDefaultSharedPreferences(context);
-                if (prefs.getBoolean("use_precise_battery", false)) {
-                    PreciseBatteryCalculator calculator = new PreciseBatteryCalculator();
-                    float preciseLevel = (float) calculator.getCalibratedBatteryPercentage(context);
-                    PreciseBatteryDataManager.getInstance(context).addDataPoint(preciseLevel, isCharging);
-                }
+    static void recordSample(Context context, BatterySource source, BatterySample sample,
+                             BatteryDataManager dataManager, PreciseBatteryDataManager preciseManager) {
+        dataManager.addDataPoint(sample.getTimestamp(), sample.getLevel(), sample.isCharging());
+
+        // Additionally update precise battery data if enabled
+        android.content.SharedPreferences prefs = androidx.preference.PreferenceManager.getDefaultSharedPreferences(context);
+        if (prefs.getBoolean("use_precise_battery", false)) {
+            float preciseLevel = source.readPreciseLevel(context, sample);
+            preciseManager.addDataPoint(sample.getTimestamp(), preciseLevel, sample.isCharging());
+        }
+    }
 
-                return new int[]{batteryPct, isCharging ? 1 : 0};
-            }
+    private void recordSample(Context context, BatterySample sample) {
+        recordSample(context, source, sample,
+            BatteryDataManager.getInstance(context), PreciseBatteryDataManager.getInstance(context));
+
+        // Compute the estimates once for this sample and share them with all consumers
+        BatterySnapshotHub.getInstance(context).publish();
+    }
+
+    /**
+     * Query and update current battery status to ensure fresh data.
+     * @param context The application context
+     * @return The recorded sample, or null if failed
+     */
+    private BatterySample updateCurrentBatteryStatus(Context context) {
+        BatterySample sample = source.readCurrent(context);
+        if (sample != null) {
+            // Update battery data with current status
+            recordSample(context, sample);
         }
-        return null;
+        return sample;
     }
 
     @Override
@@ -61,22 +75,22 @@ public class BatteryReceiver extends BroadcastReceiver {
         if (Intent.ACTION_USER_PRESENT.equals(action)) {
             // User unlocked device - start user_present status
             StatusManager statusManager = StatusManager.getInstance(context);
-            statusManager.startStatus("user_present", System.currentTimeMillis());
+            statusManager.startStatus("user_present", source.getClock().currentTimeMillis());
 
             // Log unlock event
             EventLogManager eventLogManager = EventLogManager.getInstance(context);
             eventLogManager.logEvent("Device unlocked");
 
             // Query current battery status to ensure fresh data - use unified source
-            int[] batteryData = updateCurrentBatteryStatus(context);
+            BatterySample sample = updateCurrentBatteryStatus(context);
 
             BatteryWidgetProvider.updateAllWidgets(context);
 
             // Update notification with the same battery data used for widgets
-            if (batteryData != null) {
+            if (sample != null) {
                 Intent serviceIntent = new Intent(context, BatteryMonitorService.class);
-                serviceIntent.putExtra("battery_level", batteryData[0]);
-                serviceIntent.putExtra("charging", batteryData[1] == 1);
+                serviceIntent.putExtra("battery_level", sample.getLevel());
+                serviceIntent.putExtra("charging", sample.isCharging());
                 try {
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                         context.startForegroundService(serviceIntent);
@@ -93,7 +107,11 @@ public class BatteryReceiver extends BroadcastReceiver {
         if (Intent.ACTION_SCREEN_OFF.equals(action)) {
             // Screen turned off - end user_present status
             StatusManager statusManager = StatusManager.getInstance(context);
-            statusManager.endStatus("user_present", System.currentTimeMillis());
+            StatusData ended = statusManager.endStatus("user_present", source.getClock().currentTimeMillis());
+            if (ended != null) {
+                BatteryDataManager.getInstance(context).addScreenOnInterval(
+                    ended.getStartTimestamp(), ended.getEndTimestamp());
+            }
             BatteryWidgetProvider.updateAllWidgets(context);
             return;
         }
@@ -108,52 +126,9 @@ public class BatteryReceiver extends BroadcastReceiver {
         }
 
         if (Intent.ACTION_BATTERY_CHANGED.equals(action)) {
-            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
-            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
-            int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
-
-            boolean isCharging = status == BatteryManager.BATTERY_STATUS_CHARGING ||
-                               status == BatteryManager.BATTERY_STATUS_FULL;
-
-            if (level >= 0 && scale > 0) {
-                int batteryPct = (int) ((level / (float) scale) * 100);
-
-                // Store the battery data
-                BatteryDataManager dataManager = BatteryDataManager.getInstance(context);
-                dataManager.addDataPoint(batteryPct, isCharging);
-
-                // Additionally update precise battery data if enabled
-                android.content.SharedPreferences prefs = androidx.preference.PreferenceManager.getDefaultSharedPreferences(context);
-                if (prefs.getBoolean("use_precise_battery", false)) {
-                    PreciseBatteryCalculator calculator = new PreciseBatteryCalculator();
-                    float preciseLevel = (float) calculator.getCalibratedBatteryPercentage(context);
-                    PreciseBatteryDataManager.getInstance(context).addDataPoint(preciseLevel, isCharging);
-                }
-
-                // Update all widgets
-                BatteryWidgetProvider.updateAllWidgets(context);
-
-                // Start service if widgets are active (only on first battery change)
-                AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
-                int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
-                    new ComponentName(context, BatteryWidgetProvider.class)
-                );
-
-                if (appWidgetIds != null && appWidgetIds.length > 0) {
-                    Intent serviceIntent = new Intent(context, BatteryMonitorService.class);
-                    serviceIntent.putExtra("battery_level", batteryPct);
-                    serviceIntent.putExtra("charging", isCharging);
-                    try {
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                            context.startForegroundService(serviceIntent);
-                        } else {
-                            context.startService(serviceIntent);
-                        }
-                    } catch (Exception e) {
-                        // Service start failed, will rely on periodic widget updates
-                        e.printStackTrace();
-                    }
-                }
+            BatterySample sample = source.fromIntent(context, intent);
+            if (sample != null) {
+                onBatterySample(context, sample);
             }
         } else if (Intent.ACTION_BOOT_COMPLETED.equals(action)) {
             // Check if widgets are active before starting service
@@ -176,4 +151,39 @@ public class BatteryReceiver extends BroadcastReceiver {
             }
         }
     }
+
+    /**
+     * Handle a new battery reading: store it, refresh widgets and the notification.
+     * @param context The application context
+     * @param sample The battery sample read from this receiver's source
+     */
+    void onBatterySample(Context context, BatterySample sample) {
+        // Store the battery data
+        recordSample(context, sample);
+
+        // Update all widgets
+        BatteryWidgetProvider.updateAllWidgets(context);
+
+        // Start service if widgets are active (only on first battery change)
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
+            new ComponentName(context, BatteryWidgetProvider.class)
+        );
+
+        if (appWidgetIds != null && appWidgetIds.length > 0) {
+            Intent serviceIntent = new Intent(context, BatteryMonitorService.class);
+            serviceIntent.putExtra("battery_level", sample.getLevel());
+            serviceIntent.putExtra("charging", sample.isCharging());
+            try {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    context.startForegroundService(serviceIntent);
+                } else {
+                    context.startService(serviceIntent);
+                }
+            } catch (Exception e) {
+                // Service start failed, will rely on periodic widget updates
+                e.printStackTrace();
+            }
+        }
+    }
 }
@@ -0,0 +1,45 @@
+package com.danamir.batterymonitor;
+
+/**
+ * A single battery reading as delivered by a {@link BatterySource}.
+ *
+ * The precise level is optional: sources that cannot provide one (or have not computed it yet)
+ * use {@link Float#NaN}.
+ */
+public class BatterySample {
+    private final long timestamp;
+    private final int level;
+    private final float preciseLevel;
+    private final boolean isCharging;
+
+    public BatterySample(long timestamp, int level, boolean isCharging) {
+        this(timestamp, level, Float.NaN, isCharging);
+    }
+
+    public BatterySample(long timestamp, int level, float preciseLevel, boolean isCharging) {
+        this.timestamp = timestamp;
+        this.level = level;
+        this.preciseLevel = preciseLevel;
+        this.isCharging = isCharging;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public float getPreciseLevel() {
+        return preciseLevel;
+    }
+
+    public boolean hasPreciseLevel() {
+        return !Float.isNaN(preciseLevel);
+    }
+
+    public boolean isCharging() {
+        return isCharging;
+    }
+}
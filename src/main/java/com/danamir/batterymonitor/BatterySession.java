@@ -0,0 +1,90 @@
+package com.danamir.batterymonitor;
+
+/**
+ * Immutable summary of one charge or discharge session: consecutive samples with the same charging state.
+ */
+public final class BatterySession {
+    private final boolean charging;
+    private final long startTime;
+    private final long endTime;
+    private final int startLevel;
+    private final int endLevel;
+    private final int minLevel;
+    private final int maxLevel;
+    private final long screenOnTime;
+    private final boolean excludedFromStats;
+    private final boolean ongoing;
+
+    BatterySession(boolean charging, long startTime, long endTime, int startLevel, int endLevel,
+                   int minLevel, int maxLevel, long screenOnTime, boolean excludedFromStats, boolean ongoing) {
+        this.charging = charging;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.startLevel = startLevel;
+        this.endLevel = endLevel;
+        this.minLevel = minLevel;
+        this.maxLevel = maxLevel;
+        this.screenOnTime = screenOnTime;
+        this.excludedFromStats = excludedFromStats;
+        this.ongoing = ongoing;
+    }
+
+    public boolean isCharging() {
+        return charging;
+    }
+
+    /**
+     * @return Time of the first sample of the session
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return Start of the next session, or time of the last sample for the ongoing session
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public long getDuration() {
+        return endTime - startTime;
+    }
+
+    public int getStartLevel() {
+        return startLevel;
+    }
+
+    /**
+     * @return Level at the end of the session, the start level of the next one when completed
+     */
+    public int getEndLevel() {
+        return endLevel;
+    }
+
+    public int getMinLevel() {
+        return minLevel;
+    }
+
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    /**
+     * @return Time the device was unlocked during the session, in milliseconds
+     */
+    public long getScreenOnTime() {
+        return screenOnTime;
+    }
+
+    /**
+     * @return Whether no level change of the session counted in the all-time statistics
+     */
+    public boolean isExcludedFromStats() {
+        return excludedFromStats;
+    }
+
+    public boolean isOngoing() {
+        return ongoing;
+    }
+}
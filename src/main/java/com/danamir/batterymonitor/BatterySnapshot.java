@@ -0,0 +1,102 @@
+package com.danamir.batterymonitor;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable view of the battery state at a given data version.
+ *
+ * Holds the estimates and the display series computed once by {@link BatterySnapshotHub},
+ * shared by the notification and every widget.
+ */
+public final class BatterySnapshot {
+    private final long dataVersion;
+    private final long statusVersion;
+    private final long configVersion;
+    private final long timestamp;
+    private final int displayHours;
+    private final BatteryValues values;
+    private final List<HybridBatteryData> hybridData;
+    private final List<StatusData> statusData;
+    private final LodPyramid pyramid;
+
+    BatterySnapshot(long dataVersion, long statusVersion, long configVersion, long timestamp, int displayHours,
+                    BatteryValues values, List<HybridBatteryData> hybridData, List<StatusData> statusData,
+                    LodPyramid pyramid) {
+        this.dataVersion = dataVersion;
+        this.statusVersion = statusVersion;
+        this.configVersion = configVersion;
+        this.timestamp = timestamp;
+        this.displayHours = displayHours;
+        this.values = values;
+        this.hybridData = Collections.unmodifiableList(hybridData);
+        this.statusData = Collections.unmodifiableList(statusData);
+        this.pyramid = pyramid;
+    }
+
+    /**
+     * @return Combined version of the integer and precise battery data the snapshot was computed from
+     */
+    public long getDataVersion() {
+        return dataVersion;
+    }
+
+    public long getStatusVersion() {
+        return statusVersion;
+    }
+
+    public long getConfigVersion() {
+        return configVersion;
+    }
+
+    /**
+     * @return Time at which the snapshot was computed
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getDisplayHours() {
+        return displayHours;
+    }
+
+    /**
+     * @return Battery values as returned by {@link BatteryUtils#calculateValues(android.content.Context, boolean)}
+     */
+    public BatteryValues getValues() {
+        return values;
+    }
+
+    /**
+     * @return Hybrid data for the display length, including the point preceding the range
+     */
+    public List<HybridBatteryData> getHybridData() {
+        return hybridData;
+    }
+
+    /**
+     * @return Level-of-detail summary of the hybrid data, or null if no data. A frozen view of the pyramid
+     *         shared with the next snapshots, only answering the ranges within this snapshot's data.
+     */
+    public LodPyramid getPyramid() {
+        return pyramid;
+    }
+
+    /**
+     * @return "user_present" status data for the display length
+     */
+    public List<StatusData> getStatusData() {
+        return statusData;
+    }
+
+    /**
+     * @return Latest battery level, or -1 if no data
+     */
+    public float getLevel() {
+        return hybridData.isEmpty() ? -1 : hybridData.get(hybridData.size() - 1).getBatteryLevel();
+    }
+
+    public boolean isCharging() {
+        return !hybridData.isEmpty() && hybridData.get(hybridData.size() - 1).isCharging();
+    }
+}
@@ -0,0 +1,230 @@
+package com.danamir.batterymonitor;
+
+import android.content.Context;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Computes and publishes the current {@link BatterySnapshot}.
+ *
+ * A snapshot is recomputed only when the battery data, status data or preferences changed since
+ * the last one, so the notification and all widgets read the same values and the estimates are
+ * computed once per distinct sample. Status-only changes reuse the previous estimates.
+ */
+public class BatterySnapshotHub {
+
+    /**
+     * Callback invoked when a new snapshot is published after ingestion.
+     */
+    public interface Listener {
+        void onSnapshotPublished(BatterySnapshot snapshot);
+    }
+
+    private static BatterySnapshotHub instance;
+    private final Context context;
+    private final BatteryDataManager dataManager;
+    private final PreciseBatteryDataManager preciseManager;
+    private final StatusManager statusManager;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile BatterySnapshot snapshot;
+    private BatterySnapshot publishedSnapshot;
+    private long estimateCount;
+    // Level-of-detail summary of the hybrid data, fed with the points stored since the last snapshot
+    private LodPyramid pyramid;
+    private long pyramidConfigVersion;
+    private long pyramidOldestPrecise;
+    private final Queue<HybridBatteryData> pendingPoints = new ConcurrentLinkedQueue<>();
+
+    BatterySnapshotHub(Context context, BatteryDataManager dataManager,
+                       PreciseBatteryDataManager preciseManager, StatusManager statusManager) {
+        this.context = context.getApplicationContext();
+        this.dataManager = dataManager;
+        this.preciseManager = preciseManager;
+        this.statusManager = statusManager;
+        // Only queued, the managers are locked while notifying
+        dataManager.addListener(pendingPoints::add);
+        preciseManager.addListener(pendingPoints::add);
+    }
+
+    public static synchronized BatterySnapshotHub getInstance(Context context) {
+        if (instance == null) {
+            instance = new BatterySnapshotHub(context.getApplicationContext(),
+                BatteryDataManager.getInstance(context),
+                PreciseBatteryDataManager.getInstance(context),
+                StatusManager.getInstance(context));
+        }
+        return instance;
+    }
+
+    /**
+     * @return Clock of the battery source the snapshots are computed from
+     */
+    public Clock getClock() {
+        return dataManager.getClock();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Get the snapshot for the current data, computing it only if the data changed.
+     * @return The up-to-date snapshot
+     */
+    public BatterySnapshot getSnapshot() {
+        BatterySnapshot current = snapshot;
+        if (current != null && isCurrent(current)) {
+            return current;
+        }
+
+        synchronized (this) {
+            current = snapshot;
+            if (current == null || !isCurrent(current)) {
+                current = computeSnapshot(current);
+                snapshot = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Publish the snapshot for the current data to listeners, called after ingesting a sample.
+     * Listeners are only notified once per distinct snapshot.
+     */
+    public void publish() {
+        BatterySnapshot current = getSnapshot();
+        synchronized (this) {
+            if (current == publishedSnapshot) {
+                return;
+            }
+            publishedSnapshot = current;
+        }
+        for (Listener listener : listeners) {
+            listener.onSnapshotPublished(current);
+        }
+    }
+
+    /**
+     * @return Number of times the estimates were computed since creation
+     */
+    public synchronized long getEstimateCount() {
+        return estimateCount;
+    }
+
+    private long getDataVersion() {
+        return dataManager.getVersion() + preciseManager.getVersion();
+    }
+
+    private boolean isCurrent(BatterySnapshot current) {
+        return current.getDataVersion() == getDataVersion()
+            && current.getStatusVersion() == statusManager.getVersion()
+            && current.getConfigVersion() == RenderConfig.get(context).version;
+    }
+
+    private BatterySnapshot computeSnapshot(BatterySnapshot previous) {
+        // Read versions first, a change during computation makes the snapshot stale right away
+        long dataVersion = getDataVersion();
+        long statusVersion = statusManager.getVersion();
+        RenderConfig config = RenderConfig.get(context);
+        long currentConfigVersion = config.version;
+        long timestamp = dataManager.getClock().currentTimeMillis();
+        int displayHours = config.displayHours;
+
+        BatteryValues values;
+        List<HybridBatteryData> hybridData;
+        LodPyramid snapshotPyramid;
+        if (previous != null && previous.getDataVersion() == dataVersion
+                && previous.getConfigVersion() == currentConfigVersion) {
+            // Only the status data changed, estimates and battery series are still valid
+            values = previous.getValues();
+            hybridData = previous.getHybridData();
+            snapshotPyramid = previous.getPyramid();
+        } else {
+            values = BatteryUtils.calculateValues(context, true, dataManager, preciseManager);
+            hybridData = PreciseBatteryDataManager.getHybridDataPoints(
+                context, dataManager, preciseManager, displayHours, true);
+            snapshotPyramid = updatePyramid(hybridData, config);
+            estimateCount++;
+        }
+        List<StatusData> statusData = statusManager.getStatusData("user_present", displayHours);
+
+        return new BatterySnapshot(dataVersion, statusVersion, currentConfigVersion, timestamp, displayHours,
+            values, hybridData, statusData, snapshotPyramid);
+    }
+
+    /**
+     * Add the points stored since the last snapshot to the pyramid, or rebuild it from the hybrid series if
+     * the settings or the part of the series from integer data changed.
+     *
+     * @return Frozen view of the pyramid for the series, or null if the series is empty
+     */
+    private LodPyramid updatePyramid(List<HybridBatteryData> hybridData, RenderConfig config) {
+        if (hybridData.isEmpty()) {
+            return null;
+        }
+
+        // With precise data, integer data only fills the time before the oldest precise point
+        long oldestPrecise = config.usePreciseBattery ? preciseManager.getOldestTimestamp() : -1;
+        boolean rebuild = pyramid == null || pyramidConfigVersion != config.version
+            || (oldestPrecise != pyramidOldestPrecise && !hybridData.get(0).isPrecise());
+        HybridBatteryData point = null;
+        if (!rebuild) {
+            while ((point = pendingPoints.poll()) != null) {
+                if (!addPoint(point, config.usePreciseBattery, oldestPrecise)) {
+                    rebuild = true;
+                    break;
+                }
+            }
+        }
+        if (rebuild) {
+            pyramid = new LodPyramid();
+            pyramidConfigVersion = config.version;
+            for (HybridBatteryData data : hybridData) {
+                pyramid.add(data);
+            }
+            // Points stored since the series was read, the others are skipped
+            if (point == null) {
+                point = pendingPoints.poll();
+            }
+            for (; point != null; point = pendingPoints.poll()) {
+                addPoint(point, config.usePreciseBattery, oldestPrecise);
+            }
+        }
+        pyramidOldestPrecise = oldestPrecise;
+
+        long from = hybridData.get(0).getTimestamp();
+        pyramid.trimBefore(from);
+        return pyramid.getView(from, hybridData.get(hybridData.size() - 1).getTimestamp());
+    }
+
+    /**
+     * Add a stored point to the pyramid, as it appears in the hybrid series.
+     * @return Whether the pyramid still matches the series, false if it must be rebuilt
+     */
+    private boolean addPoint(HybridBatteryData point, boolean usePrecise, long oldestPrecise) {
+        HybridBatteryData lastPoint = pyramid.getLastPoint();
+        if (lastPoint != null && point.getTimestamp() <= lastPoint.getTimestamp()) {
+            // Already read with the series
+            return true;
+        }
+        if (point.isPrecise() != usePrecise
+            && (point.isPrecise() || (oldestPrecise >= 0 && point.getTimestamp() >= oldestPrecise))) {
+            // Not part of the series: precise data is disabled, or covers the time of the integer point
+            return true;
+        }
+
+        if (!point.isPrecise() && lastPoint != null && !lastPoint.isPrecise()
+            && point.getStandardLevel() == lastPoint.getStandardLevel() && point.isCharging() == lastPoint.isCharging()) {
+            // Unchanged integer data, the last point moves forward
+            return pyramid.replaceLast(point);
+        }
+        return pyramid.add(point);
+    }
+}
@@ -0,0 +1,41 @@
+package com.danamir.batterymonitor;
+
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Provider of battery readings for the ingestion path.
+ *
+ * {@link SystemBatterySource} reads the Android battery broadcasts and {@link android.os.BatteryManager},
+ * while {@link ReplayBatterySource} feeds a recorded or synthetic trace through the same code path.
+ */
+public interface BatterySource {
+
+    /**
+     * @return The clock giving the current time for this source
+     */
+    Clock getClock();
+
+    /**
+     * Query the current battery status.
+     * @param context The application context
+     * @return The current sample, or null if unavailable
+     */
+    BatterySample readCurrent(Context context);
+
+    /**
+     * Convert a battery broadcast to a sample.
+     * @param context The application context
+     * @param intent The ACTION_BATTERY_CHANGED intent
+     * @return The sample, or null if the intent does not hold valid battery data
+     */
+    BatterySample fromIntent(Context context, Intent intent);
+
+    /**
+     * Get the precise (sub-percent) battery level matching a sample.
+     * @param context The application context
+     * @param sample The sample previously returned by this source
+     * @return Precise battery level in percent
+     */
+    float readPreciseLevel(Context context, BatterySample sample);
+}
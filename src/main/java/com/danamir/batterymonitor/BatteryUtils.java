@@ -9,7 +9,7 @@ import android.text.style.StyleSpan;
 
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -586,12 +586,11 @@ public class BatteryUtils {
         int m = totalMinutes % 60;
 
         String targetPercentStr = "";
-        if (targetPercent != null && targetPercent > 0 && targetPercent < 100) {
-            targetPercentStr = String.format(Locale.getDefault(), " to %d%%", targetPercent);
-        } else if (targetPercent != null && targetPercent == 100) {
-            targetPercentStr = " to Full";
-        } else if (targetPercent != null && targetPercent == 0) {
-            targetPercentStr = " to Empty";
+        if (targetPercent != null) {
+            String targetText = formatTargetPercent(targetPercent);
+            if (!targetText.isEmpty()) {
+                targetPercentStr = " to " + targetText;
+            }
         }
 
         if (h >= 24) {
@@ -610,6 +609,23 @@ public class BatteryUtils {
         }
     }
 
+    /**
+     * Format a target battery percentage for display.
+     *
+     * @param targetPercent Target battery percentage
+     * @return "20%", "Full" for 100, "Empty" for 0, or an empty string if out of range
+     */
+    public static String formatTargetPercent(int targetPercent) {
+        if (targetPercent > 0 && targetPercent < 100) {
+            return String.format(Locale.getDefault(), "%d%%", targetPercent);
+        } else if (targetPercent == 100) {
+            return "Full";
+        } else if (targetPercent == 0) {
+            return "Empty";
+        }
+        return "";
+    }
+
     /**
      * Rounds hours value based on magnitude for display purposes.
      * - For hours >= 24: rounds to nearest hour
@@ -685,8 +701,21 @@ public class BatteryUtils {
      * @return Formatted string like "14:30" if soon or today, or "Mon. at 14:30" if another day
      */
     public static String formatDurationEndTime(double hours, boolean rounded) {
+        return formatDurationEndTime(System.currentTimeMillis(), hours, rounded);
+    }
+
+    /**
+     * Format duration end time to a human-readable string showing time of day.
+     *
+     * @param fromTime Start time of the duration in milliseconds
+     * @param hours    Time duration in hours from the start time
+     * @param rounded  Whether to round the end time
+     * @return Formatted string like "14:30" if soon or today, or "Mon. at 14:30" if another day
+     */
+    public static String formatDurationEndTime(long fromTime, double hours, boolean rounded) {
         Calendar now = Calendar.getInstance();
-        Calendar endTime = Calendar.getInstance();
+        now.setTimeInMillis(fromTime);
+        Calendar endTime = (Calendar) now.clone();
         endTime.add(Calendar.MILLISECOND, (int) Math.round(hours * 3600000));
 
         if (rounded) {
@@ -712,9 +741,9 @@ public class BatteryUtils {
      * This method fetches up-to-date data and settings to ensure consistency.
      *
      * @param context The application context
-     * @return Map with keys: "usage_rate", "charging", "hours_to", "time_to"
+     * @return Current level, charging status and short-term estimate
      */
-    public static Map<String, String> calculateValues(Context context) {
+    public static BatteryValues calculateValues(Context context) {
         return calculateValues(context, false);
     }
 
@@ -724,43 +753,47 @@ public class BatteryUtils {
      *
      * @param context         The application context
      * @param includeLongTerm Whether to include long-term usage rate
-     * @return Map with keys: "usage_rate", "charging", "hours_to", "time_to"
+     * @return Current level, charging status, short-term and optionally long-term estimates
      */
-    public static Map<String, String> calculateValues(Context context, boolean includeLongTerm) {
-        Map<String, String> values = new HashMap<>();
-
-        // Get preferences
-        android.content.SharedPreferences prefs = androidx.preference.PreferenceManager.getDefaultSharedPreferences(context);
-        int lowTargetPercent = prefs.getInt("low_target_percent", 20);
-        int highTargetPercent = prefs.getInt("high_target_percent", 80);
-        int displayLengthHours = getDisplayLengthHours(prefs, 48);
-        int maxDuration = prefs.getInt("usage_calculation_time", 15);
-        int minDuration = Math.min(maxDuration, 10);
-        boolean rounded = prefs.getBoolean("rounded_time_estimates", true);
-        String estimationSource = prefs.getString("estimation_source", "all_time_stats");
-        values.put("calculation_duration", maxDuration+"m");
-
-        // Get up-to-date data points - use hybrid data for short-term calculation
-        List<HybridBatteryData> hybridDataPoints =
-            PreciseBatteryDataManager.getHybridDataPoints(context, displayLengthHours, false);
+    public static BatteryValues calculateValues(Context context, boolean includeLongTerm) {
+        return calculateValues(context, includeLongTerm,
+            BatteryDataManager.getInstance(context), PreciseBatteryDataManager.getInstance(context));
+    }
 
-        if (hybridDataPoints == null || hybridDataPoints.isEmpty()) {
+    /**
+     * Calculate battery usage values from the given data managers.
+     *
+     * @param context         The application context
+     * @param includeLongTerm Whether to include long-term usage rate
+     * @param dataManager     Integer data source
+     * @param preciseManager  Precise data source
+     * @return Current level, charging status, short-term and optionally long-term estimates
+     */
+    public static BatteryValues calculateValues(Context context, boolean includeLongTerm,
+                                                BatteryDataManager dataManager, PreciseBatteryDataManager preciseManager) {
+        // Get settings
+        RenderConfig config = RenderConfig.get(context);
+        int lowTargetPercent = config.lowTargetPercent;
+        int highTargetPercent = config.highTargetPercent;
+        int displayLengthHours = config.displayLengthHours;
+        int maxDuration = config.usageCalculationTime;
+        int minDuration = Math.min(maxDuration, 10);
+        boolean rounded = config.roundedTimeEstimates;
+        String estimationSource = config.estimationSource;
+        boolean useDrainProfile = config.useDrainProfile;
+        boolean useLevelProfile = config.useLevelProfile;
+        boolean useChargeCurve = config.useChargeCurve;
+        long now = dataManager.getClock().currentTimeMillis();
+
+        // Get the last data point for current status - use hybrid data for short-term calculation
+        HybridBatteryData lastPoint =
+            PreciseBatteryDataManager.getLastHybridDataPoint(context, dataManager, preciseManager, displayLengthHours);
+
+        if (lastPoint == null) {
             // No data available
-            values.put("usage_rate", "");
-            values.put("charging", "false");
-            values.put("current_percent", "-%");
-            values.put("current_level", "");
-            values.put("hours_to", "");
-            values.put("time_to", "");
-
-            values.put("usage_rate_long_term", "");
-            values.put("hours_to_long_term", "");
-            values.put("time_to_long_term", "");
-            return values;
+            return new BatteryValues(maxDuration);
         }
 
-        // Get the last data point for current status
-        HybridBatteryData lastPoint = hybridDataPoints.get(hybridDataPoints.size() - 1);
         int currentBatteryLevel = lastPoint.getStandardLevel();
         float preciseBatteryLevel = lastPoint.getBatteryLevel();
         boolean isCharging = lastPoint.isCharging();
@@ -768,82 +801,84 @@ public class BatteryUtils {
             minDuration = 1;
         }
 
-        values.put("current_level", String.valueOf(currentBatteryLevel));
-        // Display precise percentage if available and different from integer
-        if (lastPoint.isPrecise() && Math.abs(preciseBatteryLevel - currentBatteryLevel) > 0.05) {
-            values.put("current_percent", String.format(Locale.getDefault(), "%.1f", preciseBatteryLevel) + "%");
-        } else {
-            values.put("current_percent", currentBatteryLevel + "%");
-        }
-        values.put("charging", String.valueOf(isCharging));
-
         // Calculate target percent
         int targetPercent = getTargetPercent(lowTargetPercent, highTargetPercent, currentBatteryLevel, isCharging);
 
+        Map<String, BatteryEstimate> estimates = new LinkedHashMap<>();
+
         // Calculate usage rate using hybrid data (more accurate with precise levels)
-        Double usageRateValue = calculateBatteryUsageRateValueHybrid(hybridDataPoints, minDuration, maxDuration);
+        BatteryEstimate shortTerm = null;
+        Double usageRateValue = PreciseBatteryDataManager.getHybridUsageRate(context, dataManager, preciseManager,
+            displayLengthHours, minDuration, maxDuration);
         if (usageRateValue != null) {
-            values.put("usage_rate", String.format(Locale.getDefault(), "%.1f", usageRateValue));
-
             // Calculate time estimates using precise level
             double hoursToLevel = Math.abs(preciseBatteryLevel - targetPercent) / usageRateValue;
-            String hoursTo = formatTimeEstimate(hoursToLevel, targetPercent, rounded);
-            String timeTo = formatDurationEndTime(hoursToLevel, rounded);
-
-            values.put("hours_to", hoursTo);
-            values.put("time_to", timeTo);
-        } else {
-            values.put("usage_rate", "");
-            values.put("hours_to", "");
-            values.put("time_to", "");
+            if (useChargeCurve && isCharging) {
+                // Follow the learned charge curve, scaled to the current rate at the current level
+                ChargeCurve chargeCurve = dataManager.getChargeCurve();
+                double curveHours = chargeCurve.getHoursToCharge(preciseBatteryLevel, targetPercent);
+                double curveRate = chargeCurve.getRateAt(preciseBatteryLevel);
+                if (!Double.isNaN(curveHours) && !Double.isNaN(curveRate)) {
+                    hoursToLevel = curveHours * curveRate / usageRateValue;
+                }
+            }
+            shortTerm = new BatteryEstimate(usageRateValue, hoursToLevel, targetPercent, now, rounded,
+                UsageRateEstimator.ID, dataManager.getEstimatorLabel(UsageRateEstimator.ID));
+            estimates.put(UsageRateEstimator.ID, shortTerm);
         }
 
+        BatteryEstimate longTerm = null;
         if (includeLongTerm) {
-            Double usageRateValueLongTerm = null;
-            
-            // When charging, always use all-time stats (since max is not relevant)
-            // When discharging, use the preference setting
-            if (isCharging || "all_time_stats".equals(estimationSource)) {
-                // Use all-time statistics
-                if (isCharging) {
-                    double meanChargeRate = DataProvider.getMeanChargeRate(context);
-                    if (meanChargeRate > 0) {
-                        usageRateValueLongTerm = meanChargeRate;
+            // Every other estimator, all fed in the same pass over the data
+            for (String id : dataManager.getEstimatorIds()) {
+                if (UsageRateEstimator.ID.equals(id)) {
+                    continue;
+                }
+                Double usageRateValueLongTerm = PreciseBatteryDataManager.getHybridRate(context, dataManager,
+                    preciseManager, id, displayLengthHours, minDuration);
+                if (usageRateValueLongTerm != null) {
+                    // Calculate time estimates, using precise level for estimators fed with precise data
+                    boolean precise = PreciseBatteryDataManager.usesPreciseEstimator(context, preciseManager,
+                        id, displayLengthHours);
+                    float level = precise ? preciseBatteryLevel : currentBatteryLevel;
+                    double levels = Math.abs(level - targetPercent);
+                    if (useLevelProfile) {
+                        // Levels are not all traversed at the same rate, weight them by level band
+                        levels = dataManager.getEquivalentLevels(isCharging, level, targetPercent);
+                    }
+                    double hoursToLevel = levels / usageRateValueLongTerm;
+                    if (useChargeCurve && isCharging) {
+                        // Follow the learned charge curve, including the taper near full, scaled to the
+                        // estimator's rate at the current level
+                        ChargeCurve chargeCurve = dataManager.getChargeCurve();
+                        double curveHours = chargeCurve.getHoursToCharge(level, targetPercent);
+                        double curveRate = chargeCurve.getRateAt(level);
+                        if (!Double.isNaN(curveHours) && !Double.isNaN(curveRate)) {
+                            hoursToLevel = curveHours * curveRate / usageRateValueLongTerm;
+                        }
                     }
-                } else {
-                    double meanDischargeRate = DataProvider.getMeanDischargeRate(context);
-                    if (meanDischargeRate > 0) {
-                        usageRateValueLongTerm = meanDischargeRate;
+                    if (useDrainProfile && !isCharging) {
+                        // Follow the usual hour-of-week usage pattern, scaled to the long-term rate
+                        double profileHours = dataManager.getDrainProfile().getHoursToDrain(now,
+                            levels, usageRateValueLongTerm);
+                        if (!Double.isNaN(profileHours)) {
+                            hoursToLevel = profileHours;
+                        }
                     }
+                    Double margin = PreciseBatteryDataManager.getHybridRateMargin(context, dataManager,
+                        preciseManager, id, displayLengthHours, minDuration);
+                    estimates.put(id, new BatteryEstimate(usageRateValueLongTerm, hoursToLevel, targetPercent, now,
+                        rounded, id, dataManager.getEstimatorLabel(id), margin != null ? margin : Double.NaN));
                 }
-            } else {
-                // Use max charge calculation (default, only when discharging)
-                // Get integer data for long-term calculation
-                BatteryDataManager dataManager = BatteryDataManager.getInstance(context);
-                List<BatteryData> integerDataPoints = dataManager.getDataPoints(displayLengthHours);
-                usageRateValueLongTerm = calculateBatteryUsageRateValueSinceMax(integerDataPoints, minDuration, highTargetPercent);
             }
-            
-            // If no short-term rate available and we have long-term rate, it will be used by the display logic
-            
-            if (usageRateValueLongTerm != null) {
-                values.put("usage_rate_long_term", String.format(Locale.getDefault(), "%.1f", usageRateValueLongTerm));
-
-                // Calculate time estimates
-                double hoursToLevel = Math.abs(currentBatteryLevel - targetPercent) / usageRateValueLongTerm;
-                String hoursTo = formatTimeEstimate(hoursToLevel, targetPercent, rounded);
-                String timeTo = formatDurationEndTime(hoursToLevel, rounded);
 
-                values.put("hours_to_long_term", hoursTo);
-                values.put("time_to_long_term", timeTo);
-            } else {
-                values.put("usage_rate_long_term", "");
-                values.put("hours_to_long_term", "");
-                values.put("time_to_long_term", "");
-            }
+            // When charging, always use all-time stats (since max is not relevant)
+            // When discharging, use the preference setting
+            longTerm = estimates.get(isCharging ? AllTimeStatsEstimator.ID : estimationSource);
         }
 
-        return values;
+        return new BatteryValues(currentBatteryLevel, preciseBatteryLevel, lastPoint.isPrecise(), isCharging,
+            maxDuration, shortTerm, longTerm, estimates);
     }
 
     /**
@@ -0,0 +1,123 @@
+package com.danamir.batterymonitor;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable battery values for display in the notification and widgets:
+ * current level, charging status, the short-term and long-term estimates, and the estimates of
+ * every registered {@link RateEstimator}.
+ */
+public final class BatteryValues {
+    private final boolean hasData;
+    private final int currentLevel;
+    private final float preciseLevel;
+    private final boolean precise;
+    private final boolean charging;
+    private final int calculationMinutes;
+    private final BatteryEstimate shortTerm;
+    private final BatteryEstimate longTerm;
+    private final Map<String, BatteryEstimate> estimates;
+    private volatile Locale percentLocale;
+    private volatile String percentText;
+
+    /**
+     * Values when no battery data is available.
+     * @param calculationMinutes Usage calculation time in minutes
+     */
+    BatteryValues(int calculationMinutes) {
+        this(false, -1, Float.NaN, false, false, calculationMinutes, null, null, Collections.emptyMap());
+    }
+
+    BatteryValues(int currentLevel, float preciseLevel, boolean precise, boolean charging, int calculationMinutes,
+                  BatteryEstimate shortTerm, BatteryEstimate longTerm, Map<String, BatteryEstimate> estimates) {
+        this(true, currentLevel, preciseLevel, precise, charging, calculationMinutes, shortTerm, longTerm, estimates);
+    }
+
+    private BatteryValues(boolean hasData, int currentLevel, float preciseLevel, boolean precise, boolean charging,
+                          int calculationMinutes, BatteryEstimate shortTerm, BatteryEstimate longTerm,
+                          Map<String, BatteryEstimate> estimates) {
+        this.hasData = hasData;
+        this.currentLevel = currentLevel;
+        this.preciseLevel = preciseLevel;
+        this.precise = precise;
+        this.charging = charging;
+        this.calculationMinutes = calculationMinutes;
+        this.shortTerm = shortTerm;
+        this.longTerm = longTerm;
+        this.estimates = Collections.unmodifiableMap(estimates);
+    }
+
+    public boolean hasData() {
+        return hasData;
+    }
+
+    /**
+     * @return Current integer battery level, or -1 if no data
+     */
+    public int getCurrentLevel() {
+        return currentLevel;
+    }
+
+    public float getPreciseLevel() {
+        return preciseLevel;
+    }
+
+    public boolean isCharging() {
+        return charging;
+    }
+
+    public int getCalculationMinutes() {
+        return calculationMinutes;
+    }
+
+    /**
+     * @return Estimate from recent usage, or null if not enough data
+     */
+    public BatteryEstimate getShortTerm() {
+        return shortTerm;
+    }
+
+    /**
+     * @return Estimate from the long-term source, or null if unavailable or not requested
+     */
+    public BatteryEstimate getLongTerm() {
+        return longTerm;
+    }
+
+    /**
+     * @param source Estimator identifier
+     * @return Estimate of the given estimator, or null if unavailable or not requested
+     */
+    public BatteryEstimate getEstimate(String source) {
+        return estimates.get(source);
+    }
+
+    /**
+     * @return Available estimates by estimator identifier, in registration order
+     */
+    public Map<String, BatteryEstimate> getEstimates() {
+        return estimates;
+    }
+
+    /**
+     * @return Current level for display, with one decimal when the precise level differs from the integer one
+     */
+    public String getCurrentPercentText() {
+        Locale locale = Locale.getDefault();
+        String text = percentText;
+        if (text == null || !locale.equals(percentLocale)) {
+            if (!hasData) {
+                text = "-%";
+            } else if (precise && Math.abs(preciseLevel - currentLevel) > 0.05) {
+                text = String.format(locale, "%.1f", preciseLevel) + "%";
+            } else {
+                text = currentLevel + "%";
+            }
+            percentLocale = locale;
+            percentText = text;
+        }
+        return text;
+    }
+}
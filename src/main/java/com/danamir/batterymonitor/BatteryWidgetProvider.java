@@ -7,8 +7,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Picture;
 import android.widget.RemoteViews;
 import android.widget.Toast;
 import androidx.preference.PreferenceManager;
@@ -41,24 +39,12 @@ public class BatteryWidgetProvider extends AppWidgetProvider {
         super.onEnabled(context);
         
         // Initialize with current battery level
-        android.content.IntentFilter intentFilter = new android.content.IntentFilter(Intent.ACTION_BATTERY_CHANGED);
-        Intent batteryIntent = context.registerReceiver(null, intentFilter);
-        
-        if (batteryIntent != null) {
-            int level = batteryIntent.getIntExtra(android.os.BatteryManager.EXTRA_LEVEL, -1);
-            int scale = batteryIntent.getIntExtra(android.os.BatteryManager.EXTRA_SCALE, -1);
-            int status = batteryIntent.getIntExtra(android.os.BatteryManager.EXTRA_STATUS, -1);
-            
-            boolean isCharging = status == android.os.BatteryManager.BATTERY_STATUS_CHARGING ||
-                               status == android.os.BatteryManager.BATTERY_STATUS_FULL;
-            
-            if (level >= 0 && scale > 0) {
-                int batteryPct = (int) ((level / (float) scale) * 100);
-                BatteryDataManager dataManager = BatteryDataManager.getInstance(context);
-                dataManager.addDataPoint(batteryPct, isCharging);
-            }
+        BatterySample sample = SystemBatterySource.getInstance().readCurrent(context);
+        if (sample != null) {
+            BatteryDataManager dataManager = BatteryDataManager.getInstance(context);
+            dataManager.addDataPoint(sample.getTimestamp(), sample.getLevel(), sample.isCharging());
         }
-        
+
         // Service will be started by BatteryReceiver on first battery change
         // No need to start service here to avoid background service restriction
     }
@@ -74,28 +60,9 @@ public class BatteryWidgetProvider extends AppWidgetProvider {
     static void updateAppWidget(Context context, AppWidgetManager appWidgetManager, int appWidgetId) {
         RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.battery_widget);
 
-        // Get display hours from preferences
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        boolean zoomedDisplay = prefs.getBoolean("zoomed_display", false);
-        boolean unzoomedDisplay = prefs.getBoolean("unzoomed_display", false);
-        int displayHours = BatteryUtils.getDisplayLengthHours(prefs, 48);
-
-        // Apply zoom multiplier if zoomed display is enabled
-        if (zoomedDisplay) {
-            int zoomMult = prefs.getInt("display_zoom_mult", 10);
-            displayHours = displayHours / zoomMult;
-            if (displayHours < 1) displayHours = 1; // Ensure at least 1 hour
-        } else if (unzoomedDisplay) {
-            // Use unzoom display length
-            displayHours = prefs.getInt("display_unzoom_hours", 168);
-        }
-
-        // Get battery data
-        BatteryDataManager dataManager = BatteryDataManager.getInstance(context);
-
-        // Get status data
-        StatusManager statusManager = StatusManager.getInstance(context);
-        java.util.List<StatusData> statusData = statusManager.getStatusData("user_present", displayHours);
+        // Shared snapshot: estimates and series are computed once per sample for all widgets and the notification
+        BatterySnapshotHub snapshotHub = BatterySnapshotHub.getInstance(context);
+        BatterySnapshot snapshot = snapshotHub.getSnapshot();
 
         // Get actual widget size
         android.os.Bundle options = appWidgetManager.getAppWidgetOptions(appWidgetId);
@@ -111,32 +78,13 @@ public class BatteryWidgetProvider extends AppWidgetProvider {
         if (width < 100) width = (int) (250 * density);
         if (height < 100) height = (int) (40 * density);
 
-        // Get hybrid data (precise if enabled, integer otherwise)
-        List<HybridBatteryData> hybridData =
-            PreciseBatteryDataManager.getHybridDataPoints(context, displayHours, true);
-
-        // Generate as Picture for resolution-independent rendering
-        Picture picture = BatteryGraphGenerator.generateGraphAsPicture(
-            context,
-            hybridData,
-            statusData,
-            displayHours,
-            width,
-            height
-        );
-
-        // Convert Picture to Bitmap for RemoteViews
-        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
-        picture.draw(canvas);
+        // Reuse the last graph of this size when nothing visible changed, at the time of the battery source
+        long timestamp = snapshotHub.getClock().currentTimeMillis();
+        Bitmap bitmap = WidgetRenderCache.getInstance().getBitmap(context, snapshot, width, height, timestamp);
 
         // Force cache invalidation
-        long timestamp = System.currentTimeMillis();
         views.setContentDescription(R.id.battery_graph, "Widget:" + appWidgetId + "@" + timestamp);
 
-        // Set the bitmap to the ImageView
-        views.setImageViewBitmap(R.id.battery_graph, bitmap);
-
         // Set up click intents for each zone
         setupClickZone(context, views, R.id.click_zone_top_left, "top_left");
         setupClickZone(context, views, R.id.click_zone_top, "top");
@@ -148,10 +96,30 @@ public class BatteryWidgetProvider extends AppWidgetProvider {
         setupClickZone(context, views, R.id.click_zone_bottom, "bottom");
         setupClickZone(context, views, R.id.click_zone_bottom_right, "bottom_right");
 
+        // Set the bitmap to the ImageView, through a file the launcher loads when enabled, written and
+        // sent in the background
+        if (RenderConfig.get(context).widgetImageUri
+            && WidgetImageStore.getInstance().update(context, appWidgetManager, appWidgetId, views, bitmap)) {
+            return;
+        }
+        views.setImageViewBitmap(R.id.battery_graph, bitmap);
+
         // Update the widget
         appWidgetManager.updateAppWidget(appWidgetId, views);
     }
 
+    /**
+     * Render the whole widget graph to a bitmap, without the cached layers of the widget updates.
+     * The bitmap comes from the {@link BitmapPool}, release it there when it is no longer needed.
+     */
+    static Bitmap renderGraphBitmap(Context context, List<HybridBatteryData> hybridData, List<StatusData> statusData,
+                                    BatteryValues values, int displayHours, int width, int height, long now) {
+        // Draw straight into a pooled bitmap, rather than recording a Picture and replaying it
+        Bitmap bitmap = BitmapPool.getInstance().acquire(width, height);
+        BatteryGraphGenerator.generateGraphToBitmap(context, bitmap, hybridData, statusData, values, displayHours, now);
+        return bitmap;
+    }
+
     private static void setupClickZone(Context context, RemoteViews views, int viewId, String zoneName) {
         Intent intent = new Intent(context, BatteryWidgetProvider.class);
         intent.setAction(ACTION_WIDGET_CLICK);
@@ -0,0 +1,119 @@
+package com.danamir.batterymonitor;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pool of the ARGB_8888 bitmaps used to render the widget graph, by size.
+ *
+ * Widget updates render a graph of the same few sizes again and again. Bitmaps no longer needed are
+ * released to the pool and handed out again for the next graph of the same size, instead of allocating
+ * the pixels of a new bitmap and leaving the previous one to the garbage collector.
+ */
+public class BitmapPool {
+    /** Maximum memory kept in released bitmaps, the least recently used sizes are dropped first */
+    private static final long MAX_POOLED_BYTES = 16 * 1024 * 1024;
+
+    private static BitmapPool instance;
+
+    // Released bitmaps per size, least recently used size first
+    private final Map<Long, ArrayDeque<Bitmap>> pool = new LinkedHashMap<>(4, 0.75f, true);
+    private long pooledBytes;
+    private long allocationCount;
+    private long allocatedBytes;
+    private long reuseCount;
+
+    BitmapPool() {
+    }
+
+    public static synchronized BitmapPool getInstance() {
+        if (instance == null) {
+            instance = new BitmapPool();
+        }
+        return instance;
+    }
+
+    private static Long sizeKey(int width, int height) {
+        return ((long) width << 32) | (height & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get a mutable, transparent bitmap of the given size, reused from the pool if possible.
+     * Release it with {@link #release(Bitmap)} when it is no longer needed.
+     */
+    public synchronized Bitmap acquire(int width, int height) {
+        ArrayDeque<Bitmap> bitmaps = pool.get(sizeKey(width, height));
+        while (bitmaps != null && !bitmaps.isEmpty()) {
+            Bitmap bitmap = bitmaps.pop();
+            pooledBytes -= bitmap.getAllocationByteCount();
+            if (!bitmap.isRecycled()) {
+                bitmap.eraseColor(Color.TRANSPARENT);
+                reuseCount++;
+                return bitmap;
+            }
+        }
+
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        allocationCount++;
+        allocatedBytes += bitmap.getAllocationByteCount();
+        return bitmap;
+    }
+
+    /**
+     * Return a bitmap to the pool. The caller must not use it afterwards.
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+            || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            return;
+        }
+        Long key = sizeKey(bitmap.getWidth(), bitmap.getHeight());
+        ArrayDeque<Bitmap> bitmaps = pool.get(key);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            pool.put(key, bitmaps);
+        }
+        bitmaps.push(bitmap);
+        pooledBytes += bitmap.getAllocationByteCount();
+
+        // Drop the bitmaps of the sizes not used for the longest time
+        Iterator<ArrayDeque<Bitmap>> iterator = pool.values().iterator();
+        while (pooledBytes > MAX_POOLED_BYTES && iterator.hasNext()) {
+            ArrayDeque<Bitmap> eldest = iterator.next();
+            while (pooledBytes > MAX_POOLED_BYTES && !eldest.isEmpty()) {
+                Bitmap dropped = eldest.removeLast();
+                pooledBytes -= dropped.getAllocationByteCount();
+                dropped.recycle();
+            }
+            if (eldest.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return Number of bitmaps created because none of the size was available
+     */
+    public synchronized long getAllocationCount() {
+        return allocationCount;
+    }
+
+    /**
+     * @return Pixel memory of the created bitmaps, in bytes
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return Number of bitmaps handed out again from the pool
+     */
+    public synchronized long getReuseCount() {
+        return reuseCount;
+    }
+}
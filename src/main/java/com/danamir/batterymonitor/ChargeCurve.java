@@ -0,0 +1,254 @@
+package com.danamir.batterymonitor;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import androidx.preference.PreferenceManager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+/**
+ * Charge curve learned from past charging sessions: the average time needed to charge each level.
+ *
+ * During a charging session the time to leave each level is collected, and merged into the per-level
+ * table with an exponential moving average when the session completes. The table is persisted in a
+ * few KB. A cumulative table, rebuilt when the curve changes, gives the time between two levels in
+ * constant time, following the slower charge near full.
+ */
+public class ChargeCurve {
+    private static final String PREF_CHARGE_CURVE = "charge_curve";
+    private static final int MAX_LEVEL = 100;
+    /** Weight of a new session in the per-level average */
+    private static final double SESSION_WEIGHT = 0.3;
+    /** Steps longer than this are gaps in the data and are not learned */
+    private static final long MAX_STEP_MS = 2 * 3600000L;
+    /** Minimum number of learned levels for the curve to be used */
+    private static final int MIN_KNOWN_LEVELS = 10;
+
+    private static ChargeCurve instance;
+    private final SharedPreferences prefs;
+
+    // Learned hours to charge from each level to the next, and number of sessions merged
+    private final double[] hoursPerLevel = new double[MAX_LEVEL];
+    private final int[] sessionCounts = new int[MAX_LEVEL];
+
+    // Ongoing session
+    private final double[] sessionHours = new double[MAX_LEVEL];
+    private boolean charging;
+    private boolean hasFullStep;
+    private int lastLevel = -1;
+    private long lastLevelTime;
+
+    // Hours to charge from level 0 to each level, null when stale
+    private double[] cumulative;
+    private double[] filledHours;
+
+    /**
+     * @param prefs Preferences the curve is loaded from and saved to, null for an in-memory curve
+     */
+    ChargeCurve(SharedPreferences prefs) {
+        this.prefs = prefs;
+        if (prefs != null) {
+            load(prefs.getString(PREF_CHARGE_CURVE, null));
+        }
+    }
+
+    public static synchronized ChargeCurve getInstance(Context context) {
+        if (instance == null) {
+            instance = new ChargeCurve(PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext()));
+        }
+        return instance;
+    }
+
+    /**
+     * Add a battery sample, in chronological order.
+     * A charging session is learned when the next discharging sample ends it.
+     */
+    public synchronized void addSample(long timestamp, int level, boolean isCharging) {
+        level = Math.max(0, Math.min(MAX_LEVEL, level));
+        if (isCharging != charging) {
+            if (charging) {
+                completeSession();
+            }
+            charging = isCharging;
+            startSession(timestamp, level);
+            return;
+        }
+        if (!charging || lastLevel < 0 || level <= lastLevel) {
+            return;
+        }
+
+        long stepTime = timestamp - lastLevelTime;
+        // The time to leave the first level of the session is only partially known
+        if (hasFullStep && stepTime <= MAX_STEP_MS) {
+            double hours = stepTime / 3600000.0 / (level - lastLevel);
+            for (int i = lastLevel; i < level; i++) {
+                sessionHours[i] = hours;
+            }
+        }
+        hasFullStep = true;
+        lastLevel = level;
+        lastLevelTime = timestamp;
+    }
+
+    private void startSession(long timestamp, int level) {
+        for (int i = 0; i < MAX_LEVEL; i++) {
+            sessionHours[i] = 0;
+        }
+        hasFullStep = false;
+        lastLevel = level;
+        lastLevelTime = timestamp;
+    }
+
+    private void completeSession() {
+        boolean learned = false;
+        for (int i = 0; i < MAX_LEVEL; i++) {
+            if (sessionHours[i] <= 0) {
+                continue;
+            }
+            if (sessionCounts[i] == 0) {
+                hoursPerLevel[i] = sessionHours[i];
+            } else {
+                hoursPerLevel[i] += SESSION_WEIGHT * (sessionHours[i] - hoursPerLevel[i]);
+            }
+            sessionCounts[i]++;
+            learned = true;
+        }
+
+        if (learned) {
+            cumulative = null;
+            if (prefs != null) {
+                save();
+            }
+        }
+    }
+
+    /**
+     * Rebuild the cumulative table if the curve changed.
+     * Levels never learned take the time of the nearest learned level.
+     * @return Whether the curve has enough learned levels to be used
+     */
+    private boolean updateTables() {
+        if (cumulative != null) {
+            return true;
+        }
+
+        int known = 0;
+        for (int i = 0; i < MAX_LEVEL; i++) {
+            if (sessionCounts[i] > 0) {
+                known++;
+            }
+        }
+        if (known < MIN_KNOWN_LEVELS) {
+            return false;
+        }
+
+        double[] filled = new double[MAX_LEVEL];
+        for (int i = 0; i < MAX_LEVEL; i++) {
+            if (sessionCounts[i] > 0) {
+                filled[i] = hoursPerLevel[i];
+                continue;
+            }
+            for (int distance = 1; distance < MAX_LEVEL; distance++) {
+                if (i - distance >= 0 && sessionCounts[i - distance] > 0) {
+                    filled[i] = hoursPerLevel[i - distance];
+                    break;
+                }
+                if (i + distance < MAX_LEVEL && sessionCounts[i + distance] > 0) {
+                    filled[i] = hoursPerLevel[i + distance];
+                    break;
+                }
+            }
+        }
+
+        double[] newCumulative = new double[MAX_LEVEL + 1];
+        for (int i = 0; i < MAX_LEVEL; i++) {
+            newCumulative[i + 1] = newCumulative[i] + filled[i];
+        }
+        filledHours = filled;
+        cumulative = newCumulative;
+        return true;
+    }
+
+    public synchronized boolean isReady() {
+        return updateTables();
+    }
+
+    private double hoursFromZero(float level) {
+        level = Math.max(0, Math.min(MAX_LEVEL, level));
+        int whole = Math.min(MAX_LEVEL - 1, (int) level);
+        return cumulative[whole] + (level - whole) * filledHours[whole];
+    }
+
+    /**
+     * Get the time needed to charge from one level to another along the learned curve.
+     * @param fromLevel Current level, fractional for precise data
+     * @param toLevel Target level
+     * @return Duration in hours, or NaN if the curve is not ready
+     */
+    public synchronized double getHoursToCharge(float fromLevel, int toLevel) {
+        if (!updateTables()) {
+            return Double.NaN;
+        }
+        return Math.max(0, hoursFromZero(toLevel) - hoursFromZero(fromLevel));
+    }
+
+    /**
+     * Get the learned charge rate at a level.
+     * @return Rate in %/h, or NaN if the curve is not ready
+     */
+    public synchronized double getRateAt(float level) {
+        if (!updateTables()) {
+            return Double.NaN;
+        }
+        int whole = Math.max(0, Math.min(MAX_LEVEL - 1, (int) level));
+        return filledHours[whole] > 0 ? 1 / filledHours[whole] : Double.NaN;
+    }
+
+    private void load(String json) {
+        if (json == null) {
+            return;
+        }
+        try {
+            JSONArray array = new JSONArray(json);
+            if (array.length() != MAX_LEVEL * 2) {
+                return;
+            }
+            for (int i = 0; i < MAX_LEVEL; i++) {
+                hoursPerLevel[i] = array.getDouble(i * 2);
+                sessionCounts[i] = array.getInt(i * 2 + 1);
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void save() {
+        try {
+            JSONArray array = new JSONArray();
+            for (int i = 0; i < MAX_LEVEL; i++) {
+                array.put(Math.round(hoursPerLevel[i] * 100000) / 100000.0);
+                array.put(sessionCounts[i]);
+            }
+            prefs.edit().putString(PREF_CHARGE_CURVE, array.toString()).apply();
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Clear the learned curve, with the all-time statistics.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < MAX_LEVEL; i++) {
+            hoursPerLevel[i] = 0;
+            sessionCounts[i] = 0;
+        }
+        charging = false;
+        lastLevel = -1;
+        cumulative = null;
+        if (prefs != null) {
+            prefs.edit().remove(PREF_CHARGE_CURVE).apply();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.danamir.batterymonitor;
+
+/**
+ * Source of the current time used when recording and querying battery data.
+ *
+ * Production code uses {@link #SYSTEM}. Replay sources provide their own clock so that
+ * recorded or synthetic traces can be fed through the data managers faster than real time.
+ */
+public interface Clock {
+    Clock SYSTEM = System::currentTimeMillis;
+
+    /**
+     * @return Current time in milliseconds since epoch
+     */
+    long currentTimeMillis();
+}
@@ -0,0 +1,292 @@
+package com.danamir.batterymonitor;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import androidx.preference.PreferenceManager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.TimeZone;
+
+/**
+ * Hour-of-week discharge profile, used to project the time to the low target over the usual daily
+ * and weekly usage pattern instead of a constant rate.
+ *
+ * Each of the 168 local hours of the week accumulates the discharge drop and time observed in it.
+ * Older weeks are exponentially down-weighted when a bucket receives new data, so the profile follows
+ * usage changes. The profile is updated from consecutive discharging samples and persisted in a few KB.
+ *
+ * Projections use a cumulative table of the profile shape, rebuilt only when the profile changed,
+ * so predicting a duration is a binary search with no history scan.
+ */
+public class DrainProfile {
+    private static final String PREF_DRAIN_PROFILE = "drain_profile";
+    private static final int HOURS_PER_WEEK = 168;
+    private static final long HOUR_MS = 3600000L;
+    // The Unix epoch is a Thursday, hour 72 of a week starting on Monday
+    private static final long EPOCH_HOUR_OF_WEEK = 72;
+
+    /** Weight of the previous weeks in a bucket, per elapsed week */
+    private static final double WEEKLY_DECAY = 0.7;
+    /** Intervals longer than this are gaps in the data, not usage */
+    private static final long MAX_INTERVAL_MS = 2 * HOUR_MS;
+    /** Minimum discharge time in a bucket for its own rate to be used, in hours */
+    private static final double MIN_BUCKET_HOURS = 0.25;
+    /** Minimum total discharge time for the profile to be used, in hours */
+    private static final double MIN_TOTAL_HOURS = 24;
+    /** Lower bound of a bucket shape, so a projection always progresses */
+    private static final double MIN_SHAPE = 0.05;
+    private static final long SAVE_INTERVAL_MS = 15 * 60 * 1000L;
+
+    private static DrainProfile instance;
+    private final SharedPreferences prefs;
+
+    private final double[] drops = new double[HOURS_PER_WEEK];
+    private final double[] hours = new double[HOURS_PER_WEEK];
+    private final long[] weeks = new long[HOURS_PER_WEEK];
+
+    // Last sample, the start of the next interval
+    private long lastTimestamp = -1;
+    private int lastLevel;
+    private boolean lastCharging;
+    private long lastSaveTime;
+
+    // Shape of each bucket relative to the mean rate, and its cumulative sums, null when stale
+    private double[] shape;
+    private double[] cumulative;
+
+    /**
+     * @param prefs Preferences the profile is loaded from and saved to, null for an in-memory profile
+     */
+    DrainProfile(SharedPreferences prefs) {
+        this.prefs = prefs;
+        if (prefs != null) {
+            load(prefs.getString(PREF_DRAIN_PROFILE, null));
+        }
+    }
+
+    public static synchronized DrainProfile getInstance(Context context) {
+        if (instance == null) {
+            instance = new DrainProfile(PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext()));
+        }
+        return instance;
+    }
+
+    /**
+     * @return Local time in hours since the epoch
+     */
+    private static double toLocalHours(long timestamp) {
+        return (timestamp + TimeZone.getDefault().getOffset(timestamp)) / (double) HOUR_MS;
+    }
+
+    /**
+     * @return Hour of the week, from 0 on Monday 00:00 to 168, fractional
+     */
+    private static double toHourOfWeek(double localHours) {
+        double hourOfWeek = (localHours + EPOCH_HOUR_OF_WEEK) % HOURS_PER_WEEK;
+        return hourOfWeek < 0 ? hourOfWeek + HOURS_PER_WEEK : hourOfWeek;
+    }
+
+    /**
+     * Add a battery sample, in chronological order.
+     * The interval since the previous sample is added to the profile when both are discharging.
+     */
+    public synchronized void addSample(long timestamp, int level, boolean isCharging) {
+        long interval = timestamp - lastTimestamp;
+        if (lastTimestamp >= 0 && !lastCharging && !isCharging && interval > 0 && interval <= MAX_INTERVAL_MS
+                && level <= lastLevel) {
+            addInterval(lastTimestamp, timestamp, lastLevel - level);
+            shape = null;
+            cumulative = null;
+
+            if (prefs != null && timestamp - lastSaveTime >= SAVE_INTERVAL_MS) {
+                save();
+                lastSaveTime = timestamp;
+            }
+        }
+        lastTimestamp = timestamp;
+        lastLevel = level;
+        lastCharging = isCharging;
+    }
+
+    /**
+     * Spread a discharge interval over the hour buckets it covers, proportionally to time.
+     */
+    private void addInterval(long startTime, long endTime, int drop) {
+        double start = toLocalHours(startTime);
+        double end = toLocalHours(endTime);
+        double total = end - start;
+        if (total <= 0) {
+            return;
+        }
+
+        double position = start;
+        while (position < end) {
+            double hourEnd = Math.min(end, Math.floor(position) + 1);
+            double duration = hourEnd - position;
+            long week = (long) Math.floor((position + EPOCH_HOUR_OF_WEEK) / HOURS_PER_WEEK);
+            int bucket = (int) toHourOfWeek(position);
+
+            if (weeks[bucket] < week) {
+                double decay = Math.pow(WEEKLY_DECAY, week - weeks[bucket]);
+                drops[bucket] *= decay;
+                hours[bucket] *= decay;
+                weeks[bucket] = week;
+            }
+            drops[bucket] += drop * duration / total;
+            hours[bucket] += duration;
+            position = hourEnd;
+        }
+    }
+
+    /**
+     * Rebuild the shape and cumulative tables if the profile changed.
+     * @return Whether the profile has enough data to be used
+     */
+    private boolean updateTables() {
+        if (shape != null) {
+            return true;
+        }
+
+        double totalDrop = 0;
+        double totalHours = 0;
+        for (int i = 0; i < HOURS_PER_WEEK; i++) {
+            totalDrop += drops[i];
+            totalHours += hours[i];
+        }
+        if (totalHours < MIN_TOTAL_HOURS || totalDrop <= 0) {
+            return false;
+        }
+
+        // Rate of each bucket, the overall rate for buckets without enough data
+        double overallRate = totalDrop / totalHours;
+        double[] rates = new double[HOURS_PER_WEEK];
+        double rateSum = 0;
+        for (int i = 0; i < HOURS_PER_WEEK; i++) {
+            rates[i] = hours[i] >= MIN_BUCKET_HOURS ? drops[i] / hours[i] : overallRate;
+            rateSum += rates[i];
+        }
+
+        double meanRate = rateSum / HOURS_PER_WEEK;
+        double[] newShape = new double[HOURS_PER_WEEK];
+        double[] newCumulative = new double[HOURS_PER_WEEK + 1];
+        for (int i = 0; i < HOURS_PER_WEEK; i++) {
+            newShape[i] = Math.max(MIN_SHAPE, rates[i] / meanRate);
+            newCumulative[i + 1] = newCumulative[i] + newShape[i];
+        }
+        shape = newShape;
+        cumulative = newCumulative;
+        return true;
+    }
+
+    /**
+     * Check whether the profile has enough data for projections.
+     */
+    public synchronized boolean isReady() {
+        return updateTables();
+    }
+
+    /**
+     * Get the time needed to discharge by the given amount, following the profile shape.
+     * The profile is scaled so that its weekly mean rate equals the given rate.
+     *
+     * @param fromTime Start of the projection
+     * @param drop Battery percentage to discharge
+     * @param meanRate Mean discharge rate in %/h the profile is scaled to
+     * @return Duration in hours, or NaN if the profile is not ready
+     */
+    public synchronized double getHoursToDrain(long fromTime, double drop, double meanRate) {
+        if (meanRate <= 0 || !updateTables()) {
+            return Double.NaN;
+        }
+        if (drop <= 0) {
+            return 0;
+        }
+
+        double start = toHourOfWeek(toLocalHours(fromTime));
+        int startBucket = Math.min(HOURS_PER_WEEK - 1, (int) start);
+        double startValue = cumulative[startBucket] + (start - startBucket) * shape[startBucket];
+
+        // Shape-hours needed, the cumulative table covers one week per cycle
+        double weekTotal = cumulative[HOURS_PER_WEEK];
+        double target = startValue + drop / meanRate;
+        long fullWeeks = (long) Math.floor(target / weekTotal);
+        double remainder = target - fullWeeks * weekTotal;
+
+        // Last bucket starting at or before the remainder
+        int low = 0;
+        int high = HOURS_PER_WEEK - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (cumulative[mid] <= remainder) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        double end = low + (remainder - cumulative[low]) / shape[low];
+
+        return fullWeeks * HOURS_PER_WEEK + end - start;
+    }
+
+    private void load(String json) {
+        if (json == null) {
+            return;
+        }
+        try {
+            JSONArray array = new JSONArray(json);
+            if (array.length() != HOURS_PER_WEEK * 3) {
+                return;
+            }
+            for (int i = 0; i < HOURS_PER_WEEK; i++) {
+                drops[i] = array.getDouble(i * 3);
+                hours[i] = array.getDouble(i * 3 + 1);
+                weeks[i] = array.getLong(i * 3 + 2);
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Save the profile now, after a batch of samples.
+     */
+    public synchronized void flush() {
+        if (prefs != null) {
+            save();
+            lastSaveTime = lastTimestamp;
+        }
+    }
+
+    private void save() {
+        try {
+            JSONArray array = new JSONArray();
+            for (int i = 0; i < HOURS_PER_WEEK; i++) {
+                array.put(Math.round(drops[i] * 1000) / 1000.0);
+                array.put(Math.round(hours[i] * 1000) / 1000.0);
+                array.put(weeks[i]);
+            }
+            prefs.edit().putString(PREF_DRAIN_PROFILE, array.toString()).apply();
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Clear the profile, with the all-time statistics.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < HOURS_PER_WEEK; i++) {
+            drops[i] = 0;
+            hours[i] = 0;
+            weeks[i] = 0;
+        }
+        lastTimestamp = -1;
+        shape = null;
+        cumulative = null;
+        if (prefs != null) {
+            prefs.edit().remove(PREF_DRAIN_PROFILE).apply();
+        }
+    }
+}
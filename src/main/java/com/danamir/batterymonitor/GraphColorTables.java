@@ -0,0 +1,130 @@
+package com.danamir.batterymonitor;
+
+import android.graphics.Color;
+
+/**
+ * Lookup tables of the graph line and fill colors, built once per settings snapshot.
+ *
+ * The line color is a gradient over the battery level, and the high usage blending applies a logarithmic
+ * curve to the usage ratio. Both are computed for every segment of every render, with a logarithm per
+ * blend. Their inputs are bounded, so the tables hold the gradient for levels 0-100 and the blend curve
+ * for usage ratios 0-1, and segments read them with a linear interpolation between two entries.
+ *
+ * The level entries are 0.1% apart, so the integer thresholds of the gradient fall on entries and the
+ * interpolation follows its linear pieces exactly. The colors match {@link BatteryGraphGenerator} within
+ * one unit per channel, from the rounding of the table entries.
+ */
+public final class GraphColorTables {
+    /** Level table entries per percent */
+    static final int LEVEL_STEPS_PER_PERCENT = 10;
+    /** Usage ratio table intervals, enough for the steepest blend curve */
+    static final int RATIO_STEPS = 1024;
+
+    private final int chargingColor;
+    private final int highUsageColor;
+    private final float lowUsageThreshold;
+    private final float highUsageThreshold;
+    private final float highUsageBlend;
+    private final RenderConfig config;
+
+    // Line color per 0.1% of level when not charging, null if the gradient has no blend range
+    private final int[] levelColors;
+    // Curved blend ratio per usage ratio, with the high usage color alpha (line) and without (fill)
+    private final float[] lineRatios;
+    private final float[] fillRatios;
+
+    GraphColorTables(RenderConfig config) {
+        this.config = config;
+        chargingColor = config.chargingColor;
+        highUsageColor = config.highUsageColor;
+        lowUsageThreshold = config.lowUsageThreshold;
+        highUsageThreshold = config.highUsageThreshold;
+        highUsageBlend = config.highUsageBlend;
+
+        if (config.blendValue > 0) {
+            levelColors = new int[100 * LEVEL_STEPS_PER_PERCENT + 1];
+            for (int i = 0; i < levelColors.length; i++) {
+                levelColors[i] = getDirectLineColor(i / (float) LEVEL_STEPS_PER_PERCENT);
+            }
+        } else {
+            levelColors = null;
+        }
+
+        lineRatios = new float[RATIO_STEPS + 1];
+        fillRatios = new float[RATIO_STEPS + 1];
+        float alphaRatio = Color.alpha(highUsageColor) / 255.0f;
+        for (int i = 0; i <= RATIO_STEPS; i++) {
+            float ratio = i / (float) RATIO_STEPS;
+            lineRatios[i] = BatteryGraphGenerator.getBlendRatio(ratio * alphaRatio, config.blendCurve);
+            fillRatios[i] = BatteryGraphGenerator.getBlendRatio(ratio, config.blendCurve);
+        }
+    }
+
+    private int getDirectLineColor(float level) {
+        return BatteryGraphGenerator.getBlendedLineColor(level, false, config.lineColor, config.lowColor,
+            config.criticalColor, config.chargingColor, config.batteryLowLevel, config.batteryCriticalLevel,
+            config.blendValue);
+    }
+
+    /**
+     * Get the line color for a battery level, as {@link BatteryGraphGenerator#getBlendedLineColor}.
+     * @param level The battery level (0-100)
+     * @param isCharging Whether the battery is charging
+     * @return The color to use for this battery level
+     */
+    public int getLineColor(float level, boolean isCharging) {
+        if (isCharging) {
+            return chargingColor;
+        }
+        if (levelColors == null || !(level >= 0 && level <= 100)) {
+            return getDirectLineColor(level);
+        }
+
+        float position = level * LEVEL_STEPS_PER_PERCENT;
+        int index = Math.min((int) position, levelColors.length - 2);
+        return blend(levelColors[index], levelColors[index + 1], position - index);
+    }
+
+    /**
+     * Blend a color with the high usage color according to the battery usage rate, as
+     * {@link BatteryGraphGenerator#getUsageBlendedColor}.
+     * @param color The color at low usage
+     * @param batteryUsage The battery usage rate in %/h
+     * @param useAlpha Use the high usage color alpha to modulate the ratio, as for the line
+     * @return The blended color
+     */
+    public int getUsageBlendedColor(int color, float batteryUsage, boolean useAlpha) {
+        float usageRatio;
+        if (batteryUsage >= highUsageThreshold) {
+            usageRatio = 1.0f;
+        } else if (batteryUsage > lowUsageThreshold) {
+            usageRatio = (batteryUsage - lowUsageThreshold) / highUsageBlend;
+        } else {
+            return color;
+        }
+        if (!(usageRatio <= 1.0f)) {
+            // Beyond the high usage color without blending range, outside of the table
+            return BatteryGraphGenerator.getUsageBlendedColor(color, highUsageColor, batteryUsage,
+                lowUsageThreshold, highUsageThreshold, highUsageBlend, useAlpha, config.blendCurve);
+        }
+
+        float[] ratios = useAlpha ? lineRatios : fillRatios;
+        float position = usageRatio * RATIO_STEPS;
+        int index = Math.min((int) position, RATIO_STEPS - 1);
+        float fraction = position - index;
+        float ratio = ratios[index] + (ratios[index + 1] - ratios[index]) * fraction;
+        return blend(color, highUsageColor, ratio);
+    }
+
+    /**
+     * Linear blend of two colors, truncating the channels as the graph color functions.
+     */
+    private static int blend(int color1, int color2, float ratio) {
+        float inverseRatio = 1.0f - ratio;
+        int r = (int) (Color.red(color1) * inverseRatio + Color.red(color2) * ratio);
+        int g = (int) (Color.green(color1) * inverseRatio + Color.green(color2) * ratio);
+        int b = (int) (Color.blue(color1) * inverseRatio + Color.blue(color2) * ratio);
+        int a = (int) (Color.alpha(color1) * inverseRatio + Color.alpha(color2) * ratio);
+        return Color.argb(a, r, g, b);
+    }
+}
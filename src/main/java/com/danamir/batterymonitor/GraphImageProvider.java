@@ -0,0 +1,67 @@
+package com.danamir.batterymonitor;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+/**
+ * Read-only access to the rendered widget graphs of {@link WidgetImageStore}, for the launcher.
+ */
+public class GraphImageProvider extends ContentProvider {
+    public static final String AUTHORITY = "com.danamir.batterymonitor.graph";
+
+    static Uri getUri(String fileName) {
+        return new Uri.Builder().scheme("content").authority(AUTHORITY).appendPath(fileName).build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        Context context = getContext();
+        String name = uri.getLastPathSegment();
+        // Only the graph files, by name, so no other path can be reached
+        if (context == null || !"r".equals(mode) || name == null
+            || !WidgetImageStore.FILE_NAME.matcher(name).matches()) {
+            throw new FileNotFoundException(uri.toString());
+        }
+
+        File file = new File(new File(context.getFilesDir(), WidgetImageStore.DIRECTORY), name);
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return "image/png";
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        // Read-only
+        return null;
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        return 0;
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        return 0;
+    }
+}
@@ -0,0 +1,185 @@
+package com.danamir.batterymonitor;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sliding window over the usage rates of a data series, for the high usage coloring of the graph.
+ *
+ * The rate of each step between two consecutive points is computed once. For each rendered segment,
+ * the window holds the rates of the points between the segment end time minus the high usage range and
+ * the segment end time, like the backward scan it replaces. Segments are rendered in chronological
+ * order, so both window bounds only move forward: each rate enters and leaves the window once.
+ *
+ * The window keeps a running sum for the mean, and counts per rate rank in a Fenwick tree for the
+ * median, so the k-th smallest rate is found in O(log n) without copying or sorting the window.
+ *
+ * Not thread safe, one instance is used by a single graph rendering.
+ */
+public class HighUsageWindow {
+    private final long[] timestamps;
+    // Rate of the step ending at each point, and its rank in the sorted distinct rates, -1 if no rate
+    private final float[] rates;
+    private final int[] ranks;
+    private final float[] sortedRates;
+    // Fenwick tree of the number of window rates per rank
+    private final int[] tree;
+    private final int highestBit;
+    private final long rangeMillis;
+
+    // Window over points [first, end), rates of points without a step are not counted
+    private int first;
+    private int end;
+    private int size;
+    private double sum;
+
+    /**
+     * @param dataPoints Data series, in chronological order
+     * @param rangeMinutes High usage range in minutes
+     */
+    public HighUsageWindow(List<HybridBatteryData> dataPoints, int rangeMinutes) {
+        int count = dataPoints.size();
+        rangeMillis = rangeMinutes * 60 * 1000L;
+        timestamps = new long[count];
+        rates = new float[count];
+        ranks = new int[count];
+
+        float[] validRates = new float[count];
+        int validCount = 0;
+        for (int i = 0; i < count; i++) {
+            HybridBatteryData point = dataPoints.get(i);
+            timestamps[i] = point.getTimestamp();
+            ranks[i] = -1;
+            if (i > 0) {
+                HybridBatteryData previous = dataPoints.get(i - 1);
+                long timeDelta = point.getTimestamp() - previous.getTimestamp();
+                if (timeDelta > 0) {
+                    // Same expression as the per-segment rate, so the values are identical
+                    float levelDelta = previous.getBatteryLevel() - point.getBatteryLevel();
+                    rates[i] = levelDelta / (timeDelta / 3600000.0f);
+                    ranks[i] = 0;
+                    validRates[validCount++] = rates[i];
+                }
+            }
+        }
+
+        // Distinct rates in the same order as a sorted list of boxed floats
+        Arrays.sort(validRates, 0, validCount);
+        int distinct = 0;
+        for (int i = 0; i < validCount; i++) {
+            if (distinct == 0 || Float.compare(validRates[i], validRates[distinct - 1]) != 0) {
+                validRates[distinct++] = validRates[i];
+            }
+        }
+        sortedRates = Arrays.copyOf(validRates, distinct);
+        for (int i = 0; i < count; i++) {
+            if (ranks[i] >= 0) {
+                ranks[i] = Arrays.binarySearch(sortedRates, rates[i]);
+            }
+        }
+
+        tree = new int[distinct + 1];
+        highestBit = distinct > 0 ? Integer.highestOneBit(distinct) : 0;
+    }
+
+    private void add(int index, int delta) {
+        int rank = ranks[index];
+        if (rank < 0) {
+            return;
+        }
+        for (int i = rank + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+        size += delta;
+        sum += delta * (double) rates[index];
+    }
+
+    /**
+     * @param k Position in the sorted window, from 1 to the window size
+     * @return The k-th smallest rate of the window
+     */
+    private float select(int k) {
+        int position = 0;
+        for (int bit = highestBit; bit > 0; bit >>= 1) {
+            int next = position + bit;
+            if (next < tree.length && tree[next] < k) {
+                position = next;
+                k -= tree[next];
+            }
+        }
+        return sortedRates[position];
+    }
+
+    /**
+     * Move the window to the points between the given time minus the range and the given time.
+     */
+    private void moveTo(long endTime) {
+        if (end > 0 && timestamps[end - 1] > endTime) {
+            // Earlier than the previous segment, only when the rendered points are not in order
+            while (first < end) {
+                add(first++, -1);
+            }
+            first = 0;
+            end = 0;
+        }
+
+        long rangeStartTime = endTime - rangeMillis;
+        while (end < timestamps.length && timestamps[end] <= endTime) {
+            add(end++, 1);
+        }
+        while (first < end && timestamps[first] < rangeStartTime) {
+            add(first++, -1);
+        }
+    }
+
+    /**
+     * Median of three values, the first not greater than the last.
+     */
+    private static float median(float low, float value, float high) {
+        return Math.max(low, Math.min(value, high));
+    }
+
+    /**
+     * Get the average of the current segment rate and the rates of the window ending at the segment: their
+     * mean, their median (the mean of the two middle rates for an even count), or the mean of both.
+     *
+     * @param endTime Time of the segment end
+     * @param currentRate Usage rate of the segment
+     * @param highUsageAverage The averaging method to use: "mean", "median", or "hybrid"
+     * @return The calculated average usage rate
+     */
+    public float getAverageUsage(long endTime, float currentRate, String highUsageAverage) {
+        moveTo(endTime);
+        if (size == 0) {
+            return currentRate;
+        }
+
+        int total = size + 1;
+        float meanUsage = 0;
+        float medianUsage = 0;
+
+        if (highUsageAverage.equals("mean") || highUsageAverage.equals("hybrid")) {
+            meanUsage = (float) (sum + currentRate) / total;
+        }
+
+        if (highUsageAverage.equals("median") || highUsageAverage.equals("hybrid")) {
+            if (size % 2 == 0) {
+                // Odd total: the middle value is the current rate or one of the two middle window rates
+                medianUsage = median(select(size / 2), currentRate, select(size / 2 + 1));
+            } else {
+                // Even total: the middle window rate, and the current rate or one of its neighbors
+                float center = select((size + 1) / 2);
+                float low = size > 1 ? select((size - 1) / 2) : Float.NEGATIVE_INFINITY;
+                float high = size > 1 ? select((size + 3) / 2) : Float.POSITIVE_INFINITY;
+                medianUsage = (center + median(low, currentRate, high)) / 2.0f;
+            }
+        }
+
+        if (highUsageAverage.equals("hybrid")) {
+            return meanUsage * 0.5f + medianUsage * 0.5f;
+        } else if (highUsageAverage.equals("mean")) {
+            return meanUsage;
+        }
+        return medianUsage;
+    }
+}
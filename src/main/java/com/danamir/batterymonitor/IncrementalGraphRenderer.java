@@ -0,0 +1,358 @@
+package com.danamir.batterymonitor;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Graph renderer for one widget size that keeps each layer of the graph in its own bitmap, and scrolls
+ * the previous frame of the layers positioned in time instead of redrawing them.
+ *
+ * The graph is composited from four layers, see the LAYER_ flags of {@link BatteryGraphGenerator}:
+ * background with night periods and time-aligned grid, axis with the horizontal grid, Y-axis labels and
+ * static grid, data with the battery level and status bar, and the text overlay. Each layer has its own
+ * key of the settings it depends on and is only drawn again when its key changes. The axis is fixed on
+ * screen, and the overlay only changes with the displayed values.
+ *
+ * The background and data move left by one pixel column each time the current time advances by the time
+ * range divided by the graph width. The time of a frame is aligned to a column boundary, so consecutive
+ * frames differ by a whole number of columns: the previous layer is copied shifted by that number of
+ * pixels, and only the newly exposed columns are drawn, from the previous last data point for the data.
+ *
+ * A scrolling layer is fully drawn again when its key changes, when the time moved backward or by more
+ * than half the graph, and periodically to discard the small differences accumulated by the shifted
+ * downsampling buckets. The data layer is also fully drawn when the Y-axis range changes or the data the
+ * previous frame ended with was modified.
+ *
+ * All bitmaps, the layers and the composited graph, come from the {@link BitmapPool} and are kept from
+ * one frame to the next: a frame draws into the bitmaps of the previous one instead of allocating.
+ *
+ * Not thread safe, the owning cache synchronizes access.
+ */
+public class IncrementalGraphRenderer {
+    /** Maximum number of consecutive incremental frames of a layer before a full redraw */
+    private static final int MAX_INCREMENTAL_FRAMES = 60;
+
+    private final int width;
+    private final int height;
+
+    private final Layer background = new Layer(BatteryGraphGenerator.LAYER_BACKGROUND);
+    private final Layer axis = new Layer(BatteryGraphGenerator.LAYER_AXIS);
+    private final Layer data = new Layer(BatteryGraphGenerator.LAYER_DATA);
+    private final Layer overlay = new Layer(0);
+    // Buffer a scrolling layer is shifted into, then swapped with the layer bitmap
+    private Bitmap scrollBuffer;
+    // Composited graph, returned by each render
+    private Bitmap frame;
+    private final Paint copyPaint = new Paint();
+
+    // Last data point of the data layer, and displayed values of the overlay layer
+    private long lastDataTimestamp = Long.MIN_VALUE;
+    private float lastDataLevel;
+    private BatteryValues overlayValues;
+    // Summary of the data of the render in progress
+    private LodPyramid pyramid;
+
+    private long fullRenderCount;
+    private long incrementalRenderCount;
+    private long layerReuseCount;
+
+    /**
+     * One layer of the graph and the parameters of its last frame.
+     */
+    private static final class Layer {
+        private final int flag;
+        private Bitmap bitmap;
+        private boolean valid;
+        private long[] key;
+        // Column index of the aligned time of the last frame
+        private long frameColumn;
+        private long frameNow;
+        private int incrementalFrames;
+
+        Layer(int flag) {
+            this.flag = flag;
+        }
+    }
+
+    public IncrementalGraphRenderer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        copyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+    }
+
+    /**
+     * Render the graph, reusing or scrolling the previous frame of each layer when possible.
+     * The returned bitmap belongs to the renderer, it is drawn again by the next render.
+     *
+     * @param context The application context
+     * @param dataPoints Battery data, in chronological order
+     * @param pyramid Level-of-detail summary of the battery data, or null
+     * @param statusData Status intervals
+     * @param values Values shown in the text overlay
+     * @param displayHours Number of hours to display
+     * @param now Current time in milliseconds, rounded up to the next pixel column for the right edge
+     * @return The graph bitmap
+     */
+    public Bitmap render(Context context, List<HybridBatteryData> dataPoints, LodPyramid pyramid,
+                         List<StatusData> statusData, BatteryValues values, int displayHours, long now) {
+        this.pyramid = pyramid;
+        RenderConfig config = RenderConfig.get(context);
+        float density = context.getResources().getDisplayMetrics().density;
+        int paddingHorizontal = (int) (config.paddingHorizontalDp * density);
+        int graphWidth = Math.max(1, width - 2 * paddingHorizontal);
+        long timeRange = displayHours * 60 * 60 * 1000L;
+
+        // Align the right edge to a column boundary, so frames are shifted by whole pixels
+        long column = (now * graphWidth + timeRange - 1) / timeRange;
+        long alignedNow = column * timeRange / graphWidth;
+
+        boolean hasData = dataPoints != null && !dataPoints.isEmpty();
+        int[] yRange = hasData
+            ? BatteryGraphGenerator.getYRange(config, dataPoints, pyramid, displayHours, alignedNow) : new int[2];
+        float strokeMargin = config.graphLineWidth * density + 2;
+
+        // Background: only the new columns at the right edge, and the left padding
+        long[] backgroundKey = {config.version, displayHours};
+        if (canScroll(background, backgroundKey, column, graphWidth)) {
+            int shift = (int) (column - background.frameColumn);
+            if (shift > 0) {
+                scroll(background, shift);
+                drawDirty(context, background, dataPoints, statusData, displayHours, alignedNow,
+                    width - paddingHorizontal - shift - strokeMargin, paddingHorizontal + strokeMargin);
+                background.incrementalFrames++;
+            } else {
+                layerReuseCount++;
+            }
+        } else {
+            drawFull(context, background, dataPoints, statusData, displayHours, alignedNow);
+        }
+        setFrame(background, backgroundKey, column, alignedNow);
+
+        // Axis: fixed on screen, only depends on the settings and Y-axis range
+        long[] axisKey = {config.version, displayHours, yRange[0], yRange[1], hasData ? 1 : 0};
+        if (axis.valid && Arrays.equals(axis.key, axisKey)) {
+            layerReuseCount++;
+        } else {
+            drawFull(context, axis, dataPoints, statusData, displayHours, alignedNow);
+        }
+        setFrame(axis, axisKey, column, alignedNow);
+
+        // Data: from the previous last data point to the right edge, and the left padding. The LTTB
+        // buckets are counted in points over the whole range, a new point can move all of them.
+        long[] dataKey = {config.version, displayHours, yRange[0], yRange[1]};
+        if (hasData && LttbDownsampler.MIN_MAX.equals(config.downsampling)
+            && canScroll(data, dataKey, column, graphWidth)
+            && containsPoint(dataPoints, lastDataTimestamp, lastDataLevel)) {
+            int shift = (int) (column - data.frameColumn);
+            if (shift > 0) {
+                scroll(data, shift);
+            }
+            float dirtyLeft = getDirtyLeft(config, paddingHorizontal, graphWidth, timeRange, data.frameNow, density) - shift;
+            drawDirty(context, data, dataPoints, statusData, displayHours, alignedNow,
+                dirtyLeft, paddingHorizontal + strokeMargin);
+            data.incrementalFrames++;
+            incrementalRenderCount++;
+        } else {
+            drawFull(context, data, dataPoints, statusData, displayHours, alignedNow);
+            fullRenderCount++;
+        }
+        setFrame(data, dataKey, column, alignedNow);
+        if (hasData) {
+            HybridBatteryData last = dataPoints.get(dataPoints.size() - 1);
+            lastDataTimestamp = last.getTimestamp();
+            lastDataLevel = last.getBatteryLevel();
+        } else {
+            lastDataTimestamp = Long.MIN_VALUE;
+        }
+
+        // Overlay: only changes with the displayed values
+        long[] overlayKey = {config.version, hasData ? 1 : 0};
+        if (overlay.valid && Arrays.equals(overlay.key, overlayKey) && values == overlayValues) {
+            layerReuseCount++;
+        } else {
+            Canvas canvas = clear(overlay);
+            if (hasData) {
+                BatteryGraphGenerator.drawOverlay(context, canvas, values, width, height);
+            }
+            overlayValues = values;
+        }
+        setFrame(overlay, overlayKey, column, alignedNow);
+
+        if (frame == null) {
+            frame = BitmapPool.getInstance().acquire(width, height);
+        }
+        Canvas canvas = new Canvas(frame);
+        canvas.drawBitmap(background.bitmap, 0, 0, copyPaint);
+        canvas.drawBitmap(axis.bitmap, 0, 0, null);
+        canvas.drawBitmap(data.bitmap, 0, 0, null);
+        canvas.drawBitmap(overlay.bitmap, 0, 0, null);
+        this.pyramid = null;
+        return frame;
+    }
+
+    /**
+     * @return Whether the last frame of a layer can be scrolled to the given column
+     */
+    private static boolean canScroll(Layer layer, long[] key, long column, int graphWidth) {
+        long shift = column - layer.frameColumn;
+        return layer.valid && Arrays.equals(layer.key, key)
+            && shift >= 0 && shift < graphWidth / 2
+            && layer.incrementalFrames < MAX_INCREMENTAL_FRAMES;
+    }
+
+    private static void setFrame(Layer layer, long[] key, long column, long alignedNow) {
+        layer.valid = true;
+        layer.key = key;
+        layer.frameColumn = column;
+        layer.frameNow = alignedNow;
+    }
+
+    /**
+     * @return A canvas on the layer bitmap, cleared
+     */
+    private Canvas clear(Layer layer) {
+        if (layer.bitmap == null) {
+            layer.bitmap = BitmapPool.getInstance().acquire(width, height);
+        }
+        Canvas canvas = new Canvas(layer.bitmap);
+        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        return canvas;
+    }
+
+    private void drawFull(Context context, Layer layer, List<HybridBatteryData> dataPoints, List<StatusData> statusData,
+                          int displayHours, long alignedNow) {
+        Canvas canvas = clear(layer);
+        BatteryGraphGenerator.drawPlot(context, canvas, dataPoints, pyramid, statusData, displayHours, width, height,
+            alignedNow, layer.flag);
+        layer.incrementalFrames = 0;
+    }
+
+    /**
+     * Move the layer content left by the given number of pixels.
+     */
+    private void scroll(Layer layer, int shift) {
+        if (scrollBuffer == null) {
+            scrollBuffer = BitmapPool.getInstance().acquire(width, height);
+        }
+        Canvas canvas = new Canvas(scrollBuffer);
+        canvas.drawBitmap(layer.bitmap, -shift, 0, copyPaint);
+
+        Bitmap previous = layer.bitmap;
+        layer.bitmap = scrollBuffer;
+        scrollBuffer = previous;
+    }
+
+    /**
+     * Draw again the columns from the given position to the right edge, and the left columns up to the
+     * given position where the graph start was shifted out.
+     */
+    private void drawDirty(Context context, Layer layer, List<HybridBatteryData> dataPoints, List<StatusData> statusData,
+                           int displayHours, long alignedNow, float dirtyLeft, float dirtyStartRight) {
+        Canvas canvas = new Canvas(layer.bitmap);
+        canvas.save();
+        canvas.clipRect(Math.max(0, dirtyLeft), 0, width, height);
+        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        BatteryGraphGenerator.drawPlot(context, canvas, dataPoints, pyramid, statusData, displayHours, width, height,
+            alignedNow, layer.flag);
+        canvas.restore();
+
+        if (dirtyStartRight > 0 && dirtyStartRight < dirtyLeft) {
+            canvas.save();
+            canvas.clipRect(0, 0, dirtyStartRight, height);
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            BatteryGraphGenerator.drawPlot(context, canvas, dataPoints, pyramid, statusData, displayHours, width, height,
+                alignedNow, layer.flag);
+            canvas.restore();
+        }
+    }
+
+    /**
+     * Get the left edge of the area of a frame that can change with new data: the last data point or the
+     * frame time, where ongoing statuses end, minus the line width and the width of a downsampling bucket.
+     */
+    private float getDirtyLeft(RenderConfig config, int paddingHorizontal, int graphWidth, long timeRange,
+                               long frameTime, float density) {
+        long startTime = frameTime - timeRange;
+        long dirtyTime = Math.min(lastDataTimestamp, frameTime);
+        float x = paddingHorizontal + graphWidth * (dirtyTime - startTime) / (float) timeRange;
+
+        // Same bucket width as the downsampling of the smoothed graph
+        int bucketWidth = 1;
+        if (config.smoothingLevel > 0) {
+            bucketWidth = graphWidth / Math.max(1, graphWidth / (int) Math.pow(2, config.smoothingLevel + 2));
+        }
+        return x - 2 * bucketWidth - (config.graphLineWidth * density + 2);
+    }
+
+    /**
+     * @return Whether the data still contains the point the previous frame ended with
+     */
+    private static boolean containsPoint(List<HybridBatteryData> dataPoints, long timestamp, float level) {
+        for (int i = dataPoints.size() - 1; i >= 0; i--) {
+            HybridBatteryData point = dataPoints.get(i);
+            if (point.getTimestamp() < timestamp) {
+                return false;
+            }
+            if (point.getTimestamp() == timestamp) {
+                return Float.compare(point.getBatteryLevel(), level) == 0;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drop the previous frame of all layers, the next one is fully drawn.
+     */
+    public void invalidate() {
+        background.valid = false;
+        axis.valid = false;
+        data.valid = false;
+        overlay.valid = false;
+    }
+
+    /**
+     * Return the bitmaps to the pool, the last returned graph included.
+     * The next render allocates them again and draws all layers.
+     */
+    public void release() {
+        BitmapPool pool = BitmapPool.getInstance();
+        for (Layer layer : new Layer[]{background, axis, data, overlay}) {
+            pool.release(layer.bitmap);
+            layer.bitmap = null;
+            layer.valid = false;
+        }
+        pool.release(scrollBuffer);
+        scrollBuffer = null;
+        pool.release(frame);
+        frame = null;
+    }
+
+    /**
+     * @return Number of frames with the data layer drawn entirely
+     */
+    public long getFullRenderCount() {
+        return fullRenderCount;
+    }
+
+    /**
+     * @return Number of frames with the data layer drawn by scrolling the previous one
+     */
+    public long getIncrementalRenderCount() {
+        return incrementalRenderCount;
+    }
+
+    /**
+     * @return Number of times a layer was composited without drawing anything in it
+     */
+    public long getLayerReuseCount() {
+        return layerReuseCount;
+    }
+}
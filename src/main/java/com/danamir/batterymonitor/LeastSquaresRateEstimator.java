@@ -0,0 +1,177 @@
+package com.danamir.batterymonitor;
+
+/**
+ * Recursive least-squares fit of the battery level slope over the current charge or discharge period.
+ *
+ * Unlike the short-term rate, which only uses the two end points of the calculation period, every
+ * sample contributes to the slope, so a single noisy precise sample barely moves the estimate, and a
+ * usable rate is available after a few minutes. The fit keeps the weighted sums of a two-parameter
+ * linear regression, updated in O(1) per sample. With a time constant, older samples are
+ * exponentially down-weighted so the slope follows usage changes.
+ *
+ * Not thread safe, the owning data manager synchronizes access.
+ */
+public class LeastSquaresRateEstimator implements RateEstimator {
+    public static final String ID = "least_squares";
+
+    /** Minimum number of samples in the current period for a fit */
+    private static final int MIN_SAMPLES = 3;
+    /** Minimum span of the current period for a fit, in minutes, when shorter than the requested duration */
+    private static final int MIN_FIT_MINUTES = 3;
+    /** Two-sided 95% normal quantile, for the confidence band */
+    private static final double CONFIDENCE_Z = 1.96;
+
+    private final Integer timeConstant;
+    private final double timeConstantHours;
+    private final boolean collapseDuplicates;
+
+    private int count;
+    private boolean charging;
+    private long periodStart;
+    private long lastTimestamp;
+    private float lastLevel;
+    private float levelOffset;
+
+    // Weighted sums, with x the time in hours relative to the last sample and y the level relative to levelOffset
+    private double sumW;
+    private double sumW2;
+    private double sumX;
+    private double sumXX;
+    private double sumY;
+    private double sumYY;
+    private double sumXY;
+
+    /**
+     * @param timeConstant Time constant of the exponential weighting in minutes, null for equal weights
+     *                     over the whole current period
+     * @param collapseDuplicates Whether a sample with the same level and charging state as the previous
+     *                           one replaces it, like the deduplication of integer data
+     */
+    public LeastSquaresRateEstimator(Integer timeConstant, boolean collapseDuplicates) {
+        this.timeConstant = timeConstant;
+        this.timeConstantHours = timeConstant != null ? timeConstant / 60.0 : Double.POSITIVE_INFINITY;
+        this.collapseDuplicates = collapseDuplicates;
+    }
+
+    public Integer getTimeConstant() {
+        return timeConstant;
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public String getLabel() {
+        return "Trend";
+    }
+
+    private void reset(long timestamp, float level, boolean isCharging) {
+        count = 0;
+        charging = isCharging;
+        periodStart = timestamp;
+        levelOffset = level;
+        sumW = sumW2 = sumX = sumXX = sumY = sumYY = sumXY = 0;
+    }
+
+    @Override
+    public void onSample(long timestamp, float level, boolean isCharging) {
+        if (collapseDuplicates && count > 0 && level == lastLevel && isCharging == charging
+            && timestamp >= lastTimestamp) {
+            // Same data, the previous sample is replaced: remove it, it is at x = 0 with a weight of 1
+            double lastY = lastLevel - levelOffset;
+            sumW -= 1;
+            sumW2 -= 1;
+            sumY -= lastY;
+            sumYY -= lastY * lastY;
+            count--;
+        }
+
+        if (count == 0 || isCharging != charging || timestamp < lastTimestamp) {
+            // New charge or discharge period, the slope of the previous one is not relevant
+            reset(timestamp, level, isCharging);
+        } else {
+            // Move the time origin to the new sample, then age the previous samples
+            double shift = (timestamp - lastTimestamp) / 3600000.0;
+            sumXX += shift * (shift * sumW - 2 * sumX);
+            sumX -= shift * sumW;
+            sumXY -= shift * sumY;
+
+            if (timeConstant != null) {
+                double decay = Math.exp(-shift / timeConstantHours);
+                sumW *= decay;
+                sumW2 *= decay * decay;
+                sumX *= decay;
+                sumXX *= decay;
+                sumY *= decay;
+                sumYY *= decay;
+                sumXY *= decay;
+            }
+        }
+
+        // New sample at x = 0
+        double y = level - levelOffset;
+        sumW += 1;
+        sumW2 += 1;
+        sumY += y;
+        sumYY += y * y;
+        count++;
+        lastTimestamp = timestamp;
+        lastLevel = level;
+    }
+
+    private boolean hasFit(long cutoffTime, int minDuration) {
+        if (count < MIN_SAMPLES || lastTimestamp < cutoffTime) {
+            return false;
+        }
+        long minSpanMs = Math.min(minDuration, MIN_FIT_MINUTES) * 60 * 1000L;
+        return lastTimestamp - periodStart >= minSpanMs && getCenteredSumXX() > 0;
+    }
+
+    private double getCenteredSumXX() {
+        return sumXX - sumX * sumX / sumW;
+    }
+
+    private double getSlope() {
+        return (sumXY - sumX * sumY / sumW) / getCenteredSumXX();
+    }
+
+    /**
+     * Get the fitted rate of the current period.
+     * Samples of the period older than the cutoff time are kept in the fit, with a negligible weight
+     * once they are several time constants old.
+     */
+    @Override
+    public Double getRate(long cutoffTime, int minDuration) {
+        if (!hasFit(cutoffTime, minDuration)) {
+            return null;
+        }
+        double slope = getSlope();
+        double rate = charging ? slope : -slope;
+        return rate > 0 ? rate : null;
+    }
+
+    /**
+     * Half-width of the 95% confidence band of the fitted slope, from the residuals of the fit and
+     * the effective number of samples.
+     */
+    @Override
+    public Double getRateMargin(long cutoffTime, int minDuration) {
+        if (!hasFit(cutoffTime, minDuration)) {
+            return null;
+        }
+        double effectiveCount = sumW * sumW / sumW2;
+        if (effectiveCount <= 2) {
+            return null;
+        }
+
+        double centeredSumXX = getCenteredSumXX();
+        double centeredSumXY = sumXY - sumX * sumY / sumW;
+        double centeredSumYY = sumYY - sumY * sumY / sumW;
+        double residuals = Math.max(0, centeredSumYY - getSlope() * centeredSumXY);
+        double variance = residuals / sumW * effectiveCount / (effectiveCount - 2);
+        double slopeVariance = variance * sumW / (centeredSumXX * effectiveCount);
+        return CONFIDENCE_Z * Math.sqrt(slopeVariance);
+    }
+}
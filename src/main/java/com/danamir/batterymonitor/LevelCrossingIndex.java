@@ -0,0 +1,213 @@
+package com.danamir.batterymonitor;
+
+import java.util.Arrays;
+
+/**
+ * Level-crossing index and per-level-band drain histogram over the integer battery history,
+ * maintained on ingestion.
+ *
+ * For each charge or discharge session, the index records the time each integer level was first
+ * reached, interpolating levels skipped between two samples. The time spent leaving each level is
+ * accumulated per band of levels, separately for charging and discharging, so time-to-target can
+ * follow the faster drops at low levels and the slower charge near full.
+ *
+ * Not thread safe, the owning data manager synchronizes access.
+ */
+public class LevelCrossingIndex {
+    private static final int MAX_LEVEL = 100;
+    /** Width of a level band, in percent */
+    public static final int BAND_SIZE = 5;
+    private static final int BAND_COUNT = MAX_LEVEL / BAND_SIZE + 1;
+    /** Number of recent sessions kept with their crossing times */
+    private static final int MAX_SESSIONS = 64;
+    /** Steps longer than this are gaps in the data and are not counted in the histogram */
+    private static final long MAX_STEP_MS = 6 * 3600000L;
+    /** Minimum time observed in a band for its own rate to be used, in hours */
+    private static final double MIN_BAND_HOURS = 0.5;
+
+    // Ring buffer of sessions, the current one at position (firstSession + sessionCount - 1) % MAX_SESSIONS
+    private final long[][] crossingTimes = new long[MAX_SESSIONS][MAX_LEVEL + 1];
+    private final long[] sessionStarts = new long[MAX_SESSIONS];
+    private final boolean[] sessionCharging = new boolean[MAX_SESSIONS];
+    private int firstSession;
+    private int sessionCount;
+
+    // Last time each level was reached, over all kept sessions
+    private final long[] lastCrossingTimes = new long[MAX_LEVEL + 1];
+
+    // Current session state: last level reached and when, and whether a full step was seen
+    private int lastLevel = -1;
+    private long lastLevelTime;
+    private boolean hasFullStep;
+
+    // Per charging state and band: time spent and levels traversed
+    private final double[][] bandHours = new double[2][BAND_COUNT];
+    private final long[][] bandLevels = new long[2][BAND_COUNT];
+
+    public LevelCrossingIndex() {
+        Arrays.fill(lastCrossingTimes, -1);
+    }
+
+    private static int stateOf(boolean charging) {
+        return charging ? 1 : 0;
+    }
+
+    private static int bandOf(int level) {
+        return Math.max(0, Math.min(MAX_LEVEL, level)) / BAND_SIZE;
+    }
+
+    private int sessionPosition(int sessionsAgo) {
+        return (firstSession + sessionCount - 1 - sessionsAgo) % MAX_SESSIONS;
+    }
+
+    private void startSession(long timestamp, boolean isCharging) {
+        if (sessionCount == MAX_SESSIONS) {
+            firstSession = (firstSession + 1) % MAX_SESSIONS;
+        } else {
+            sessionCount++;
+        }
+        int position = sessionPosition(0);
+        Arrays.fill(crossingTimes[position], -1);
+        sessionStarts[position] = timestamp;
+        sessionCharging[position] = isCharging;
+        lastLevel = -1;
+        hasFullStep = false;
+    }
+
+    /**
+     * Add a data point, in chronological order.
+     */
+    public void onSample(long timestamp, int level, boolean isCharging) {
+        level = Math.max(0, Math.min(MAX_LEVEL, level));
+        if (sessionCount == 0 || sessionCharging[sessionPosition(0)] != isCharging) {
+            startSession(timestamp, isCharging);
+        }
+
+        int position = sessionPosition(0);
+        if (lastLevel < 0) {
+            // Session start, the level was reached at an unknown earlier time
+            recordCrossing(position, level, timestamp);
+            lastLevel = level;
+            lastLevelTime = timestamp;
+            return;
+        }
+
+        int direction = isCharging ? 1 : -1;
+        int levels = (level - lastLevel) * direction;
+        if (levels <= 0) {
+            // Same level, or moving against the session direction
+            return;
+        }
+
+        long stepTime = timestamp - lastLevelTime;
+        for (int i = 1; i <= levels; i++) {
+            // Interpolate the crossing time of skipped levels
+            recordCrossing(position, lastLevel + i * direction, lastLevelTime + stepTime * i / levels);
+        }
+
+        // The time to leave the first level of the session is only partially known
+        if (hasFullStep && stepTime <= MAX_STEP_MS) {
+            int state = stateOf(isCharging);
+            double hoursPerLevel = stepTime / 3600000.0 / levels;
+            for (int i = 0; i < levels; i++) {
+                int band = bandOf(lastLevel + i * direction);
+                bandHours[state][band] += hoursPerLevel;
+                bandLevels[state][band]++;
+            }
+        }
+        hasFullStep = true;
+        lastLevel = level;
+        lastLevelTime = timestamp;
+    }
+
+    private void recordCrossing(int position, int level, long timestamp) {
+        if (crossingTimes[position][level] < 0) {
+            crossingTimes[position][level] = timestamp;
+        }
+        lastCrossingTimes[level] = timestamp;
+    }
+
+    /**
+     * Get the last time the given level was reached.
+     * @return Timestamp, or -1 if the level was not reached in the kept sessions
+     */
+    public long getLastCrossingTime(int level) {
+        if (level < 0 || level > MAX_LEVEL) {
+            return -1;
+        }
+        return lastCrossingTimes[level];
+    }
+
+    /**
+     * @return Number of kept sessions, including the current one
+     */
+    public int getSessionCount() {
+        return sessionCount;
+    }
+
+    /**
+     * @param sessionsAgo 0 for the current session, 1 for the previous one...
+     * @return Time of the first sample of the session
+     */
+    public long getSessionStart(int sessionsAgo) {
+        return sessionStarts[sessionPosition(sessionsAgo)];
+    }
+
+    public boolean isSessionCharging(int sessionsAgo) {
+        return sessionCharging[sessionPosition(sessionsAgo)];
+    }
+
+    /**
+     * Get the time the given level was first reached in a session.
+     * @param sessionsAgo 0 for the current session, 1 for the previous one...
+     * @return Timestamp, or -1 if the level was not reached in that session
+     */
+    public long getCrossingTime(int sessionsAgo, int level) {
+        if (sessionsAgo < 0 || sessionsAgo >= sessionCount || level < 0 || level > MAX_LEVEL) {
+            return -1;
+        }
+        return crossingTimes[sessionPosition(sessionsAgo)][level];
+    }
+
+    /**
+     * Get the number of levels at the mean rate taking as long as going from one level to another,
+     * following the time per level of each band. Bands without enough data count at the mean rate.
+     *
+     * @param isCharging Whether the levels are traversed charging or discharging
+     * @param fromLevel Current level, fractional for precise data
+     * @param toLevel Target level
+     * @return Equivalent number of levels, the actual difference when the histogram is empty
+     */
+    public double getEquivalentLevels(boolean isCharging, float fromLevel, int toLevel) {
+        int state = stateOf(isCharging);
+        double totalHours = 0;
+        long totalLevels = 0;
+        for (int band = 0; band < BAND_COUNT; band++) {
+            totalHours += bandHours[state][band];
+            totalLevels += bandLevels[state][band];
+        }
+
+        double difference = Math.abs(toLevel - fromLevel);
+        if (totalLevels == 0 || totalHours <= 0) {
+            return difference;
+        }
+        double meanHoursPerLevel = totalHours / totalLevels;
+
+        // Walk the levels between the current one and the target, weighting each by its band factor
+        double low = Math.min(fromLevel, toLevel);
+        double high = Math.max(fromLevel, toLevel);
+        double equivalent = 0;
+        double position = low;
+        while (position < high) {
+            int level = (int) Math.floor(position);
+            double next = Math.min(high, level + 1);
+            // Charging from level to level + 1 leaves the lower level, discharging leaves the upper one
+            int band = bandOf(isCharging ? level : level + 1);
+            double factor = bandHours[state][band] >= MIN_BAND_HOURS
+                ? bandHours[state][band] / bandLevels[state][band] / meanHoursPerLevel : 1;
+            equivalent += (next - position) * factor;
+            position = next;
+        }
+        return equivalent;
+    }
+}
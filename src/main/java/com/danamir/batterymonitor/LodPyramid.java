@@ -0,0 +1,380 @@
+package com.danamir.batterymonitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Multi-resolution summary of the display series, for rendering long time ranges.
+ *
+ * Level k groups the points in time buckets of one minute times 2^k, aligned to absolute time, and keeps
+ * for each bucket its first point and the first points with the minimum and maximum level: what the
+ * min-max downsampling of the graph keeps of a pixel column. A graph column spanning several buckets is
+ * summarized from the buckets of the level just below the column duration, so downsampling a range costs
+ * about twice its number of columns instead of one step per point.
+ *
+ * The levels also form a tree over time: the minimum and maximum level of any range of whole level 0
+ * buckets is found from at most two buckets per level, without reading the points.
+ *
+ * Points are appended in chronological order as the series grows, the last one can be replaced by a
+ * later point, as the integer data does while the level is unchanged, and buckets older than the kept
+ * range are trimmed. Only non-empty buckets are stored, a gap in the data costs nothing.
+ *
+ * Snapshots get a frozen view, only answering ranges that end before their last point and start after
+ * their first one: the buckets of those ranges are no longer modified by appending or replacing points.
+ *
+ * Thread safe, the snapshot hub appends while widgets render.
+ */
+public class LodPyramid {
+    /** Duration of the level 0 buckets */
+    static final long BASE_BUCKET_MS = 60 * 1000L;
+    /** Number of levels, the last one with buckets of 2^13 minutes (5.7 days) */
+    static final int LEVEL_COUNT = 14;
+
+    private final Level[] levels;
+    // Pyramid holding the buckets and their lock, this one unless a frozen view
+    private final LodPyramid source;
+    // Ranges answered by a frozen view, from viewFrom to viewTo exclusive
+    private final long viewFrom;
+    private final long viewTo;
+
+    private HybridBatteryData lastPoint;
+    // Last point before the last one, restored when the last one is replaced
+    private HybridBatteryData previousPoint;
+    private boolean replaceable;
+    // Time from which all the points of the series were added
+    private long coveredFrom = Long.MAX_VALUE;
+
+    /**
+     * Buckets of one level, in chronological order.
+     */
+    private static final class Level {
+        private final long bucketMs;
+        // Bucket i is stored at position start + i
+        private long[] bucketIds = new long[64];
+        private HybridBatteryData[] firstPoints = new HybridBatteryData[64];
+        private HybridBatteryData[] minPoints = new HybridBatteryData[64];
+        private HybridBatteryData[] maxPoints = new HybridBatteryData[64];
+        private int start;
+        private int count;
+        // State of the last bucket before the last point was added, to remove it
+        private boolean addedBucket;
+        private HybridBatteryData previousMin;
+        private HybridBatteryData previousMax;
+
+        Level(long bucketMs) {
+            this.bucketMs = bucketMs;
+        }
+
+        void add(HybridBatteryData point) {
+            long bucketId = Math.floorDiv(point.getTimestamp(), bucketMs);
+            int last = start + count - 1;
+            if (count > 0 && bucketIds[last] == bucketId) {
+                addedBucket = false;
+                previousMin = minPoints[last];
+                previousMax = maxPoints[last];
+                if (point.getBatteryLevel() < minPoints[last].getBatteryLevel()) {
+                    minPoints[last] = point;
+                }
+                if (point.getBatteryLevel() > maxPoints[last].getBatteryLevel()) {
+                    maxPoints[last] = point;
+                }
+                return;
+            }
+
+            if (start + count == bucketIds.length) {
+                grow();
+            }
+            int position = start + count;
+            bucketIds[position] = bucketId;
+            firstPoints[position] = point;
+            minPoints[position] = point;
+            maxPoints[position] = point;
+            count++;
+            addedBucket = true;
+        }
+
+        /**
+         * Remove the last point added, from the state saved when adding it.
+         */
+        void removeLast() {
+            int last = start + count - 1;
+            if (addedBucket) {
+                firstPoints[last] = null;
+                minPoints[last] = null;
+                maxPoints[last] = null;
+                count--;
+            } else {
+                minPoints[last] = previousMin;
+                maxPoints[last] = previousMax;
+            }
+        }
+
+        private void grow() {
+            if (start > bucketIds.length / 2) {
+                // Enough trimmed buckets at the beginning, compact instead
+                System.arraycopy(bucketIds, start, bucketIds, 0, count);
+                System.arraycopy(firstPoints, start, firstPoints, 0, count);
+                System.arraycopy(minPoints, start, minPoints, 0, count);
+                System.arraycopy(maxPoints, start, maxPoints, 0, count);
+                Arrays.fill(firstPoints, count, start + count, null);
+                Arrays.fill(minPoints, count, start + count, null);
+                Arrays.fill(maxPoints, count, start + count, null);
+                start = 0;
+                return;
+            }
+            int capacity = bucketIds.length * 2;
+            bucketIds = Arrays.copyOf(bucketIds, capacity);
+            firstPoints = Arrays.copyOf(firstPoints, capacity);
+            minPoints = Arrays.copyOf(minPoints, capacity);
+            maxPoints = Arrays.copyOf(maxPoints, capacity);
+        }
+
+        /**
+         * @return Position of the first bucket with an id not less than the given one
+         */
+        int search(long bucketId) {
+            int low = start;
+            int high = start + count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (bucketIds[middle] < bucketId) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return Position of the bucket with the given id, or -1 if it is empty
+         */
+        int find(long bucketId) {
+            int position = search(bucketId);
+            return position < start + count && bucketIds[position] == bucketId ? position : -1;
+        }
+
+        void trimBefore(long time) {
+            int position = search(Math.floorDiv(time, bucketMs));
+            for (int i = start; i < position; i++) {
+                firstPoints[i] = null;
+                minPoints[i] = null;
+                maxPoints[i] = null;
+            }
+            count -= position - start;
+            start = position;
+        }
+    }
+
+    public LodPyramid() {
+        levels = new Level[LEVEL_COUNT];
+        for (int i = 0; i < LEVEL_COUNT; i++) {
+            levels[i] = new Level(BASE_BUCKET_MS << i);
+        }
+        source = this;
+        viewFrom = Long.MIN_VALUE;
+        viewTo = Long.MAX_VALUE;
+    }
+
+    private LodPyramid(LodPyramid source, long viewFrom, long viewTo) {
+        this.levels = source.levels;
+        this.source = source;
+        this.viewFrom = viewFrom;
+        this.viewTo = viewTo;
+    }
+
+    /**
+     * Get a frozen view of the pyramid, for a series from one point to another.
+     * Ranges starting before the first point or ending after the last one are not answered, the buckets
+     * of the others are not modified by the points added afterwards.
+     *
+     * @param from Time of the first point of the series
+     * @param to Time of the last point of the series
+     */
+    public LodPyramid getView(long from, long to) {
+        return new LodPyramid(source, Math.max(from, viewFrom), Math.min(to, viewTo));
+    }
+
+    private void checkWritable() {
+        if (source != this) {
+            throw new UnsupportedOperationException("Frozen view of a level-of-detail pyramid");
+        }
+    }
+
+    /**
+     * Add a point, after all the points already added.
+     * @return Whether the point was added, false if it is older than the last point
+     */
+    public synchronized boolean add(HybridBatteryData point) {
+        checkWritable();
+        if (lastPoint != null && point.getTimestamp() < lastPoint.getTimestamp()) {
+            return false;
+        }
+        for (Level level : levels) {
+            level.add(point);
+        }
+        if (lastPoint == null) {
+            coveredFrom = point.getTimestamp();
+        }
+        previousPoint = lastPoint;
+        lastPoint = point;
+        replaceable = true;
+        return true;
+    }
+
+    /**
+     * Replace the last point by a later one, as the integer data does when the level is unchanged.
+     * @return Whether the point was replaced, false if it is older than the point before the last one or
+     *         the last point was trimmed
+     */
+    public synchronized boolean replaceLast(HybridBatteryData point) {
+        checkWritable();
+        if (!replaceable || (previousPoint != null && point.getTimestamp() < previousPoint.getTimestamp())) {
+            return false;
+        }
+        for (Level level : levels) {
+            level.removeLast();
+        }
+        if (previousPoint == null) {
+            coveredFrom = Long.MAX_VALUE;
+        }
+        lastPoint = previousPoint;
+        return add(point);
+    }
+
+    /**
+     * @return The last point added, or null if none
+     */
+    public HybridBatteryData getLastPoint() {
+        synchronized (source) {
+            return source.lastPoint;
+        }
+    }
+
+    /**
+     * Drop the buckets entirely before the given time.
+     */
+    public synchronized void trimBefore(long time) {
+        checkWritable();
+        for (Level level : levels) {
+            level.trimBefore(time);
+        }
+        coveredFrom = Math.max(coveredFrom, time);
+        if (lastPoint != null && time > lastPoint.getTimestamp()) {
+            // The last bucket and its saved state are gone
+            replaceable = false;
+        }
+    }
+
+    /**
+     * @return Whether the pyramid has all the points of a range, and the range is in the view
+     */
+    private boolean covers(long from, long to) {
+        return source.lastPoint != null && from >= source.coveredFrom && source.lastPoint.getTimestamp() >= to - 1
+            && from >= viewFrom && to <= viewTo;
+    }
+
+    /**
+     * Get the level with the longest buckets not longer than the given duration.
+     * @param maxBucketMs Maximum bucket duration, typically the duration of a graph column
+     * @return The level, or -1 if even the level 0 buckets are longer
+     */
+    public static int getLevel(long maxBucketMs) {
+        int level = -1;
+        while (level + 1 < LEVEL_COUNT && (BASE_BUCKET_MS << (level + 1)) <= maxBucketMs) {
+            level++;
+        }
+        return level;
+    }
+
+    public static long getBucketMillis(int level) {
+        return BASE_BUCKET_MS << level;
+    }
+
+    /**
+     * Get the buckets of a level between two bucket boundaries.
+     *
+     * @param level Level index
+     * @param from Start time, a bucket boundary of the level
+     * @param to End time, exclusive, a bucket boundary of the level
+     * @return For each non-empty bucket in chronological order, its first, minimum and maximum points,
+     *         or null if the range is not entirely covered by the pyramid
+     */
+    public List<HybridBatteryData> getBuckets(int level, long from, long to) {
+        synchronized (source) {
+            return getSourceBuckets(level, from, to);
+        }
+    }
+
+    private List<HybridBatteryData> getSourceBuckets(int level, long from, long to) {
+        Level buckets = levels[level];
+        if (!covers(from, to)) {
+            return null;
+        }
+
+        List<HybridBatteryData> result = new ArrayList<>();
+        long lastBucketId = Math.floorDiv(to, buckets.bucketMs);
+        for (int i = buckets.search(Math.floorDiv(from, buckets.bucketMs));
+             i < buckets.start + buckets.count && buckets.bucketIds[i] < lastBucketId; i++) {
+            result.add(buckets.firstPoints[i]);
+            result.add(buckets.minPoints[i]);
+            result.add(buckets.maxPoints[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Get the minimum and maximum level of the points between two level 0 bucket boundaries.
+     *
+     * @param from Start time, a level 0 bucket boundary
+     * @param to End time, exclusive, a level 0 bucket boundary
+     * @return The minimum and maximum level, {@link Float#MAX_VALUE} and -{@link Float#MAX_VALUE} if there
+     *         is no point in the range, or null if the range is not entirely covered by the pyramid
+     */
+    public float[] getLevelRange(long from, long to) {
+        synchronized (source) {
+            return getSourceLevelRange(from, to);
+        }
+    }
+
+    private float[] getSourceLevelRange(long from, long to) {
+        if (!covers(from, to)) {
+            return null;
+        }
+
+        float[] range = {Float.MAX_VALUE, -Float.MAX_VALUE};
+        // Bucket ids [low, high) of the current level, the ends not aligned on the next level are taken
+        long low = Math.floorDiv(from, BASE_BUCKET_MS);
+        long high = Math.floorDiv(to, BASE_BUCKET_MS);
+        for (int i = 0; i < LEVEL_COUNT && low < high; i++) {
+            Level level = levels[i];
+            if (i == LEVEL_COUNT - 1) {
+                for (int position = level.search(low);
+                     position < level.start + level.count && level.bucketIds[position] < high; position++) {
+                    addLevels(range, level, position);
+                }
+                break;
+            }
+            if ((low & 1) != 0) {
+                addLevels(range, level, level.find(low));
+                low++;
+            }
+            if ((high & 1) != 0 && low < high) {
+                high--;
+                addLevels(range, level, level.find(high));
+            }
+            low >>= 1;
+            high >>= 1;
+        }
+        return range;
+    }
+
+    private static void addLevels(float[] range, Level level, int position) {
+        if (position < 0) {
+            return;
+        }
+        range[0] = Math.min(range[0], level.minPoints[position].getBatteryLevel());
+        range[1] = Math.max(range[1], level.maxPoints[position].getBatteryLevel());
+    }
+}
@@ -0,0 +1,94 @@
+package com.danamir.batterymonitor;
+
+/**
+ * Largest-Triangle-Three-Buckets downsampling of a time series to a point budget.
+ *
+ * The first and last points are kept, the others are split in buckets of equal point count, and each
+ * bucket keeps the point forming the largest triangle with the point kept in the previous bucket and the
+ * average of the next bucket. Unlike the min-max downsampling, the output has exactly the requested
+ * number of points and follows the shape of the series rather than its extremes in each column.
+ *
+ * MinMaxLTTB first reduces the series to the minimum and maximum of a few times more columns, then
+ * applies LTTB to them: almost the same selection, for a cost that no longer depends on the number of
+ * points when the columns come from the level-of-detail pyramid.
+ *
+ * Works in one pass over primitive arrays, the caller maps the selected indices back to its points.
+ */
+public final class LttbDownsampler {
+    /** Preference values of the downsampling methods */
+    public static final String MIN_MAX = "min_max";
+    public static final String LTTB = "lttb";
+    public static final String MIN_MAX_LTTB = "min_max_lttb";
+
+    /** Number of points preselected by MinMaxLTTB per output point */
+    static final int MIN_MAX_RATIO = 4;
+
+    private LttbDownsampler() {
+    }
+
+    /**
+     * Select the points of a series.
+     *
+     * @param times Point times, in chronological order
+     * @param values Point values
+     * @param count Number of points in the arrays
+     * @param threshold Number of points to keep, at least 3
+     * @param selected Receives the indices of the kept points, in chronological order, at least threshold long
+     * @return Number of kept points: the point count if it does not exceed the threshold, else the threshold
+     */
+    public static int select(long[] times, float[] values, int count, int threshold, int[] selected) {
+        if (count <= threshold || threshold < 3) {
+            for (int i = 0; i < count; i++) {
+                selected[i] = i;
+            }
+            return count;
+        }
+
+        // Buckets between the first and last points, bucket b covers [1 + b * size, 1 + (b + 1) * size)
+        double bucketSize = (double) (count - 2) / (threshold - 2);
+        int kept = 0;
+        int previous = 0;
+        selected[kept++] = 0;
+
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            int start = 1 + (int) (bucket * bucketSize);
+            int end = Math.min(count - 1, 1 + (int) ((bucket + 1) * bucketSize));
+
+            // Average of the next bucket, the last point for the last bucket
+            int nextStart = end;
+            int nextEnd = Math.min(count, 1 + (int) ((bucket + 2) * bucketSize));
+            if (bucket == threshold - 3) {
+                nextStart = count - 1;
+                nextEnd = count;
+            }
+            double averageTime = 0;
+            double averageValue = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                averageTime += times[i] - times[previous];
+                averageValue += values[i];
+            }
+            int nextCount = nextEnd - nextStart;
+            averageTime /= nextCount;
+            averageValue /= nextCount;
+
+            // Point of the bucket forming the largest triangle, times relative to the previous point
+            double previousValue = values[previous];
+            double maxArea = -1;
+            int maxIndex = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((times[i] - times[previous]) * (averageValue - previousValue)
+                    - averageTime * (values[i] - previousValue));
+                if (area > maxArea) {
+                    maxArea = area;
+                    maxIndex = i;
+                }
+            }
+
+            selected[kept++] = maxIndex;
+            previous = maxIndex;
+        }
+
+        selected[kept++] = count - 1;
+        return kept;
+    }
+}
@@ -0,0 +1,140 @@
+package com.danamir.batterymonitor;
+
+import android.content.res.Configuration;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Build;
+import android.text.Layout;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.style.ForegroundColorSpan;
+
+/**
+ * Text layout of the widget overlay, cached by its content and style.
+ *
+ * The overlay text only changes when the displayed values or the text settings change, while it is
+ * drawn on every graph. The styled text is built directly with its spans and laid out once with a
+ * {@link StaticLayout}, styled as the TextView previously used to draw it: sans-serif, stretched
+ * horizontally according to the orientation, with a drop shadow. Drawing an unchanged text reuses the
+ * layout, without text parsing, View creation or measuring.
+ */
+public class OverlayTextLayout {
+    private static OverlayTextLayout instance;
+
+    // Content and style of the cached layout
+    private String text;
+    private int longTermStart = -1;
+    private float textSize;
+    private int orientation;
+    private int textColor;
+    private int textColorLongTerm;
+    private float batteryWidthScale;
+    private float density;
+    private StaticLayout layout;
+
+    private long layoutCount;
+    private long reuseCount;
+
+    OverlayTextLayout() {
+    }
+
+    public static synchronized OverlayTextLayout getInstance() {
+        if (instance == null) {
+            instance = new OverlayTextLayout();
+        }
+        return instance;
+    }
+
+    /**
+     * Draw the overlay text with its top left corner at the given position.
+     *
+     * @param canvas Canvas to draw on
+     * @param x Left position
+     * @param y Top position
+     * @param text Plain text
+     * @param longTermStart Start of the part of the text shown in the long-term color, -1 if none
+     * @param textSize Text size in pixels, adjusted to the orientation
+     * @param orientation Screen orientation, the text is stretched in portrait and narrowed in landscape
+     * @param config Text colors and width scale
+     * @param density Display density, for the shadow
+     */
+    public synchronized void draw(Canvas canvas, float x, float y, String text, int longTermStart, float textSize,
+                                  int orientation, RenderConfig config, float density) {
+        if (text.isEmpty()) {
+            return;
+        }
+
+        if (layout != null && text.equals(this.text) && longTermStart == this.longTermStart
+            && textSize == this.textSize && orientation == this.orientation && config.textColor == textColor
+            && config.textColorLongTerm == textColorLongTerm && config.batteryWidthScale == batteryWidthScale
+            && density == this.density) {
+            reuseCount++;
+        } else {
+            this.text = text;
+            this.longTermStart = longTermStart;
+            this.textSize = textSize;
+            this.orientation = orientation;
+            textColor = config.textColor;
+            textColorLongTerm = config.textColorLongTerm;
+            batteryWidthScale = config.batteryWidthScale;
+            this.density = density;
+            layout = createLayout();
+            layoutCount++;
+        }
+
+        canvas.save();
+        canvas.translate(x, y);
+        layout.draw(canvas);
+        canvas.restore();
+    }
+
+    private StaticLayout createLayout() {
+        SpannableString styledText = new SpannableString(text);
+        if (longTermStart >= 0 && longTermStart < text.length()) {
+            styledText.setSpan(new ForegroundColorSpan(textColorLongTerm), longTermStart, text.length(),
+                Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+
+        TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTextSize(textSize);
+        paint.setColor(textColor);
+        paint.setTypeface(Typeface.create("sans-serif", Typeface.NORMAL));
+        // Make text wider
+        if (orientation == Configuration.ORIENTATION_PORTRAIT) {
+            paint.setTextScaleX(batteryWidthScale);
+        } else {
+            paint.setTextScaleX(1.0f / batteryWidthScale);
+        }
+        // Add shadow: radius, dx, dy, color
+        paint.setShadowLayer(2 * density, 1 * density, 1 * density, Color.BLACK);
+
+        // Single line, as wide as the text
+        int width = (int) Math.ceil(Layout.getDesiredWidth(styledText, paint));
+        StaticLayout.Builder builder = StaticLayout.Builder
+            .obtain(styledText, 0, styledText.length(), paint, width)
+            .setIncludePad(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            // As TextView for apps targeting Android 9 and later
+            builder.setUseLineSpacingFromFallbacks(true);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return Number of text layouts created
+     */
+    public synchronized long getLayoutCount() {
+        return layoutCount;
+    }
+
+    /**
+     * @return Number of texts drawn with the cached layout
+     */
+    public synchronized long getReuseCount() {
+        return reuseCount;
+    }
+}
@@ -28,11 +28,20 @@ public class PreciseBatteryCalculator {
     private static final String PREF_SMOOTHED_CAPACITY = "smoothed_capacity";
     private static final String PREF_LAST_SYSTEM_PERCENT = "last_system_percent";
 
+    private final Clock clock;
     private List<CapacitySample> samples = new ArrayList<>();
     private double smoothedCapacity = -1;
     private int lastSystemPercent = -1;
     private boolean dataLoaded = false;
 
+    public PreciseBatteryCalculator() {
+        this(Clock.SYSTEM);
+    }
+
+    public PreciseBatteryCalculator(Clock clock) {
+        this.clock = clock;
+    }
+
     static class CapacitySample {
         int systemPercent;
         double chargeMah;
@@ -101,7 +110,7 @@ public class PreciseBatteryCalculator {
             && systemPercent <= CALIBRATION_MAX_PERCENT
             && chargeMah > 0) {
 
-            long currentTime = System.currentTimeMillis();
+            long currentTime = clock.currentTimeMillis();
 
             // Check if enough time has passed since the last sample
             if (!samples.isEmpty()) {
@@ -2,9 +2,7 @@ package com.danamir.batterymonitor;
 
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.database.Cursor;
-import androidx.preference.PreferenceManager;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -12,40 +10,96 @@ import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class PreciseBatteryDataManager {
     private static final String PREF_PRECISE_BATTERY_DATA = "precise_battery_data";
     private static final String COLUMN_DATA = "data";
     private static final int MAX_DATA_POINTS = 10000;
     private static PreciseBatteryDataManager instance;
-    private final SharedPreferences prefs;
     private final Context context;
+    private final Clock clock;
+    private final boolean persistent;
+    private volatile long version;
     private List<PreciseBatteryData> dataPoints;
+    private final RateEstimatorEngine estimators = new RateEstimatorEngine();
+    private final List<BatteryDataListener> listeners = new CopyOnWriteArrayList<>();
 
-    private PreciseBatteryDataManager(Context context) {
+    /**
+     * Create a precise data manager.
+     * Non-persistent instances start empty and never write to the content provider.
+     *
+     * @param context The application context
+     * @param clock Clock used for timestamps and time range queries
+     * @param persistent Whether data is loaded from and saved to the content provider
+     */
+    PreciseBatteryDataManager(Context context, Clock clock, boolean persistent) {
         this.context = context.getApplicationContext();
-        prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        dataPoints = loadData();
+        this.clock = clock;
+        this.persistent = persistent;
+        dataPoints = persistent ? loadData() : new ArrayList<>();
+
+        // Only the estimators benefiting from precise levels, others use integer data
+        estimators.register(UsageRateEstimator.ID, config -> new UsageRateEstimator(config.getMaxDuration(), false));
+        estimators.register(LeastSquaresRateEstimator.ID, config -> new LeastSquaresRateEstimator(config.getMaxDuration(), false));
     }
 
     public static synchronized PreciseBatteryDataManager getInstance(Context context) {
         if (instance == null) {
-            instance = new PreciseBatteryDataManager(context.getApplicationContext());
+            instance = new PreciseBatteryDataManager(context.getApplicationContext(), Clock.SYSTEM, true);
         }
         return instance;
     }
 
+    public Clock getClock() {
+        return clock;
+    }
+
+    public void addListener(BatteryDataListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(BatteryDataListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Get the version of the stored data, incremented on every change.
+     * Used by consumers to detect when cached values computed from the data are stale.
+     */
+    public long getVersion() {
+        return version;
+    }
+
     /**
      * Add a precise battery data point. Always adds a new entry without deduplication.
      */
     public synchronized void addDataPoint(float preciseLevel, boolean isCharging) {
-        long timestamp = System.currentTimeMillis();
+        addDataPoint(clock.currentTimeMillis(), preciseLevel, isCharging);
+    }
 
+    /**
+     * Add a precise battery data point with an explicit timestamp.
+     */
+    public synchronized void addDataPoint(long timestamp, float preciseLevel, boolean isCharging) {
         dataPoints.add(new PreciseBatteryData(timestamp, preciseLevel, isCharging));
+        if (estimators.isBuilt()) {
+            estimators.onSample(timestamp, preciseLevel, isCharging);
+        }
+        if (!listeners.isEmpty()) {
+            HybridBatteryData point = new HybridBatteryData(timestamp, Math.round(preciseLevel), preciseLevel,
+                isCharging, true);
+            for (BatteryDataListener listener : listeners) {
+                listener.onDataPointAdded(point);
+            }
+        }
 
         // Keep only recent data
         if (dataPoints.size() > MAX_DATA_POINTS) {
             dataPoints = dataPoints.subList(dataPoints.size() - MAX_DATA_POINTS, dataPoints.size());
+            if (estimators.isBuilt()) {
+                estimators.onHistoryTruncated(dataPoints.get(0).getTimestamp());
+            }
         }
 
         saveData();
@@ -56,7 +110,7 @@ public class PreciseBatteryDataManager {
     }
 
     public synchronized List<PreciseBatteryData> getDataPoints(int hours, boolean getPreviousPoint) {
-        long cutoffTime = System.currentTimeMillis() - (hours * 60 * 60 * 1000L);
+        long cutoffTime = clock.currentTimeMillis() - (hours * 60 * 60 * 1000L);
         List<PreciseBatteryData> filteredData = new ArrayList<>();
 
         PreciseBatteryData previousPoint = null;
@@ -127,6 +181,10 @@ public class PreciseBatteryDataManager {
     }
 
     private void saveData() {
+        version++;
+        if (!persistent) {
+            return;
+        }
         JSONArray jsonArray = new JSONArray();
 
         try {
@@ -150,7 +208,7 @@ public class PreciseBatteryDataManager {
     }
 
     public synchronized void clearOldData(int hours) {
-        long cutoffTime = System.currentTimeMillis() - (hours * 60 * 60 * 1000L);
+        long cutoffTime = clock.currentTimeMillis() - (hours * 60 * 60 * 1000L);
         List<PreciseBatteryData> filteredData = new ArrayList<>();
 
         for (PreciseBatteryData data : dataPoints) {
@@ -160,9 +218,104 @@ public class PreciseBatteryDataManager {
         }
 
         dataPoints = filteredData;
+        estimators.invalidate();
         saveData();
     }
 
+    /**
+     * Get the last stored precise data point.
+     * @return The last data point, or null if no data
+     */
+    public synchronized PreciseBatteryData getLastDataPoint() {
+        return dataPoints.isEmpty() ? null : dataPoints.get(dataPoints.size() - 1);
+    }
+
+    /**
+     * @return Whether an estimator with the given identifier is fed with precise data
+     */
+    public synchronized boolean hasEstimator(String id) {
+        return estimators.getIds().contains(id);
+    }
+
+    /**
+     * Get the short-term usage rate over the given number of hours of precise data.
+     * Same result as {@link BatteryUtils#calculateBatteryUsageRateValueHybrid} on precise data only,
+     * answered from the incremental estimator when possible.
+     *
+     * @param hours Number of hours of data the calculation is restricted to
+     * @param minDuration Minimum duration in minutes of the calculation period
+     * @param maxDuration Maximum duration in minutes of the calculation period
+     * @return Battery usage rate in %/h (positive value), or null if not enough data
+     */
+    public synchronized Double getUsageRate(int hours, int minDuration, int maxDuration) {
+        RateEstimatorEngine.Config config =
+            new RateEstimatorEngine.Config(maxDuration, RenderConfig.get(context).highTargetPercent);
+        return getRate(config, UsageRateEstimator.ID, hours, minDuration);
+    }
+
+    /**
+     * Get the usage rate of the given estimator over the given number of hours of precise data,
+     * with the estimation settings from preferences.
+     *
+     * @param id Estimator identifier
+     * @param hours Number of hours of data the calculation is restricted to
+     * @param minDuration Minimum duration in minutes of the calculation period
+     * @return Battery usage rate in %/h (positive value), or null if not enough data or unknown estimator
+     */
+    public synchronized Double getRate(String id, int hours, int minDuration) {
+        return getRate(getEstimatorConfig(), id, hours, minDuration);
+    }
+
+    /**
+     * Get the confidence margin of the rate of the given estimator over precise data.
+     * @return Half-width of the 95% confidence band in %/h, or null if unknown
+     */
+    public synchronized Double getRateMargin(String id, int hours, int minDuration) {
+        RateEstimator estimator = getEstimators(getEstimatorConfig()).get(id);
+        if (estimator == null) {
+            return null;
+        }
+        long cutoffTime = clock.currentTimeMillis() - (hours * 60 * 60 * 1000L);
+        return estimator.getRateMargin(cutoffTime, minDuration);
+    }
+
+    private RateEstimatorEngine.Config getEstimatorConfig() {
+        RenderConfig config = RenderConfig.get(context);
+        return new RateEstimatorEngine.Config(config.usageCalculationTime, config.highTargetPercent);
+    }
+
+    private RateEstimatorEngine getEstimators(RateEstimatorEngine.Config config) {
+        if (!estimators.isBuilt(config)) {
+            estimators.reset(config);
+            for (PreciseBatteryData data : dataPoints) {
+                estimators.onSample(data.getTimestamp(), data.getPreciseLevel(), data.isCharging());
+            }
+        }
+        return estimators;
+    }
+
+    private Double getRate(RateEstimatorEngine.Config config, String id, int hours, int minDuration) {
+        RateEstimator estimator = getEstimators(config).get(id);
+        if (estimator == null) {
+            return null;
+        }
+
+        long cutoffTime = clock.currentTimeMillis() - (hours * 60 * 60 * 1000L);
+        if (estimator.isExact(cutoffTime)) {
+            return estimator.getRate(cutoffTime, minDuration);
+        }
+        if (!UsageRateEstimator.ID.equals(id)) {
+            return null;
+        }
+
+        List<HybridBatteryData> hybridData = new ArrayList<>();
+        for (PreciseBatteryData data : getDataPoints(hours)) {
+            hybridData.add(new HybridBatteryData(data.getTimestamp(), Math.round(data.getPreciseLevel()),
+                data.getPreciseLevel(), data.isCharging(), true));
+        }
+        return BatteryUtils.calculateBatteryUsageRateValueHybrid(hybridData, minDuration, config.getMaxDuration());
+    }
+
     /**
      * Get hybrid data points: uses precise data where available, fills gaps with integer data.
      * @param context Application context
@@ -171,14 +324,28 @@ public class PreciseBatteryDataManager {
      * @return List of hybrid data points (precise when available and enabled, integer otherwise)
      */
     public static List<HybridBatteryData> getHybridDataPoints(Context context, int hours, boolean getPreviousPoint) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        boolean usePrecise = prefs.getBoolean("use_precise_battery", false);
+        return getHybridDataPoints(context, BatteryDataManager.getInstance(context),
+            PreciseBatteryDataManager.getInstance(context), hours, getPreviousPoint);
+    }
+
+    /**
+     * Get hybrid data points from the given data managers.
+     * @param context Application context
+     * @param intManager Integer data source
+     * @param preciseManager Precise data source, its clock defines the current time
+     * @param hours Number of hours to retrieve
+     * @param getPreviousPoint Whether to include a point before the time range for interpolation
+     * @return List of hybrid data points (precise when available and enabled, integer otherwise)
+     */
+    public static List<HybridBatteryData> getHybridDataPoints(Context context, BatteryDataManager intManager,
+                                                              PreciseBatteryDataManager preciseManager,
+                                                              int hours, boolean getPreviousPoint) {
+        boolean usePrecise = RenderConfig.get(context).usePreciseBattery;
 
         List<HybridBatteryData> result = new ArrayList<>();
 
         if (!usePrecise) {
             // Use integer data only
-            BatteryDataManager intManager = BatteryDataManager.getInstance(context);
             List<BatteryData> intData = intManager.getDataPoints(hours, getPreviousPoint);
 
             for (BatteryData data : intData) {
@@ -194,12 +361,9 @@ public class PreciseBatteryDataManager {
         }
 
         // Get precise and integer data
-        PreciseBatteryDataManager preciseManager = PreciseBatteryDataManager.getInstance(context);
-        BatteryDataManager intManager = BatteryDataManager.getInstance(context);
-
         List<PreciseBatteryData> preciseData = preciseManager.getDataPoints(hours, getPreviousPoint);
 
-        long cutoffTime = System.currentTimeMillis() - (hours * 60 * 60 * 1000L);
+        long cutoffTime = preciseManager.getClock().currentTimeMillis() - (hours * 60 * 60 * 1000L);
         long oldestPreciseTime = preciseManager.getOldestTimestamp();
 
         // If precise data doesn't cover the full range, get integer data for the gap
@@ -244,4 +408,125 @@ public class PreciseBatteryDataManager {
 
         return result;
     }
+
+    /**
+     * Get the last point of {@link #getHybridDataPoints(Context, BatteryDataManager, PreciseBatteryDataManager, int, boolean)}
+     * without building the list.
+     * @return The last hybrid data point in the time range, or null if none
+     */
+    public static HybridBatteryData getLastHybridDataPoint(Context context, BatteryDataManager intManager,
+                                                           PreciseBatteryDataManager preciseManager, int hours) {
+        boolean usePrecise = RenderConfig.get(context).usePreciseBattery;
+        long cutoffTime = preciseManager.getClock().currentTimeMillis() - (hours * 60 * 60 * 1000L);
+
+        if (usePrecise) {
+            PreciseBatteryData lastPrecise = preciseManager.getLastDataPoint();
+            if (lastPrecise != null && lastPrecise.getTimestamp() >= cutoffTime) {
+                return new HybridBatteryData(lastPrecise.getTimestamp(), Math.round(lastPrecise.getPreciseLevel()),
+                    lastPrecise.getPreciseLevel(), lastPrecise.isCharging(), true);
+            }
+            if (lastPrecise != null) {
+                // Integer data is only used before the oldest precise data, which is out of range
+                return null;
+            }
+        }
+
+        BatteryData lastInt = intManager.getLastDataPoint();
+        if (lastInt == null || lastInt.getTimestamp() < cutoffTime) {
+            return null;
+        }
+        return new HybridBatteryData(lastInt.getTimestamp(), lastInt.getLevel(), (float) lastInt.getLevel(),
+            lastInt.isCharging(), false);
+    }
+
+    /**
+     * @return Whether precise data is enabled and covers the whole time range
+     */
+    private static boolean coversRange(Context context, PreciseBatteryDataManager preciseManager, int hours) {
+        if (!RenderConfig.get(context).usePreciseBattery) {
+            return false;
+        }
+        long cutoffTime = preciseManager.getClock().currentTimeMillis() - (hours * 60 * 60 * 1000L);
+        long oldestPreciseTime = preciseManager.getOldestTimestamp();
+        PreciseBatteryData lastPrecise = preciseManager.getLastDataPoint();
+        return oldestPreciseTime >= 0 && oldestPreciseTime <= cutoffTime
+            && lastPrecise != null && lastPrecise.getTimestamp() >= cutoffTime;
+    }
+
+    /**
+     * Get the short-term usage rate of hybrid data.
+     * Same result as {@link BatteryUtils#calculateBatteryUsageRateValueHybrid} on
+     * {@link #getHybridDataPoints(Context, BatteryDataManager, PreciseBatteryDataManager, int, boolean)},
+     * using the incremental estimators unless precise data only partially covers the time range.
+     *
+     * @param hours Number of hours of data the calculation is restricted to
+     * @param minDuration Minimum duration in minutes of the calculation period
+     * @param maxDuration Maximum duration in minutes of the calculation period
+     * @return Battery usage rate in %/h (positive value), or null if not enough data
+     */
+    public static Double getHybridUsageRate(Context context, BatteryDataManager intManager,
+                                            PreciseBatteryDataManager preciseManager,
+                                            int hours, int minDuration, int maxDuration) {
+        if (!RenderConfig.get(context).usePreciseBattery) {
+            return intManager.getUsageRate(hours, minDuration, maxDuration);
+        }
+
+        if (coversRange(context, preciseManager, hours)) {
+            return preciseManager.getUsageRate(hours, minDuration, maxDuration);
+        }
+
+        // Mixed integer and precise data
+        return BatteryUtils.calculateBatteryUsageRateValueHybrid(
+            getHybridDataPoints(context, intManager, preciseManager, hours, false), minDuration, maxDuration);
+    }
+
+    /**
+     * Get the usage rate of the given estimator on hybrid data.
+     * The short-term rate of mixed data uses the hybrid calculation. Other estimators fed with precise
+     * data use it when precise data is enabled and current, the remaining ones use integer data.
+     *
+     * @param id Estimator identifier
+     * @param hours Number of hours of data the calculation is restricted to
+     * @param minDuration Minimum duration in minutes of the calculation period
+     * @return Battery usage rate in %/h (positive value), or null if not enough data or unknown estimator
+     */
+    public static Double getHybridRate(Context context, BatteryDataManager intManager,
+                                       PreciseBatteryDataManager preciseManager,
+                                       String id, int hours, int minDuration) {
+        if (UsageRateEstimator.ID.equals(id)) {
+            return getHybridUsageRate(context, intManager, preciseManager, hours, minDuration,
+                RenderConfig.get(context).usageCalculationTime);
+        }
+        if (usesPreciseEstimator(context, preciseManager, id, hours)) {
+            return preciseManager.getRate(id, hours, minDuration);
+        }
+        return intManager.getRate(id, hours, minDuration);
+    }
+
+    /**
+     * Get the confidence margin of the rate returned by
+     * {@link #getHybridRate(Context, BatteryDataManager, PreciseBatteryDataManager, String, int, int)}.
+     * @return Half-width of the 95% confidence band in %/h, or null if unknown
+     */
+    public static Double getHybridRateMargin(Context context, BatteryDataManager intManager,
+                                             PreciseBatteryDataManager preciseManager,
+                                             String id, int hours, int minDuration) {
+        if (usesPreciseEstimator(context, preciseManager, id, hours)) {
+            return preciseManager.getRateMargin(id, hours, minDuration);
+        }
+        return intManager.getRateMargin(id, hours, minDuration);
+    }
+
+    /**
+     * @return Whether the given estimator is fed with precise data, and precise data is enabled and in range
+     */
+    public static boolean usesPreciseEstimator(Context context, PreciseBatteryDataManager preciseManager,
+                                               String id, int hours) {
+        if (!RenderConfig.get(context).usePreciseBattery || !preciseManager.hasEstimator(id)) {
+            return false;
+        }
+        long cutoffTime = preciseManager.getClock().currentTimeMillis() - (hours * 60 * 60 * 1000L);
+        PreciseBatteryData lastPrecise = preciseManager.getLastDataPoint();
+        return lastPrecise != null && lastPrecise.getTimestamp() >= cutoffTime;
+    }
 }
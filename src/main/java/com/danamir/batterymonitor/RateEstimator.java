@@ -0,0 +1,64 @@
+package com.danamir.batterymonitor;
+
+/**
+ * Battery usage rate estimator fed incrementally with the stored data points.
+ *
+ * Estimators are registered in a {@link RateEstimatorEngine} which feeds all of them from one
+ * forward stream of samples, so each estimator costs O(1) per sample instead of a scan per query.
+ */
+public interface RateEstimator {
+
+    /**
+     * Creates an estimator for the current estimation settings.
+     */
+    interface Factory {
+        RateEstimator create(RateEstimatorEngine.Config config);
+    }
+
+    /**
+     * @return Identifier, also used as "estimation_source" preference value
+     */
+    String getId();
+
+    /**
+     * @return Short label describing the estimate, for display
+     */
+    String getLabel();
+
+    /**
+     * Add a data point, in chronological order.
+     */
+    void onSample(long timestamp, float level, boolean isCharging);
+
+    /**
+     * Called after the owner dropped the points older than the given time from its history.
+     */
+    default void onHistoryTruncated(long firstTimestamp) {
+    }
+
+    /**
+     * Check whether the estimate for data restricted to the given cutoff time can be answered
+     * incrementally. Otherwise the owner falls back to a calculation on the stored data.
+     */
+    default boolean isExact(long cutoffTime) {
+        return true;
+    }
+
+    /**
+     * Get the estimated rate.
+     * @param cutoffTime Oldest timestamp of the data the estimate is restricted to
+     * @param minDuration Minimum duration in minutes of the calculation period
+     * @return Battery usage rate in %/h (positive value), or null if not enough data
+     */
+    Double getRate(long cutoffTime, int minDuration);
+
+    /**
+     * Get the uncertainty of the estimated rate, for estimators able to tell.
+     * @param cutoffTime Oldest timestamp of the data the estimate is restricted to
+     * @param minDuration Minimum duration in minutes of the calculation period
+     * @return Half-width of the 95% confidence band in %/h, or null if unknown
+     */
+    default Double getRateMargin(long cutoffTime, int minDuration) {
+        return null;
+    }
+}
@@ -0,0 +1,128 @@
+package com.danamir.batterymonitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Feeds every registered {@link RateEstimator} from one forward stream of samples.
+ *
+ * Estimators are created for a given {@link Config} and rebuilt together, in a single pass over the
+ * stored history, when the settings change. Not thread safe, the owning data manager synchronizes access.
+ */
+public class RateEstimatorEngine {
+
+    /**
+     * Estimation settings the estimators are built for.
+     */
+    public static final class Config {
+        private final int maxDuration;
+        private final int targetCharge;
+
+        /**
+         * @param maxDuration Usage calculation time in minutes
+         * @param targetCharge High target charge percentage
+         */
+        public Config(int maxDuration, int targetCharge) {
+            this.maxDuration = maxDuration;
+            this.targetCharge = targetCharge;
+        }
+
+        public int getMaxDuration() {
+            return maxDuration;
+        }
+
+        public int getTargetCharge() {
+            return targetCharge;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Config)) {
+                return false;
+            }
+            Config other = (Config) o;
+            return maxDuration == other.maxDuration && targetCharge == other.targetCharge;
+        }
+
+        @Override
+        public int hashCode() {
+            return maxDuration * 31 + targetCharge;
+        }
+    }
+
+    private final Map<String, RateEstimator.Factory> factories = new LinkedHashMap<>();
+    private final Map<String, RateEstimator> estimators = new LinkedHashMap<>();
+    private final List<RateEstimator> estimatorList = new ArrayList<>();
+    private Config config;
+
+    /**
+     * Register an estimator, replacing any previous one with the same identifier.
+     * Estimators are rebuilt on the next {@link #reset(Config)}.
+     */
+    public void register(String id, RateEstimator.Factory factory) {
+        factories.put(id, factory);
+        invalidate();
+    }
+
+    /**
+     * @return Whether the estimators are built for the given settings and fed with the current history
+     */
+    public boolean isBuilt(Config config) {
+        return config.equals(this.config);
+    }
+
+    public boolean isBuilt() {
+        return config != null;
+    }
+
+    /**
+     * Drop the estimators, the owner must call {@link #reset(Config)} and replay its history before the next query.
+     */
+    public void invalidate() {
+        config = null;
+        estimators.clear();
+        estimatorList.clear();
+    }
+
+    /**
+     * Create fresh estimators for the given settings, to be fed with the whole history.
+     */
+    public void reset(Config config) {
+        invalidate();
+        this.config = config;
+        for (Map.Entry<String, RateEstimator.Factory> entry : factories.entrySet()) {
+            RateEstimator estimator = entry.getValue().create(config);
+            estimators.put(entry.getKey(), estimator);
+            estimatorList.add(estimator);
+        }
+    }
+
+    public void onSample(long timestamp, float level, boolean isCharging) {
+        for (int i = 0; i < estimatorList.size(); i++) {
+            estimatorList.get(i).onSample(timestamp, level, isCharging);
+        }
+    }
+
+    public void onHistoryTruncated(long firstTimestamp) {
+        for (int i = 0; i < estimatorList.size(); i++) {
+            estimatorList.get(i).onHistoryTruncated(firstTimestamp);
+        }
+    }
+
+    /**
+     * @return The estimator with the given identifier, or null if not registered or not built
+     */
+    public RateEstimator get(String id) {
+        return estimators.get(id);
+    }
+
+    /**
+     * @return Identifiers of the registered estimators, in registration order
+     */
+    public List<String> getIds() {
+        return Collections.unmodifiableList(new ArrayList<>(factories.keySet()));
+    }
+}
@@ -0,0 +1,333 @@
+package com.danamir.batterymonitor;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import androidx.preference.PreferenceManager;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the settings used by the graph rendering, the estimates and the notification.
+ *
+ * The snapshot is built once from preferences and rebuilt by a preference listener when a setting
+ * changes, with string settings such as the night period and grid interval already parsed. Readers
+ * get the current snapshot with a single volatile read, and the version tells whether anything
+ * computed from a previous snapshot is still valid.
+ */
+public final class RenderConfig {
+
+    /** Preference keys holding stored data rather than settings, they don't rebuild the snapshot. */
+    private static final Set<String> DATA_KEYS = new HashSet<>(Arrays.asList(
+        "battery_data", "precise_battery_data", "status_data", "battery_event_log",
+        "total_charge_time", "total_discharge_time", "mean_charge_rate", "mean_discharge_rate",
+        "capacity_samples", "smoothed_capacity", "last_system_percent", "drain_profile", "charge_curve",
+        "recent_colors"
+    ));
+
+    private static volatile RenderConfig current;
+    private static SharedPreferences preferences;
+
+    // Kept as a field, preferences only hold a weak reference to their listeners
+    private static final SharedPreferences.OnSharedPreferenceChangeListener preferenceListener = (sharedPreferences, key) -> {
+        if (key == null || !isDataKey(key)) {
+            rebuild(sharedPreferences);
+        }
+    };
+
+    /** Incremented on each rebuild */
+    public final long version;
+
+    // Estimation
+    public final int lowTargetPercent;
+    public final int highTargetPercent;
+    public final int displayLengthHours;
+    public final int usageCalculationTime;
+    public final boolean roundedTimeEstimates;
+    public final String estimationSource;
+    public final boolean useDrainProfile;
+    public final boolean useLevelProfile;
+    public final boolean useChargeCurve;
+    public final boolean usePreciseBattery;
+
+    // Display range
+    public final boolean zoomedDisplay;
+    public final boolean unzoomedDisplay;
+    public final int zoomMult;
+    /** Hours displayed by the widget, taking zoom and history display modes into account */
+    public final int displayHours;
+    public final int minY;
+    public final int maxY;
+    public final boolean cropToTarget;
+    public final int smoothingLevel;
+    /** Downsampling method of the graph line, one of the {@link LttbDownsampler} method values */
+    public final String downsampling;
+
+    // Layout
+    public final int paddingHorizontalDp;
+    public final int paddingVerticalDp;
+    public final int batteryTextSizeDp;
+    public final float batteryWidthScale;
+    public final float graphLineWidth;
+
+    // Colors
+    public final int backgroundColor;
+    public final int textColor;
+    public final int textColorLongTerm;
+    public final int gridColor;
+    public final int lineColor;
+    public final int lowColor;
+    public final int criticalColor;
+    public final int chargingColor;
+    public final int fillColor;
+    public final int nightFillColor;
+    public final int userPresentColor;
+
+    // Level colors
+    public final int batteryLowLevel;
+    public final int batteryCriticalLevel;
+    public final int blendValue;
+
+    // High usage
+    public final boolean usageRateFill;
+    public final boolean usageRateLine;
+    public final boolean fillWithLineColor;
+    public final float highUsageThreshold;
+    public final float lowUsageThreshold;
+    public final float highUsageBlend;
+    public final int highUsageColor;
+    public final int highUsageRangeMinutes;
+    public final double blendCurve;
+    public final String highUsageAverage;
+
+    // Night period, in minutes since midnight
+    public final int nightStartMinutes;
+    public final int nightEndMinutes;
+
+    // Grid
+    public final boolean showYAxisLabels;
+    public final int gridHorizontalInterval;
+    public final boolean staticGrid;
+    public final long gridVerticalIntervalMillis;
+    public final int gridVerticalSubdivisions;
+
+    // Text overlay
+    public final boolean showBatteryPercentage;
+    public final boolean showUseRate;
+    public final boolean showEstimation;
+    public final boolean showTimeEstimation;
+    public final boolean useLongTerm;
+
+    // Widget update
+    public final boolean widgetImageUri;
+
+    /** Graph color lookup tables built from the color settings */
+    public final GraphColorTables colorTables;
+
+    RenderConfig(SharedPreferences prefs, long version) {
+        this.version = version;
+
+        lowTargetPercent = prefs.getInt("low_target_percent", 20);
+        highTargetPercent = prefs.getInt("high_target_percent", 80);
+        displayLengthHours = BatteryUtils.getDisplayLengthHours(prefs, 48);
+        usageCalculationTime = prefs.getInt("usage_calculation_time", 15);
+        roundedTimeEstimates = prefs.getBoolean("rounded_time_estimates", true);
+        estimationSource = prefs.getString("estimation_source", "all_time_stats");
+        useDrainProfile = prefs.getBoolean("use_drain_profile", false);
+        useLevelProfile = prefs.getBoolean("use_level_profile", false);
+        useChargeCurve = prefs.getBoolean("use_charge_curve", false);
+        usePreciseBattery = prefs.getBoolean("use_precise_battery", false);
+
+        zoomedDisplay = prefs.getBoolean("zoomed_display", false);
+        unzoomedDisplay = prefs.getBoolean("unzoomed_display", false);
+        zoomMult = prefs.getInt("display_zoom_mult", 10);
+        if (zoomedDisplay) {
+            // Ensure at least 1 hour
+            displayHours = Math.max(1, displayLengthHours / zoomMult);
+        } else if (unzoomedDisplay) {
+            displayHours = prefs.getInt("display_unzoom_hours", 168);
+        } else {
+            displayHours = displayLengthHours;
+        }
+
+        int minYAxis = prefs.getInt("min_y_axis", 0);
+        int maxYAxis = prefs.getInt("max_y_axis", 100);
+        // Ensure minY is less than maxY
+        if (minYAxis >= maxYAxis) {
+            minYAxis = 0;
+            maxYAxis = 100;
+        }
+        minY = minYAxis;
+        maxY = maxYAxis;
+        cropToTarget = prefs.getBoolean("crop_to_target", false);
+        smoothingLevel = prefs.getInt("smoothing_level", 2);
+        downsampling = prefs.getString("downsampling", LttbDownsampler.MIN_MAX);
+
+        paddingHorizontalDp = prefs.getInt("horizontal_padding", 0);
+        paddingVerticalDp = prefs.getInt("vertical_padding", 0);
+        batteryTextSizeDp = prefs.getInt("batteryTextSize", 16);
+        batteryWidthScale = prefs.getFloat("batteryWidthScale", 1.5f);
+        graphLineWidth = prefs.getFloat("graphLineWidth", 2.5f);
+
+        backgroundColor = prefs.getInt("main_color", 0x1A000000); // Default: transparent black
+        textColor = prefs.getInt("text_color", 0xFFFFFFFF);
+        textColorLongTerm = prefs.getInt("text_color_long_term", 0xFFD7FFD7);
+        gridColor = prefs.getInt("grid_color", 0x33CCCCCC);
+        lineColor = prefs.getInt("graph_line_color", 0xFF00D505); // Green
+        lowColor = prefs.getInt("battery_low_color", 0xFFFFFF23);
+        criticalColor = prefs.getInt("battery_critical_color", 0xFFFF3B1B);
+        chargingColor = prefs.getInt("charging_line_color", 0xFF09A6D9);
+        fillColor = prefs.getInt("graph_fill_color", 0x66000000); // transparent black
+        nightFillColor = prefs.getInt("graph_night_fill_color", 0x1AB6B6FF); // 20% transparent dark blue
+        userPresentColor = prefs.getInt("user_present_color", 0xFF08A6D9); // Light blue
+
+        batteryLowLevel = prefs.getInt("battery_low_level", 35);
+        batteryCriticalLevel = prefs.getInt("battery_critical_level", 20);
+        blendValue = prefs.getInt("battery_blend_value", 20);
+
+        usageRateFill = prefs.getBoolean("usage_rate_fill", true);
+        usageRateLine = prefs.getBoolean("usage_rate_line", false);
+        fillWithLineColor = prefs.getBoolean("fill_with_line_color", false);
+        highUsageThreshold = prefs.getFloat("high_usage_level", 10.0f);
+        lowUsageThreshold = prefs.getFloat("low_usage_threshold", 1.0f);
+        highUsageBlend = prefs.getBoolean("high_usage_blend", true) ? highUsageThreshold : 1.0f;
+        highUsageColor = prefs.getInt("high_usage_color", 0xBFFF00FF);
+        highUsageRangeMinutes = prefs.getInt("high_usage_range", 30);
+        blendCurve = prefs.getFloat("blend_curve", 2.0f);
+        highUsageAverage = prefs.getString("high_usage_average", "hybrid");
+
+        int nightStart = parseTimeToMinutes(prefs.getString("night_start", "00:00"));
+        int nightEnd = parseTimeToMinutes(prefs.getString("night_end", "06:00"));
+        nightStartMinutes = nightStart != -1 ? nightStart : 0; // Default 00:00
+        nightEndMinutes = nightEnd != -1 ? nightEnd : 6 * 60; // Default 06:00
+
+        showYAxisLabels = prefs.getBoolean("show_y_axis_labels", false);
+        int horizontalInterval = prefs.getInt("gridHorizontalIntervalPref", 25);
+        // Ensure valid interval (avoid division by zero)
+        gridHorizontalInterval = horizontalInterval > 0 ? horizontalInterval : 25;
+        staticGrid = prefs.getBoolean("staticGridPref", true);
+        long intervalMillis = parseIntervalToMillis(prefs.getString("gridVerticalIntervalPref", "12 hours"));
+        gridVerticalIntervalMillis = intervalMillis > 0 ? intervalMillis : 6 * 60 * 60 * 1000L; // Default to 6 hours
+        gridVerticalSubdivisions = Math.max(1, prefs.getInt("gridVerticalIntervalSubdivisionPref", 2));
+
+        showBatteryPercentage = prefs.getBoolean("show_battery_percentage", true);
+        showUseRate = prefs.getBoolean("show_use_rate", true);
+        showEstimation = prefs.getBoolean("show_estimation", true);
+        showTimeEstimation = prefs.getBoolean("show_time_estimation", false);
+        useLongTerm = prefs.getBoolean("use_long_term", false);
+
+        widgetImageUri = prefs.getBoolean("widget_image_uri", false);
+
+        // After all the color settings
+        colorTables = new GraphColorTables(this);
+    }
+
+    /**
+     * Get the current settings snapshot, building it and listening to preference changes on first use.
+     */
+    public static RenderConfig get(Context context) {
+        RenderConfig config = current;
+        if (config != null) {
+            return config;
+        }
+
+        synchronized (RenderConfig.class) {
+            if (current == null) {
+                preferences = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext());
+                preferences.registerOnSharedPreferenceChangeListener(preferenceListener);
+                current = new RenderConfig(preferences, 0);
+            }
+            return current;
+        }
+    }
+
+    private static synchronized void rebuild(SharedPreferences prefs) {
+        long version = current != null ? current.version + 1 : 0;
+        current = new RenderConfig(prefs, version);
+    }
+
+    /**
+     * @return Whether the preference key holds stored data rather than a setting
+     */
+    static boolean isDataKey(String key) {
+        return DATA_KEYS.contains(key);
+    }
+
+    /**
+     * Parse time string in HH:mm format to minutes since midnight.
+     * @param timeStr Time string (e.g., "20:00" or "08:00")
+     * @return Minutes since midnight, or -1 if invalid
+     */
+    private static int parseTimeToMinutes(String timeStr) {
+        try {
+            String[] parts = timeStr.split(":");
+            if (parts.length == 2) {
+                int hours = Integer.parseInt(parts[0]);
+                int minutes = Integer.parseInt(parts[1]);
+                return hours * 60 + minutes;
+            }
+        } catch (Exception e) {
+            // Invalid format
+        }
+        return -1;
+    }
+
+    /**
+     * Parse human-readable time interval to milliseconds.
+     * Supports formats like: "10 seconds", "10s", "20m", "30mn", "60 minutes", "1h", "6 hours"
+     * @param intervalStr Time interval string
+     * @return Milliseconds, or -1 if invalid
+     */
+    private static long parseIntervalToMillis(String intervalStr) {
+        if (intervalStr == null || intervalStr.trim().isEmpty()) {
+            return -1;
+        }
+
+        String str = intervalStr.trim().toLowerCase();
+
+        try {
+            // Extract number and unit
+            StringBuilder numberPart = new StringBuilder();
+            String unitPart = "";
+
+            for (int i = 0; i < str.length(); i++) {
+                char c = str.charAt(i);
+                if (Character.isDigit(c) || c == '.') {
+                    numberPart.append(c);
+                } else if (Character.isLetter(c)) {
+                    unitPart = str.substring(i).trim();
+                    break;
+                } else if (c == ' ' && numberPart.length() > 0) {
+                    unitPart = str.substring(i).trim();
+                    break;
+                }
+            }
+
+            if (numberPart.length() == 0) {
+                return -1;
+            }
+
+            double value = Double.parseDouble(numberPart.toString());
+
+            // Parse unit
+            long multiplier;
+            if (unitPart.isEmpty() || unitPart.equals("h") || unitPart.equals("hrs") ||
+                unitPart.equals("hour") || unitPart.equals("hours")) {
+                multiplier = 60 * 60 * 1000L; // hours
+            } else if (unitPart.equals("m") || unitPart.equals("mn") || unitPart.equals("min") ||
+                       unitPart.equals("minute") || unitPart.equals("minutes")) {
+                multiplier = 60 * 1000L; // minutes
+            } else if (unitPart.equals("s") || unitPart.equals("sec") || unitPart.equals("second") ||
+                       unitPart.equals("seconds")) {
+                multiplier = 1000L; // seconds
+            } else {
+                return -1; // Unknown unit
+            }
+
+            return (long) (value * multiplier);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
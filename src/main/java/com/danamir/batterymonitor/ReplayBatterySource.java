@@ -0,0 +1,144 @@
+package com.danamir.batterymonitor;
+
+import android.content.Context;
+import android.content.Intent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Battery source replaying a recorded or synthetic trace.
+ *
+ * The source clock follows the timestamp of the current sample, so every component reading
+ * time through it sees the replayed time instead of the wall clock. Samples are fed through
+ * {@link BatteryReceiver#recordSample}, the same ingestion path used for live battery broadcasts.
+ */
+public class ReplayBatterySource implements BatterySource {
+
+    /**
+     * Callback invoked after each replayed sample has been recorded.
+     */
+    public interface Listener {
+        void onSampleReplayed(BatterySample sample, int index);
+    }
+
+    private final List<BatterySample> trace;
+    private final double speedFactor;
+    private int position = -1;
+    private final Clock clock = this::getCurrentTimestamp;
+
+    /**
+     * @param trace Samples to replay, in chronological order
+     * @param speedFactor Replay speed relative to real time (e.g. 3600 replays one hour per second),
+     *                    0 or less replays as fast as possible
+     */
+    public ReplayBatterySource(List<BatterySample> trace, double speedFactor) {
+        this.trace = Collections.unmodifiableList(trace);
+        this.speedFactor = speedFactor;
+    }
+
+    /**
+     * Build a replay source from stored hybrid history.
+     * @param history Recorded hybrid data points
+     * @param speedFactor Replay speed relative to real time, 0 or less for as fast as possible
+     * @return A source replaying the recorded history
+     */
+    public static ReplayBatterySource fromHistory(List<HybridBatteryData> history, double speedFactor) {
+        List<BatterySample> trace = new ArrayList<>(history.size());
+        for (HybridBatteryData data : history) {
+            trace.add(new BatterySample(
+                data.getTimestamp(),
+                data.getStandardLevel(),
+                data.isPrecise() ? data.getBatteryLevel() : Float.NaN,
+                data.isCharging()
+            ));
+        }
+        return new ReplayBatterySource(trace, speedFactor);
+    }
+
+    private long getCurrentTimestamp() {
+        if (trace.isEmpty()) {
+            return 0;
+        }
+        return trace.get(Math.max(position, 0)).getTimestamp();
+    }
+
+    public int size() {
+        return trace.size();
+    }
+
+    public boolean hasNext() {
+        return position + 1 < trace.size();
+    }
+
+    /**
+     * Advance to the next sample of the trace, moving the source clock forward.
+     * @return The new current sample
+     */
+    public BatterySample next() {
+        position++;
+        return trace.get(position);
+    }
+
+    @Override
+    public Clock getClock() {
+        return clock;
+    }
+
+    @Override
+    public BatterySample readCurrent(Context context) {
+        if (position < 0 || position >= trace.size()) {
+            return null;
+        }
+        return trace.get(position);
+    }
+
+    @Override
+    public BatterySample fromIntent(Context context, Intent intent) {
+        // Broadcast content is ignored, the trace is the only source of truth
+        return readCurrent(context);
+    }
+
+    @Override
+    public float readPreciseLevel(Context context, BatterySample sample) {
+        return sample.hasPreciseLevel() ? sample.getPreciseLevel() : sample.getLevel();
+    }
+
+    /**
+     * Replay the remaining samples through the production ingestion path.
+     *
+     * @param context The application context (preferences are read from it)
+     * @param dataManager Integer data store receiving the samples, typically non-persistent
+     * @param preciseManager Precise data store receiving the samples, typically non-persistent
+     * @param listener Optional callback after each sample
+     * @return Number of samples replayed
+     */
+    public int replay(Context context, BatteryDataManager dataManager,
+                      PreciseBatteryDataManager preciseManager, Listener listener) {
+        int count = 0;
+        while (hasNext()) {
+            long previousTimestamp = getCurrentTimestamp();
+            BatterySample sample = next();
+
+            if (speedFactor > 0 && count > 0) {
+                long delayMs = (long) ((sample.getTimestamp() - previousTimestamp) / speedFactor);
+                if (delayMs > 0) {
+                    try {
+                        Thread.sleep(delayMs);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+
+            BatteryReceiver.recordSample(context, this, sample, dataManager, preciseManager);
+            if (listener != null) {
+                listener.onSampleReplayed(sample, position);
+            }
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,145 @@
+package com.danamir.batterymonitor;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+
+/**
+ * Line segments and fill areas of the graph, drawn in runs of the same color.
+ *
+ * The graph line changes color with the battery level, the charging state and the usage rate, but
+ * consecutive segments often end up with the same color. Segments are buffered while their colors stay
+ * the same, then drawn with one drawLines call for the line and one polygon for the fill, instead of one
+ * call and one Path per segment. The fill of a run is drawn before its line, as for single segments.
+ *
+ * The buffers are allocated once per graph for its number of points. Not thread safe, one instance is
+ * used by a single graph rendering.
+ */
+public class SegmentBatch {
+    private static long totalSegmentCount;
+    private static long totalDrawCallCount;
+
+    private final Canvas canvas;
+    private final Paint linePaint;
+    private final Paint fillPaint;
+    // Bottom of the fill areas
+    private final float bottom;
+
+    // Line segments of the current run, x0, y0, x1, y1 for each
+    private final float[] lines;
+    private int lineLength;
+    private int lineColor;
+    // Fill polygon of the current run along the line, x, y for each vertex
+    private final float[] fillVertices;
+    private int fillLength;
+    private boolean filled;
+    private int fillColor;
+    private final Path fillPath = new Path();
+
+    private int segmentCount;
+    private int drawCallCount;
+
+    /**
+     * @param canvas Canvas to draw on
+     * @param linePaint Stroke paint of the line, its color is set for each run
+     * @param fillPaint Fill paint, its color is set for each run
+     * @param bottom Bottom of the fill areas
+     * @param maxSegments Maximum number of segments added
+     */
+    public SegmentBatch(Canvas canvas, Paint linePaint, Paint fillPaint, float bottom, int maxSegments) {
+        this.canvas = canvas;
+        this.linePaint = linePaint;
+        this.fillPaint = fillPaint;
+        this.bottom = bottom;
+        lines = new float[Math.max(1, maxSegments) * 4];
+        fillVertices = new float[(Math.max(1, maxSegments) + 1) * 2];
+    }
+
+    /**
+     * Add a segment starting where the previous one ended.
+     *
+     * @param lineColor Color of the line
+     * @param filled Whether the area under the segment is filled
+     * @param fillColor Color of the area under the segment, if filled
+     */
+    public void add(float x0, float y0, float x1, float y1, int lineColor, boolean filled, int fillColor) {
+        if (lineLength > 0 && (lineColor != this.lineColor || filled != this.filled
+            || (filled && fillColor != this.fillColor))) {
+            flush();
+        }
+        if (lineLength == lines.length) {
+            // More segments than announced, draw the ones already buffered
+            flush();
+        }
+
+        if (lineLength == 0) {
+            this.lineColor = lineColor;
+            this.filled = filled;
+            this.fillColor = fillColor;
+            fillVertices[0] = x0;
+            fillVertices[1] = y0;
+            fillLength = 2;
+        }
+        lines[lineLength++] = x0;
+        lines[lineLength++] = y0;
+        lines[lineLength++] = x1;
+        lines[lineLength++] = y1;
+        fillVertices[fillLength++] = x1;
+        fillVertices[fillLength++] = y1;
+        segmentCount++;
+    }
+
+    /**
+     * Draw the buffered run.
+     */
+    private void flush() {
+        if (lineLength == 0) {
+            return;
+        }
+
+        if (filled) {
+            fillPath.rewind();
+            fillPath.moveTo(fillVertices[0], bottom);
+            for (int i = 0; i < fillLength; i += 2) {
+                fillPath.lineTo(fillVertices[i], fillVertices[i + 1]);
+            }
+            fillPath.lineTo(fillVertices[fillLength - 2], bottom);
+            fillPath.close();
+            fillPaint.setColor(fillColor);
+            canvas.drawPath(fillPath, fillPaint);
+            drawCallCount++;
+        }
+
+        linePaint.setColor(lineColor);
+        canvas.drawLines(lines, 0, lineLength, linePaint);
+        drawCallCount++;
+        lineLength = 0;
+    }
+
+    /**
+     * Draw the last run, after the last segment was added.
+     */
+    public void finish() {
+        flush();
+        synchronized (SegmentBatch.class) {
+            totalSegmentCount += segmentCount;
+            totalDrawCallCount += drawCallCount;
+        }
+        segmentCount = 0;
+        drawCallCount = 0;
+    }
+
+    /**
+     * @return Number of graph segments drawn
+     */
+    public static synchronized long getSegmentCount() {
+        return totalSegmentCount;
+    }
+
+    /**
+     * @return Number of draw calls of the graph segments, lines and fill areas
+     */
+    public static synchronized long getDrawCallCount() {
+        return totalDrawCallCount;
+    }
+}
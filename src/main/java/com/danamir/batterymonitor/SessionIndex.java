@@ -0,0 +1,209 @@
+package com.danamir.batterymonitor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Table of charge and discharge sessions over the integer battery history, maintained on ingestion.
+ *
+ * Session-level queries, like the last charge reaching a level or the average discharge rate, cost
+ * O(sessions) instead of a scan of the samples looking for charging state changes.
+ *
+ * Not thread safe, the owning data manager synchronizes access.
+ */
+public class SessionIndex {
+
+    /**
+     * Mutable session record, the screen-on time of completed sessions can still grow.
+     */
+    private static class Record {
+        final boolean charging;
+        final long startTime;
+        long endTime;
+        final int startLevel;
+        int endLevel;
+        int minLevel;
+        int maxLevel;
+        long screenOnTime;
+        boolean excludedFromStats = true;
+        // Level of the last level change, reference of the statistics exclusion rule
+        int referenceLevel;
+
+        Record(boolean charging, long startTime, int level) {
+            this.charging = charging;
+            this.startTime = startTime;
+            this.endTime = startTime;
+            this.startLevel = level;
+            this.endLevel = level;
+            this.minLevel = level;
+            this.maxLevel = level;
+            this.referenceLevel = level;
+        }
+    }
+
+    private final int targetCharge;
+    private final List<Record> records = new ArrayList<>();
+
+    /**
+     * @param targetCharge High target charge, for the statistics exclusion rule
+     */
+    public SessionIndex(int targetCharge) {
+        this.targetCharge = targetCharge;
+    }
+
+    /**
+     * Add a data point, in chronological order.
+     */
+    public void onSample(long timestamp, int level, boolean isCharging) {
+        Record current = records.isEmpty() ? null : records.get(records.size() - 1);
+        if (current == null || current.charging != isCharging) {
+            if (current != null) {
+                // Sessions are contiguous, the previous one ends when this one starts
+                current.endTime = timestamp;
+                current.endLevel = level;
+            }
+            records.add(new Record(isCharging, timestamp, level));
+            return;
+        }
+
+        current.endTime = timestamp;
+        current.endLevel = level;
+        current.minLevel = Math.min(current.minLevel, level);
+        current.maxLevel = Math.max(current.maxLevel, level);
+
+        // Same rule as the all-time statistics, on consecutive level changes
+        int levelDelta = level - current.referenceLevel;
+        if (levelDelta != 0) {
+            if (isCharging && levelDelta > 0
+                    && !BatteryDataManager.shouldExcludeFromStats(current.referenceLevel, level, true, targetCharge)) {
+                current.excludedFromStats = false;
+            } else if (!isCharging && levelDelta < 0
+                    && !BatteryDataManager.shouldExcludeFromStats(level, current.referenceLevel, false, targetCharge)) {
+                current.excludedFromStats = false;
+            }
+            current.referenceLevel = level;
+        }
+    }
+
+    /**
+     * Add a screen-on period to the sessions it overlaps.
+     * The ongoing session counts the period up to its end, even past its last sample.
+     */
+    public void addScreenOnInterval(long startTime, long endTime) {
+        for (int i = records.size() - 1; i >= 0; i--) {
+            Record record = records.get(i);
+            boolean ongoing = i == records.size() - 1;
+            long sessionEnd = ongoing ? Long.MAX_VALUE : record.endTime;
+            if (sessionEnd <= startTime) {
+                break;
+            }
+            long overlap = Math.min(endTime, sessionEnd) - Math.max(startTime, record.startTime);
+            if (overlap > 0) {
+                record.screenOnTime += overlap;
+            }
+        }
+    }
+
+    /**
+     * Drop the sessions that ended before the given time, after the owner trimmed its history.
+     */
+    public void removeBefore(long timestamp) {
+        int removed = 0;
+        while (removed < records.size() - 1 && records.get(removed).endTime < timestamp) {
+            removed++;
+        }
+        if (removed > 0) {
+            records.subList(0, removed).clear();
+        }
+    }
+
+    public int getSessionCount() {
+        return records.size();
+    }
+
+    private BatterySession toSession(int index) {
+        Record record = records.get(index);
+        return new BatterySession(record.charging, record.startTime, record.endTime, record.startLevel,
+            record.endLevel, record.minLevel, record.maxLevel, record.screenOnTime, record.excludedFromStats,
+            index == records.size() - 1);
+    }
+
+    /**
+     * @param sessionsAgo 0 for the current session, 1 for the previous one...
+     * @return The session, or null if not in the history
+     */
+    public BatterySession getSession(int sessionsAgo) {
+        int index = records.size() - 1 - sessionsAgo;
+        return sessionsAgo >= 0 && index >= 0 ? toSession(index) : null;
+    }
+
+    /**
+     * @return The most recent sessions, up to the given count, oldest first
+     */
+    public List<BatterySession> getSessions(int count) {
+        List<BatterySession> sessions = new ArrayList<>();
+        for (int i = Math.max(0, records.size() - count); i < records.size(); i++) {
+            sessions.add(toSession(i));
+        }
+        return sessions;
+    }
+
+    /**
+     * @return The sessions ending at or after the given time, oldest first
+     */
+    public List<BatterySession> getSessionsSince(long timestamp) {
+        // Sessions are contiguous, binary search the first one ending at or after the time
+        int low = 0;
+        int high = records.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (records.get(mid).endTime < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        List<BatterySession> sessions = new ArrayList<>();
+        for (int i = low; i < records.size(); i++) {
+            sessions.add(toSession(i));
+        }
+        return sessions;
+    }
+
+    /**
+     * @return The last charging session reaching at least the given level, or null
+     */
+    public BatterySession getLastChargeReaching(int level) {
+        for (int i = records.size() - 1; i >= 0; i--) {
+            Record record = records.get(i);
+            if (record.charging && record.maxLevel >= level) {
+                return toSession(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the mean rate of the most recent completed discharge sessions counted in the statistics.
+     * @param count Maximum number of sessions
+     * @return Discharge rate in %/h, or null if no such session
+     */
+    public Double getAverageDischargeRate(int count) {
+        long totalTime = 0;
+        int totalDrop = 0;
+        int found = 0;
+        for (int i = records.size() - 2; i >= 0 && found < count; i--) {
+            Record record = records.get(i);
+            if (!record.charging && !record.excludedFromStats) {
+                totalTime += record.endTime - record.startTime;
+                totalDrop += record.startLevel - record.minLevel;
+                found++;
+            }
+        }
+        if (totalTime <= 0 || totalDrop <= 0) {
+            return null;
+        }
+        return totalDrop / (totalTime / 3600000.0);
+    }
+}
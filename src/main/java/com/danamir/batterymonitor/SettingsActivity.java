@@ -164,6 +164,16 @@ public class SettingsActivity extends AppCompatActivity {
                 });
             }
 
+            androidx.preference.Preference loadTestPref = findPreference("run_load_test");
+            if (loadTestPref != null) {
+                // Development tool, only in debug builds
+                loadTestPref.setVisible(LoadTestDialog.isAvailable());
+                loadTestPref.setOnPreferenceClickListener(preference -> {
+                    LoadTestDialog.show(this);
+                    return true;
+                });
+            }
+
             androidx.preference.Preference resetStatsPref = findPreference("reset_statistics");
             if (resetStatsPref != null) {
                 resetStatsPref.setOnPreferenceClickListener(preference -> {
@@ -15,20 +15,45 @@ public class StatusManager {
     private static final int MAX_STATUS_ENTRIES = 10000;
     private static StatusManager instance;
     private final Context context;
+    private final Clock clock;
+    private final boolean persistent;
+    private volatile long version;
     private List<StatusData> statusList;
 
-    private StatusManager(Context context) {
+    /**
+     * Create a status manager.
+     * Non-persistent instances start empty and never write to the content provider.
+     *
+     * @param context The application context
+     * @param clock Clock used for time range queries
+     * @param persistent Whether data is loaded from and saved to the content provider
+     */
+    StatusManager(Context context, Clock clock, boolean persistent) {
         this.context = context.getApplicationContext();
-        statusList = loadData();
+        this.clock = clock;
+        this.persistent = persistent;
+        statusList = persistent ? loadData() : new ArrayList<>();
     }
 
     public static synchronized StatusManager getInstance(Context context) {
         if (instance == null) {
-            instance = new StatusManager(context.getApplicationContext());
+            instance = new StatusManager(context.getApplicationContext(), Clock.SYSTEM, true);
         }
         return instance;
     }
 
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Get the version of the stored status data, incremented on every change.
+     * Used by consumers to detect when cached values computed from the data are stale.
+     */
+    public long getVersion() {
+        return version;
+    }
+
     /**
      * Add a status period with start and end timestamps
      */
@@ -59,25 +84,28 @@ public class StatusManager {
 
     /**
      * End the most recent ongoing status with the given name
+     * @return The ended status, or null if none was ongoing
      */
-    public synchronized void endStatus(String statusName, long endTimestamp) {
+    public synchronized StatusData endStatus(String statusName, long endTimestamp) {
         // Find the most recent ongoing status with this name
         for (int i = statusList.size() - 1; i >= 0; i--) {
             StatusData status = statusList.get(i);
             if (status.getStatusName().equals(statusName) && status.isOngoing()) {
                 // Replace with ended status
-                statusList.set(i, new StatusData(statusName, status.getStartTimestamp(), endTimestamp));
+                StatusData ended = new StatusData(statusName, status.getStartTimestamp(), endTimestamp);
+                statusList.set(i, ended);
                 saveData();
-                return;
+                return ended;
             }
         }
+        return null;
     }
 
     /**
      * Get all status data within the specified time range
      */
     public synchronized List<StatusData> getStatusData(int hours) {
-        long cutoffTime = System.currentTimeMillis() - (hours * 60 * 60 * 1000L);
+        long cutoffTime = clock.currentTimeMillis() - (hours * 60 * 60 * 1000L);
         List<StatusData> filteredData = new ArrayList<>();
 
         for (StatusData status : statusList) {
@@ -150,6 +178,10 @@ public class StatusManager {
     }
 
     private void saveData() {
+        version++;
+        if (!persistent) {
+            return;
+        }
         JSONArray jsonArray = new JSONArray();
 
         try {
@@ -173,7 +205,7 @@ public class StatusManager {
     }
 
     public synchronized void clearOldData(int hours) {
-        long cutoffTime = System.currentTimeMillis() - (hours * 60 * 60 * 1000L);
+        long cutoffTime = clock.currentTimeMillis() - (hours * 60 * 60 * 1000L);
         List<StatusData> filteredData = new ArrayList<>();
 
         for (StatusData status : statusList) {
@@ -0,0 +1,59 @@
+package com.danamir.batterymonitor;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+
+/**
+ * Battery source reading the live device state from ACTION_BATTERY_CHANGED extras
+ * and {@link PreciseBatteryCalculator}.
+ */
+public class SystemBatterySource implements BatterySource {
+    private static final SystemBatterySource instance = new SystemBatterySource();
+
+    private SystemBatterySource() {
+    }
+
+    public static SystemBatterySource getInstance() {
+        return instance;
+    }
+
+    @Override
+    public Clock getClock() {
+        return Clock.SYSTEM;
+    }
+
+    @Override
+    public BatterySample readCurrent(Context context) {
+        IntentFilter batteryFilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+        Intent batteryIntent = context.registerReceiver(null, batteryFilter);
+        if (batteryIntent == null) {
+            return null;
+        }
+        return fromIntent(context, batteryIntent);
+    }
+
+    @Override
+    public BatterySample fromIntent(Context context, Intent intent) {
+        int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+
+        boolean isCharging = status == BatteryManager.BATTERY_STATUS_CHARGING ||
+                           status == BatteryManager.BATTERY_STATUS_FULL;
+
+        if (level < 0 || scale <= 0) {
+            return null;
+        }
+
+        int batteryPct = (int) ((level / (float) scale) * 100);
+        return new BatterySample(Clock.SYSTEM.currentTimeMillis(), batteryPct, isCharging);
+    }
+
+    @Override
+    public float readPreciseLevel(Context context, BatterySample sample) {
+        PreciseBatteryCalculator calculator = new PreciseBatteryCalculator(getClock());
+        return (float) calculator.getCalibratedBatteryPercentage(context);
+    }
+}
@@ -0,0 +1,363 @@
+package com.danamir.batterymonitor;
+
+/**
+ * Incremental short-term usage rate estimator, fed with each stored data point.
+ *
+ * Gives the same results as {@link BatteryUtils#calculateBatteryUsageRateValue} and
+ * {@link BatteryUtils#calculateBatteryUsageRateValueHybrid} without walking the history: the
+ * backward scan of those methods stops either at the first point of the current period older than
+ * the max duration, or after a fixed number of points of the other period. Both stop positions only
+ * move forward as points are added, so they are tracked with pointers updated on ingestion, and
+ * points before both stop positions are dropped.
+ *
+ * Not thread safe, the owning data manager synchronizes access.
+ */
+public class UsageRateEstimator implements RateEstimator {
+    public static final String ID = "short_term";
+
+    private static final int DISCHARGING = 0;
+    private static final int CHARGING = 1;
+
+    /** Hard limit on kept points, when a period never sees enough points of the other one. */
+    private static final int MAX_WINDOW_POINTS = 20000;
+
+    private final Integer maxDuration;
+    private final long maxDurationMs;
+    private final int differentPeriodsAllowed;
+    private final boolean collapseDuplicates;
+
+    // Kept points, absolute index i is stored at position i - firstIndex + start
+    private long[] timestamps = new long[256];
+    private float[] levels = new float[256];
+    private boolean[] chargingStates = new boolean[256];
+    private int start;
+    private int count;
+    private int firstIndex;
+
+    // Absolute indexes of kept points, per charging state
+    private final IndexQueue[] stateIndexes = {new IndexQueue(), new IndexQueue()};
+    // Per state: number of leading indexes old enough to stop the scan on max duration
+    private final int[] durationPointers = new int[2];
+    // Per state: position of the first index after the point stopping the scan on period changes
+    private final int[] periodPointers = new int[2];
+    private boolean truncated;
+
+    /**
+     * Growable queue of absolute point indexes.
+     */
+    private static class IndexQueue {
+        private int[] items = new int[64];
+        private int head;
+        private int size;
+
+        void add(int index) {
+            if (head + size == items.length) {
+                if (head > items.length / 2) {
+                    System.arraycopy(items, head, items, 0, size);
+                } else {
+                    int[] grown = new int[items.length * 2];
+                    System.arraycopy(items, head, grown, 0, size);
+                    items = grown;
+                }
+                head = 0;
+            }
+            items[head + size++] = index;
+        }
+
+        int get(int position) {
+            return items[head + position];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void removeFirst() {
+            head++;
+            size--;
+        }
+    }
+
+    /**
+     * @param maxDuration Usage calculation time in minutes, null to use the whole current period
+     * @param collapseDuplicates Whether a point with the same level and charging state as the previous
+     *                           one replaces it, like the deduplication of integer data
+     */
+    public UsageRateEstimator(Integer maxDuration, boolean collapseDuplicates) {
+        this.maxDuration = maxDuration;
+        this.maxDurationMs = maxDuration != null ? maxDuration * 60 * 1000 : Long.MAX_VALUE;
+        // Same leeway as the list based calculation
+        this.differentPeriodsAllowed = maxDuration != null ? 10 : 1;
+        this.collapseDuplicates = collapseDuplicates;
+    }
+
+    public Integer getMaxDuration() {
+        return maxDuration;
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public String getLabel() {
+        return "Short-term";
+    }
+
+    /**
+     * Mark the history as truncated at its start, after the owner dropped old points.
+     * Estimates reaching the start of the kept points are then reported as not exact.
+     */
+    @Override
+    public void onHistoryTruncated(long firstTimestamp) {
+        truncated = true;
+    }
+
+    private static int stateOf(boolean charging) {
+        return charging ? CHARGING : DISCHARGING;
+    }
+
+    private int position(int index) {
+        return start + index - firstIndex;
+    }
+
+    private int lastIndex() {
+        return firstIndex + count - 1;
+    }
+
+    /**
+     * Add a data point, in chronological order.
+     */
+    @Override
+    public void onSample(long timestamp, float level, boolean isCharging) {
+        if (collapseDuplicates && count > 0) {
+            int last = position(lastIndex());
+            if (levels[last] == level && chargingStates[last] == isCharging) {
+                // Same data, only the time of the last point moves forward
+                timestamps[last] = timestamp;
+                advancePointers();
+                trim();
+                return;
+            }
+        }
+
+        if (start + count == timestamps.length) {
+            growStorage();
+        }
+        int position = start + count;
+        timestamps[position] = timestamp;
+        levels[position] = level;
+        chargingStates[position] = isCharging;
+        count++;
+        stateIndexes[stateOf(isCharging)].add(lastIndex());
+
+        advancePointers();
+        trim();
+    }
+
+    private void growStorage() {
+        if (start > timestamps.length / 2) {
+            System.arraycopy(timestamps, start, timestamps, 0, count);
+            System.arraycopy(levels, start, levels, 0, count);
+            System.arraycopy(chargingStates, start, chargingStates, 0, count);
+        } else {
+            int capacity = timestamps.length * 2;
+            long[] newTimestamps = new long[capacity];
+            float[] newLevels = new float[capacity];
+            boolean[] newStates = new boolean[capacity];
+            System.arraycopy(timestamps, start, newTimestamps, 0, count);
+            System.arraycopy(levels, start, newLevels, 0, count);
+            System.arraycopy(chargingStates, start, newStates, 0, count);
+            timestamps = newTimestamps;
+            levels = newLevels;
+            chargingStates = newStates;
+        }
+        start = 0;
+    }
+
+    /**
+     * @return Index of the point stopping the scan after too many points of the other period, or -1
+     */
+    private int getPeriodStopIndex(int state) {
+        IndexQueue others = stateIndexes[1 - state];
+        if (others.size() <= differentPeriodsAllowed) {
+            return -1;
+        }
+        return others.get(others.size() - differentPeriodsAllowed - 1);
+    }
+
+    /**
+     * @return Index of the point stopping the scan on max duration, or -1
+     */
+    private int getDurationStopIndex(int state) {
+        int pointer = durationPointers[state];
+        return pointer > 0 ? stateIndexes[state].get(pointer - 1) : -1;
+    }
+
+    private void advancePointers() {
+        int lastIndex = lastIndex();
+        long endTimestamp = timestamps[position(lastIndex)];
+
+        for (int state = DISCHARGING; state <= CHARGING; state++) {
+            IndexQueue indexes = stateIndexes[state];
+
+            // Points of this period at least max duration before the last point, excluding the last point itself
+            int pointer = durationPointers[state];
+            while (pointer < indexes.size() && indexes.get(pointer) < lastIndex
+                    && endTimestamp - timestamps[position(indexes.get(pointer))] >= maxDurationMs) {
+                pointer++;
+            }
+            durationPointers[state] = pointer;
+
+            int periodStop = getPeriodStopIndex(state);
+            if (periodStop >= 0) {
+                pointer = periodPointers[state];
+                while (pointer < indexes.size() && indexes.get(pointer) < periodStop) {
+                    pointer++;
+                }
+                periodPointers[state] = pointer;
+            }
+        }
+    }
+
+    /**
+     * Drop points that no future scan can reach: those before the stop positions of both periods.
+     */
+    private void trim() {
+        int boundary = Integer.MAX_VALUE;
+        for (int state = DISCHARGING; state <= CHARGING; state++) {
+            int stop = Math.max(getDurationStopIndex(state), getPeriodStopIndex(state));
+            if (stop < 0) {
+                // Scans for this period can still reach the oldest point
+                boundary = -1;
+                break;
+            }
+            boundary = Math.min(boundary, stop);
+        }
+
+        if (boundary < 0 && count > MAX_WINDOW_POINTS) {
+            boundary = lastIndex() - MAX_WINDOW_POINTS / 2;
+            truncated = true;
+        }
+
+        if (boundary <= firstIndex) {
+            return;
+        }
+
+        int removed = boundary - firstIndex;
+        start += removed;
+        count -= removed;
+        firstIndex = boundary;
+
+        for (int state = DISCHARGING; state <= CHARGING; state++) {
+            IndexQueue indexes = stateIndexes[state];
+            while (indexes.size() > 0 && indexes.get(0) < boundary) {
+                indexes.removeFirst();
+                durationPointers[state] = Math.max(0, durationPointers[state] - 1);
+                periodPointers[state] = Math.max(0, periodPointers[state] - 1);
+            }
+        }
+    }
+
+    /**
+     * @return Timestamp of the last point, or -1 if empty
+     */
+    public long getLastTimestamp() {
+        return count > 0 ? timestamps[position(lastIndex())] : -1;
+    }
+
+    /**
+     * Find the start point of the rate calculation, as the backward scan of the list based calculation would.
+     * @return Absolute index of the start point, -1 if none, or -2 if the scan would cross the cutoff time
+     */
+    private int findStartIndex(long cutoffTime) {
+        int lastIndex = lastIndex();
+        int state = stateOf(chargingStates[position(lastIndex)]);
+        IndexQueue indexes = stateIndexes[state];
+
+        int durationStop = getDurationStopIndex(state);
+        int periodStop = getPeriodStopIndex(state);
+
+        if (durationStop >= 0 && durationStop > periodStop) {
+            // Scan stops on the first point older than max duration, which becomes the start point
+            return timestamps[position(durationStop)] >= cutoffTime ? durationStop : -2;
+        }
+
+        if (periodStop >= 0) {
+            // Scan stops on too many points of the other period, start is the oldest point visited before
+            if (timestamps[position(periodStop)] < cutoffTime) {
+                return -2;
+            }
+            int pointer = periodPointers[state];
+            if (pointer < indexes.size() && indexes.get(pointer) < lastIndex) {
+                return indexes.get(pointer);
+            }
+            return -1;
+        }
+
+        // Scan reaches the oldest point
+        if (truncated || timestamps[start] < cutoffTime) {
+            return -2;
+        }
+        if (indexes.size() > 0 && indexes.get(0) < lastIndex) {
+            return indexes.get(0);
+        }
+        return -1;
+    }
+
+    /**
+     * Check whether the estimate for data restricted to the given cutoff time can be answered
+     * from the kept points. Otherwise the list based calculation must be used.
+     * @param cutoffTime Oldest timestamp of the data the estimate is requested for
+     */
+    @Override
+    public boolean isExact(long cutoffTime) {
+        if (count == 0 || getLastTimestamp() < cutoffTime) {
+            // No data in range, no estimate
+            return true;
+        }
+        return findStartIndex(cutoffTime) != -2;
+    }
+
+    /**
+     * Get the short-term usage rate, valid when {@link #isExact(long)} is true for the cutoff time.
+     * @param cutoffTime Oldest timestamp of the data the estimate is requested for
+     * @param minDuration Minimum duration in minutes of the calculation period
+     * @return Battery usage rate in %/h (positive value), or null if not enough data
+     */
+    @Override
+    public Double getRate(long cutoffTime, int minDuration) {
+        if (count < 2 || getLastTimestamp() < cutoffTime) {
+            return null;
+        }
+
+        int startIndex = findStartIndex(cutoffTime);
+        if (startIndex < 0) {
+            return null;
+        }
+
+        int endPosition = position(lastIndex());
+        int startPosition = position(startIndex);
+        boolean isChargingPeriod = chargingStates[endPosition];
+
+        long timeDiffMs = timestamps[endPosition] - timestamps[startPosition];
+        float levelDiff;
+        if (isChargingPeriod) {
+            // For charging, level increases over time
+            levelDiff = levels[endPosition] - levels[startPosition];
+        } else {
+            // For discharging, level decreases over time
+            levelDiff = levels[startPosition] - levels[endPosition];
+        }
+
+        // Need at least that many minutes of data for reasonable calculation
+        if (timeDiffMs < minDuration * 60 * 1000 || levelDiff <= 0) {
+            return null;
+        }
+
+        // Calculate rate per hour
+        double hours = timeDiffMs / 3600000.0;
+        return levelDiff / hours;
+    }
+}
@@ -0,0 +1,264 @@
+package com.danamir.batterymonitor;
+
+import android.appwidget.AppWidgetManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ResolveInfo;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.net.Uri;
+import android.widget.RemoteViews;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * Rendered widget graphs written to app-private storage, for the launcher to load through
+ * {@link GraphImageProvider} instead of receiving the bitmap inline in each widget update.
+ *
+ * Each new frame is written to a new versioned file, so the launcher never reads a file being replaced
+ * and reloads the image when the URI changes. Updates with an unchanged bitmap, such as the render cache
+ * hits, get the URI of the frame already written. The last frames of each size are kept, older ones and
+ * the files left by previous runs are deleted.
+ *
+ * The PNG encoding of a new frame takes longer than rendering it, so it runs on a background thread, on a
+ * copy of the bitmap since the renderer draws the next frame into the same one. The widget update is sent
+ * from that thread once the file is written, and all updates go through it so they stay in order.
+ */
+public class WidgetImageStore {
+    static final String DIRECTORY = "widget_graphs";
+    /** File names of the frames, graph_<width>x<height>_<version>.png */
+    static final Pattern FILE_NAME = Pattern.compile("graph_\\d+x\\d+_\\d+\\.png");
+    /** Frames kept per size: the current one, and the previous one the launcher may still be loading */
+    private static final int KEPT_FRAMES = 2;
+    /** Files not among the kept frames are deleted once older than this */
+    private static final long STALE_FILE_AGE_MS = 60 * 60 * 1000L;
+
+    private static WidgetImageStore instance;
+
+    private final ExecutorService encoder = Executors.newSingleThreadExecutor();
+
+    // Written frames per size, most recent first, and generation of the bitmap of the last one
+    private final Map<Long, ArrayDeque<File>> frames = new HashMap<>();
+    private final Map<Long, Integer> lastGenerations = new HashMap<>();
+    // Generation of the bitmap of the last frame queued for writing, per size
+    private final Map<Long, Integer> queuedGenerations = new HashMap<>();
+    private long nextVersion = System.currentTimeMillis();
+    private long lastSweepTime;
+    private long writeCount;
+    private long writtenBytes;
+
+    WidgetImageStore() {
+    }
+
+    public static synchronized WidgetImageStore getInstance() {
+        if (instance == null) {
+            instance = new WidgetImageStore();
+        }
+        return instance;
+    }
+
+    /**
+     * Update a widget with a rendered graph loaded from its file, writing the file in the background if the
+     * bitmap changed since the last frame of its size, and grant the widget hosts read access to it.
+     *
+     * @param context The application context
+     * @param appWidgetManager Manager to send the update with
+     * @param appWidgetId Widget to update
+     * @param views Widget views, complete except for the graph image, no longer used by the caller
+     * @param bitmap The rendered graph, only read during this call, sent inline if its file is not available
+     * @return Whether the update was queued, false if there is no widget host to grant the file to
+     */
+    public boolean update(Context context, AppWidgetManager appWidgetManager, int appWidgetId, RemoteViews views,
+                          Bitmap bitmap) {
+        List<String> hostPackages = getHostPackages(context);
+        if (hostPackages.isEmpty()) {
+            return false;
+        }
+
+        Long size = ((long) bitmap.getWidth() << 32) | (bitmap.getHeight() & 0xFFFFFFFFL);
+        int generation = bitmap.getGenerationId();
+        boolean newFrame;
+        // Not the store lock, held while writing
+        synchronized (queuedGenerations) {
+            Integer queuedGeneration = queuedGenerations.get(size);
+            newFrame = queuedGeneration == null || queuedGeneration != generation;
+            if (newFrame) {
+                queuedGenerations.put(size, generation);
+            }
+        }
+
+        // Copied for the background thread, to write a new frame or to send inline if there is no file
+        Bitmap copy = BitmapPool.getInstance().acquire(bitmap.getWidth(), bitmap.getHeight());
+        new Canvas(copy).drawBitmap(bitmap, 0, 0, null);
+
+        encoder.execute(() -> {
+            Uri uri = getUri(context, size, generation, newFrame ? copy : null, hostPackages);
+            if (uri != null) {
+                views.setImageViewUri(R.id.battery_graph, uri);
+                appWidgetManager.updateAppWidget(appWidgetId, views);
+                BitmapPool.getInstance().release(copy);
+            } else {
+                // Not written, or the frame to reuse is gone: send the bitmap inline
+                views.setImageViewBitmap(R.id.battery_graph, copy);
+                appWidgetManager.updateAppWidget(appWidgetId, views);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Get the content URI of a frame, writing it if given, and grant the hosts read access to it.
+     *
+     * @param frame The copy of the bitmap to write, null to reuse the last frame of its size
+     * @return The URI, or null if the frame could not be written or is no longer available
+     */
+    private synchronized Uri getUri(Context context, Long size, int generation, Bitmap frame,
+                                    List<String> hostPackages) {
+        ArrayDeque<File> sizeFrames = frames.get(size);
+        Integer lastGeneration = lastGenerations.get(size);
+        File file;
+        if (frame == null) {
+            if (sizeFrames == null || sizeFrames.isEmpty() || lastGeneration == null
+                || lastGeneration != generation || !sizeFrames.peekFirst().exists()) {
+                forgetQueued(size, generation);
+                return null;
+            }
+            file = sizeFrames.peekFirst();
+        } else {
+            file = write(context, frame);
+            if (file == null) {
+                forgetQueued(size, generation);
+                return null;
+            }
+            if (sizeFrames == null) {
+                sizeFrames = new ArrayDeque<>();
+                frames.put(size, sizeFrames);
+            }
+            sizeFrames.addFirst(file);
+            lastGenerations.put(size, generation);
+            while (sizeFrames.size() > KEPT_FRAMES) {
+                delete(context, sizeFrames.removeLast());
+            }
+            sweep(context);
+        }
+
+        Uri uri = GraphImageProvider.getUri(file.getName());
+        for (String hostPackage : hostPackages) {
+            context.grantUriPermission(hostPackage, uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        }
+        return uri;
+    }
+
+    private void forgetQueued(Long size, int generation) {
+        synchronized (queuedGenerations) {
+            queuedGenerations.remove(size, generation);
+        }
+    }
+
+    private File write(Context context, Bitmap bitmap) {
+        File directory = new File(context.getFilesDir(), DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return null;
+        }
+
+        String name = "graph_" + bitmap.getWidth() + "x" + bitmap.getHeight() + "_" + (nextVersion++) + ".png";
+        File file = new File(directory, name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                file.delete();
+                return null;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            file.delete();
+            return null;
+        }
+
+        writeCount++;
+        writtenBytes += file.length();
+        return file;
+    }
+
+    /**
+     * Delete the old files that are not among the kept frames, at most once per stale file age.
+     */
+    private void sweep(Context context) {
+        long now = System.currentTimeMillis();
+        if (now - lastSweepTime < STALE_FILE_AGE_MS) {
+            return;
+        }
+        lastSweepTime = now;
+
+        File[] files = new File(context.getFilesDir(), DIRECTORY).listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (now - file.lastModified() > STALE_FILE_AGE_MS && !isKept(file)) {
+                delete(context, file);
+            }
+        }
+    }
+
+    /**
+     * Delete a frame file, after revoking the read access granted to the hosts.
+     */
+    private static void delete(Context context, File file) {
+        context.revokeUriPermission(GraphImageProvider.getUri(file.getName()), Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        file.delete();
+    }
+
+    private boolean isKept(File file) {
+        for (ArrayDeque<File> sizeFrames : frames.values()) {
+            if (sizeFrames.contains(file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the packages that may host the widgets: the home screens, the default one and the others the
+     * user can switch to, which keep their widgets. The widget host of an update is not known to the
+     * provider, so all of them get access.
+     *
+     * @return Packages of the installed home screens, empty if there is none
+     */
+    private static List<String> getHostPackages(Context context) {
+        Intent intent = new Intent(Intent.ACTION_MAIN);
+        intent.addCategory(Intent.CATEGORY_HOME);
+        List<String> packages = new ArrayList<>();
+        for (ResolveInfo info : context.getPackageManager().queryIntentActivities(intent, 0)) {
+            // The resolver activity of the system is not a home screen
+            if (info.activityInfo != null && !"android".equals(info.activityInfo.packageName)
+                && !packages.contains(info.activityInfo.packageName)) {
+                packages.add(info.activityInfo.packageName);
+            }
+        }
+        return packages;
+    }
+
+    /**
+     * @return Number of frames written
+     */
+    public synchronized long getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * @return Size of the frames written, in bytes
+     */
+    public synchronized long getWrittenBytes() {
+        return writtenBytes;
+    }
+}
@@ -0,0 +1,199 @@
+package com.danamir.batterymonitor;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the last rendered widget graph per widget size.
+ *
+ * A graph only changes visibly when the battery or status data, the settings, the size or the display
+ * mode change, or when the current time moves to the next pixel column. Widget updates requested
+ * without any of these changes, such as periodic ticks, configuration broadcasts or repeated option
+ * changes, reuse the last bitmap instead of redrawing it. Otherwise the graph of the size is rendered from
+ * its cached layers, scrolling the previous frame, see {@link IncrementalGraphRenderer}.
+ */
+public class WidgetRenderCache {
+    /** Number of widget sizes kept, a home screen rarely shows more */
+    private static final int MAX_ENTRIES = 4;
+
+    private static final int MODE_NORMAL = 0;
+    private static final int MODE_ZOOMED = 1;
+    private static final int MODE_UNZOOMED = 2;
+
+    private static WidgetRenderCache instance;
+
+    // Last rendered graph per widget size, least recently used first
+    private final Map<Long, Entry> entries = new LinkedHashMap<Long, Entry>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+            if (size() > MAX_ENTRIES) {
+                eldest.getValue().renderer.release();
+                return true;
+            }
+            return false;
+        }
+    };
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * Everything the rendered graph depends on.
+     */
+    private static final class Key {
+        private final long dataVersion;
+        private final long statusVersion;
+        private final long configVersion;
+        private final int width;
+        private final int height;
+        private final long timeBucket;
+        private final int displayMode;
+        private final int displayHours;
+
+        Key(long dataVersion, long statusVersion, long configVersion, int width, int height,
+            long timeBucket, int displayMode, int displayHours) {
+            this.dataVersion = dataVersion;
+            this.statusVersion = statusVersion;
+            this.configVersion = configVersion;
+            this.width = width;
+            this.height = height;
+            this.timeBucket = timeBucket;
+            this.displayMode = displayMode;
+            this.displayHours = displayHours;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return dataVersion == other.dataVersion && statusVersion == other.statusVersion
+                && configVersion == other.configVersion && width == other.width && height == other.height
+                && timeBucket == other.timeBucket && displayMode == other.displayMode
+                && displayHours == other.displayHours;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Long.hashCode(dataVersion);
+            result = 31 * result + Long.hashCode(statusVersion);
+            result = 31 * result + Long.hashCode(configVersion);
+            result = 31 * result + width;
+            result = 31 * result + height;
+            result = 31 * result + Long.hashCode(timeBucket);
+            result = 31 * result + displayMode;
+            result = 31 * result + displayHours;
+            return result;
+        }
+    }
+
+    private static final class Entry {
+        private final IncrementalGraphRenderer renderer;
+        private Key key;
+        private Bitmap bitmap;
+
+        Entry(int width, int height) {
+            renderer = new IncrementalGraphRenderer(width, height);
+        }
+    }
+
+    WidgetRenderCache() {
+    }
+
+    public static synchronized WidgetRenderCache getInstance() {
+        if (instance == null) {
+            instance = new WidgetRenderCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Get the widget graph for a snapshot, rendering it only if it would differ from the cached one.
+     * The returned bitmap is shared and must not be modified or recycled. It is reused for the next
+     * graph of the same size, so it must be sent to the widget host before the next request.
+     *
+     * @param context The application context
+     * @param snapshot The battery snapshot to render
+     * @param width Width in pixels
+     * @param height Height in pixels
+     * @param now Current time in milliseconds, right edge of the graph
+     * @return The graph bitmap
+     */
+    public synchronized Bitmap getBitmap(Context context, BatterySnapshot snapshot, int width, int height, long now) {
+        RenderConfig config = RenderConfig.get(context);
+        Key key = new Key(snapshot.getDataVersion(), snapshot.getStatusVersion(), snapshot.getConfigVersion(),
+            width, height, getTimeBucket(context, config, snapshot.getDisplayHours(), width, now),
+            getDisplayMode(config), snapshot.getDisplayHours());
+
+        Long size = ((long) width << 32) | (height & 0xFFFFFFFFL);
+        Entry entry = entries.get(size);
+        if (entry != null && entry.key.equals(key)) {
+            hitCount++;
+            return entry.bitmap;
+        }
+
+        missCount++;
+        if (entry == null) {
+            entry = new Entry(width, height);
+            entries.put(size, entry);
+        }
+        entry.key = key;
+        entry.bitmap = entry.renderer.render(context, snapshot.getHybridData(), snapshot.getPyramid(),
+            snapshot.getStatusData(), snapshot.getValues(), snapshot.getDisplayHours(), now);
+        return entry.bitmap;
+    }
+
+    /**
+     * @return Index of the pixel column of the graph the current time falls in
+     */
+    private static long getTimeBucket(Context context, RenderConfig config, int displayHours, int width, long now) {
+        float density = context.getResources().getDisplayMetrics().density;
+        int graphWidth = Math.max(1, width - 2 * (int) (config.paddingHorizontalDp * density));
+        long columnMillis = Math.max(1, displayHours * 60 * 60 * 1000L / graphWidth);
+        return now / columnMillis;
+    }
+
+    private static int getDisplayMode(RenderConfig config) {
+        if (config.zoomedDisplay) {
+            return MODE_ZOOMED;
+        }
+        return config.unzoomedDisplay ? MODE_UNZOOMED : MODE_NORMAL;
+    }
+
+    /**
+     * Drop the cached graphs, the next requests are rendered again.
+     */
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            entry.renderer.release();
+        }
+        entries.clear();
+    }
+
+    /**
+     * @return Number of rendered graphs that scrolled the previous frame of their size
+     */
+    public synchronized long getIncrementalRenderCount() {
+        long count = 0;
+        for (Entry entry : entries.values()) {
+            count += entry.renderer.getIncrementalRenderCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return Number of requests answered with a cached graph
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return Number of requests that rendered a graph
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+}
@@ -0,0 +1,21 @@
+package com.danamir.batterymonitor;
+
+import androidx.fragment.app.Fragment;
+
+/**
+ * The load test is only included in debug builds, see the debug implementation.
+ */
+public final class LoadTestDialog {
+    private LoadTestDialog() {
+    }
+
+    /**
+     * @return Whether the load test is included in this build
+     */
+    public static boolean isAvailable() {
+        return false;
+    }
+
+    public static void show(Fragment fragment) {
+    }
+}
@@ -0,0 +1,254 @@
+package com.danamir.batterymonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the history index on hand-computed histories, and against list based calculations on randomized
+ * histories with front trimming: the since-max rate is identical to
+ * {@link BatteryUtils#calculateBatteryUsageRateValueSinceMax}, and the time range rates and last times at
+ * level are identical to a pass over the deduplicated history.
+ */
+public class BatteryHistoryIndexTest {
+    private static final int HISTORIES = 40;
+    private static final long MINUTE = 60 * 1000L;
+
+    @Test
+    public void emptyAndSinglePoint() {
+        BatteryHistoryIndex index = new BatteryHistoryIndex(80);
+        assertNull(index.getUsageRateSinceMax(0, 0));
+        assertNull(index.getDischargeRate(0, Long.MAX_VALUE));
+        assertEquals(-1, index.getLastTimeAtLevel(50));
+
+        index.addDataPoint(0, 50, false);
+        assertNull(index.getUsageRateSinceMax(0, 0));
+        assertNull(index.getDischargeRate(0, Long.MAX_VALUE));
+        assertEquals(0, index.getLastTimeAtLevel(50));
+    }
+
+    @Test
+    public void sinceChargeReachingTarget() {
+        BatteryHistoryIndex index = createChargeThenDischarge();
+
+        // From the charge at 80%: 6% in 2 hours
+        assertEquals(3.0, index.getUsageRateSinceMax(0, 0), 0);
+        assertNull(index.getUsageRateSinceMax(0, 121));
+
+        // Currently charging
+        index.addDataPoint(200 * MINUTE, 74, true);
+        assertNull(index.getUsageRateSinceMax(0, 0));
+    }
+
+    @Test
+    public void chargeFallingBelowTarget() {
+        BatteryHistoryIndex index = new BatteryHistoryIndex(80);
+        index.addDataPoint(0, 70, true);
+        index.addDataPoint(60 * MINUTE, 82, true);
+        index.addDataPoint(90 * MINUTE, 79, true);
+        index.addDataPoint(120 * MINUTE, 79, false);
+        index.addDataPoint(240 * MINUTE, 73, false);
+
+        // From the last charging point at 82%, not the end of the charge: 9% in 3 hours
+        assertEquals(3.0, index.getUsageRateSinceMax(0, 0), 0);
+        // The point at 82% before the cutoff, from the last point at the max level left: 6% in 2 hours
+        assertEquals(3.0, index.getUsageRateSinceMax(90 * MINUTE, 0), 0);
+    }
+
+    @Test
+    public void limitedChargeIsSubtracted() {
+        BatteryHistoryIndex index = new BatteryHistoryIndex(95);
+        index.addDataPoint(0, 90, false);
+        index.addDataPoint(60 * MINUTE, 85, false);
+        index.addDataPoint(90 * MINUTE, 85, true);
+        index.addDataPoint(120 * MINUTE, 88, true);
+        index.addDataPoint(150 * MINUTE, 88, false);
+        index.addDataPoint(240 * MINUTE, 82, false);
+
+        // From the max level, without the 3% charged in 30 minutes: 11% in 3.5 hours
+        assertEquals(11 / 3.5, index.getUsageRateSinceMax(0, 0), 0);
+    }
+
+    @Test
+    public void dischargeRateBetweenTimes() {
+        BatteryHistoryIndex index = createChargeThenDischarge();
+
+        // Only the last step discharges: 4% in 1 hour
+        assertEquals(4.0, index.getDischargeRate(0, 180 * MINUTE), 0);
+        assertNull(index.getDischargeRate(0, 120 * MINUTE));
+        assertNull(index.getDischargeRate(150 * MINUTE, 180 * MINUTE));
+    }
+
+    @Test
+    public void lastTimeAtLevel() {
+        BatteryHistoryIndex index = createChargeThenDischarge();
+        assertEquals(60 * MINUTE, index.getLastTimeAtLevel(80));
+        assertEquals(180 * MINUTE, index.getLastTimeAtLevel(74));
+        assertEquals(-1, index.getLastTimeAtLevel(50));
+
+        // A point with the same data replaces the last one
+        index.addDataPoint(200 * MINUTE, 74, false);
+        assertEquals(200 * MINUTE, index.getLastTimeAtLevel(74));
+    }
+
+    @Test
+    public void truncatedHistory() {
+        BatteryHistoryIndex index = createChargeThenDischarge();
+        index.removeBefore(90 * MINUTE);
+
+        assertEquals(-1, index.getLastTimeAtLevel(80));
+        assertEquals(120 * MINUTE, index.getLastTimeAtLevel(78));
+        // The charge is gone, from the max level left: 4% in 1 hour
+        assertEquals(4.0, index.getUsageRateSinceMax(0, 0), 0);
+    }
+
+    @Test
+    public void usageRateSinceMax() {
+        Random random = new Random(1);
+        for (int history = 0; history < HISTORIES; history++) {
+            int targetCharge = 50 + random.nextInt(50);
+            BatteryHistoryIndex index = new BatteryHistoryIndex(targetCharge);
+            List<BatteryData> stored = new ArrayList<>();
+            int count = 200 + random.nextInt(1500);
+            int maxStored = 100 + random.nextInt(1000);
+            HistoryReplay replay = new HistoryReplay(random);
+
+            for (int i = 0; i < count; i++) {
+                replay.next(index, stored, maxStored);
+                long cutoffTime = replay.timestamp - (1 + random.nextInt(96)) * 3600000L;
+                int minDuration = random.nextInt(30);
+
+                Double expected = BatteryUtils.calculateBatteryUsageRateValueSinceMax(
+                    deduplicate(stored, cutoffTime), minDuration, targetCharge);
+                assertEquals("history " + history + ", point " + i, expected,
+                    index.getUsageRateSinceMax(cutoffTime, minDuration));
+            }
+        }
+    }
+
+    @Test
+    public void dischargeRateAndLastTimeAtLevel() {
+        Random random = new Random(2);
+        for (int history = 0; history < HISTORIES; history++) {
+            BatteryHistoryIndex index = new BatteryHistoryIndex(80);
+            List<BatteryData> stored = new ArrayList<>();
+            int count = 200 + random.nextInt(1500);
+            int maxStored = 100 + random.nextInt(1000);
+            HistoryReplay replay = new HistoryReplay(random);
+
+            for (int i = 0; i < count; i++) {
+                replay.next(index, stored, maxStored);
+                List<BatteryData> points = deduplicate(stored, Long.MIN_VALUE);
+
+                long toTime = replay.timestamp - random.nextInt(24) * 3600000L;
+                long fromTime = toTime - (1 + random.nextInt(96)) * 3600000L;
+                assertEquals("history " + history + ", point " + i, scanDischargeRate(points, fromTime, toTime),
+                    index.getDischargeRate(fromTime, toTime));
+
+                int level = random.nextInt(101);
+                assertEquals("history " + history + ", point " + i, scanLastTimeAtLevel(points, level),
+                    index.getLastTimeAtLevel(level));
+            }
+        }
+    }
+
+    /**
+     * Random history fed to both the index and a stored list trimmed to a maximum size.
+     */
+    private static class HistoryReplay {
+        private final Random random;
+        long timestamp = 1_000_000_000L;
+        private int level = 50;
+        private boolean charging;
+
+        HistoryReplay(Random random) {
+            this.random = random;
+            charging = random.nextBoolean();
+        }
+
+        void next(BatteryHistoryIndex index, List<BatteryData> stored, int maxStored) {
+            // Mostly short steps with a few long gaps, charging up to full and discharging with repeats
+            timestamp += 1000L * (1 + random.nextInt(random.nextInt(10) == 0 ? 7200 : 600));
+            if (random.nextInt(30) == 0) {
+                charging = !charging;
+            }
+            int step = charging ? random.nextInt(3) : -random.nextInt(2);
+            if (random.nextInt(20) == 0) {
+                step += random.nextInt(3) - 1;
+            }
+            level = Math.max(0, Math.min(100, level + step));
+
+            stored.add(new BatteryData(timestamp, level, charging));
+            index.addDataPoint(timestamp, level, charging);
+            if (stored.size() > maxStored) {
+                stored.subList(0, stored.size() - maxStored).clear();
+                index.removeBefore(stored.get(0).getTimestamp());
+            }
+        }
+    }
+
+    /**
+     * Points at or after the cutoff time, a point with the same data as the previous one replacing it,
+     * as {@link BatteryDataManager#getDataPoints(int)}.
+     */
+    private static List<BatteryData> deduplicate(List<BatteryData> stored, long cutoffTime) {
+        List<BatteryData> result = new ArrayList<>();
+        BatteryData previous = null;
+        for (BatteryData point : stored) {
+            if (point.getTimestamp() < cutoffTime) {
+                continue;
+            }
+            if (previous != null && previous.getLevel() == point.getLevel()
+                && previous.isCharging() == point.isCharging() && !result.isEmpty()) {
+                result.remove(result.size() - 1);
+            }
+            result.add(point);
+            previous = point;
+        }
+        return result;
+    }
+
+    private static Double scanDischargeRate(List<BatteryData> points, long fromTime, long toTime) {
+        long drop = 0;
+        long time = 0;
+        for (int i = 1; i < points.size(); i++) {
+            BatteryData previous = points.get(i - 1);
+            BatteryData point = points.get(i);
+            if (previous.getTimestamp() < fromTime || point.getTimestamp() > toTime || previous.isCharging()) {
+                continue;
+            }
+            drop += previous.getLevel() - point.getLevel();
+            time += point.getTimestamp() - previous.getTimestamp();
+        }
+        if (time <= 0 || drop <= 0) {
+            return null;
+        }
+        return drop / (time / 3600000.0);
+    }
+
+    /**
+     * Charge from 70% to the 80% target, then discharge to 74% two hours later.
+     */
+    private static BatteryHistoryIndex createChargeThenDischarge() {
+        BatteryHistoryIndex index = new BatteryHistoryIndex(80);
+        index.addDataPoint(0, 70, true);
+        index.addDataPoint(60 * MINUTE, 80, true);
+        index.addDataPoint(120 * MINUTE, 78, false);
+        index.addDataPoint(180 * MINUTE, 74, false);
+        return index;
+    }
+
+    private static long scanLastTimeAtLevel(List<BatteryData> points, int level) {
+        for (int i = points.size() - 1; i >= 0; i--) {
+            if (points.get(i).getLevel() == level) {
+                return points.get(i).getTimestamp();
+            }
+        }
+        return -1;
+    }
+}
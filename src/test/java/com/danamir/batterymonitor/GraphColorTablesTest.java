@@ -0,0 +1,132 @@
+package com.danamir.batterymonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Color;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Checks the graph color lookup tables on hand-computed colors, and against the color functions they
+ * replace: at most one unit per channel, for every level and usage rate.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class GraphColorTablesTest {
+    private static final int SAMPLES = 100000;
+
+    @Test
+    public void lineColorsOnTableEntries() {
+        GraphColorTables tables = createConfig().colorTables;
+
+        assertEquals(0xFF09A6D9, tables.getLineColor(50, true));
+        assertEquals(0xFFFF3B1B, tables.getLineColor(0, false));
+        assertEquals(0xFFFF3B1B, tables.getLineColor(20, false));
+        assertEquals(0xFFFFFF23, tables.getLineColor(35, false));
+        // Halfway of the 20% blend from the low color to the line color, channels truncated
+        assertEquals(0xFF7FEA14, tables.getLineColor(45, false));
+        assertEquals(0xFF00D505, tables.getLineColor(55, false));
+        assertEquals(0xFF00D505, tables.getLineColor(100, false));
+    }
+
+    @Test
+    public void usageColorsAtThresholds() {
+        GraphColorTables tables = createConfig().colorTables;
+
+        // At or below the low usage threshold of 1%/h, the color is kept
+        assertEquals(0x66000000, tables.getUsageBlendedColor(0x66000000, 0, false));
+        assertEquals(0x66000000, tables.getUsageBlendedColor(0x66000000, 1.0f, false));
+        // At or above the high usage threshold of 10%/h, the high usage color replaces it
+        assertEquals(0xBFFF00FF, tables.getUsageBlendedColor(0x66000000, 10.0f, false));
+        assertEquals(0xBFFF00FF, tables.getUsageBlendedColor(0x66000000, 50.0f, false));
+    }
+
+    @Test
+    public void defaultSettings() {
+        checkTables(createConfig());
+    }
+
+    @Test
+    public void steepCurveWithoutBlendRange() {
+        SharedPreferences prefs = getPreferences();
+        prefs.edit()
+            .putFloat("blend_curve", 100.0f)
+            .putBoolean("high_usage_blend", false)
+            .commit();
+        checkTables(createConfig());
+    }
+
+    @Test
+    public void translucentHighUsageColorWithShortGradient() {
+        SharedPreferences prefs = getPreferences();
+        prefs.edit()
+            .putFloat("blend_curve", 100.0f)
+            .putInt("high_usage_color", 0x40FF00FF)
+            .putInt("battery_blend_value", 1)
+            .commit();
+        checkTables(createConfig());
+    }
+
+    @Test
+    public void gradientWithoutBlending() {
+        SharedPreferences prefs = getPreferences();
+        prefs.edit()
+            .putInt("battery_blend_value", 0)
+            .commit();
+        checkTables(createConfig());
+    }
+
+    private static SharedPreferences getPreferences() {
+        Context context = ApplicationProvider.getApplicationContext();
+        return context.getSharedPreferences("graph_color_tables_test", Context.MODE_PRIVATE);
+    }
+
+    private static RenderConfig createConfig() {
+        return new RenderConfig(getPreferences(), 0);
+    }
+
+    private static void checkTables(RenderConfig config) {
+        GraphColorTables tables = config.colorTables;
+
+        for (int i = 0; i <= SAMPLES; i++) {
+            float level = 100.0f * i / SAMPLES;
+            for (int charging = 0; charging < 2; charging++) {
+                int expected = BatteryGraphGenerator.getBlendedLineColor(level, charging == 1, config.lineColor,
+                    config.lowColor, config.criticalColor, config.chargingColor, config.batteryLowLevel,
+                    config.batteryCriticalLevel, config.blendValue);
+                int actual = tables.getLineColor(level, charging == 1);
+                assertClose("level " + level, expected, actual);
+            }
+        }
+
+        for (int alpha = 0; alpha < 2; alpha++) {
+            int color = alpha == 1 ? config.lineColor : config.fillColor;
+            for (int i = 0; i <= SAMPLES; i++) {
+                // Up to twice the high usage threshold, past the end of the table
+                float usage = 2 * config.highUsageThreshold * i / SAMPLES;
+                int expected = BatteryGraphGenerator.getUsageBlendedColor(color, config.highUsageColor, usage,
+                    config.lowUsageThreshold, config.highUsageThreshold, config.highUsageBlend, alpha == 1,
+                    config.blendCurve);
+                int actual = tables.getUsageBlendedColor(color, usage, alpha == 1);
+                assertClose("usage " + usage + ", alpha " + (alpha == 1), expected, actual);
+            }
+        }
+    }
+
+    private static void assertClose(String message, int expected, int actual) {
+        boolean close = Math.abs(Color.red(expected) - Color.red(actual)) <= 1
+            && Math.abs(Color.green(expected) - Color.green(actual)) <= 1
+            && Math.abs(Color.blue(expected) - Color.blue(actual)) <= 1
+            && Math.abs(Color.alpha(expected) - Color.alpha(actual)) <= 1;
+        assertTrue(message + ": expected " + Integer.toHexString(expected) + ", got "
+            + Integer.toHexString(actual), close);
+    }
+}
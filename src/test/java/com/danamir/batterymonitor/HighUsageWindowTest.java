@@ -0,0 +1,226 @@
+package com.danamir.batterymonitor;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the sliding window on hand-computed series, and against the backward scan it replaces on random
+ * series: the median is bit-identical, and the mean only differs by the rounding of the running sum.
+ */
+public class HighUsageWindowTest {
+    private static final int POINTS = 5000;
+    private static final long MINUTE = 60 * 1000L;
+    // Relative difference allowed between the double running sum and the sequential float sum
+    private static final float MEAN_TOLERANCE = 1e-5f;
+    private static final String[] AVERAGES = {"mean", "median", "hybrid"};
+
+    @Test
+    public void emptyWindowReturnsCurrentRate() {
+        List<HybridBatteryData> dataPoints = new ArrayList<>();
+        for (String average : AVERAGES) {
+            assertEquals(average, 5.0f, new HighUsageWindow(dataPoints, 30).getAverageUsage(0, 5.0f, average), 0);
+        }
+
+        // A single point, then a second one at the same time: no step rate
+        dataPoints.add(createPoint(0, 80));
+        for (String average : AVERAGES) {
+            assertEquals(average, 5.0f, new HighUsageWindow(dataPoints, 30).getAverageUsage(0, 5.0f, average), 0);
+        }
+        dataPoints.add(createPoint(0, 79));
+        for (String average : AVERAGES) {
+            assertEquals(average, 5.0f, new HighUsageWindow(dataPoints, 30).getAverageUsage(0, 5.0f, average), 0);
+        }
+    }
+
+    @Test
+    public void allEqualRates() {
+        // 1% every 30 minutes: 2%/h
+        List<HybridBatteryData> dataPoints = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            dataPoints.add(createPoint(i * 30 * MINUTE, 100 - i));
+        }
+        for (String average : AVERAGES) {
+            HighUsageWindow window = new HighUsageWindow(dataPoints, 120);
+            for (int i = 1; i < dataPoints.size(); i++) {
+                assertEquals(average, 2.0f, window.getAverageUsage(i * 30 * MINUTE, 2.0f, average), 0);
+            }
+        }
+    }
+
+    @Test
+    public void meanAndMedianOfWindow() {
+        // Steps of 2%/h then 4%/h
+        List<HybridBatteryData> dataPoints = new ArrayList<>();
+        dataPoints.add(createPoint(0, 100));
+        dataPoints.add(createPoint(30 * MINUTE, 99));
+        dataPoints.add(createPoint(60 * MINUTE, 97));
+
+        // Window of both steps and the current rate: 4, 4 and 2
+        assertEquals(10.0f / 3, new HighUsageWindow(dataPoints, 30).getAverageUsage(60 * MINUTE, 4.0f, "mean"), 0);
+        assertEquals(4.0f, new HighUsageWindow(dataPoints, 30).getAverageUsage(60 * MINUTE, 4.0f, "median"), 0);
+        assertEquals((10.0f / 3 + 4.0f) / 2, new HighUsageWindow(dataPoints, 30).getAverageUsage(60 * MINUTE, 4.0f,
+            "hybrid"), 1e-6f);
+
+        // Even number of rates, 2 and 6: the median averages the two middle ones
+        assertEquals(4.0f, new HighUsageWindow(dataPoints, 30).getAverageUsage(30 * MINUTE, 6.0f, "median"), 0);
+    }
+
+    @Test
+    public void windowShorterThanOneStep() {
+        List<HybridBatteryData> dataPoints = new ArrayList<>();
+        dataPoints.add(createPoint(0, 100));
+        dataPoints.add(createPoint(30 * MINUTE, 99));
+        dataPoints.add(createPoint(60 * MINUTE, 97));
+
+        // Only the step ending at the segment end is in the window: 4 and the current rate
+        HighUsageWindow window = new HighUsageWindow(dataPoints, 10);
+        assertEquals(2.0f, window.getAverageUsage(30 * MINUTE, 2.0f, "median"), 0);
+        assertEquals(2.5f, window.getAverageUsage(60 * MINUTE, 1.0f, "median"), 0);
+        window = new HighUsageWindow(dataPoints, 10);
+        assertEquals(2.5f, window.getAverageUsage(60 * MINUTE, 1.0f, "mean"), 0);
+    }
+
+    @Test
+    public void regularPreciseSeries() {
+        checkAgainstScan(createSeries(1, 60000, false, false), 30);
+    }
+
+    @Test
+    public void irregularSeriesWithDuplicateTimes() {
+        checkAgainstScan(createSeries(2, -1, false, false), 5);
+    }
+
+    @Test
+    public void integerSeriesWithCharging() {
+        checkAgainstScan(createSeries(3, 60000, true, true), 120);
+    }
+
+    @Test
+    public void windowShorterThanSteps() {
+        checkAgainstScan(createSeries(4, -1, true, true), 1);
+    }
+
+    /**
+     * @param seed Random seed
+     * @param interval Time between points in ms, or -1 for random steps of 0 to 90 s
+     * @param integer Whether the levels are rounded
+     * @param charging Whether some steps are charging
+     */
+    private static List<HybridBatteryData> createSeries(long seed, long interval, boolean integer,
+                                                        boolean charging) {
+        Random random = new Random(seed);
+        List<HybridBatteryData> dataPoints = new ArrayList<>();
+        long timestamp = 0;
+        float level = 80;
+        for (int i = 0; i < POINTS; i++) {
+            timestamp += interval >= 0 ? interval : random.nextInt(4) * 30000L;
+            level += (random.nextFloat() - (charging && random.nextInt(10) == 0 ? 0.2f : 0.6f)) * 0.5f;
+            float value = integer ? Math.round(level) : level;
+            dataPoints.add(new HybridBatteryData(timestamp, Math.round(value), value,
+                charging && random.nextInt(10) == 0, !integer));
+        }
+        return dataPoints;
+    }
+
+    private static void checkAgainstScan(List<HybridBatteryData> dataPoints, int rangeMinutes) {
+        for (String average : AVERAGES) {
+            HighUsageWindow window = new HighUsageWindow(dataPoints, rangeMinutes);
+            for (int i = 1; i < dataPoints.size(); i++) {
+                float currentRate = getSegmentRate(dataPoints.get(i - 1), dataPoints.get(i));
+                float expected = scanAverageUsage(dataPoints, i, rangeMinutes, average);
+                float actual = Math.max(currentRate,
+                    window.getAverageUsage(dataPoints.get(i).getTimestamp(), currentRate, average));
+
+                String message = average + ", point " + i;
+                if (average.equals("median")) {
+                    assertEquals(message, Float.floatToIntBits(expected), Float.floatToIntBits(actual));
+                } else {
+                    assertEquals(message, expected, actual, MEAN_TOLERANCE * Math.max(1.0f, Math.abs(expected)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Average usage of a segment with a backward scan of the series, as drawGraph computed it.
+     */
+    private static float scanAverageUsage(List<HybridBatteryData> dataPoints, int index, int rangeMinutes,
+                                          String average) {
+        HybridBatteryData data = dataPoints.get(index);
+        long rangeStartTime = data.getTimestamp() - rangeMinutes * 60 * 1000L;
+        float currentRate = getSegmentRate(dataPoints.get(index - 1), data);
+
+        List<Float> usageRates = new ArrayList<>();
+        usageRates.add(currentRate);
+        for (int j = dataPoints.size() - 1; j >= 0; j--) {
+            HybridBatteryData point = dataPoints.get(j);
+            if (point.getTimestamp() > data.getTimestamp()) {
+                continue;
+            }
+            if (point.getTimestamp() < rangeStartTime) {
+                break;
+            }
+            if (j > 0 && point.getTimestamp() > dataPoints.get(j - 1).getTimestamp()) {
+                usageRates.add(getSegmentRate(dataPoints.get(j - 1), point));
+            }
+        }
+        return Math.max(currentRate, getAverageUsage(average, usageRates));
+    }
+
+    /**
+     * Average of the rates with a sorted copy, as drawGraph computed it.
+     */
+    private static float getAverageUsage(String highUsageAverage, List<Float> usageRates) {
+        if (usageRates.size() == 1) {
+            return usageRates.get(0);
+        }
+
+        float meanUsage = 0;
+        float medianUsage = 0;
+
+        if (highUsageAverage.equals("mean") || highUsageAverage.equals("hybrid")) {
+            float sum = 0.0f;
+            for (float rate : usageRates) {
+                sum += rate;
+            }
+            meanUsage = sum / usageRates.size();
+        }
+
+        if (highUsageAverage.equals("median") || highUsageAverage.equals("hybrid")) {
+            List<Float> sortedRates = new ArrayList<>(usageRates);
+            Collections.sort(sortedRates);
+            int size = sortedRates.size();
+            if (size % 2 == 0) {
+                medianUsage = (sortedRates.get(size / 2 - 1) + sortedRates.get(size / 2)) / 2.0f;
+            } else {
+                medianUsage = sortedRates.get(size / 2);
+            }
+        }
+
+        if (highUsageAverage.equals("hybrid")) {
+            return meanUsage * 0.5f + medianUsage * 0.5f;
+        } else if (highUsageAverage.equals("mean")) {
+            return meanUsage;
+        }
+        return medianUsage;
+    }
+
+    private static HybridBatteryData createPoint(long timestamp, float level) {
+        return new HybridBatteryData(timestamp, Math.round(level), level, false, true);
+    }
+
+    private static float getSegmentRate(HybridBatteryData previous, HybridBatteryData data) {
+        long timeDelta = data.getTimestamp() - previous.getTimestamp();
+        if (timeDelta <= 0) {
+            return 0.0f;
+        }
+        float levelDelta = previous.getBatteryLevel() - data.getBatteryLevel();
+        return levelDelta / (timeDelta / 3600000.0f);
+    }
+}
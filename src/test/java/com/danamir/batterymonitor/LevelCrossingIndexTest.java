@@ -0,0 +1,91 @@
+package com.danamir.batterymonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks the crossing times and the level band weighting on hand-computed histories.
+ */
+public class LevelCrossingIndexTest {
+    private static final long MINUTE = 60 * 1000L;
+
+    @Test
+    public void emptyIndex() {
+        LevelCrossingIndex index = new LevelCrossingIndex();
+        assertEquals(0, index.getSessionCount());
+        assertEquals(-1, index.getLastCrossingTime(50));
+        assertEquals(-1, index.getCrossingTime(0, 50));
+        assertEquals(30.0, index.getEquivalentLevels(false, 50, 20), 0);
+    }
+
+    @Test
+    public void skippedLevelsAreInterpolated() {
+        LevelCrossingIndex index = new LevelCrossingIndex();
+        index.onSample(0, 80, false);
+        index.onSample(60 * MINUTE, 77, false);
+
+        // The session start level, then one level every 20 minutes
+        assertEquals(0, index.getLastCrossingTime(80));
+        assertEquals(20 * MINUTE, index.getLastCrossingTime(79));
+        assertEquals(40 * MINUTE, index.getLastCrossingTime(78));
+        assertEquals(60 * MINUTE, index.getLastCrossingTime(77));
+        assertEquals(-1, index.getLastCrossingTime(76));
+        assertEquals(-1, index.getLastCrossingTime(101));
+    }
+
+    @Test
+    public void crossingsPerSession() {
+        LevelCrossingIndex index = new LevelCrossingIndex();
+        index.onSample(0, 80, false);
+        index.onSample(60 * MINUTE, 77, false);
+        index.onSample(90 * MINUTE, 77, true);
+        index.onSample(110 * MINUTE, 79, true);
+
+        assertEquals(2, index.getSessionCount());
+        assertTrue(index.isSessionCharging(0));
+        assertFalse(index.isSessionCharging(1));
+        assertEquals(90 * MINUTE, index.getSessionStart(0));
+        assertEquals(0, index.getSessionStart(1));
+
+        // Reached discharging then charging: the last crossing is the charging one
+        assertEquals(40 * MINUTE, index.getCrossingTime(1, 78));
+        assertEquals(100 * MINUTE, index.getCrossingTime(0, 78));
+        assertEquals(100 * MINUTE, index.getLastCrossingTime(78));
+        assertEquals(-1, index.getCrossingTime(0, 80));
+        assertEquals(-1, index.getCrossingTime(2, 78));
+    }
+
+    @Test
+    public void levelsAgainstSessionDirectionAreIgnored() {
+        LevelCrossingIndex index = new LevelCrossingIndex();
+        index.onSample(0, 50, false);
+        index.onSample(10 * MINUTE, 51, false);
+        index.onSample(20 * MINUTE, 50, false);
+
+        assertEquals(-1, index.getLastCrossingTime(51));
+        assertEquals(0, index.getLastCrossingTime(50));
+    }
+
+    @Test
+    public void equivalentLevelsFollowBandRates() {
+        LevelCrossingIndex index = new LevelCrossingIndex();
+        // The first level of the session is not counted, then 0.2 h per level from 59 to 55,
+        // and 0.4 h per level from 54 to 50: mean of 0.3 h per level
+        index.onSample(0, 60, false);
+        index.onSample(60 * MINUTE, 59, false);
+        index.onSample(120 * MINUTE, 54, false);
+        index.onSample(240 * MINUTE, 49, false);
+
+        assertEquals(10.0 / 3, index.getEquivalentLevels(false, 59, 54), 1e-9);
+        assertEquals(20.0 / 3, index.getEquivalentLevels(false, 54, 49), 1e-9);
+        // Bands without data count at the mean rate
+        assertEquals(9 + 20.0 / 3, index.getEquivalentLevels(false, 54, 40), 1e-9);
+        // Half a level in the slower band
+        assertEquals(2.0 / 3, index.getEquivalentLevels(false, 50.5f, 50), 1e-9);
+        // No charging data
+        assertEquals(30.0, index.getEquivalentLevels(true, 50, 80), 0);
+    }
+}
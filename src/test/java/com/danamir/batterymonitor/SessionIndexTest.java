@@ -0,0 +1,138 @@
+package com.danamir.batterymonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Checks the session records and queries on hand-computed histories.
+ */
+public class SessionIndexTest {
+    private static final long MINUTE = 60 * 1000L;
+
+    @Test
+    public void emptyIndex() {
+        SessionIndex sessions = new SessionIndex(80);
+        assertEquals(0, sessions.getSessionCount());
+        assertNull(sessions.getSession(0));
+        assertTrue(sessions.getSessions(5).isEmpty());
+        assertNull(sessions.getLastChargeReaching(80));
+        assertNull(sessions.getAverageDischargeRate(5));
+    }
+
+    @Test
+    public void sessionRecords() {
+        SessionIndex sessions = createDischargeChargeDischarge();
+        assertEquals(3, sessions.getSessionCount());
+
+        // Completed sessions end at the start of the next one
+        BatterySession discharge = sessions.getSession(2);
+        assertFalse(discharge.isCharging());
+        assertEquals(0, discharge.getStartTime());
+        assertEquals(150 * MINUTE, discharge.getEndTime());
+        assertEquals(90, discharge.getStartLevel());
+        assertEquals(70, discharge.getEndLevel());
+        assertEquals(70, discharge.getMinLevel());
+        assertEquals(90, discharge.getMaxLevel());
+        assertFalse(discharge.isExcludedFromStats());
+        assertFalse(discharge.isOngoing());
+
+        BatterySession charge = sessions.getSession(1);
+        assertTrue(charge.isCharging());
+        assertEquals(150 * MINUTE, charge.getStartTime());
+        assertEquals(240 * MINUTE, charge.getEndTime());
+        assertEquals(84, charge.getEndLevel());
+        assertEquals(85, charge.getMaxLevel());
+
+        // The ongoing session ends at its last sample
+        BatterySession current = sessions.getSession(0);
+        assertTrue(current.isOngoing());
+        assertEquals(300 * MINUTE, current.getEndTime());
+        assertEquals(78, current.getEndLevel());
+        assertNull(sessions.getSession(3));
+    }
+
+    @Test
+    public void queriesByCountAndTime() {
+        SessionIndex sessions = createDischargeChargeDischarge();
+
+        List<BatterySession> recent = sessions.getSessions(2);
+        assertEquals(2, recent.size());
+        assertEquals(150 * MINUTE, recent.get(0).getStartTime());
+        assertEquals(240 * MINUTE, recent.get(1).getStartTime());
+        assertEquals(3, sessions.getSessions(10).size());
+
+        assertEquals(3, sessions.getSessionsSince(150 * MINUTE).size());
+        assertEquals(2, sessions.getSessionsSince(151 * MINUTE).size());
+        assertTrue(sessions.getSessionsSince(301 * MINUTE).isEmpty());
+    }
+
+    @Test
+    public void lastChargeAndAverageDrain() {
+        SessionIndex sessions = createDischargeChargeDischarge();
+
+        assertEquals(150 * MINUTE, sessions.getLastChargeReaching(80).getStartTime());
+        assertNull(sessions.getLastChargeReaching(86));
+
+        // Only the completed discharge counts: 20% in 2.5 hours
+        assertEquals(8.0, sessions.getAverageDischargeRate(5), 0);
+        assertNull(sessions.getAverageDischargeRate(0));
+    }
+
+    @Test
+    public void screenOnTime() {
+        SessionIndex sessions = createDischargeChargeDischarge();
+        sessions.addScreenOnInterval(100 * MINUTE, 160 * MINUTE);
+        // The ongoing session counts the period past its last sample
+        sessions.addScreenOnInterval(280 * MINUTE, 320 * MINUTE);
+
+        assertEquals(50 * MINUTE, sessions.getSession(2).getScreenOnTime());
+        assertEquals(10 * MINUTE, sessions.getSession(1).getScreenOnTime());
+        assertEquals(40 * MINUTE, sessions.getSession(0).getScreenOnTime());
+    }
+
+    @Test
+    public void chargeNearFullIsExcludedFromStats() {
+        SessionIndex sessions = new SessionIndex(80);
+        sessions.onSample(0, 90, true);
+        sessions.onSample(30 * MINUTE, 96, true);
+        assertTrue(sessions.getSession(0).isExcludedFromStats());
+
+        // A single sample has no level change to count
+        sessions.onSample(60 * MINUTE, 95, false);
+        assertTrue(sessions.getSession(0).isExcludedFromStats());
+    }
+
+    @Test
+    public void removeBefore() {
+        SessionIndex sessions = createDischargeChargeDischarge();
+        sessions.removeBefore(200 * MINUTE);
+        assertEquals(2, sessions.getSessionCount());
+        assertTrue(sessions.getSession(1).isCharging());
+
+        // The current session is always kept
+        sessions.removeBefore(400 * MINUTE);
+        assertEquals(1, sessions.getSessionCount());
+        assertTrue(sessions.getSession(0).isOngoing());
+    }
+
+    /**
+     * Discharge from 90% to 70%, charge to 85%, then discharge from 84% to 78%.
+     */
+    private static SessionIndex createDischargeChargeDischarge() {
+        SessionIndex sessions = new SessionIndex(80);
+        sessions.onSample(0, 90, false);
+        sessions.onSample(60 * MINUTE, 75, false);
+        sessions.onSample(120 * MINUTE, 70, false);
+        sessions.onSample(150 * MINUTE, 70, true);
+        sessions.onSample(210 * MINUTE, 85, true);
+        sessions.onSample(240 * MINUTE, 84, false);
+        sessions.onSample(300 * MINUTE, 78, false);
+        return sessions;
+    }
+}
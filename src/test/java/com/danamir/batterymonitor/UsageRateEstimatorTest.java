@@ -0,0 +1,219 @@
+package com.danamir.batterymonitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the incremental usage rate on hand-computed histories, and against the list based calculation
+ * on randomized histories: every answer the estimator gives as exact is identical to the backward scan.
+ */
+public class UsageRateEstimatorTest {
+    private static final int HISTORIES = 20;
+    private static final long MINUTE = 60 * 1000L;
+
+    @Test
+    public void emptyAndSinglePoint() {
+        UsageRateEstimator estimator = new UsageRateEstimator(null, true);
+        assertTrue(estimator.isExact(0));
+        assertNull(estimator.getRate(0, 0));
+
+        estimator.onSample(0, 80, false);
+        assertTrue(estimator.isExact(0));
+        assertNull(estimator.getRate(0, 0));
+    }
+
+    @Test
+    public void wholeDischargePeriod() {
+        UsageRateEstimator estimator = new UsageRateEstimator(null, true);
+        estimator.onSample(0, 80, false);
+        estimator.onSample(60 * MINUTE, 76, false);
+        estimator.onSample(120 * MINUTE, 70, false);
+
+        // 10% in 2 hours
+        assertEquals(5.0, estimator.getRate(0, 0), 0);
+        assertNull(estimator.getRate(0, 180));
+        // Nothing in range after the last point
+        assertNull(estimator.getRate(121 * MINUTE, 0));
+    }
+
+    @Test
+    public void maxDurationStopsAtFirstOlderPoint() {
+        UsageRateEstimator estimator = new UsageRateEstimator(60, true);
+        estimator.onSample(0, 80, false);
+        estimator.onSample(30 * MINUTE, 78, false);
+        estimator.onSample(60 * MINUTE, 75, false);
+        estimator.onSample(90 * MINUTE, 70, false);
+
+        // From the point at 30 minutes, the first one at least an hour old: 8% in 1 hour
+        assertEquals(8.0, estimator.getRate(0, 0), 0);
+    }
+
+    @Test
+    public void chargingPeriodAfterDischarge() {
+        UsageRateEstimator estimator = new UsageRateEstimator(null, true);
+        estimator.onSample(0, 55, false);
+        estimator.onSample(10 * MINUTE, 50, false);
+        estimator.onSample(20 * MINUTE, 50, true);
+        estimator.onSample(50 * MINUTE, 60, true);
+
+        // 10% charged in 30 minutes
+        assertEquals(20.0, estimator.getRate(0, 0), 0);
+    }
+
+    @Test
+    public void sameLevelPointsAreCollapsed() {
+        UsageRateEstimator estimator = new UsageRateEstimator(null, true);
+        estimator.onSample(0, 80, false);
+        estimator.onSample(30 * MINUTE, 80, false);
+        estimator.onSample(60 * MINUTE, 79, false);
+
+        // The first point moved to 30 minutes: 1% in 30 minutes
+        assertEquals(2.0, estimator.getRate(0, 0), 0);
+    }
+
+    @Test
+    public void truncatedHistoryIsNotExact() {
+        UsageRateEstimator estimator = new UsageRateEstimator(null, true);
+        estimator.onSample(0, 80, false);
+        estimator.onSample(60 * MINUTE, 75, false);
+        estimator.onSample(120 * MINUTE, 70, false);
+        estimator.onHistoryTruncated(0);
+
+        // The scan reaches the first kept point, older points may have changed the answer
+        assertFalse(estimator.isExact(0));
+    }
+
+    @Test
+    public void truncationAtMaxSize() {
+        // A single period never lets the scan stop, the kept points are limited
+        UsageRateEstimator unlimited = new UsageRateEstimator(null, false);
+        UsageRateEstimator limited = new UsageRateEstimator(60, false);
+        for (int i = 0; i <= 20000; i++) {
+            unlimited.onSample(i * MINUTE, 100 - i * 0.25f, false);
+            limited.onSample(i * MINUTE, 100 - i * 0.25f, false);
+        }
+        assertFalse(unlimited.isExact(0));
+        assertFalse(unlimited.isExact(10000 * MINUTE));
+
+        // With a max duration the scan stops an hour back: 15% in 1 hour
+        assertTrue(limited.isExact(0));
+        assertEquals(15.0, limited.getRate(0, 0), 0);
+    }
+
+    @Test
+    public void integerHistoryWithMaxDuration() {
+        checkAgainstScan(1, true, 10);
+    }
+
+    @Test
+    public void integerHistoryWithoutMaxDuration() {
+        checkAgainstScan(2, true, null);
+    }
+
+    @Test
+    public void preciseHistoryWithMaxDuration() {
+        checkAgainstScan(3, false, 30);
+    }
+
+    @Test
+    public void preciseHistoryWithoutMaxDuration() {
+        checkAgainstScan(4, false, null);
+    }
+
+    /**
+     * Replay random histories, and after each point compare the rate for a random display cutoff and
+     * minimum duration.
+     * @param seed Random seed
+     * @param integer Integer levels collapsed on identical points, or precise levels
+     * @param maxDuration Usage calculation time in minutes, null for the whole current period
+     */
+    private static void checkAgainstScan(long seed, boolean integer, Integer maxDuration) {
+        Random random = new Random(seed);
+        int checks = 0;
+        int inexact = 0;
+
+        for (int history = 0; history < HISTORIES; history++) {
+            UsageRateEstimator estimator = new UsageRateEstimator(maxDuration, integer);
+            List<HybridBatteryData> hybridPoints = new ArrayList<>();
+            List<BatteryData> integerPoints = new ArrayList<>();
+            long timestamp = 1_000_000_000L;
+            float level = 50;
+            boolean charging = random.nextBoolean();
+            int count = 200 + random.nextInt(1000);
+
+            for (int i = 0; i < count; i++) {
+                // Mostly short steps with a few long gaps, and both short and long charging periods
+                timestamp += 1000L * (1 + random.nextInt(random.nextInt(10) == 0 ? 3600 : 120));
+                if (random.nextInt(random.nextBoolean() ? 3 : 40) == 0) {
+                    charging = !charging;
+                }
+                if (integer) {
+                    level = Math.max(0, Math.min(100, level + random.nextInt(3) - 1));
+                } else {
+                    level = Math.max(0, Math.min(100, level + random.nextFloat() - 0.5f));
+                }
+
+                estimator.onSample(timestamp, level, charging);
+                if (integer && !hybridPoints.isEmpty()) {
+                    // Identical consecutive points are collapsed, as getDataPoints()
+                    HybridBatteryData last = hybridPoints.get(hybridPoints.size() - 1);
+                    if (last.getBatteryLevel() == level && last.isCharging() == charging) {
+                        hybridPoints.remove(hybridPoints.size() - 1);
+                        integerPoints.remove(integerPoints.size() - 1);
+                    }
+                }
+                hybridPoints.add(new HybridBatteryData(timestamp, Math.round(level), level, charging, !integer));
+                integerPoints.add(new BatteryData(timestamp, (int) level, charging));
+
+                long cutoffTime = timestamp - (1 + random.nextInt(48)) * 3600000L;
+                int minDuration = random.nextInt(15);
+                if (!estimator.isExact(cutoffTime)) {
+                    inexact++;
+                    continue;
+                }
+
+                Double expected = BatteryUtils.calculateBatteryUsageRateValueHybrid(
+                    hybridSince(hybridPoints, cutoffTime), minDuration, maxDuration);
+                assertEquals("history " + history + ", point " + i, expected,
+                    estimator.getRate(cutoffTime, minDuration));
+                if (integer) {
+                    assertEquals("history " + history + ", point " + i, expected,
+                        BatteryUtils.calculateBatteryUsageRateValue(integerSince(integerPoints, cutoffTime),
+                            minDuration, maxDuration));
+                }
+                checks++;
+            }
+        }
+
+        // The list based fallback is the exception
+        assertTrue(checks + " exact answers, " + inexact + " fallbacks", checks > 20 * inexact);
+    }
+
+    private static List<HybridBatteryData> hybridSince(List<HybridBatteryData> points, long cutoffTime) {
+        List<HybridBatteryData> result = new ArrayList<>();
+        for (HybridBatteryData point : points) {
+            if (point.getTimestamp() >= cutoffTime) {
+                result.add(point);
+            }
+        }
+        return result;
+    }
+
+    private static List<BatteryData> integerSince(List<BatteryData> points, long cutoffTime) {
+        List<BatteryData> result = new ArrayList<>();
+        for (BatteryData point : points) {
+            if (point.getTimestamp() >= cutoffTime) {
+                result.add(point);
+            }
+        }
+        return result;
+    }
+}